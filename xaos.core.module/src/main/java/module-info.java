@@ -21,7 +21,9 @@
 module xaos.core {
 
 	requires java.logging;
+	requires transitive java.management;
 	requires transitive io.reactivex.rxjava2;
+	requires transitive org.reactivestreams;
 
 	exports se.europeanspallationsource.xaos.core.util;
 	exports se.europeanspallationsource.xaos.core.util.io;
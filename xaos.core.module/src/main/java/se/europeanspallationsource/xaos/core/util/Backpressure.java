@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util;
+
+
+import io.reactivex.BackpressureOverflowStrategy;
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import java.text.MessageFormat;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+
+/**
+ * A strategy converting an unbounded {@link Observable} into a
+ * {@link Flowable} whose memory footprint does not grow when subscribers are
+ * slower than the source. Three strategies are available:
+ * <ul>
+ *   <li>{@link #latestPerKey()}: pending items with the same key (e.g. the
+ *     same path) are conflated, keeping the position of the first one;
+ *     memory is bounded by the number of distinct keys;</li>
+ *   <li>{@link #buffer(int)}: up to the given number of items are buffered,
+ *     dropping the oldest ones on overflow;</li>
+ *   <li>{@link #drop()}: items are dropped while the subscriber has no
+ *     outstanding requests.</li>
+ * </ul>
+ * <p>
+ * The number of conflated and dropped items is available through
+ * {@link #getMetrics()}.</p>
+ * <p>
+ * Usage:</p>
+ * <pre>
+ *   Backpressure backpressure = Backpressure.latestPerKey();
+ *
+ *   watcher.events(backpressure)
+ *     .observeOn(Schedulers.single())
+ *     .subscribe(event -&gt; ...);
+ *   ...
+ *   long conflated = backpressure.getMetrics().getConflated();</pre>
+ *
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( "ClassWithoutLogger" )
+public final class Backpressure {
+
+	/**
+	 * @param capacity The maximum number of buffered items.
+	 * @return A {@link Backpressure} buffering up to {@code capacity} items,
+	 *         and dropping the oldest ones on overflow.
+	 * @throws IllegalArgumentException If {@code capacity} is less than 1.
+	 */
+	public static Backpressure buffer( int capacity ) throws IllegalArgumentException {
+
+		if ( capacity < 1 ) {
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'capacity' must be greater than 0 [{0}].",
+				capacity
+			));
+		}
+
+		return new Backpressure(Kind.BUFFER, capacity);
+
+	}
+
+	/**
+	 * @return A {@link Backpressure} dropping the items received while the
+	 *         subscriber has no outstanding requests.
+	 */
+	public static Backpressure drop() {
+		return new Backpressure(Kind.DROP, 0);
+	}
+
+	/**
+	 * @return A {@link Backpressure} conflating the pending items having the
+	 *         same key.
+	 */
+	public static Backpressure latestPerKey() {
+		return new Backpressure(Kind.LATEST_PER_KEY, 0);
+	}
+
+	private final int capacity;
+	private final Kind kind;
+	private final BackpressureMetrics metrics = new BackpressureMetrics();
+
+	private Backpressure( Kind kind, int capacity ) {
+		this.capacity = capacity;
+		this.kind = kind;
+	}
+
+	/**
+	 * Returns a {@link Flowable} emitting the items of the given source
+	 * according to this strategy. When conflating, a pending item is replaced
+	 * by the newer one with the same key.
+	 *
+	 * @param <T>    The type of the items.
+	 * @param source The unbounded source of items.
+	 * @param keyOf  The function returning the key of an item.
+	 * @return A {@link Flowable} of the source's items.
+	 */
+	public <T> Flowable<T> apply( Observable<T> source, Function<? super T, ?> keyOf ) {
+		return apply(source, keyOf, ( older, newer ) -> newer);
+	}
+
+	/**
+	 * Returns a {@link Flowable} emitting the items of the given source
+	 * according to this strategy. When conflating, a pending item is merged
+	 * with the newer one with the same key by the given {@code merger}.
+	 *
+	 * @param <T>    The type of the items.
+	 * @param source The unbounded source of items.
+	 * @param keyOf  The function returning the key of an item.
+	 * @param merger The function merging a pending item with a newer one
+	 *               having the same key. It can return {@code null} if the
+	 *               two items cancel each other, in which case nothing
+	 *               is emitted for them.
+	 * @return A {@link Flowable} of the source's items.
+	 */
+	public <T> Flowable<T> apply( Observable<T> source, Function<? super T, ?> keyOf, BinaryOperator<T> merger ) {
+		switch ( kind ) {
+			case BUFFER:
+				return source.toFlowable(BackpressureStrategy.MISSING).onBackpressureBuffer(
+					capacity,
+					metrics::dropped,
+					BackpressureOverflowStrategy.DROP_OLDEST
+				);
+			case DROP:
+				return source.toFlowable(BackpressureStrategy.MISSING).onBackpressureDrop(item -> metrics.dropped());
+			case LATEST_PER_KEY:
+			default:
+				return new ConflatingFlowable<>(source, keyOf, merger, metrics);
+		}
+	}
+
+	/**
+	 * @return The counters of the items conflated or dropped by the
+	 *         {@link Flowable}s returned by this instance.
+	 */
+	public BackpressureMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public String toString() {
+		return MessageFormat.format("Backpressure[{0}, capacity: {1}, {2}]", kind, capacity, metrics);
+	}
+
+	private enum Kind {
+		BUFFER,
+		DROP,
+		LATEST_PER_KEY
+	}
+
+}
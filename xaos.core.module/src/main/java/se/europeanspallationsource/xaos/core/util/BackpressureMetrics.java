@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util;
+
+
+import java.text.MessageFormat;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Counters of the items discarded by a {@link Backpressure} strategy
+ * because of slow subscribers. The counters are accumulated over all the
+ * {@link io.reactivex.Flowable}s created by the same {@link Backpressure}
+ * instance.
+ *
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( "ClassWithoutLogger" )
+public final class BackpressureMetrics {
+
+	private final LongAdder conflated = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+
+	BackpressureMetrics() {
+	}
+
+	/**
+	 * @return The number of items merged into (or replaced by) a following
+	 *         item with the same key, before being delivered.
+	 */
+	public long getConflated() {
+		return conflated.sum();
+	}
+
+	/**
+	 * @return The number of items dropped without being delivered.
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Resets both counters to zero.
+	 */
+	public void reset() {
+		conflated.reset();
+		dropped.reset();
+	}
+
+	@Override
+	public String toString() {
+		return MessageFormat.format(
+			"BackpressureMetrics[conflated: {0}, dropped: {1}]",
+			getConflated(),
+			getDropped()
+		);
+	}
+
+	void conflated() {
+		conflated.increment();
+	}
+
+	void dropped() {
+		dropped.increment();
+	}
+
+}
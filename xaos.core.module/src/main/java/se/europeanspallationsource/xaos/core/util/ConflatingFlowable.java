@@ -0,0 +1,298 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util;
+
+
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.reactivex.Observer;
+import io.reactivex.disposables.Disposable;
+import java.text.MessageFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+
+/**
+ * A {@link Flowable} subscribing an unbounded {@link Observable}, and keeping
+ * the items not yet requested downstream in a map by key: a new item whose
+ * key is already pending is merged with the pending one, which keeps its
+ * position. Pending items are emitted in order of first occurrence.
+ *
+ * @param <T> The type of the items.
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( "ClassWithoutLogger" )
+class ConflatingFlowable<T> extends Flowable<T> {
+
+	private final Function<? super T, ?> keyOf;
+	private final BinaryOperator<T> merger;
+	private final BackpressureMetrics metrics;
+	private final Observable<T> source;
+
+	ConflatingFlowable( Observable<T> source, Function<? super T, ?> keyOf, BinaryOperator<T> merger, BackpressureMetrics metrics ) {
+		this.keyOf = keyOf;
+		this.merger = merger;
+		this.metrics = metrics;
+		this.source = source;
+	}
+
+	@Override
+	protected void subscribeActual( Subscriber<? super T> subscriber ) {
+
+		ConflatingSubscription conflating = new ConflatingSubscription(subscriber);
+
+		subscriber.onSubscribe(conflating);
+		source.subscribe(conflating);
+
+	}
+
+	/**
+	 * The outstanding requests are kept in {@link #requested}, while
+	 * {@link #wip} guarantees that a single thread at a time drains the
+	 * pending items.
+	 */
+	private class ConflatingSubscription implements Observer<T>, Subscription {
+
+		private volatile boolean cancelled = false;
+		private final Subscriber<? super T> downstream;
+		private volatile boolean done = false;
+		private Throwable error;
+		private final Map<Object, T> pending = new LinkedHashMap<>();
+		private final AtomicLong requested = new AtomicLong();
+		private volatile Disposable upstream;
+		private final AtomicInteger wip = new AtomicInteger();
+
+		ConflatingSubscription( Subscriber<? super T> downstream ) {
+			this.downstream = downstream;
+		}
+
+		@Override
+		public void cancel() {
+
+			cancelled = true;
+
+			Disposable disposable = upstream;
+
+			if ( disposable != null ) {
+				disposable.dispose();
+			}
+
+			if ( wip.getAndIncrement() == 0 ) {
+				clear();
+			}
+
+		}
+
+		@Override
+		public void onComplete() {
+			done = true;
+			drain();
+		}
+
+		@Override
+		public void onError( Throwable e ) {
+			error = e;
+			done = true;
+			drain();
+		}
+
+		@Override
+		public void onNext( T item ) {
+
+			Object key = keyOf.apply(item);
+
+			synchronized ( pending ) {
+
+				T older = pending.get(key);
+
+				if ( older == null ) {
+					pending.put(key, item);
+				} else {
+
+					T merged = merger.apply(older, item);
+
+					if ( merged == null ) {
+
+						//	Both items cancelled each other.
+						metrics.conflated();
+						metrics.conflated();
+						pending.remove(key);
+
+					} else {
+						metrics.conflated();
+						pending.put(key, merged);
+					}
+
+				}
+
+			}
+
+			drain();
+
+		}
+
+		@Override
+		public void onSubscribe( Disposable d ) {
+
+			upstream = d;
+
+			if ( cancelled ) {
+				d.dispose();
+			}
+
+		}
+
+		@Override
+		public void request( long n ) {
+			if ( n <= 0 ) {
+				cancel();
+				downstream.onError(new IllegalArgumentException(MessageFormat.format(
+					"'n' must be greater than 0 [{0}].",
+					n
+				)));
+			} else {
+
+				long current;
+				long next;
+
+				do {
+					current = requested.get();
+					next = ( current + n < 0 ) ? Long.MAX_VALUE : current + n;
+				} while ( !requested.compareAndSet(current, next) );
+
+				drain();
+
+			}
+		}
+
+		private void clear() {
+			synchronized ( pending ) {
+				pending.clear();
+			}
+		}
+
+		private void drain() {
+
+			if ( wip.getAndIncrement() != 0 ) {
+				return;
+			}
+
+			int missed = 1;
+
+			do {
+
+				long available = requested.get();
+				long emitted = 0;
+
+				while ( emitted != available ) {
+
+					if ( cancelled ) {
+						clear();
+						return;
+					}
+
+					boolean terminated = done;
+					T item = poll();
+
+					if ( item == null ) {
+
+						if ( terminated ) {
+							terminate();
+							return;
+						}
+
+						break;
+
+					}
+
+					downstream.onNext(item);
+
+					emitted++;
+
+				}
+
+				if ( emitted == available ) {
+
+					if ( cancelled ) {
+						clear();
+						return;
+					}
+
+					if ( done && isEmpty() ) {
+						terminate();
+						return;
+					}
+
+				}
+
+				if ( emitted != 0 && available != Long.MAX_VALUE ) {
+					requested.addAndGet(-emitted);
+				}
+
+				missed = wip.addAndGet(-missed);
+
+			} while ( missed != 0 );
+
+		}
+
+		private boolean isEmpty() {
+			synchronized ( pending ) {
+				return pending.isEmpty();
+			}
+		}
+
+		private T poll() {
+			synchronized ( pending ) {
+
+				Iterator<T> iterator = pending.values().iterator();
+
+				if ( iterator.hasNext() ) {
+
+					T item = iterator.next();
+
+					iterator.remove();
+
+					return item;
+
+				} else {
+					return null;
+				}
+
+			}
+		}
+
+		private void terminate() {
+
+			cancelled = true;
+
+			if ( error != null ) {
+				downstream.onError(error);
+			} else {
+				downstream.onComplete();
+			}
+
+		}
+
+	}
+
+}
@@ -21,12 +21,13 @@ import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
 
 /**
- * Completion stage wrapper that uses the provided executor as both the default
+ * Completion stage that uses the provided executor as both the default
  * execution facility and the default asynchronous execution facility.
  *
  * A {@link CompletionStage} returned from any of this completion stage's
@@ -42,7 +43,20 @@ import java.util.function.Function;
  * <pre>
  * this.thenApplyAsync(f, executor).thenAcceptAsync(g, executor).thenRunAsync(h, executor)</pre>
  *
- * where {@code executor} is the executor this stage was created with.
+ * where {@code executor} is the executor this stage was created with,
+ * except that the actions of non-asynchronous methods are executed directly,
+ * without being submitted to {@code executor}, when the completing thread
+ * is already the {@code executor}'s one: a chain of non-asynchronous stages
+ * completes in a single {@code executor}'s task. The executor's thread is
+ * recognized either by the {@code isInExecutorThread} predicate given to
+ * {@link #wrap(CompletionStage, Executor, BooleanSupplier)} (e.g.
+ * {@code Platform::isFxApplicationThread} for {@code Platform::runLater}), or
+ * because the current thread is running a task submitted by a stage sharing
+ * the same executor.
+ * <p>
+ * Each stage is itself a {@link CompletableFuture}, so that no wrapper object
+ * is allocated per stage, stages are completed without locking, and
+ * {@link #toCompletableFuture()} returns the stage itself.</p>
  *
  * @author claudio.rosati@esss.se
  * @param <T> The type passed to the consumers of this {@link CompletionStage}
@@ -50,7 +64,7 @@ import java.util.function.Function;
  * @see <a href="https://github.com/ESSICS/LiveDirsFX">LiveDirsFX:org.fxmisc.livedirs.CompletionStageWithDefaultExecutor</a>
  */
 @SuppressWarnings( "ClassWithoutLogger" )
-public class DefaultExecutorCompletionStage<T> implements CompletionStage<T> {
+public class DefaultExecutorCompletionStage<T> extends CompletableFuture<T> {
 
 	/**
 	 * Wrap the {@code original} {@link CompletionStage} into a
@@ -63,213 +77,210 @@ public class DefaultExecutorCompletionStage<T> implements CompletionStage<T> {
 	 *         {@link CompletionStage}.
 	 */
 	public static <U> CompletionStage<U> wrap( CompletionStage<U> original, Executor defaultExecutor ) {
-		return new DefaultExecutorCompletionStage<>(original, defaultExecutor);
+		return wrap(original, defaultExecutor, null);
 	}
 
-	private final Executor defaultExecutor;
-	private final CompletionStage<T> original;
+	/**
+	 * Wrap the {@code original} {@link CompletionStage} into a
+	 * {@link DefaultExecutorCompletionStage} using the given {@code executor}.
+	 *
+	 * @param <U>                The type of the {@code original}
+	 *                           {@link CompletionStage}.
+	 * @param original           The {@link CompletionStage} to be wrapped.
+	 * @param defaultExecutor    The {@link Executor} to be used by the
+	 *                           wrapper.
+	 * @param isInExecutorThread Returns {@code true} when the current thread
+	 *                           is the {@code defaultExecutor}'s one. Can be
+	 *                           {@code null}.
+	 * @return Instance of this class wrapping the given {@code original}
+	 *         {@link CompletionStage}.
+	 */
+	public static <U> CompletionStage<U> wrap( CompletionStage<U> original, Executor defaultExecutor, BooleanSupplier isInExecutorThread ) {
 
-	private DefaultExecutorCompletionStage( CompletionStage<T> original, Executor defaultExecutor ) {
-		this.original = original;
-		this.defaultExecutor = defaultExecutor;
-	}
+		if ( original instanceof DefaultExecutorCompletionStage ) {
 
-	@Override
-	public CompletionStage<Void> acceptEither( CompletionStage<? extends T> other, Consumer<? super T> action ) {
-		return wrap(original.acceptEitherAsync(other, action, defaultExecutor));
-	}
+			DefaultExecutorCompletionStage<U> stage = (DefaultExecutorCompletionStage<U>) original;
 
-	@Override
-	public CompletionStage<Void> acceptEitherAsync( CompletionStage<? extends T> other, Consumer<? super T> action ) {
-		return wrap(original.acceptEitherAsync(other, action, defaultExecutor));
-	}
+			if ( stage.executor.isSame(defaultExecutor, isInExecutorThread) ) {
+				return stage;
+			}
 
-	@Override
-	public CompletionStage<Void> acceptEitherAsync( CompletionStage<? extends T> other, Consumer<? super T> action, Executor executor ) {
-		return wrap(original.acceptEitherAsync(other, action, executor));
-	}
+		}
 
-	@Override
-	public <U> CompletionStage<U> applyToEither( CompletionStage<? extends T> other, Function<? super T, U> fn ) {
-		return wrap(original.applyToEitherAsync(other, fn, defaultExecutor));
-	}
+		DefaultExecutorCompletionStage<U> stage = new DefaultExecutorCompletionStage<>(
+			new StageExecutor(defaultExecutor, isInExecutorThread)
+		);
 
-	@Override
-	public <U> CompletionStage<U> applyToEitherAsync( CompletionStage<? extends T> other, Function<? super T, U> fn ) {
-		return wrap(original.applyToEitherAsync(other, fn, defaultExecutor));
-	}
+		original.whenComplete(( value, error ) -> {
+			if ( error == null ) {
+				stage.complete(value);
+			} else {
+				stage.completeExceptionally(error);
+			}
+		});
 
-	@Override
-	public <U> CompletionStage<U> applyToEitherAsync( CompletionStage<? extends T> other, Function<? super T, U> fn, Executor executor ) {
-		return wrap(original.applyToEitherAsync(other, fn, executor));
-	}
+		return stage;
 
-	@Override
-	public CompletionStage<T> exceptionally( Function<Throwable, ? extends T> fn ) {
-		return wrap(original.exceptionally(fn));
 	}
 
-	@Override
-	public <U> CompletionStage<U> handle( BiFunction<? super T, Throwable, ? extends U> fn ) {
-		return wrap(original.handleAsync(fn, defaultExecutor));
-	}
+	private final StageExecutor executor;
 
-	@Override
-	public <U> CompletionStage<U> handleAsync( BiFunction<? super T, Throwable, ? extends U> fn ) {
-		return wrap(original.handleAsync(fn, defaultExecutor));
+	private DefaultExecutorCompletionStage( StageExecutor executor ) {
+		this.executor = executor;
 	}
 
 	@Override
-	public <U> CompletionStage<U> handleAsync( BiFunction<? super T, Throwable, ? extends U> fn, Executor executor ) {
-		return wrap(original.handleAsync(fn, executor));
+	public CompletableFuture<Void> acceptEither( CompletionStage<? extends T> other, Consumer<? super T> action ) {
+		return acceptEitherAsync(other, action, executor.inline);
 	}
 
 	@Override
-	public CompletionStage<Void> runAfterBoth( CompletionStage<?> other, Runnable action ) {
-		return wrap(original.runAfterBothAsync(other, action, defaultExecutor));
+	public <U> CompletableFuture<U> applyToEither( CompletionStage<? extends T> other, Function<? super T, U> fn ) {
+		return applyToEitherAsync(other, fn, executor.inline);
 	}
 
+	/**
+	 * @return The {@link Executor} used by the asynchronous methods not
+	 *         taking an {@link Executor} parameter.
+	 */
 	@Override
-	public CompletionStage<Void> runAfterBothAsync( CompletionStage<?> other, Runnable action ) {
-		return wrap(original.runAfterBothAsync(other, action, defaultExecutor));
+	public Executor defaultExecutor() {
+		return executor;
 	}
 
 	@Override
-	public CompletionStage<Void> runAfterBothAsync( CompletionStage<?> other, Runnable action, Executor executor ) {
-		return wrap(original.runAfterBothAsync(other, action, executor));
+	public <U> CompletableFuture<U> handle( BiFunction<? super T, Throwable, ? extends U> fn ) {
+		return handleAsync(fn, executor.inline);
 	}
 
 	@Override
-	public CompletionStage<Void> runAfterEither( CompletionStage<?> other, Runnable action ) {
-		return wrap(original.runAfterEitherAsync(other, action, defaultExecutor));
+	public <U> CompletableFuture<U> newIncompleteFuture() {
+		return new DefaultExecutorCompletionStage<>(executor);
 	}
 
 	@Override
-	public CompletionStage<Void> runAfterEitherAsync( CompletionStage<?> other, Runnable action ) {
-		return wrap(original.runAfterEitherAsync(other, action, defaultExecutor));
+	public CompletableFuture<Void> runAfterBoth( CompletionStage<?> other, Runnable action ) {
+		return runAfterBothAsync(other, action, executor.inline);
 	}
 
 	@Override
-	public CompletionStage<Void> runAfterEitherAsync( CompletionStage<?> other, Runnable action, Executor executor ) {
-		return wrap(original.runAfterEitherAsync(other, action, executor));
+	public CompletableFuture<Void> runAfterEither( CompletionStage<?> other, Runnable action ) {
+		return runAfterEitherAsync(other, action, executor.inline);
 	}
 
 	@Override
-	public CompletionStage<Void> thenAccept( Consumer<? super T> action ) {
-		return wrap(original.thenAcceptAsync(action, defaultExecutor));
+	public CompletableFuture<Void> thenAccept( Consumer<? super T> action ) {
+		return thenAcceptAsync(action, executor.inline);
 	}
 
 	@Override
-	public CompletionStage<Void> thenAcceptAsync( Consumer<? super T> action ) {
-		return wrap(original.thenAcceptAsync(action, defaultExecutor));
+	public <U> CompletableFuture<Void> thenAcceptBoth( CompletionStage<? extends U> other, BiConsumer<? super T, ? super U> action ) {
+		return thenAcceptBothAsync(other, action, executor.inline);
 	}
 
 	@Override
-	public CompletionStage<Void> thenAcceptAsync( Consumer<? super T> action, Executor executor ) {
-		return wrap(original.thenAcceptAsync(action, executor));
+	public <U> CompletableFuture<U> thenApply( Function<? super T, ? extends U> fn ) {
+		return thenApplyAsync(fn, executor.inline);
 	}
 
 	@Override
-	public <U> CompletionStage<Void> thenAcceptBoth( CompletionStage<? extends U> other, BiConsumer<? super T, ? super U> action ) {
-		return wrap(original.thenAcceptBothAsync(other, action, defaultExecutor));
+	public <U, V> CompletableFuture<V> thenCombine( CompletionStage<? extends U> other, BiFunction<? super T, ? super U, ? extends V> fn ) {
+		return thenCombineAsync(other, fn, executor.inline);
 	}
 
 	@Override
-	public <U> CompletionStage<Void> thenAcceptBothAsync( CompletionStage<? extends U> other, BiConsumer<? super T, ? super U> action ) {
-		return wrap(original.thenAcceptBothAsync(other, action, defaultExecutor));
+	public <U> CompletableFuture<U> thenCompose( Function<? super T, ? extends CompletionStage<U>> fn ) {
+		return thenComposeAsync(fn, executor.inline);
 	}
 
 	@Override
-	public <U> CompletionStage<Void> thenAcceptBothAsync( CompletionStage<? extends U> other, BiConsumer<? super T, ? super U> action, Executor executor ) {
-		return wrap(original.thenAcceptBothAsync(other, action, executor));
+	public CompletableFuture<Void> thenRun( Runnable action ) {
+		return thenRunAsync(action, executor.inline);
 	}
 
 	@Override
-	public <U> CompletionStage<U> thenApply( Function<? super T, ? extends U> fn ) {
-		return wrap(original.thenApplyAsync(fn, defaultExecutor));
+	public CompletableFuture<T> whenComplete( BiConsumer<? super T, ? super Throwable> action ) {
+		return whenCompleteAsync(action, executor.inline);
 	}
 
-	@Override
-	public <U> CompletionStage<U> thenApplyAsync( Function<? super T, ? extends U> fn ) {
-		return wrap(original.thenApplyAsync(fn, defaultExecutor));
-	}
+	/**
+	 * Submits tasks to the default executor, marking the thread running them
+	 * as the executor's one.
+	 */
+	private static class StageExecutor implements Executor {
+
+		/**
+		 * The maximum number of nested inline executions: further actions
+		 * are submitted to the default executor, bounding the stack depth.
+		 */
+		private static final int MAX_INLINE_DEPTH = 64;
+
+		/**
+		 * The default executor whose task is running on the current thread.
+		 */
+		private static final ThreadLocal<Executor> RUNNING = new ThreadLocal<>();
+		private static final ThreadLocal<int[]> INLINE_DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+
+		private final Executor delegate;
+		private final Executor inline = this::executeInline;
+		private final BooleanSupplier isInExecutorThread;
+
+		StageExecutor( Executor delegate, BooleanSupplier isInExecutorThread ) {
+			this.delegate = delegate;
+			this.isInExecutorThread = isInExecutorThread;
+		}
 
-	@Override
-	public <U> CompletionStage<U> thenApplyAsync( Function<? super T, ? extends U> fn, Executor executor ) {
-		return wrap(original.thenApplyAsync(fn, executor));
-	}
+		@Override
+		public void execute( Runnable task ) {
+			delegate.execute(() -> {
 
-	@Override
-	public <U, V> CompletionStage<V> thenCombine( CompletionStage<? extends U> other, BiFunction<? super T, ? super U, ? extends V> fn ) {
-		return wrap(original.thenCombineAsync(other, fn, defaultExecutor));
-	}
+				Executor previous = RUNNING.get();
 
-	@Override
-	public <U, V> CompletionStage<V> thenCombineAsync( CompletionStage<? extends U> other, BiFunction<? super T, ? super U, ? extends V> fn ) {
-		return wrap(original.thenCombineAsync(other, fn, defaultExecutor));
-	}
+				RUNNING.set(delegate);
 
-	@Override
-	public <U, V> CompletionStage<V> thenCombineAsync( CompletionStage<? extends U> other, BiFunction<? super T, ? super U, ? extends V> fn, Executor executor ) {
-		return wrap(original.thenCombineAsync(other, fn, executor));
-	}
+				try {
+					task.run();
+				} finally {
+					if ( previous == null ) {
+						RUNNING.remove();
+					} else {
+						RUNNING.set(previous);
+					}
+				}
 
-	@Override
-	public <U> CompletionStage<U> thenCompose( Function<? super T, ? extends CompletionStage<U>> fn ) {
-		return wrap(original.thenComposeAsync(fn, defaultExecutor));
-	}
+			});
+		}
 
-	@Override
-	public <U> CompletionStage<U> thenComposeAsync( Function<? super T, ? extends CompletionStage<U>> fn ) {
-		return wrap(original.thenComposeAsync(fn, defaultExecutor));
-	}
+		boolean isSame( Executor delegate, BooleanSupplier isInExecutorThread ) {
+			return this.delegate == delegate
+				&& ( isInExecutorThread == null || this.isInExecutorThread == isInExecutorThread );
+		}
 
-	@Override
-	public <U> CompletionStage<U> thenComposeAsync( Function<? super T, ? extends CompletionStage<U>> fn, Executor executor ) {
-		return wrap(original.thenComposeAsync(fn, executor));
-	}
+		private void executeInline( Runnable task ) {
 
-	@Override
-	public CompletionStage<Void> thenRun( Runnable action ) {
-		return wrap(original.thenRunAsync(action, defaultExecutor));
-	}
+			int[] depth = INLINE_DEPTH.get();
 
-	@Override
-	public CompletionStage<Void> thenRunAsync( Runnable action ) {
-		return wrap(original.thenRunAsync(action, defaultExecutor));
-	}
+			if ( depth[0] < MAX_INLINE_DEPTH && isInExecutorThread() ) {
 
-	@Override
-	public CompletionStage<Void> thenRunAsync( Runnable action, Executor executor ) {
-		return wrap(original.thenRunAsync(action, executor));
-	}
+				depth[0]++;
 
-	@Override
-	public CompletableFuture<T> toCompletableFuture() {
-		if ( original instanceof CompletableFuture ) {
-			return (CompletableFuture<T>) original;
-		} else {
-			throw new UnsupportedOperationException();
-		}
-	}
+				try {
+					task.run();
+				} finally {
+					depth[0]--;
+				}
 
-	@Override
-	public CompletionStage<T> whenComplete( BiConsumer<? super T, ? super Throwable> action ) {
-		return wrap(original.whenCompleteAsync(action, defaultExecutor));
-	}
+			} else {
+				execute(task);
+			}
 
-	@Override
-	public CompletionStage<T> whenCompleteAsync( BiConsumer<? super T, ? super Throwable> action ) {
-		return wrap(original.whenCompleteAsync(action, defaultExecutor));
-	}
+		}
 
-	@Override
-	public CompletionStage<T> whenCompleteAsync( BiConsumer<? super T, ? super Throwable> action, Executor executor ) {
-		return wrap(original.whenCompleteAsync(action, executor));
-	}
+		private boolean isInExecutorThread() {
+			return RUNNING.get() == delegate
+				|| ( isInExecutorThread != null && isInExecutorThread.getAsBoolean() );
+		}
 
-	private <U> CompletionStage<U> wrap( CompletionStage<U> original ) {
-		return wrap(original, defaultExecutor);
 	}
 
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.text.MessageFormat;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+
+/**
+ * A {@link Subscription} emitting the chunks of a file read through an
+ * {@link AsynchronousFileChannel}, without blocking any thread: a chunk is
+ * read only when requested downstream, and the next read is started by the
+ * completion handler of the previous one.
+ * <p>
+ * The outstanding requests also act as the work-in-progress counter: a read
+ * is started only by the request making them positive, or by a completed read
+ * when they are still positive, so that at most one read is in flight.</p>
+ * <p>
+ * Data is read into a pooled direct buffer, and each emitted chunk is a heap
+ * copy of the read bytes, so that subscribers can retain it safely. The
+ * channel is closed, and the buffer released, on completion, error or
+ * cancellation.</p>
+ *
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( "ClassWithoutLogger" )
+class AsynchronousChunkReader implements Subscription, CompletionHandler<Integer, Void> {
+
+	private final ByteBuffer buffer;
+	private volatile boolean cancelled = false;
+	private final AsynchronousFileChannel channel;
+	private final int chunkSize;
+	private final AtomicBoolean finished = new AtomicBoolean(false);
+	private final DirectBufferPool pool;
+	private long position = 0;
+	private final AtomicLong requested = new AtomicLong();
+	private final Subscriber<? super ByteBuffer> subscriber;
+
+	/**
+	 * @param channel    The channel of the file to be read.
+	 * @param chunkSize  The maximum size of each emitted chunk.
+	 * @param pool       The pool of direct buffers.
+	 * @param subscriber The {@link Subscriber} of the read chunks.
+	 */
+	AsynchronousChunkReader( AsynchronousFileChannel channel, int chunkSize, DirectBufferPool pool, Subscriber<? super ByteBuffer> subscriber ) {
+		this.buffer = pool.acquire(chunkSize);
+		this.channel = channel;
+		this.chunkSize = chunkSize;
+		this.pool = pool;
+		this.subscriber = subscriber;
+	}
+
+	@Override
+	public void cancel() {
+
+		cancelled = true;
+
+		//	Without outstanding requests no read is in flight: otherwise the
+		//	completion handler will finish.
+		if ( requested.get() == 0 ) {
+			finish();
+		}
+
+	}
+
+	@Override
+	public void completed( Integer read, Void attachment ) {
+
+		if ( cancelled ) {
+			finish();
+		} else if ( read < 0 ) {
+			finish();
+			subscriber.onComplete();
+		} else {
+
+			ByteBuffer chunk = ByteBuffer.allocate(read);
+
+			position += read;
+
+			buffer.flip();
+			chunk.put(buffer).flip();
+			subscriber.onNext(chunk);
+
+			if ( produced() > 0 ) {
+				read();
+			} else if ( cancelled ) {
+				finish();
+			}
+
+		}
+
+	}
+
+	@Override
+	public void failed( Throwable exc, Void attachment ) {
+
+		finish();
+
+		if ( !cancelled ) {
+			subscriber.onError(exc);
+		}
+
+	}
+
+	@Override
+	public void request( long n ) {
+
+		if ( n <= 0 ) {
+			cancel();
+			subscriber.onError(new IllegalArgumentException(MessageFormat.format(
+				"'n' must be greater than 0 [{0}].",
+				n
+			)));
+		} else if ( add(n) == 0 ) {
+			read();
+		}
+
+	}
+
+	/**
+	 * Adds {@code n} to the outstanding requests, capping them at
+	 * {@link Long#MAX_VALUE}.
+	 *
+	 * @return The outstanding requests before the addition.
+	 */
+	private long add( long n ) {
+
+		long current;
+		long next;
+
+		do {
+
+			current = requested.get();
+
+			if ( current == Long.MAX_VALUE ) {
+				return current;
+			}
+
+			next = current + n;
+
+			if ( next < 0 ) {
+				next = Long.MAX_VALUE;
+			}
+
+		} while ( !requested.compareAndSet(current, next) );
+
+		return current;
+
+	}
+
+	private void finish() {
+		if ( finished.compareAndSet(false, true) ) {
+			try {
+				channel.close();
+			} catch ( IOException e ) {
+				//	Nothing more can be done.
+			} finally {
+				pool.release(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Decrements the outstanding requests, unless they are unbounded.
+	 *
+	 * @return The outstanding requests after an item was emitted.
+	 */
+	private long produced() {
+		if ( requested.get() == Long.MAX_VALUE ) {
+			return Long.MAX_VALUE;
+		} else {
+			return requested.decrementAndGet();
+		}
+	}
+
+	private void read() {
+		if ( cancelled ) {
+			finish();
+		} else {
+			buffer.clear().limit(chunkSize);
+			channel.read(buffer, position, null, this);
+		}
+	}
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+
+/**
+ * A {@link Subscriber} writing the received {@link ByteBuffer}s into a file
+ * through an {@link AsynchronousFileChannel}, without blocking any thread.
+ * <p>
+ * A single buffer is requested at a time, and the next one is requested only
+ * when the previous one is completely written, so that at most one buffer is
+ * retained. The received bytes are copied into a pooled direct buffer before
+ * being written.</p>
+ *
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( "ClassWithoutLogger" )
+class AsynchronousFileWriter implements Subscriber<ByteBuffer>, CompletionHandler<Integer, Void> {
+
+	private final ByteBuffer buffer;
+	private final AsynchronousFileChannel channel;
+	private ByteBuffer current;
+	private final AtomicBoolean finished = new AtomicBoolean(false);
+	private final Consumer<Throwable> onFinish;
+	private final DirectBufferPool pool;
+	private long position = 0;
+	private Subscription subscription;
+	private boolean upstreamDone = false;
+	private Throwable upstreamError = null;
+	private boolean writing = false;
+
+	/**
+	 * @param file     The file to be written. It is created if not existing,
+	 *                 truncated otherwise.
+	 * @param pool     The pool of direct buffers.
+	 * @param onFinish Called when writing is finished, with {@code null} on
+	 *                 success, or the error occurred.
+	 * @throws IOException If an I/O error occurs opening the file.
+	 */
+	AsynchronousFileWriter( Path file, DirectBufferPool pool, Consumer<Throwable> onFinish ) throws IOException {
+		this(AsynchronousFileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING), pool, onFinish);
+	}
+
+	/**
+	 * @param channel  The channel of the file to be written, opened for
+	 *                 writing. It is closed when writing is finished.
+	 * @param pool     The pool of direct buffers.
+	 * @param onFinish Called when writing is finished, with {@code null} on
+	 *                 success, or the error occurred.
+	 */
+	AsynchronousFileWriter( AsynchronousFileChannel channel, DirectBufferPool pool, Consumer<Throwable> onFinish ) {
+		this.channel = channel;
+		this.pool = pool;
+		this.buffer = pool.acquire(pool.getBufferSize());
+		this.onFinish = onFinish;
+	}
+
+	@Override
+	public void completed( Integer written, Void attachment ) {
+
+		position += written;
+
+		if ( buffer.hasRemaining() ) {
+			channel.write(buffer, position, null, this);
+		} else if ( current.hasRemaining() ) {
+			fill();
+			channel.write(buffer, position, null, this);
+		} else {
+
+			boolean done;
+
+			synchronized ( this ) {
+				writing = false;
+				current = null;
+				done = upstreamDone;
+			}
+
+			if ( done ) {
+				finish(upstreamError);
+			} else {
+				subscription.request(1);
+			}
+
+		}
+
+	}
+
+	@Override
+	public void failed( Throwable exc, Void attachment ) {
+		subscription.cancel();
+		finish(exc);
+	}
+
+	@Override
+	public void onComplete() {
+		upstreamTerminated(null);
+	}
+
+	@Override
+	public void onError( Throwable t ) {
+		upstreamTerminated(t);
+	}
+
+	@Override
+	public void onNext( ByteBuffer data ) {
+
+		//	Late items after a failure (and cancellation) are ignored.
+		if ( finished.get() ) {
+			return;
+		}
+
+		synchronized ( this ) {
+			writing = true;
+			current = data;
+		}
+
+		fill();
+		channel.write(buffer, position, null, this);
+
+	}
+
+	@Override
+	public void onSubscribe( Subscription s ) {
+		subscription = s;
+		s.request(1);
+	}
+
+	/**
+	 * Copies into the direct buffer as many remaining bytes of the current
+	 * data as possible, and prepares the buffer for writing.
+	 */
+	private void fill() {
+
+		int count = Math.min(buffer.capacity(), current.remaining());
+		ByteBuffer slice = current.duplicate();
+
+		slice.limit(slice.position() + count);
+		buffer.clear();
+		buffer.put(slice).flip();
+		current.position(current.position() + count);
+
+	}
+
+	private void finish( Throwable error ) {
+		if ( finished.compareAndSet(false, true) ) {
+
+			Throwable result = error;
+
+			try {
+				channel.close();
+			} catch ( IOException e ) {
+				if ( result == null ) {
+					result = e;
+				}
+			} finally {
+				pool.release(buffer);
+			}
+
+			onFinish.accept(result);
+
+		}
+	}
+
+	private void upstreamTerminated( Throwable error ) {
+
+		boolean idle;
+
+		synchronized ( this ) {
+			upstreamDone = true;
+			upstreamError = error;
+			idle = !writing;
+		}
+
+		if ( idle ) {
+			finish(error);
+		}
+
+	}
+
+}
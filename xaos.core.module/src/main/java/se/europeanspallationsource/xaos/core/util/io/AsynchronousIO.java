@@ -16,20 +16,141 @@
 package se.europeanspallationsource.xaos.core.util.io;
 
 
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.file.CopyOption;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.FileAttribute;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import org.reactivestreams.Publisher;
 
 
 /**
  * API for asynchronous file-system operations.
+ * <p>
+ * The operations added after the first release have default implementations,
+ * so that existing implementations keep working. They are built on the
+ * whole-file operations of this interface when possible, otherwise they are
+ * executed in the {@link java.util.concurrent.ForkJoinPool#commonPool()},
+ * unordered with respect to the other operations. Implementations should
+ * override them.</p>
  *
  * @author claudio.rosati@esss.se
  * @see <a href="https://github.com/ESSICS/LiveDirsFX">LiveDirsFX:org.fxmisc.livedirs.IOFacility.java</a>
  */
 public interface AsynchronousIO {
 
+	/**
+	 * Returns a builder of a batch of operations, executed by a single I/O
+	 * task and whose outcomes are reported at once. Use it instead of many
+	 * single operations to avoid their per-operation overhead.
+	 * <p>
+	 * The default implementation executes each operation, in order, through
+	 * the corresponding single operation of this interface. The reported
+	 * outcomes have no timestamps.</p>
+	 *
+	 * @return A new, empty {@link BatchBuilder}.
+	 */
+	default BatchBuilder batch() {
+		return new BatchBuilder(operations -> {
+
+			List<BatchResult.Outcome> outcomes = new ArrayList<>(operations.size());
+			CompletionStage<Void> executed = CompletableFuture.completedFuture(null);
+
+			for ( BatchOperation operation : operations ) {
+				executed = executed
+					.thenCompose(v -> executeBatchOperation(operation))
+					.handle(( v, error ) -> {
+
+						outcomes.add(new BatchResult.Outcome(operation, null, error == null ? null : unwrap(error)));
+
+						return null;
+
+					});
+			}
+
+			return executed.thenApply(v -> new BatchResult(outcomes));
+
+		});
+	}
+
+	/**
+	 * Copies a file, transferring its content without copying it on the Java
+	 * heap. If an I/O error occurs, the returned completion stage is completed
+	 * exceptionally with the encountered error.
+	 * <p>
+	 * The default implementation reads the whole {@code source} through
+	 * {@link #readBinaryFile(Path)} and writes it through
+	 * {@link #writeBinaryFile(Path, byte[])}, creating {@code target} first
+	 * unless {@link java.nio.file.StandardCopyOption#REPLACE_EXISTING} is
+	 * given. Attributes are not copied.</p>
+	 *
+	 * @param source  The pathname of the file to be copied.
+	 * @param target  The pathname of the copy.
+	 * @param options Options specifying how the copy should be done:
+	 *                {@link java.nio.file.StandardCopyOption#REPLACE_EXISTING}
+	 *                and {@link java.nio.file.StandardCopyOption#COPY_ATTRIBUTES}
+	 *                are supported.
+	 * @return An exceptionally completed {@link CompletionStage} in case an
+	 *         exception is thrown.
+	 */
+	default CompletionStage<Void> copyFile( Path source, Path target, CopyOption... options ) {
+
+		boolean replaceExisting = Arrays.asList(options).contains(StandardCopyOption.REPLACE_EXISTING);
+
+		return readBinaryFile(source).thenCompose(content -> {
+
+			CompletionStage<Void> created = replaceExisting
+				? CompletableFuture.completedFuture(null)
+				: createFile(target);
+
+			return created.thenCompose(v -> writeBinaryFile(target, content));
+
+		});
+
+	}
+
+	/**
+	 * Copies a file tree, copying files in parallel and transferring their
+	 * content without copying it on the Java heap. If an I/O error occurs,
+	 * the returned completion stage is completed exceptionally with the
+	 * encountered error.
+	 * <p>
+	 * The default implementation copies the tree in the common
+	 * {@link java.util.concurrent.ForkJoinPool}.</p>
+	 *
+	 * @param source  The file or the root of the file tree to be copied.
+	 * @param target  The pathname of the copy. It cannot be inside
+	 *                {@code source}.
+	 * @param options Options specifying how the copy should be done:
+	 *                {@link java.nio.file.StandardCopyOption#REPLACE_EXISTING}
+	 *                and {@link java.nio.file.StandardCopyOption#COPY_ATTRIBUTES}
+	 *                are supported.
+	 * @return An exceptionally completed {@link CompletionStage} in case an
+	 *         exception is thrown.
+	 */
+	default CompletionStage<Void> copyTree( Path source, Path target, CopyOption... options ) {
+		return supplyAsync(() -> {
+
+			new TreeCopier(options).copyTree(source, target);
+
+			return null;
+
+		});
+	}
+
 	/**
 	 * Create a new directory by creating all nonexistent parent directories
 	 * first. If an I/O error occurs, the returned completion stage is completed
@@ -91,6 +212,49 @@ public interface AsynchronousIO {
 	 */
 	CompletionStage<Void> deleteTree( Path root );
 
+	/**
+	 * Maps the contents of a file into memory, in read-only mode, without
+	 * copying it on the heap. The returned completion stage will contain the
+	 * mapped buffer or, if an I/O error occurs, it will be completed
+	 * exceptionally with the encountered error.
+	 * <p>
+	 * The default implementation maps the file in the common
+	 * {@link java.util.concurrent.ForkJoinPool}.</p>
+	 *
+	 * @param file The pathname of the file to be mapped.
+	 * @return A {@link CompletionStage} containing the read-only buffer mapping
+	 *         the whole file or, if an I/O error occurs, the encountered error.
+	 */
+	default CompletionStage<MappedByteBuffer> mapFile( Path file ) {
+		return supplyAsync(() -> FileOperations.map(file));
+	}
+
+	/**
+	 * Moves a file or a file tree. When a simple rename is not possible, the
+	 * tree is copied in parallel and then deleted. If an I/O error occurs, the
+	 * returned completion stage is completed exceptionally with the encountered
+	 * error.
+	 * <p>
+	 * The default implementation moves the tree in the common
+	 * {@link java.util.concurrent.ForkJoinPool}.</p>
+	 *
+	 * @param source  The file or the root of the file tree to be moved.
+	 * @param target  The new pathname of {@code source}.
+	 * @param options Options specifying how the move should be done (see
+	 *                {@link java.nio.file.Files#move(Path, Path, CopyOption...)}).
+	 * @return An exceptionally completed {@link CompletionStage} in case an
+	 *         exception is thrown.
+	 */
+	default CompletionStage<Void> moveTree( Path source, Path target, CopyOption... options ) {
+		return supplyAsync(() -> {
+
+			FileOperations.move(source, target, options);
+
+			return null;
+
+		});
+	}
+
 	/**
 	 * Reads the contents of a binary file. The returned completion stage will
 	 * contain the read content as a byte array or, if an I/O error occurs, it
@@ -102,6 +266,81 @@ public interface AsynchronousIO {
 	 */
 	CompletionStage<byte[]> readBinaryFile( Path file );
 
+	/**
+	 * Reads a range of the contents of a binary file using positional reads.
+	 * The returned completion stage will contain the read bytes or, if an I/O
+	 * error occurs, it will be completed exceptionally with the encountered
+	 * error.
+	 * <p>
+	 * The default implementation reads the whole file through
+	 * {@link #readBinaryFile(Path)}, and wraps the requested range.</p>
+	 *
+	 * @param file   The pathname of the file to be read.
+	 * @param offset The position in file of the first byte to be read.
+	 * @param length The maximum number of bytes to be read.
+	 * @return A {@link CompletionStage} containing a buffer, ready to be read,
+	 *         with the bytes between {@code offset} and {@code offset + length}
+	 *         (or the end of the file if reached first) or, if an I/O error
+	 *         occurs, the encountered error.
+	 * @throws IllegalArgumentException If {@code offset} or {@code length} are
+	 *                                  negative.
+	 */
+	default CompletionStage<ByteBuffer> readBinaryFileRange( Path file, long offset, int length ) throws IllegalArgumentException {
+
+		if ( offset < 0 || length < 0 ) {
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'offset' and 'length' cannot be negative [offset: {0}, length: {1}].",
+				offset,
+				length
+			));
+		}
+
+		return readBinaryFile(file).thenApply(content -> {
+
+			int from = (int) Math.min(offset, content.length);
+
+			return ByteBuffer.wrap(content, from, Math.min(length, content.length - from)).slice();
+
+		});
+
+	}
+
+	/**
+	 * Returns a {@link Flowable} reading the contents of a binary file in
+	 * chunks, with backpressure: a chunk is read only when requested, so that
+	 * the file is never held entirely in memory. If an I/O error occurs, the
+	 * returned flowable signals the encountered error.
+	 * <p>
+	 * The default implementation reads the whole file through
+	 * {@link #readBinaryFile(Path)} on subscription, and emits it in chunks,
+	 * so the file is held entirely in memory.</p>
+	 *
+	 * @param file      The pathname of the file to be read.
+	 * @param chunkSize The maximum size of each emitted chunk.
+	 * @return A {@link Flowable} of the file's chunks.
+	 * @throws IllegalArgumentException If {@code chunkSize} is less than 1.
+	 */
+	default Flowable<ByteBuffer> readBinaryFileStream( Path file, int chunkSize ) throws IllegalArgumentException {
+
+		if ( chunkSize < 1 ) {
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'chunkSize' must be greater than 0 [{0}].",
+				chunkSize
+			));
+		}
+
+		return Single.<byte[]>create(emitter -> readBinaryFile(file).whenComplete(( content, error ) -> {
+			if ( error != null ) {
+				emitter.onError(unwrap(error));
+			} else {
+				emitter.onSuccess(content);
+			}
+		})).flatMapPublisher(content -> Flowable.range(0, content.length / chunkSize + ( content.length % chunkSize == 0 ? 0 : 1 )).map(
+			chunk -> ByteBuffer.wrap(content, chunk * chunkSize, Math.min(chunkSize, content.length - chunk * chunkSize)).slice()
+		));
+
+	}
+
 	/**
 	 * Reads the contents of a text file. The returned completion stage will
 	 * contain the read content as a string or, if an I/O error occurs, it will
@@ -138,6 +377,43 @@ public interface AsynchronousIO {
 	 */
 	CompletionStage<Void> writeBinaryFile( Path file, byte[] content );
 
+	/**
+	 * Writes binary file to disk, consuming the given {@link Publisher} one
+	 * buffer at a time, so that the content is never held entirely in memory.
+	 * If an I/O error occurs, or {@code content} signals an error, the
+	 * returned completion stage is completed exceptionally with the
+	 * encountered error.
+	 * <p>
+	 * The default implementation collects the whole {@code content} before
+	 * writing it through {@link #writeBinaryFile(Path, byte[])}, so the
+	 * content is held entirely in memory.</p>
+	 *
+	 * @param file    The pathname of the file to be created.
+	 * @param content The {@link Publisher} of the bytes to be written into the
+	 *                file.
+	 * @return An exceptionally completed {@link CompletionStage} in case an
+	 *         exception is thrown.
+	 */
+	default CompletionStage<Void> writeBinaryFileStream( Path file, Publisher<ByteBuffer> content ) {
+
+		CompletableFuture<byte[]> collected = new CompletableFuture<>();
+
+		Flowable.fromPublisher(content)
+			.collect(ByteArrayOutputStream::new, ( stream, buffer ) -> {
+
+				byte[] bytes = new byte[buffer.remaining()];
+
+				buffer.get(bytes);
+				stream.write(bytes, 0, bytes.length);
+
+			})
+			.map(ByteArrayOutputStream::toByteArray)
+			.subscribe(collected::complete, collected::completeExceptionally);
+
+		return collected.thenCompose(bytes -> writeBinaryFile(file, bytes));
+
+	}
+
 	/**
 	 * Writes the given string in a text file to disk. If an I/O error occurs,
 	 * the returned completion stage is completed exceptionally with the
@@ -164,4 +440,67 @@ public interface AsynchronousIO {
 		return writeTextFile(file, content, Charset.forName("UTF-8"));
 	}
 
+	private CompletionStage<Void> executeBatchOperation( BatchOperation operation ) {
+
+		Path path = operation.getPath();
+
+		switch ( operation.getKind() ) {
+			case CREATE_DIRECTORIES:
+				return createDirectories(path, operation.getAttributes());
+			case CREATE_DIRECTORY:
+				return createDirectory(path, operation.getAttributes());
+			case CREATE_FILE:
+				return createFile(path, operation.getAttributes());
+			case DELETE:
+				return delete(path);
+			case WRITE_FILE:
+
+				ByteBuffer[] content = operation.getContent();
+				ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+				for ( ByteBuffer buffer : content ) {
+
+					byte[] bytes = new byte[buffer.remaining()];
+
+					buffer.get(bytes);
+					stream.write(bytes, 0, bytes.length);
+
+				}
+
+				return writeBinaryFile(path, stream.toByteArray());
+
+			default:
+				throw new AssertionError(MessageFormat.format(
+					"Unhandled batch operation kind [{0}].",
+					operation.getKind()
+				));
+		}
+
+	}
+
+	/**
+	 * Executes the given blocking {@code operation} in the common
+	 * {@link java.util.concurrent.ForkJoinPool}.
+	 */
+	@SuppressWarnings( { "UseSpecificCatch", "BroadCatchBlock", "TooBroadCatch" } )
+	private static <T> CompletionStage<T> supplyAsync( Callable<T> operation ) {
+
+		CompletableFuture<T> result = new CompletableFuture<>();
+
+		CompletableFuture.runAsync(() -> {
+			try {
+				result.complete(operation.call());
+			} catch ( Exception e ) {
+				result.completeExceptionally(e);
+			}
+		});
+
+		return result;
+
+	}
+
+	private static Throwable unwrap( Throwable error ) {
+		return ( error instanceof CompletionException && error.getCause() != null ) ? error.getCause() : error;
+	}
+
 }
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+
+/**
+ * Collects file-system operations to be executed as a single batch: all
+ * operations are performed, in the given order, by a single I/O task, and
+ * their outcomes reported at once through a {@link BatchResult}. The
+ * failure of an operation does not prevent the execution of the following
+ * ones.
+ * <p>
+ * Usage:</p>
+ * <pre>
+ *   AsynchronousIO io = ...
+ *
+ *   io.batch()
+ *     .createDirectory(dir)
+ *     .writeUTF8File(dir.resolve("a.txt"), "A")
+ *     .writeUTF8File(dir.resolve("b.txt"), "B")
+ *     .submit()
+ *     .thenAccept(result -&gt; result.getFailures().forEach(...));</pre>
+ *
+ * @author claudio.rosati@esss.se
+ * @see AsynchronousIO#batch()
+ * @see InitiatorAsynchronousIO#batch(Object)
+ */
+@SuppressWarnings( "ClassWithoutLogger" )
+public class BatchBuilder {
+
+	private final Function<List<BatchOperation>, CompletionStage<BatchResult>> executor;
+	private final List<BatchOperation> operations = new ArrayList<>();
+
+	/**
+	 * @param executor Executes the given operations, returning the
+	 *                 {@link CompletionStage} of their result.
+	 */
+	public BatchBuilder( Function<List<BatchOperation>, CompletionStage<BatchResult>> executor ) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Adds the creation of a directory and of all its nonexistent parent
+	 * directories.
+	 *
+	 * @param dir   The pathname of the directory to be created.
+	 * @param attrs An optional list of file attributes to set atomically when
+	 *              creating the directory.
+	 * @return This builder.
+	 */
+	public BatchBuilder createDirectories( Path dir, FileAttribute<?>... attrs ) {
+		return add(BatchOperation.Kind.CREATE_DIRECTORIES, dir, attrs, null);
+	}
+
+	/**
+	 * Adds the creation of a directory.
+	 *
+	 * @param dir   The pathname of the directory to be created.
+	 * @param attrs An optional list of file attributes to set atomically when
+	 *              creating the directory.
+	 * @return This builder.
+	 */
+	public BatchBuilder createDirectory( Path dir, FileAttribute<?>... attrs ) {
+		return add(BatchOperation.Kind.CREATE_DIRECTORY, dir, attrs, null);
+	}
+
+	/**
+	 * Adds the creation of an empty file.
+	 *
+	 * @param file  The pathname of the file to be created.
+	 * @param attrs An optional list of file attributes to set atomically when
+	 *              creating the file.
+	 * @return This builder.
+	 */
+	public BatchBuilder createFile( Path file, FileAttribute<?>... attrs ) {
+		return add(BatchOperation.Kind.CREATE_FILE, file, attrs, null);
+	}
+
+	/**
+	 * Adds the deletion of a file or an empty directory. Deleting a
+	 * nonexistent path is not a failure.
+	 *
+	 * @param path Pathname of the file or directory to be deleted.
+	 * @return This builder.
+	 */
+	public BatchBuilder delete( Path path ) {
+		return add(BatchOperation.Kind.DELETE, path, null, null);
+	}
+
+	/**
+	 * @return The number of operations added so far.
+	 */
+	public int size() {
+		return operations.size();
+	}
+
+	/**
+	 * Submits all the operations added so far, and clears this builder: it can
+	 * be reused afterwards to build a new, independent batch, and a second
+	 * submission will not execute again the already submitted operations.
+	 *
+	 * @return A {@link CompletionStage} containing the outcome of each
+	 *         operation. It is completed exceptionally only if the batch
+	 *         could not be executed at all.
+	 */
+	public CompletionStage<BatchResult> submit() {
+		List<BatchOperation> submitted = new ArrayList<>(operations);
+
+		operations.clear();
+
+		return executor.apply(submitted);
+	}
+
+	/**
+	 * Adds the writing of a binary file.
+	 *
+	 * @param file    The pathname of the file to be written.
+	 * @param content The bytes to be written.
+	 * @return This builder.
+	 */
+	public BatchBuilder writeBinaryFile( Path file, byte[] content ) {
+		return add(BatchOperation.Kind.WRITE_FILE, file, null, new ByteBuffer[] { ByteBuffer.wrap(content) });
+	}
+
+	/**
+	 * Adds the writing of a binary file whose content is given by the
+	 * concatenation of the given buffers, that will be written with a single
+	 * gathering write. Buffers are not modified by this operation.
+	 *
+	 * @param file    The pathname of the file to be written.
+	 * @param content The buffers to be written, from their current position
+	 *                to their limit.
+	 * @return This builder.
+	 */
+	public BatchBuilder writeBinaryFile( Path file, ByteBuffer... content ) {
+
+		ByteBuffer[] buffers = new ByteBuffer[content.length];
+
+		for ( int i = 0; i < content.length; i++ ) {
+			buffers[i] = content[i].duplicate();
+		}
+
+		return add(BatchOperation.Kind.WRITE_FILE, file, null, buffers);
+
+	}
+
+	/**
+	 * Adds the writing of a text file.
+	 *
+	 * @param file    The pathname of the file to be written.
+	 * @param content The {@link String} content to be written.
+	 * @param charset The {@link Charset} used to encode {@code content}.
+	 * @return This builder.
+	 */
+	public BatchBuilder writeTextFile( Path file, String content, Charset charset ) {
+		return add(BatchOperation.Kind.WRITE_FILE, file, null, new ByteBuffer[] { charset.encode(content) });
+	}
+
+	/**
+	 * Adds the writing of a UTF-8 encoded text file.
+	 *
+	 * @param file    The pathname of the file to be written.
+	 * @param content The {@link String} content to be written.
+	 * @return This builder.
+	 */
+	public BatchBuilder writeUTF8File( Path file, String content ) {
+		return writeTextFile(file, content, StandardCharsets.UTF_8);
+	}
+
+	private BatchBuilder add( BatchOperation.Kind kind, Path path, FileAttribute<?>[] attributes, ByteBuffer[] content ) {
+
+		operations.add(new BatchOperation(
+			kind,
+			path,
+			attributes == null ? new FileAttribute<?>[0] : attributes,
+			content == null ? new ByteBuffer[0] : content
+		));
+
+		return this;
+
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+
+
+/**
+ * A file-system operation of a batch built by {@link BatchBuilder}.
+ *
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( "ClassWithoutLogger" )
+public class BatchOperation {
+
+	private final FileAttribute<?>[] attributes;
+	private final ByteBuffer[] content;
+	private final Kind kind;
+	private final Path path;
+
+	BatchOperation( Kind kind, Path path, FileAttribute<?>[] attributes, ByteBuffer[] content ) {
+		this.kind = kind;
+		this.path = path;
+		this.attributes = attributes;
+		this.content = content;
+	}
+
+	/**
+	 * @return The kind of this operation.
+	 */
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return The pathname of the file or directory this operation is
+	 *         performed on.
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	@Override
+	public String toString() {
+		return kind + " " + path;
+	}
+
+	FileAttribute<?>[] getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * @return Duplicates of the buffers to be written, so that the operation
+	 *         can be performed more than once.
+	 */
+	ByteBuffer[] getContent() {
+
+		ByteBuffer[] buffers = new ByteBuffer[content.length];
+
+		for ( int i = 0; i < content.length; i++ ) {
+			buffers[i] = content[i].duplicate();
+		}
+
+		return buffers;
+
+	}
+
+	/**
+	 * The kinds of operations a batch can contain.
+	 */
+	@SuppressWarnings( "PublicInnerClass" )
+	public enum Kind {
+
+		/**
+		 * Creates a directory and all its nonexistent parents.
+		 */
+		CREATE_DIRECTORIES,
+
+		/**
+		 * Creates a directory.
+		 */
+		CREATE_DIRECTORY,
+
+		/**
+		 * Creates an empty file.
+		 */
+		CREATE_FILE,
+
+		/**
+		 * Deletes a file or an empty directory, if existing.
+		 */
+		DELETE,
+
+		/**
+		 * Writes a file.
+		 */
+		WRITE_FILE
+
+	}
+
+}
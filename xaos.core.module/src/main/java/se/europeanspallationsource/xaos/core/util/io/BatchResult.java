@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+
+/**
+ * The result of a batch of file-system operations, reporting the outcome of
+ * each operation, in submission order.
+ *
+ * @author claudio.rosati@esss.se
+ * @see BatchBuilder
+ */
+@SuppressWarnings( "ClassWithoutLogger" )
+public class BatchResult {
+
+	private final List<Outcome> outcomes;
+
+	BatchResult( List<Outcome> outcomes ) {
+		this.outcomes = Collections.unmodifiableList(outcomes);
+	}
+
+	/**
+	 * @return The outcomes of the failed operations.
+	 */
+	public List<Outcome> getFailures() {
+		return outcomes.stream().filter(o -> !o.isSuccessful()).collect(Collectors.toList());
+	}
+
+	/**
+	 * @return The outcome of each operation, in submission order.
+	 */
+	public List<Outcome> getOutcomes() {
+		return outcomes;
+	}
+
+	/**
+	 * @return {@code true} if all operations succeeded.
+	 */
+	public boolean isSuccessful() {
+		return outcomes.stream().allMatch(Outcome::isSuccessful);
+	}
+
+	@Override
+	public String toString() {
+		return outcomes.size() + " operations, " + getFailures().size() + " failed";
+	}
+
+	/**
+	 * The outcome of a single operation.
+	 */
+	@SuppressWarnings( "PublicInnerClass" )
+	public static class Outcome {
+
+		private final Throwable error;
+		private final FileTime lastModified;
+		private final BatchOperation operation;
+
+		Outcome( BatchOperation operation, FileTime lastModified, Throwable error ) {
+			this.operation = operation;
+			this.lastModified = lastModified;
+			this.error = error;
+		}
+
+		/**
+		 * @return The error thrown by the operation, or {@code null} if it
+		 *         succeeded.
+		 */
+		public Throwable getError() {
+			return error;
+		}
+
+		/**
+		 * @return The timestamp of the created or written file, or
+		 *         {@code null} for the other operations or if the operation
+		 *         failed.
+		 */
+		public FileTime getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @return The performed operation.
+		 */
+		public BatchOperation getOperation() {
+			return operation;
+		}
+
+		/**
+		 * @return {@code true} if the operation succeeded.
+		 */
+		public boolean isSuccessful() {
+			return error == null;
+		}
+
+		@Override
+		public String toString() {
+			return operation + ( error == null ? ": OK" : ": " + error );
+		}
+
+	}
+
+}
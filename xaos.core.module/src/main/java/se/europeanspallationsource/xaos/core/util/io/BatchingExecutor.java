@@ -0,0 +1,193 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import java.text.MessageFormat;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * An {@link Executor} queuing tasks in a lock-free queue, and handing them
+ * to a delegate {@link Executor} in batches: a single drain task is submitted
+ * to the delegate at a time, executing queued tasks in submission order until
+ * the queue is empty, the maximum batch size is reached, or the time budget is
+ * exhausted. In the last two cases a new drain task is submitted, giving the
+ * delegate (e.g. {@code Platform::runLater}) the chance of performing other
+ * work in between.
+ * <p>
+ * Exceptions thrown by the tasks are logged and do not prevent the execution
+ * of the following ones.</p>
+ *
+ * @author claudio.rosati@esss.se
+ */
+class BatchingExecutor implements Executor {
+
+	static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+	static final long DEFAULT_TIME_BUDGET = 8_000_000L;
+
+	private static final Logger LOGGER = Logger.getLogger(BatchingExecutor.class.getName());
+
+	private final Executor delegate;
+	private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+	private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final AtomicInteger size = new AtomicInteger();
+	private volatile long timeBudget = DEFAULT_TIME_BUDGET;
+
+	BatchingExecutor( Executor delegate ) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Queues the given {@code task}, and submits a drain task to the delegate
+	 * {@link Executor} if none is pending.
+	 *
+	 * @param task The task to be executed.
+	 * @throws RejectedExecutionException If the delegate executor rejects the
+	 *                                    drain task. The given {@code task}
+	 *                                    is removed from the queue, and will
+	 *                                    not be executed.
+	 */
+	@Override
+	public void execute( Runnable task ) throws RejectedExecutionException {
+
+		pending.offer(task);
+		size.incrementAndGet();
+
+		try {
+			schedule();
+		} catch ( RejectedExecutionException e ) {
+
+			if ( pending.remove(task) ) {
+				size.decrementAndGet();
+			}
+
+			throw e;
+
+		}
+
+	}
+
+	int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	long getTimeBudget() {
+		return timeBudget;
+	}
+
+	/**
+	 * @param maxBatchSize The maximum number of tasks executed by a single
+	 *                     drain task.
+	 * @param timeBudget   The time, in nanoseconds, after which a drain task
+	 *                     stops executing queued tasks.
+	 * @throws IllegalArgumentException If a parameter is not positive.
+	 */
+	void setLimits( int maxBatchSize, long timeBudget ) throws IllegalArgumentException {
+
+		if ( maxBatchSize < 1 ) {
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'maxBatchSize' must be greater than 0 [{0}].",
+				maxBatchSize
+			));
+		} else if ( timeBudget <= 0 ) {
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'timeBudget' must be positive [{0}].",
+				timeBudget
+			));
+		}
+
+		this.maxBatchSize = maxBatchSize;
+		this.timeBudget = timeBudget;
+
+	}
+
+	/**
+	 * @return The number of queued tasks, in constant time.
+	 */
+	int size() {
+		return size.get();
+	}
+
+	private void drain() {
+
+		int limit = maxBatchSize;
+		long deadline = System.nanoTime() + timeBudget;
+
+		try {
+
+			Runnable task;
+			int count = 0;
+
+			while ( count < limit && ( task = pending.poll() ) != null ) {
+
+				count++;
+				size.decrementAndGet();
+
+				try {
+					task.run();
+				} catch ( RuntimeException e ) {
+					LOGGER.log(
+						Level.WARNING,
+						MessageFormat.format("Unexpected exception executing task [{0}].", task),
+						e
+					);
+				}
+
+				if ( System.nanoTime() - deadline >= 0 ) {
+					break;
+				}
+
+			}
+
+		} finally {
+
+			scheduled.set(false);
+
+			if ( !pending.isEmpty() ) {
+				try {
+					schedule();
+				} catch ( RejectedExecutionException e ) {
+					//	Remaining tasks stay queued: the next successful
+					//	execute call will drain them.
+					LOGGER.log(Level.WARNING, "Drain task rejected by the delegate executor.", e);
+				}
+			}
+
+		}
+
+	}
+
+	private void schedule() throws RejectedExecutionException {
+		if ( scheduled.compareAndSet(false, true) ) {
+			try {
+				delegate.execute(this::drain);
+			} catch ( RejectedExecutionException e ) {
+				scheduled.set(false);
+				throw e;
+			}
+		}
+	}
+
+}
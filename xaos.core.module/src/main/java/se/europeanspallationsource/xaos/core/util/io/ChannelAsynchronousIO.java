@@ -0,0 +1,732 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.Charset;
+import java.nio.file.CopyOption;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.reactivestreams.Publisher;
+import se.europeanspallationsource.xaos.core.util.io.DirectoryWatcher.WriteMode;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static se.europeanspallationsource.xaos.core.util.DefaultExecutorCompletionStage.wrap;
+
+
+/**
+ * An {@link AsynchronousIO} implementation reading and writing files through
+ * {@link AsynchronousFileChannel}s bound to a shared, bounded
+ * {@link ExecutorService}. Each read or write is a chain of
+ * {@link CompletionHandler}s completing the returned {@link CompletionStage}
+ * directly, so no thread is parked while an operation is in flight, and the
+ * number of threads does not grow with the number of concurrent operations.
+ * <p>
+ * Operations without an asynchronous file-system counterpart (creating,
+ * copying, moving, deleting and mapping files, and batches) are executed as
+ * short blocking tasks by the same {@link ExecutorService}.</p>
+ * <p>
+ * Operations are not ordered: clients requiring ordering (e.g. writing a file
+ * and then reading it back) must wait for the completion of an operation
+ * before submitting the next one.</p>
+ * <p>
+ * The returned {@link CompletionStage}s are completed by the I/O threads, while
+ * their dependent stages are executed by the completion {@link Executor} given
+ * at build time (see {@link se.europeanspallationsource.xaos.core.util.DefaultExecutorCompletionStage}).</p>
+ *
+ * @author claudio.rosati@esss.se
+ * @see ConcurrentAsynchronousIO
+ */
+public class ChannelAsynchronousIO implements AsynchronousIO, AutoCloseable {
+
+	/**
+	 * The maximum size of a file read by {@link #readBinaryFile(Path)} and
+	 * {@link #readTextFile(Path, Charset)}.
+	 */
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+	/**
+	 * Creates a {@link ChannelAsynchronousIO} instance whose I/O threads are
+	 * as many as the available processors. The threads are disposed when the
+	 * instance is closed.
+	 *
+	 * @param completionExecutor The {@link Executor} used to execute the
+	 *                           stages depending on the returned ones.
+	 * @return A newly created {@link ChannelAsynchronousIO} instance.
+	 */
+	public static ChannelAsynchronousIO build( Executor completionExecutor ) {
+		return build(completionExecutor, Math.max(2, Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * Creates a {@link ChannelAsynchronousIO} instance with the given number
+	 * of I/O threads. The threads are disposed when the instance is closed.
+	 *
+	 * @param completionExecutor The {@link Executor} used to execute the
+	 *                           stages depending on the returned ones.
+	 * @param ioThreads          The number of I/O threads.
+	 * @return A newly created {@link ChannelAsynchronousIO} instance.
+	 * @throws IllegalArgumentException If {@code ioThreads} is less than 1.
+	 */
+	public static ChannelAsynchronousIO build( Executor completionExecutor, int ioThreads ) throws IllegalArgumentException {
+		return new ChannelAsynchronousIO(completionExecutor, createIOPool(ioThreads), true);
+	}
+
+	/**
+	 * Creates a {@link ChannelAsynchronousIO} instance using the given
+	 * {@link ExecutorService} for the I/O operations. It should be bounded,
+	 * and it can be shared with other instances.
+	 * <p>
+	 * <b>Note:</b> {@link #close()} will not shutdown the given
+	 * {@code ioExecutor}.</p>
+	 *
+	 * @param completionExecutor The {@link Executor} used to execute the
+	 *                           stages depending on the returned ones.
+	 * @param ioExecutor         The {@link ExecutorService} used to perform
+	 *                           I/O operations and to handle their
+	 *                           completion.
+	 * @return A newly created {@link ChannelAsynchronousIO} instance.
+	 */
+	public static ChannelAsynchronousIO build( Executor completionExecutor, ExecutorService ioExecutor ) {
+		return new ChannelAsynchronousIO(completionExecutor, ioExecutor, false);
+	}
+
+	private static ExecutorService createIOPool( int ioThreads ) throws IllegalArgumentException {
+
+		if ( ioThreads < 1 ) {
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'ioThreads' must be greater than 0 [{0}].",
+				ioThreads
+			));
+		}
+
+		AtomicInteger counter = new AtomicInteger();
+
+		return Executors.newFixedThreadPool(ioThreads, runnable -> {
+
+			Thread thread = new Thread(runnable, "ChannelAsynchronousIO-" + counter.incrementAndGet());
+
+			thread.setDaemon(true);
+
+			return thread;
+
+		});
+
+	}
+
+	private final DirectBufferPool bufferPool = new DirectBufferPool();
+	private volatile boolean closed = false;
+	private final Executor completionExecutor;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final ExecutorService ioExecutor;
+	private final Scheduler ioScheduler;
+	private final boolean ownedExecutor;
+	private volatile WriteMode writeMode = WriteMode.IN_PLACE;
+
+	private ChannelAsynchronousIO( Executor completionExecutor, ExecutorService ioExecutor, boolean ownedExecutor ) {
+		this.completionExecutor = completionExecutor;
+		this.ioExecutor = ioExecutor;
+		this.ioScheduler = Schedulers.from(ioExecutor);
+		this.ownedExecutor = ownedExecutor;
+	}
+
+	@Override
+	public BatchBuilder batch() {
+		return new BatchBuilder(operations -> {
+			if ( operations.isEmpty() ) {
+				return wrap(CompletableFuture.completedFuture(new BatchResult(Collections.emptyList())), completionExecutor);
+			} else {
+				return supply(() -> FileOperations.execute(operations, writeMode));
+			}
+		});
+	}
+
+	/**
+	 * Closes this instance: operations in flight are completed, while new ones
+	 * are rejected, i.e. the returned stages are exceptionally completed with
+	 * a {@link RejectedExecutionException}. If owned by this instance, the I/O
+	 * threads are disposed when all operations in flight are completed.
+	 */
+	@Override
+	public void close() {
+
+		closed = true;
+
+		if ( inFlight.get() == 0 ) {
+			shutdown();
+		}
+
+	}
+
+	@Override
+	public CompletionStage<Void> copyFile( Path source, Path target, CopyOption... options ) {
+		return supply(() -> {
+
+			new TreeCopier(options).copyFile(source, target);
+
+			return null;
+
+		});
+	}
+
+	@Override
+	public CompletionStage<Void> copyTree( Path source, Path target, CopyOption... options ) {
+		return supply(() -> {
+
+			new TreeCopier(options).copyTree(source, target);
+
+			return null;
+
+		});
+	}
+
+	@Override
+	public CompletionStage<Void> createDirectories( Path dir, FileAttribute<?>... attrs ) {
+		return supply(() -> {
+
+			Files.createDirectories(dir, attrs);
+
+			return null;
+
+		});
+	}
+
+	@Override
+	public CompletionStage<Void> createDirectory( Path dir, FileAttribute<?>... attrs ) {
+		return supply(() -> {
+
+			Files.createDirectory(dir, attrs);
+
+			return null;
+
+		});
+	}
+
+	@Override
+	public CompletionStage<Void> createFile( Path file, FileAttribute<?>... attrs ) {
+		return supply(() -> {
+
+			Files.createFile(file, attrs);
+
+			return null;
+
+		});
+	}
+
+	@Override
+	public CompletionStage<Void> delete( Path path ) {
+		return supply(() -> {
+
+			Files.deleteIfExists(path);
+
+			return null;
+
+		});
+	}
+
+	@Override
+	public CompletionStage<Void> deleteTree( Path root ) {
+		return supply(() -> {
+
+			new TreeDeleter().delete(root);
+
+			return null;
+
+		});
+	}
+
+	/**
+	 * @return The {@link WriteMode} used by {@link #writeBinaryFile(Path, byte[])},
+	 *         {@link #writeTextFile(Path, String, Charset)} and batched writes.
+	 */
+	public WriteMode getWriteMode() {
+		return writeMode;
+	}
+
+	/**
+	 * @return {@code true} if this instance was closed.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public CompletionStage<MappedByteBuffer> mapFile( Path file ) {
+		return supply(() -> FileOperations.map(file));
+	}
+
+	@Override
+	public CompletionStage<Void> moveTree( Path source, Path target, CopyOption... options ) {
+		return supply(() -> {
+
+			FileOperations.move(source, target, options);
+
+			return null;
+
+		});
+	}
+
+	@Override
+	public CompletionStage<byte[]> readBinaryFile( Path file ) {
+		return read(file, 0, -1, buffer -> {
+			if ( buffer.remaining() == buffer.capacity() ) {
+				return buffer.array();
+			} else {
+				return Arrays.copyOf(buffer.array(), buffer.remaining());
+			}
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws IllegalArgumentException If {@code offset} or {@code length} are
+	 *                                  negative.
+	 */
+	@Override
+	public CompletionStage<ByteBuffer> readBinaryFileRange( Path file, long offset, int length ) throws IllegalArgumentException {
+
+		if ( offset < 0 || length < 0 ) {
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'offset' and 'length' cannot be negative [offset: {0}, length: {1}].",
+				offset,
+				length
+			));
+		}
+
+		return read(file, offset, length, Function.identity());
+
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * <b>Note:</b> chunks are emitted on the I/O threads.</p>
+	 *
+	 * @throws IllegalArgumentException If {@code chunkSize} is less than 1.
+	 */
+	@Override
+	public Flowable<ByteBuffer> readBinaryFileStream( Path file, int chunkSize ) throws IllegalArgumentException {
+
+		if ( chunkSize < 1 ) {
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'chunkSize' must be greater than 0 [{0}].",
+				chunkSize
+			));
+		}
+
+		return Flowable.defer(() -> {
+			if ( !acquire() ) {
+				return Flowable.error(new RejectedExecutionException("Asynchronous I/O is closed."));
+			} else {
+				return Flowable.using(
+					() -> open(file, READ),
+					channel -> Flowable.fromPublisher((Publisher<ByteBuffer>) subscriber -> subscriber.onSubscribe(
+						new AsynchronousChunkReader(channel, chunkSize, bufferPool, subscriber)
+					)),
+					channel -> {
+						try {
+							channel.close();
+						} finally {
+							release();
+						}
+					}
+				).subscribeOn(ioScheduler);
+			}
+		});
+
+	}
+
+	@Override
+	public CompletionStage<String> readTextFile( Path file, Charset charset ) {
+		return read(file, 0, -1, buffer -> new String(buffer.array(), 0, buffer.remaining(), charset));
+	}
+
+	/**
+	 * @param writeMode The {@link WriteMode} to be used by
+	 *                  {@link #writeBinaryFile(Path, byte[])},
+	 *                  {@link #writeTextFile(Path, String, Charset)} and
+	 *                  batched writes. If {@code null},
+	 *                  {@link WriteMode#IN_PLACE} is used.
+	 */
+	public void setWriteMode( WriteMode writeMode ) {
+		this.writeMode = ( writeMode == null ) ? WriteMode.IN_PLACE : writeMode;
+	}
+
+	@Override
+	public CompletionStage<Void> writeBinaryFile( Path file, byte[] content ) {
+		return write(file, ByteBuffer.wrap(content));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The file is always written in place, regardless of the current
+	 * {@link #getWriteMode()}.</p>
+	 */
+	@Override
+	public CompletionStage<Void> writeBinaryFileStream( Path file, Publisher<ByteBuffer> content ) {
+		return submit(result -> content.subscribe(new AsynchronousFileWriter(
+			open(file, CREATE, WRITE, TRUNCATE_EXISTING),
+			bufferPool,
+			error -> {
+				if ( error != null ) {
+					result.completeExceptionally(error);
+				} else {
+					result.complete(null);
+				}
+			}
+		)));
+	}
+
+	@Override
+	public CompletionStage<Void> writeTextFile( Path file, String content, Charset charset ) {
+		return write(file, ByteBuffer.wrap(content.getBytes(charset)));
+	}
+
+	/**
+	 * @return {@code true} if a new operation can be started, {@code false}
+	 *         if this instance is closed.
+	 */
+	private boolean acquire() {
+
+		inFlight.incrementAndGet();
+
+		if ( closed ) {
+			release();
+			return false;
+		} else {
+			return true;
+		}
+
+	}
+
+	private AsynchronousFileChannel open( Path file, OpenOption... options ) throws IOException {
+		return AsynchronousFileChannel.open(file, new HashSet<>(Arrays.asList(options)), ioExecutor);
+	}
+
+	/**
+	 * Reads {@code length} bytes starting at {@code offset}, or the whole file
+	 * if {@code length} is negative, and completes the returned stage with
+	 * the read bytes converted by the given {@code finisher}.
+	 */
+	private <T> CompletionStage<T> read( Path file, long offset, int length, Function<ByteBuffer, T> finisher ) {
+		return submit(result -> {
+
+			AsynchronousFileChannel channel = open(file, READ);
+
+			try {
+
+				long available = Math.max(0, channel.size() - offset);
+
+				if ( length < 0 && available > MAX_ARRAY_SIZE ) {
+					throw new OutOfMemoryError(MessageFormat.format("File too large to be read [{0}].", file));
+				}
+
+				ByteBuffer buffer = ByteBuffer.allocate((int) ( length < 0 ? available : Math.min(length, available) ));
+
+				new ChannelReader<>(channel, buffer, offset, finisher, result).start();
+
+			} catch ( IOException | RuntimeException | Error e ) {
+				channel.close();
+				throw e;
+			}
+
+		});
+	}
+
+	private void release() {
+		if ( inFlight.decrementAndGet() == 0 && closed ) {
+			shutdown();
+		}
+	}
+
+	private void shutdown() {
+		if ( ownedExecutor ) {
+			ioExecutor.shutdown();
+		}
+	}
+
+	/**
+	 * Starts the given {@code operation} on the I/O threads, and returns the
+	 * stage it will complete.
+	 */
+	@SuppressWarnings( { "UseSpecificCatch", "BroadCatchBlock", "TooBroadCatch" } )
+	private <T> CompletionStage<T> submit( Operation<T> operation ) {
+
+		CompletableFuture<T> result = new CompletableFuture<>();
+
+		if ( acquire() ) {
+
+			result.whenComplete(( value, error ) -> release());
+
+			try {
+				ioExecutor.execute(() -> {
+					try {
+						operation.start(result);
+					} catch ( Throwable t ) {
+						result.completeExceptionally(t);
+					}
+				});
+			} catch ( RejectedExecutionException e ) {
+				result.completeExceptionally(e);
+			}
+
+		} else {
+			result.completeExceptionally(new RejectedExecutionException("Asynchronous I/O is closed."));
+		}
+
+		return wrap(result, completionExecutor);
+
+	}
+
+	/**
+	 * Executes the given blocking {@code operation} on the I/O threads.
+	 */
+	private <T> CompletionStage<T> supply( Callable<T> operation ) {
+		return submit(result -> result.complete(operation.call()));
+	}
+
+	/**
+	 * Writes the given {@code content} according to the current
+	 * {@link WriteMode}.
+	 */
+	private CompletionStage<Void> write( Path file, ByteBuffer content ) {
+
+		WriteMode mode = writeMode;
+
+		return submit(result -> {
+
+			Path temp = ( mode == WriteMode.IN_PLACE ) ? null : FileOperations.temporaryFile(file);
+
+			try {
+				new ChannelWriter(
+					open(temp == null ? file : temp, CREATE, WRITE, TRUNCATE_EXISTING),
+					content,
+					mode,
+					temp,
+					file,
+					result
+				).start();
+			} catch ( IOException | RuntimeException e ) {
+
+				if ( temp != null ) {
+					Files.deleteIfExists(temp);
+				}
+
+				throw e;
+
+			}
+
+		});
+
+	}
+
+	/**
+	 * An operation started on the I/O threads, completing the given
+	 * {@link CompletableFuture} when done.
+	 */
+	@FunctionalInterface
+	private interface Operation<T> {
+
+		void start( CompletableFuture<T> result ) throws Exception;
+
+	}
+
+	/**
+	 * Fills a buffer with positional reads chained by their completion
+	 * handler, until the buffer is full or the end of file is reached.
+	 */
+	private static class ChannelReader<T> implements CompletionHandler<Integer, Void> {
+
+		private final ByteBuffer buffer;
+		private final AsynchronousFileChannel channel;
+		private final Function<ByteBuffer, T> finisher;
+		private long position;
+		private final CompletableFuture<T> result;
+
+		ChannelReader( AsynchronousFileChannel channel, ByteBuffer buffer, long position, Function<ByteBuffer, T> finisher, CompletableFuture<T> result ) {
+			this.buffer = buffer;
+			this.channel = channel;
+			this.finisher = finisher;
+			this.position = position;
+			this.result = result;
+		}
+
+		@Override
+		public void completed( Integer read, Void attachment ) {
+			if ( read < 0 || !buffer.hasRemaining() ) {
+				finish(null);
+			} else {
+				position += read;
+				start();
+			}
+		}
+
+		@Override
+		public void failed( Throwable exc, Void attachment ) {
+			finish(exc);
+		}
+
+		void start() {
+			if ( buffer.hasRemaining() ) {
+				channel.read(buffer, position, null, this);
+			} else {
+				finish(null);
+			}
+		}
+
+		@SuppressWarnings( { "UseSpecificCatch", "BroadCatchBlock", "TooBroadCatch" } )
+		private void finish( Throwable error ) {
+
+			try {
+				channel.close();
+			} catch ( IOException e ) {
+				if ( error == null ) {
+					error = e;
+				}
+			}
+
+			if ( error != null ) {
+				result.completeExceptionally(error);
+			} else {
+				try {
+					buffer.flip();
+					result.complete(finisher.apply(buffer));
+				} catch ( Throwable t ) {
+					result.completeExceptionally(t);
+				}
+			}
+
+		}
+
+	}
+
+	/**
+	 * Writes a buffer with positional writes chained by their completion
+	 * handler and, for non in-place {@link WriteMode}s, replaces the target
+	 * file with the written temporary one.
+	 */
+	private static class ChannelWriter implements CompletionHandler<Integer, Void> {
+
+		private final AsynchronousFileChannel channel;
+		private final ByteBuffer content;
+		private final Path file;
+		private final WriteMode mode;
+		private long position = 0;
+		private final CompletableFuture<Void> result;
+		private final Path temp;
+
+		ChannelWriter( AsynchronousFileChannel channel, ByteBuffer content, WriteMode mode, Path temp, Path file, CompletableFuture<Void> result ) {
+			this.channel = channel;
+			this.content = content;
+			this.file = file;
+			this.mode = mode;
+			this.result = result;
+			this.temp = temp;
+		}
+
+		@Override
+		public void completed( Integer written, Void attachment ) {
+			position += written;
+			start();
+		}
+
+		@Override
+		public void failed( Throwable exc, Void attachment ) {
+			finish(exc);
+		}
+
+		void start() {
+			if ( content.hasRemaining() ) {
+				channel.write(content, position, null, this);
+			} else {
+				finish(null);
+			}
+		}
+
+		@SuppressWarnings( { "UseSpecificCatch", "BroadCatchBlock", "TooBroadCatch" } )
+		private void finish( Throwable error ) {
+
+			try {
+
+				try {
+
+					if ( error == null && mode == WriteMode.DURABLE ) {
+						channel.force(true);
+					}
+
+				} finally {
+					channel.close();
+				}
+
+				if ( error == null && temp != null ) {
+					FileOperations.replace(temp, file, mode);
+				}
+
+			} catch ( Throwable t ) {
+				if ( error == null ) {
+					error = t;
+				}
+			}
+
+			if ( error != null ) {
+
+				if ( temp != null ) {
+					try {
+						Files.deleteIfExists(temp);
+					} catch ( IOException e ) {
+						error.addSuppressed(e);
+					}
+				}
+
+				result.completeExceptionally(error);
+
+			} else {
+				result.complete(null);
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,558 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import io.reactivex.Emitter;
+import io.reactivex.Flowable;
+import io.reactivex.schedulers.Schedulers;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.CopyOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.text.MessageFormat;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.reactivestreams.Publisher;
+import se.europeanspallationsource.xaos.core.util.io.DirectoryWatcher.WriteMode;
+
+import static se.europeanspallationsource.xaos.core.util.DefaultExecutorCompletionStage.wrap;
+
+
+/**
+ * An {@link AsynchronousIO} implementation not depending on a
+ * {@link DirectoryWatcher}, executing each operation in its own thread:
+ * a virtual thread when supported by the running platform (Java 21 or
+ * later), otherwise one of a fixed pool of {@link #getMaxConcurrency()}
+ * daemon threads.
+ * <p>
+ * At most {@link #getMaxConcurrency()} operations are in progress at the
+ * same time, the others being queued, without holding any thread, until a
+ * permit is released. Streamed writes hold their permit until the stream
+ * terminates, while the chunks of streamed reads are not counted, so that
+ * writes fed by reads of the same instance cannot starve them.</p>
+ * <p>
+ * A streamed write is also completed, with respect to the ordering of the
+ * operations on its file, only when the stream terminates: the following
+ * operations on the same file (e.g. reading it back) start afterwards. For
+ * this reason the content of a streamed write cannot be read from the same
+ * file by this instance.</p>
+ * <p>
+ * Operations on the same {@link Path} are executed in submission order,
+ * while operations on different paths can run in parallel: clients requiring
+ * ordering among different paths (e.g. deleting a file and then its parent
+ * directory) must wait for the completion of an operation before submitting
+ * the next one. A batch is ordered with respect to the operations on each of
+ * the paths it involves.</p>
+ * <p>
+ * The returned {@link CompletionStage}s are completed by the I/O threads, while
+ * their dependent stages are executed by the completion {@link Executor} given
+ * at build time (see {@link se.europeanspallationsource.xaos.core.util.DefaultExecutorCompletionStage}).</p>
+ * <p>
+ * Usage:</p>
+ * <pre>
+ *   try ( ConcurrentAsynchronousIO io = ConcurrentAsynchronousIO.build(executor) ) {
+ *     io.readUTF8File(file).thenAccept(content -&gt; ...);
+ *   }</pre>
+ *
+ * @author claudio.rosati@esss.se
+ */
+public class ConcurrentAsynchronousIO implements AsynchronousIO, AutoCloseable {
+
+	/**
+	 * The default maximum number of operations executed at the same time.
+	 */
+	public static final int DEFAULT_MAX_CONCURRENCY = 64;
+
+	private static final Logger LOGGER = Logger.getLogger(ConcurrentAsynchronousIO.class.getName());
+
+	/**
+	 * Creates a {@link ConcurrentAsynchronousIO} instance executing at most
+	 * {@value #DEFAULT_MAX_CONCURRENCY} operations at the same time.
+	 *
+	 * @param completionExecutor The {@link Executor} used to execute the
+	 *                           stages depending on the returned ones.
+	 * @return A newly created {@link ConcurrentAsynchronousIO} instance.
+	 */
+	public static ConcurrentAsynchronousIO build( Executor completionExecutor ) {
+		return build(completionExecutor, DEFAULT_MAX_CONCURRENCY);
+	}
+
+	/**
+	 * Creates a {@link ConcurrentAsynchronousIO} instance executing at most
+	 * {@code maxConcurrency} operations at the same time, each one in its own
+	 * thread. The threads are disposed when the instance is closed and all
+	 * the already submitted operations are completed.
+	 *
+	 * @param completionExecutor The {@link Executor} used to execute the
+	 *                           stages depending on the returned ones.
+	 * @param maxConcurrency     The maximum number of operations executed at
+	 *                           the same time.
+	 * @return A newly created {@link ConcurrentAsynchronousIO} instance.
+	 * @throws IllegalArgumentException If {@code maxConcurrency} is less than
+	 *                                  1.
+	 */
+	public static ConcurrentAsynchronousIO build( Executor completionExecutor, int maxConcurrency ) throws IllegalArgumentException {
+
+		ExecutorService pool = createThreadPerTaskExecutor(maxConcurrency);
+
+		return new ConcurrentAsynchronousIO(completionExecutor, maxConcurrency, pool, pool);
+
+	}
+
+	/**
+	 * Creates a {@link ConcurrentAsynchronousIO} instance executing at most
+	 * {@code maxConcurrency} operations at the same time, through the given
+	 * {@link Executor}.
+	 * <p>
+	 * <b>Note:</b> {@link #close()} will not shutdown the given
+	 * {@code ioExecutor}.</p>
+	 *
+	 * @param completionExecutor The {@link Executor} used to execute the
+	 *                           stages depending on the returned ones.
+	 * @param maxConcurrency     The maximum number of operations executed at
+	 *                           the same time.
+	 * @param ioExecutor         The {@link Executor} used to perform I/O
+	 *                           operations.
+	 * @return A newly created {@link ConcurrentAsynchronousIO} instance.
+	 * @throws IllegalArgumentException If {@code maxConcurrency} is less than
+	 *                                  1.
+	 */
+	public static ConcurrentAsynchronousIO build( Executor completionExecutor, int maxConcurrency, Executor ioExecutor ) throws IllegalArgumentException {
+		return new ConcurrentAsynchronousIO(completionExecutor, maxConcurrency, ioExecutor, null);
+	}
+
+	/**
+	 * @return A new virtual thread per task {@link ExecutorService} if the
+	 *         running platform supports it, otherwise a fixed pool of
+	 *         {@code maxConcurrency} daemon threads (or a single thread if
+	 *         {@code maxConcurrency} is not valid).
+	 */
+	private static ExecutorService createThreadPerTaskExecutor( int maxConcurrency ) {
+
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch ( ReflectiveOperationException | ClassCastException e ) {
+			LOGGER.log(Level.FINE, "Virtual threads not available: using platform threads.", e);
+		}
+
+		AtomicInteger counter = new AtomicInteger();
+
+		return Executors.newFixedThreadPool(Math.max(1, maxConcurrency), runnable -> {
+
+			Thread thread = new Thread(runnable, "ConcurrentAsynchronousIO-" + counter.incrementAndGet());
+
+			thread.setDaemon(true);
+
+			return thread;
+
+		});
+
+	}
+
+	private final DirectBufferPool bufferPool = new DirectBufferPool();
+	private volatile boolean closed = false;
+	private final Executor completionExecutor;
+	private final ExecutorService ioPool;
+	private final int maxConcurrency;
+	private final AtomicInteger outstanding = new AtomicInteger();
+	private final SerialPathExecutor pathExecutor;
+	private final Queue<Runnable> pending = new ArrayDeque<>();
+	private final Semaphore permits;
+	private volatile WriteMode writeMode = WriteMode.IN_PLACE;
+
+	private ConcurrentAsynchronousIO( Executor completionExecutor, int maxConcurrency, Executor ioExecutor, ExecutorService ioPool ) throws IllegalArgumentException {
+
+		if ( maxConcurrency < 1 ) {
+
+			if ( ioPool != null ) {
+				ioPool.shutdown();
+			}
+
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'maxConcurrency' must be greater than 0 [{0}].",
+				maxConcurrency
+			));
+
+		}
+
+		this.completionExecutor = completionExecutor;
+		this.ioPool = ioPool;
+		this.maxConcurrency = maxConcurrency;
+		this.pathExecutor = new SerialPathExecutor(ioExecutor);
+		this.permits = new Semaphore(maxConcurrency);
+
+	}
+
+	@Override
+	public BatchBuilder batch() {
+		return new BatchBuilder(operations -> {
+			if ( operations.isEmpty() ) {
+				return wrap(CompletableFuture.completedFuture(new BatchResult(Collections.emptyList())), completionExecutor);
+			} else {
+				return supply(FileOperations.pathsOf(operations), () -> FileOperations.execute(operations, writeMode));
+			}
+		});
+	}
+
+	/**
+	 * Closes this instance: already submitted operations are completed, while
+	 * new ones are rejected, i.e. the returned stages are exceptionally
+	 * completed with a {@link RejectedExecutionException}.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		shutdownIfIdle();
+	}
+
+	@Override
+	public CompletionStage<Void> copyFile( Path source, Path target, CopyOption... options ) {
+		return supply(target, () -> {
+
+			new TreeCopier(options).copyFile(source, target);
+
+			return null;
+
+		});
+	}
+
+	@Override
+	public CompletionStage<Void> copyTree( Path source, Path target, CopyOption... options ) {
+		return run(target, () -> new TreeCopier(options).copyTree(source, target));
+	}
+
+	@Override
+	public CompletionStage<Void> createDirectories( Path dir, FileAttribute<?>... attrs ) {
+		return run(dir, () -> Files.createDirectories(dir, attrs));
+	}
+
+	@Override
+	public CompletionStage<Void> createDirectory( Path dir, FileAttribute<?>... attrs ) {
+		return run(dir, () -> Files.createDirectory(dir, attrs));
+	}
+
+	@Override
+	public CompletionStage<Void> createFile( Path file, FileAttribute<?>... attrs ) {
+		return run(file, () -> Files.createFile(file, attrs));
+	}
+
+	@Override
+	public CompletionStage<Void> delete( Path path ) {
+		return run(path, () -> Files.deleteIfExists(path));
+	}
+
+	@Override
+	public CompletionStage<Void> deleteTree( Path root ) {
+		return run(root, () -> new TreeDeleter().delete(root));
+	}
+
+	/**
+	 * @return The maximum number of operations executed at the same time.
+	 */
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	/**
+	 * @return The {@link WriteMode} used by {@link #writeBinaryFile(Path, byte[])},
+	 *         {@link #writeTextFile(Path, String, Charset)} and batched writes.
+	 */
+	public WriteMode getWriteMode() {
+		return writeMode;
+	}
+
+	/**
+	 * @return {@code true} if this instance was closed.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public CompletionStage<MappedByteBuffer> mapFile( Path file ) {
+		return supply(file, () -> FileOperations.map(file));
+	}
+
+	@Override
+	public CompletionStage<Void> moveTree( Path source, Path target, CopyOption... options ) {
+		return supply(target, () -> {
+
+			FileOperations.move(source, target, options);
+
+			return null;
+
+		});
+	}
+
+	@Override
+	public CompletionStage<byte[]> readBinaryFile( Path file ) {
+		return supply(file, () -> Files.readAllBytes(file));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws IllegalArgumentException If {@code offset} or {@code length} are
+	 *                                  negative.
+	 */
+	@Override
+	public CompletionStage<ByteBuffer> readBinaryFileRange( Path file, long offset, int length ) throws IllegalArgumentException {
+
+		if ( offset < 0 || length < 0 ) {
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'offset' and 'length' cannot be negative [offset: {0}, length: {1}].",
+				offset,
+				length
+			));
+		}
+
+		return supply(file, () -> FileOperations.read(file, offset, length));
+
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * <b>Note:</b> the file is read on the I/O threads, after the already
+	 * queued operations on the same file. Chunks are emitted on the I/O
+	 * threads too.</p>
+	 *
+	 * @throws IllegalArgumentException If {@code chunkSize} is less than 1.
+	 */
+	@Override
+	public Flowable<ByteBuffer> readBinaryFileStream( Path file, int chunkSize ) throws IllegalArgumentException {
+
+		if ( chunkSize < 1 ) {
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'chunkSize' must be greater than 0 [{0}].",
+				chunkSize
+			));
+		}
+
+		return Flowable.defer(() -> {
+			if ( isClosed() ) {
+				return Flowable.error(new RejectedExecutionException("Asynchronous I/O is closed."));
+			} else {
+				return Flowable.<ByteBuffer, FileChunkReader>generate(
+					() -> new FileChunkReader(file, chunkSize, bufferPool),
+					( FileChunkReader reader, Emitter<ByteBuffer> emitter ) -> reader.next(emitter),
+					FileChunkReader::close
+				).subscribeOn(Schedulers.from(task -> execute(file, task)));
+			}
+		});
+
+	}
+
+	@Override
+	public CompletionStage<String> readTextFile( Path file, Charset charset ) {
+		return supply(file, () -> new String(Files.readAllBytes(file), charset));
+	}
+
+	/**
+	 * @param writeMode The {@link WriteMode} to be used by
+	 *                  {@link #writeBinaryFile(Path, byte[])},
+	 *                  {@link #writeTextFile(Path, String, Charset)} and
+	 *                  batched writes. If {@code null},
+	 *                  {@link WriteMode#IN_PLACE} is used.
+	 */
+	public void setWriteMode( WriteMode writeMode ) {
+		this.writeMode = ( writeMode == null ) ? WriteMode.IN_PLACE : writeMode;
+	}
+
+	@Override
+	public CompletionStage<Void> writeBinaryFile( Path file, byte[] content ) {
+		return run(file, () -> FileOperations.write(file, writeMode, ByteBuffer.wrap(content)));
+	}
+
+	@Override
+	@SuppressWarnings( { "UseSpecificCatch", "BroadCatchBlock", "TooBroadCatch" } )
+	public CompletionStage<Void> writeBinaryFileStream( Path file, Publisher<ByteBuffer> content ) {
+
+		CompletableFuture<Void> written = new CompletableFuture<>();
+
+		//	The permit, and the file's place in the order of operations, are
+		//	held until the stream terminates.
+		submit(Collections.singletonList(file), done -> {
+			try {
+				content.subscribe(new AsynchronousFileWriter(file, bufferPool, error -> {
+
+					done.run();
+
+					if ( error != null ) {
+						written.completeExceptionally(error);
+					} else {
+						written.complete(null);
+					}
+
+				}));
+			} catch ( Throwable t ) {
+				done.run();
+				written.completeExceptionally(t);
+			}
+		}, written::completeExceptionally);
+
+		return wrap(written, completionExecutor);
+
+	}
+
+	@Override
+	public CompletionStage<Void> writeTextFile( Path file, String content, Charset charset ) {
+		return run(file, () -> FileOperations.write(file, writeMode, ByteBuffer.wrap(content.getBytes(charset))));
+	}
+
+	/**
+	 * Admits the queued operations, in submission order, while permits are
+	 * available. Each releasing thread checks the queue again, so no
+	 * operation is left waiting.
+	 */
+	private void admitPending() {
+		synchronized ( pending ) {
+			while ( !pending.isEmpty() && permits.tryAcquire() ) {
+				pending.poll().run();
+			}
+		}
+	}
+
+	/**
+	 * Executes the given task on the I/O threads, after the ones already
+	 * queued for the same path, without waiting for a permit.
+	 */
+	private void execute( Path path, Runnable task ) throws RejectedExecutionException {
+		if ( !isClosed() ) {
+			pathExecutor.execute(path, task);
+		} else {
+			throw new RejectedExecutionException("Asynchronous I/O is closed.");
+		}
+	}
+
+	/**
+	 * Executes the given {@code operation}, discarding its result.
+	 */
+	private CompletionStage<Void> run( Path path, Callable<?> operation ) {
+		return supply(path, () -> {
+			operation.call();
+			return null;
+		});
+	}
+
+	private void shutdownIfIdle() {
+		if ( ioPool != null && isClosed() && outstanding.get() == 0 ) {
+			ioPool.shutdown();
+		}
+	}
+
+	/**
+	 * Executes the given operation on the I/O threads, after the ones already
+	 * queued for the same paths, as soon as a permit is available. Operations
+	 * waiting for a permit are queued without holding any thread.
+	 *
+	 * @param paths      The {@link Path}s the operation works on.
+	 * @param operation  The operation, receiving the callback to be run when
+	 *                   it terminates, releasing the permit and letting the
+	 *                   following operations on the same paths start.
+	 * @param onRejected Called if the operation cannot be executed.
+	 */
+	private void submit( Collection<Path> paths, Consumer<Runnable> operation, Consumer<Throwable> onRejected ) {
+
+		if ( isClosed() ) {
+			onRejected.accept(new RejectedExecutionException("Asynchronous I/O is closed."));
+			return;
+		}
+
+		AtomicBoolean released = new AtomicBoolean(false);
+		Runnable done = () -> {
+			if ( released.compareAndSet(false, true) ) {
+				permits.release();
+				outstanding.decrementAndGet();
+				admitPending();
+				shutdownIfIdle();
+			}
+		};
+
+		outstanding.incrementAndGet();
+
+		synchronized ( pending ) {
+			pending.add(() -> {
+				try {
+					pathExecutor.executeAsync(paths, completed -> operation.accept(() -> {
+						completed.run();
+						done.run();
+					}), e -> {
+						done.run();
+						onRejected.accept(e);
+					});
+				} catch ( RejectedExecutionException e ) {
+					done.run();
+					onRejected.accept(e);
+				}
+			});
+		}
+
+		admitPending();
+
+	}
+
+	private <T> CompletionStage<T> supply( Path path, Callable<T> operation ) {
+		return supply(Collections.singletonList(path), operation);
+	}
+
+	@SuppressWarnings( { "UseSpecificCatch", "BroadCatchBlock", "TooBroadCatch" } )
+	private <T> CompletionStage<T> supply( Collection<Path> paths, Callable<T> operation ) {
+
+		CompletableFuture<T> future = new CompletableFuture<>();
+
+		submit(paths, done -> {
+
+			T result;
+
+			try {
+				result = operation.call();
+			} catch ( Throwable t ) {
+				done.run();
+				future.completeExceptionally(t);
+				return;
+			}
+
+			done.run();
+			future.complete(result);
+
+		}, future::completeExceptionally);
+
+		return wrap(future, completionExecutor);
+
+	}
+
+}
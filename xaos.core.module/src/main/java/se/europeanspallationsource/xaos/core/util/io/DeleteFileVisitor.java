@@ -35,12 +35,29 @@ import java.nio.file.attribute.BasicFileAttributes;
  *   Path root = ...
  *
  *   Files.walkFileTree(root, new DeleteFileVisitor());</pre>
+ * <p>
+ * Large trees can be deleted faster calling {@link #deleteTree(Path)}, that
+ * deletes entries in parallel.</p>
  *
  * @author claudio.rosati@esss.se
  */
 @SuppressWarnings( "ClassWithoutLogger" )
 public class DeleteFileVisitor extends SimpleFileVisitor<Path> {
 
+	/**
+	 * Deletes the given file or file tree, using as many threads as the
+	 * available processors. Directories are listed iteratively, so the depth
+	 * of the tree is not limited by the stack size. Nothing is done if
+	 * {@code root} doesn't exist.
+	 *
+	 * @param root The file or the root of the file tree to be deleted.
+	 * @return The number of deleted entries.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static long deleteTree( Path root ) throws IOException {
+		return new TreeDeleter().delete(root);
+	}
+
 	@Override
 	public FileVisitResult postVisitDirectory( Path dir, IOException e ) throws IOException {
 
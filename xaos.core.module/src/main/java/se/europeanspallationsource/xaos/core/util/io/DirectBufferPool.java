@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A bounded pool of direct {@link ByteBuffer}s of the same capacity, used to
+ * avoid the (expensive) allocation of a direct buffer for each streaming
+ * operation.
+ * <p>
+ * Buffers larger than the pool capacity can be acquired too, but they are
+ * not pooled when released.</p>
+ *
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( "ClassWithoutLogger" )
+class DirectBufferPool {
+
+	static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	static final int DEFAULT_MAX_POOLED = 16;
+
+	private final int bufferSize;
+	private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+	private final int maxPooled;
+	private final AtomicInteger pooled = new AtomicInteger();
+
+	DirectBufferPool() {
+		this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+	}
+
+	DirectBufferPool( int bufferSize, int maxPooled ) {
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+
+	/**
+	 * @param size The minimum capacity of the returned buffer.
+	 * @return A cleared direct buffer having at least the given capacity, and
+	 *         the limit set to {@code size}.
+	 */
+	ByteBuffer acquire( int size ) {
+
+		ByteBuffer buffer = null;
+
+		if ( size <= bufferSize ) {
+
+			buffer = buffers.poll();
+
+			if ( buffer != null ) {
+				pooled.decrementAndGet();
+				buffer.clear();
+			} else {
+				buffer = ByteBuffer.allocateDirect(bufferSize);
+			}
+
+		} else {
+			buffer = ByteBuffer.allocateDirect(size);
+		}
+
+		buffer.limit(size);
+
+		return buffer;
+
+	}
+
+	int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * @return The number of buffers currently available in the pool.
+	 */
+	int pooled() {
+		return pooled.get();
+	}
+
+	/**
+	 * Returns the given buffer to the pool. The buffer must not be used after
+	 * this call.
+	 *
+	 * @param buffer The buffer to be released. Can be {@code null}.
+	 */
+	void release( ByteBuffer buffer ) {
+		if ( buffer != null && buffer.isDirect() && buffer.capacity() == bufferSize ) {
+			if ( pooled.incrementAndGet() <= maxPooled ) {
+				buffers.offer(buffer);
+			} else {
+				pooled.decrementAndGet();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import se.europeanspallationsource.xaos.core.util.io.DirectoryWatcher.DirectoryEvent;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+
+/**
+ * Accumulates the {@link WatchEvent}s of watched directories, merging the
+ * events occurred to the same entry into their net effect:
+ * <ul>
+ *   <li>create followed by modifications is a creation;</li>
+ *   <li>create followed by delete is nothing;</li>
+ *   <li>modifications followed by delete is a deletion;</li>
+ *   <li>delete followed by create is a deletion followed by a creation (the
+ *     entry could have changed type).</li>
+ * </ul>
+ * <p>
+ * Accumulated events are drained as one {@link DirectoryEvent} per watched
+ * directory. This class is not thread safe: it is used by the watching
+ * thread only.</p>
+ *
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( "ClassWithoutLogger" )
+class DirectoryEventCoalescer {
+
+	private long firstEventTime;
+	private long lastEventTime;
+	private final Map<Path, PendingDirectory> pending = new LinkedHashMap<>();
+
+	/**
+	 * Accumulates the given events.
+	 *
+	 * @param watchedPath The watched directory.
+	 * @param events      The events occurred to {@code watchedPath}.
+	 * @param reset       Whether the {@link java.nio.file.WatchKey} was
+	 *                    successfully reset.
+	 * @param now         The current {@link System#nanoTime()}.
+	 */
+	void add( Path watchedPath, List<WatchEvent<?>> events, boolean reset, long now ) {
+
+		if ( pending.isEmpty() ) {
+			firstEventTime = now;
+		}
+
+		lastEventTime = now;
+
+		pending.computeIfAbsent(watchedPath, p -> new PendingDirectory()).add(events, reset);
+
+	}
+
+	/**
+	 * Returns the time when the pending events must be drained.
+	 *
+	 * @param window     The quiet period, in nanoseconds, after which pending
+	 *                   events are drained.
+	 * @param maxLatency The maximum time, in nanoseconds, an event can stay
+	 *                   pending.
+	 * @return The {@link System#nanoTime()} value when pending events must be
+	 *         drained.
+	 */
+	long deadline( long window, long maxLatency ) {
+		return Math.min(lastEventTime + window, firstEventTime + maxLatency);
+	}
+
+	/**
+	 * @return The accumulated events as one {@link DirectoryEvent} per watched
+	 *         directory, in order of first occurrence. Directories whose
+	 *         events cancelled each other are not returned.
+	 */
+	List<DirectoryEvent> drain() {
+
+		List<DirectoryEvent> drained = new ArrayList<>(pending.size());
+
+		pending.forEach(( watchedPath, directory ) -> {
+
+			List<WatchEvent<?>> events = directory.netEvents();
+
+			if ( !events.isEmpty() || !directory.reset ) {
+				drained.add(new DirectoryEvent(watchedPath, events, directory.reset));
+			}
+
+		});
+
+		pending.clear();
+
+		return drained;
+
+	}
+
+	boolean isEmpty() {
+		return pending.isEmpty();
+	}
+
+	/**
+	 * Net effect of a sequence of events on a single entry.
+	 */
+	private enum Net {
+
+		CREATED,
+		DELETED,
+		MODIFIED,
+		REPLACED;
+
+		/**
+		 * @return The net effect of the given {@code kind} following this
+		 *         one, or {@code null} if the two cancel each other.
+		 */
+		Net then( WatchEvent.Kind<?> kind ) {
+			if ( kind == ENTRY_CREATE ) {
+				return ( this == DELETED || this == MODIFIED ) ? REPLACED : this;
+			} else if ( kind == ENTRY_DELETE ) {
+				return ( this == CREATED ) ? null : DELETED;
+			} else {
+				return this;
+			}
+		}
+
+		static Net of( WatchEvent.Kind<?> kind ) {
+			if ( kind == ENTRY_CREATE ) {
+				return CREATED;
+			} else if ( kind == ENTRY_DELETE ) {
+				return DELETED;
+			} else {
+				return MODIFIED;
+			}
+		}
+
+	}
+
+	private static class PendingDirectory {
+
+		private final Map<Path, Integer> counts = new LinkedHashMap<>();
+		private final Map<Path, Net> entries = new LinkedHashMap<>();
+		private int overflows = 0;
+		private boolean reset = true;
+
+		@SuppressWarnings( "unchecked" )
+		void add( List<WatchEvent<?>> events, boolean reset ) {
+
+			this.reset &= reset;
+
+			events.forEach(event -> {
+				if ( event.kind() == OVERFLOW ) {
+					overflows += event.count();
+				} else {
+
+					WatchEvent<Path> pathEvent = (WatchEvent<Path>) event;
+					Path context = pathEvent.context();
+					Net net = entries.get(context);
+
+					counts.merge(context, event.count(), Integer::sum);
+
+					//	A null value marks events that cancelled each other:
+					//	the entry is kept to preserve the order of first
+					//	occurrence.
+					if ( net == null ) {
+						entries.put(context, Net.of(event.kind()));
+					} else {
+						entries.put(context, net.then(event.kind()));
+					}
+
+				}
+			});
+
+		}
+
+		List<WatchEvent<?>> netEvents() {
+
+			List<WatchEvent<?>> events = new ArrayList<>(entries.size() + 1);
+
+			if ( overflows > 0 ) {
+				events.add(new SyntheticWatchEvent<>(OVERFLOW, overflows, null));
+			}
+
+			entries.forEach(( context, net ) -> {
+
+				int count = counts.get(context);
+
+				if ( net != null ) {
+					switch ( net ) {
+						case CREATED:
+							events.add(new SyntheticWatchEvent<>(ENTRY_CREATE, count, context));
+							break;
+						case DELETED:
+							events.add(new SyntheticWatchEvent<>(ENTRY_DELETE, count, context));
+							break;
+						case MODIFIED:
+							events.add(new SyntheticWatchEvent<>(ENTRY_MODIFY, count, context));
+							break;
+						case REPLACED:
+							events.add(new SyntheticWatchEvent<>(ENTRY_DELETE, count, context));
+							events.add(new SyntheticWatchEvent<>(ENTRY_CREATE, count, context));
+							break;
+					}
+				}
+
+			});
+
+			return events;
+
+		}
+
+	}
+
+}
@@ -16,18 +16,28 @@
 package se.europeanspallationsource.xaos.core.util.io;
 
 
+import io.reactivex.Emitter;
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
+import io.reactivex.schedulers.Schedulers;
 import io.reactivex.subjects.PublishSubject;
 import io.reactivex.subjects.Subject;
 import java.io.IOException;
-import java.lang.ref.WeakReference;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.CopyOption;
 import java.nio.file.DirectoryStream;
-import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
@@ -35,23 +45,37 @@ import java.nio.file.WatchService;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.FileTime;
 import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
+import java.util.regex.Pattern;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import org.reactivestreams.Publisher;
+import se.europeanspallationsource.xaos.core.util.Backpressure;
 
-import static java.nio.file.StandardOpenOption.CREATE;
-import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
-import static java.nio.file.StandardOpenOption.WRITE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
@@ -81,16 +105,35 @@ import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
  *   Path root = ...
  *
  *   watcher.watch(root);</pre>
+ * <p>
+ * Bursts of events can be coalesced calling
+ * {@link #setEventCoalescing(Duration, Duration)}.</p>
+ * <p>
+ * Events, errors and I/O operations callbacks are handed to the event thread
+ * {@link Executor} in batches (see {@link #setEventBatching(int, Duration)}),
+ * in the order they were produced.</p>
  *
  * @author claudio.rosati@esss.se
  * @see <a href="https://github.com/ESSICS/LiveDirsFX">LiveDirsFX:org.fxmisc.livedirs.DirWatcher</a>
  */
 public class DirectoryWatcher implements AutoCloseable {
 
+	/**
+	 * The suffix of the temporary files created by {@link WriteMode#ATOMIC}
+	 * and {@link WriteMode#DURABLE} writes, named
+	 * {@code .<target>.<random hex><suffix>}. Events about such files are
+	 * not emitted, while other files ending with this suffix are reported
+	 * as usual.
+	 */
+	public static final String TEMPORARY_FILE_SUFFIX = ".xaos.tmp";
+
 	private static final Logger LOGGER = Logger.getLogger(DirectoryWatcher.class.getName());
+	private static final Pattern TEMPORARY_FILE_NAME = Pattern.compile("\\..+\\.[0-9a-f]{1,16}" + Pattern.quote(TEMPORARY_FILE_SUFFIX));
 
 	/**
-	 * Creates a {@link DirectoryWatcher} instance.
+	 * Creates a {@link DirectoryWatcher} instance. I/O operations are executed
+	 * on a single thread, in submission order, separate from the one watching
+	 * the file-system.
 	 *
 	 * @param eventThreadExecutor The {@link Executor} used to queue I/O events.
 	 * @return A newly created {@link DirectoryWatcher} instance.
@@ -100,22 +143,149 @@ public class DirectoryWatcher implements AutoCloseable {
 		return new DirectoryWatcher(eventThreadExecutor);
 	}
 
+	/**
+	 * Creates a {@link DirectoryWatcher} instance whose I/O operations are
+	 * executed by a pool of {@code ioThreads} threads. If {@code ioThreads} is
+	 * greater than 1, operations on the same {@link Path} are executed in
+	 * submission order, while operations on different paths can run in
+	 * parallel: clients requiring ordering among different paths (e.g. deleting
+	 * a file and then its parent directory) must wait for the completion of an
+	 * operation before submitting the next one.
+	 * <p>
+	 * The pool is shutdown when this watcher is closed.</p>
+	 *
+	 * @param eventThreadExecutor The {@link Executor} used to queue I/O events.
+	 * @param ioThreads           The number of I/O threads.
+	 * @return A newly created {@link DirectoryWatcher} instance.
+	 * @throws IOException              If an I/O error occurs.
+	 * @throws IllegalArgumentException If {@code ioThreads} is less than 1.
+	 */
+	public static DirectoryWatcher build( Executor eventThreadExecutor, int ioThreads ) throws IOException, IllegalArgumentException {
+		return new DirectoryWatcher(eventThreadExecutor, ioThreads);
+	}
+
+	/**
+	 * Creates a {@link DirectoryWatcher} instance whose I/O operations are
+	 * executed by the given {@link Executor} (e.g. one creating a new virtual
+	 * thread for each task, where available). Operations on the same
+	 * {@link Path} are executed in submission order, while operations on
+	 * different paths can run in parallel: clients requiring ordering among
+	 * different paths must wait for the completion of an operation before
+	 * submitting the next one.
+	 * <p>
+	 * <b>Note:</b> {@link #close()} will not shutdown the given
+	 * {@code ioExecutor}.</p>
+	 *
+	 * @param eventThreadExecutor The {@link Executor} used to queue I/O events.
+	 * @param ioExecutor          The {@link Executor} used to perform I/O
+	 *                            operations.
+	 * @return A newly created {@link DirectoryWatcher} instance.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static DirectoryWatcher build( Executor eventThreadExecutor, Executor ioExecutor ) throws IOException {
+		return new DirectoryWatcher(eventThreadExecutor, ioExecutor);
+	}
+
+	/**
+	 * Creates a {@link DirectoryWatcher} instance using the given
+	 * {@link WatchStrategy} to be notified of file-system changes (e.g.
+	 * {@link WatchStrategy#polling()} for directories on network file systems
+	 * not supporting native notifications). I/O operations are executed on a
+	 * single thread, in submission order, separate from the one watching the
+	 * file-system.
+	 *
+	 * @param eventThreadExecutor The {@link Executor} used to queue I/O events.
+	 * @param watchStrategy       The strategy used to watch directories.
+	 * @return A newly created {@link DirectoryWatcher} instance.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static DirectoryWatcher build( Executor eventThreadExecutor, WatchStrategy watchStrategy ) throws IOException {
+		return new DirectoryWatcher(eventThreadExecutor, watchStrategy);
+	}
+
+	private static ExecutorService createIOPool( int ioThreads ) throws IllegalArgumentException {
+
+		if ( ioThreads < 1 ) {
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'ioThreads' must be greater than 0 [{0}].",
+				ioThreads
+			));
+		}
+
+		AtomicInteger counter = new AtomicInteger();
+
+		return Executors.newFixedThreadPool(ioThreads, runnable -> {
+
+			Thread thread = new Thread(
+				runnable,
+				ioThreads == 1 ? "DirectoryWatcherIO" : "DirectoryWatcherIO-" + counter.incrementAndGet()
+			);
+
+			thread.setPriority(Thread.NORM_PRIORITY - 2);
+
+			return thread;
+
+		});
+
+	}
+
+	private static boolean isTemporaryFileEvent( WatchEvent<?> event ) {
+		return event.context() instanceof Path
+			&& TEMPORARY_FILE_NAME.matcher(event.context().toString()).matches();
+	}
+
+	private final DirectBufferPool bufferPool = new DirectBufferPool();
 	private volatile boolean closed = false;
+	private final DirectoryEventCoalescer coalescer = new DirectoryEventCoalescer();
+	private volatile long coalescingMaxLatency = 0;
+	private volatile long coalescingWindow = 0;
 	private final Subject<Throwable> errors;
-	private final Executor eventThreadExecutor;
+	private final BatchingExecutor eventThreadExecutor;
 	private final Subject<DirectoryEvent> events;
-	private final LinkedBlockingQueue<Runnable> executorQueue = new LinkedBlockingQueue<>();
-	private boolean interrupted = false;
-	private final Thread ioThread;
-	private boolean mayInterrupt = false;
+	private final Executor ioExecutor;
+	private final SerialPathExecutor ioPathExecutor;
+	private final ExecutorService ioPool;
+	private final DirectoryWatcherMetrics.Recorder metrics = new DirectoryWatcherMetrics.Recorder();
+	private final List<ObjectName> registeredMBeans = new ArrayList<>(1);
+	private final ForkJoinPool treePool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+	private final Thread watchThread;
+	private final Map<Path, WatchedTree> watchedTrees = new ConcurrentHashMap<>();
+	private final WatchStrategy watchStrategy;
 	private final WatchService watcher;
-	private final Map<WatchKey, WeakReference<Path>> watcherKeys = Collections.synchronizedMap(new WeakHashMap<>());
+	private final WatchKeyRegistry watcherKeys = new WatchKeyRegistry();
+	private volatile WriteMode writeMode = WriteMode.IN_PLACE;
 
 	protected DirectoryWatcher( Executor eventThreadExecutor ) throws IOException {
+		this(eventThreadExecutor, 1);
+	}
+
+	protected DirectoryWatcher( Executor eventThreadExecutor, int ioThreads ) throws IOException, IllegalArgumentException {
+		this(eventThreadExecutor, createIOPool(ioThreads), true, ioThreads > 1, WatchStrategy.system());
+	}
 
-		this.watcher = FileSystems.getDefault().newWatchService();
-		this.ioThread = new Thread(this::ioLoop, "DirectoryWatcherIO");
-		this.eventThreadExecutor = eventThreadExecutor;
+	protected DirectoryWatcher( Executor eventThreadExecutor, Executor ioExecutor ) throws IOException {
+		this(eventThreadExecutor, ioExecutor, false, true, WatchStrategy.system());
+	}
+
+	protected DirectoryWatcher( Executor eventThreadExecutor, WatchStrategy watchStrategy ) throws IOException {
+		this(eventThreadExecutor, createIOPool(1), true, false, watchStrategy);
+	}
+
+	private DirectoryWatcher(
+		Executor eventThreadExecutor,
+		Executor ioExecutor,
+		boolean ownedExecutor,
+		boolean concurrentExecutor,
+		WatchStrategy watchStrategy
+	) throws IOException {
+
+		this.watchStrategy = watchStrategy;
+		this.watcher = watchStrategy.newWatchService();
+		this.watchThread = new Thread(this::watchLoop, "DirectoryWatcherKeys");
+		this.eventThreadExecutor = new BatchingExecutor(eventThreadExecutor);
+		this.ioExecutor = ioExecutor;
+		this.ioPathExecutor = concurrentExecutor ? new SerialPathExecutor(ioExecutor) : null;
+		this.ioPool = ownedExecutor ? (ExecutorService) ioExecutor : null;
 
 		Subject<Throwable> errorsSubject = PublishSubject.create();
 		Subject<DirectoryEvent> eventsSubject = PublishSubject.create();
@@ -123,15 +293,15 @@ public class DirectoryWatcher implements AutoCloseable {
 		this.errors = errorsSubject.toSerialized();
 		this.events = eventsSubject.toSerialized();
 
-		startIOThread();
+		startWatchThread();
 
 	}
 
 	/**
-	 * Shutdown this watcher.
+	 * Shutdown this watcher. Already queued I/O operations will be completed.
 	 * <p>
 	 * <b>Note:</b> this method will not shutdown the event thread {@link Executor}
-	 * used to create this watcher.
+	 * used to create this watcher, nor the I/O one if explicitly provided.
 	 * </p>
 	 */
 	@Override
@@ -139,11 +309,103 @@ public class DirectoryWatcher implements AutoCloseable {
 
 		closed = true;
 
-		interrupt();
+		watchThread.interrupt();
 
 		errors.onComplete();
 		events.onComplete();
 
+		synchronized ( registeredMBeans ) {
+
+			registeredMBeans.forEach(name -> {
+				try {
+					ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+				} catch ( JMException e ) {
+					LOGGER.log(Level.WARNING, MessageFormat.format("Unable to unregister MBean [{0}].", name), e);
+				}
+			});
+			registeredMBeans.clear();
+
+		}
+
+	}
+
+	/**
+	 * Copies a file. One of the two given {@link Consumer}s will be called on
+	 * success or on failure.
+	 * <p>
+	 * The file content is transferred with {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+	 * without copying it on the Java heap.
+	 * </p><p>
+	 * <b>Note:</b> the operation is executed by the {@link Executor} passed
+	 * to the {@link #build(java.util.concurrent.Executor)} method, i.e. in a
+	 * different thread from the caller's one.
+	 * </p>
+	 *
+	 * @param source    The pathname of the file to be copied.
+	 * @param target    The pathname of the copy.
+	 * @param onSuccess The {@link Consumer} called on success, where the passed
+	 *                  parameter is the copy timestamp.
+	 * @param onError   The {@link Consumer} called on failure.
+	 * @param options   Options specifying how the copy should be done:
+	 *                  {@link StandardCopyOption#REPLACE_EXISTING} and
+	 *                  {@link StandardCopyOption#COPY_ATTRIBUTES} are
+	 *                  supported.
+	 */
+	public void copyFile(
+		Path source,
+		Path target,
+		Consumer<FileTime> onSuccess,
+		Consumer<Throwable> onError,
+		CopyOption... options
+	) {
+		executeIOOperation(
+			"copyFile",
+			target,
+			() -> {
+
+				new TreeCopier(options).copyFile(source, target);
+
+				return Files.getLastModifiedTime(target);
+
+			},
+			onSuccess,
+			onError
+		);
+	}
+
+	/**
+	 * Copies a file tree. One of the two given {@link Consumer}s will be
+	 * called on success or on failure.
+	 * <p>
+	 * Files and directories are copied in parallel, and files content is
+	 * transferred with {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+	 * without copying it on the Java heap. Symbolic links are copied as links.
+	 * </p><p>
+	 * <b>Note:</b> the operation is executed by the {@link Executor} passed
+	 * to the {@link #build(java.util.concurrent.Executor)} method, i.e. in a
+	 * different thread from the caller's one.
+	 * </p>
+	 *
+	 * @param source    The file or the root of the file tree to be copied.
+	 * @param target    The pathname of the copy. It cannot be inside
+	 *                  {@code source}.
+	 * @param onSuccess The {@link Consumer} called on success, where the passed
+	 *                  parameter is the number of copied entries.
+	 * @param onError   The {@link Consumer} called on failure.
+	 * @param options   Options specifying how the copy should be done:
+	 *                  {@link StandardCopyOption#REPLACE_EXISTING} (existing
+	 *                  files are overwritten and existing directories merged)
+	 *                  and {@link StandardCopyOption#COPY_ATTRIBUTES} are
+	 *                  supported.
+	 */
+	public void copyTree(
+		Path source,
+		Path target,
+		Consumer<Long> onSuccess,
+		Consumer<Throwable> onError,
+		CopyOption... options
+	) {
+		executeIOOperation("copyTree", target, () -> new TreeCopier(options).copyTree(source, target), onSuccess, onError);
 	}
 
 	/**
@@ -164,7 +426,7 @@ public class DirectoryWatcher implements AutoCloseable {
 		Consumer<Throwable> onError,
 		FileAttribute<?>... attrs
 	) {
-		executeIOOperation(() -> Files.createDirectories(dir, attrs), onSuccess, onError);
+		executeIOOperation("createDirectories", dir, () -> Files.createDirectories(dir, attrs), onSuccess, onError);
 	}
 
 	/**
@@ -188,7 +450,7 @@ public class DirectoryWatcher implements AutoCloseable {
 		Consumer<Throwable> onError,
 		FileAttribute<?>... attrs
 	) {
-		executeIOOperation(() -> Files.createDirectory(dir, attrs), onSuccess, onError);
+		executeIOOperation("createDirectory", dir, () -> Files.createDirectory(dir, attrs), onSuccess, onError);
 	}
 
 	/**
@@ -217,6 +479,8 @@ public class DirectoryWatcher implements AutoCloseable {
 		FileAttribute<?>... attrs
 	) {
 		executeIOOperation(
+			"createFile",
+			file,
 			() -> {
 
 				Files.createFile(file, attrs);
@@ -250,6 +514,8 @@ public class DirectoryWatcher implements AutoCloseable {
 	 */
 	public void delete( Path path, Consumer<Boolean> onSuccess, Consumer<Throwable> onError ) {
 		executeIOOperation(
+			"delete",
+			path,
 			() -> {
 
 				boolean deleted = Files.deleteIfExists(path);
@@ -266,18 +532,69 @@ public class DirectoryWatcher implements AutoCloseable {
 		);
 	}
 
+	/**
+	 * Returns an {@link Observable} deleting the file tree rooted at the given
+	 * path when subscribed, and emitting the number of entries deleted so far
+	 * every {@value TreeDeleter#DEFAULT_PROGRESS_STEP} deletions and at the end
+	 * of the operation.
+	 * <p>
+	 * Entries are deleted in parallel, and the watched directories of the
+	 * tree are unwatched at once when the deletion is completed.
+	 * </p><p>
+	 * <b>Note:</b> the operation is started by the {@link Executor} passed
+	 * to the {@link #build(java.util.concurrent.Executor)} method, while
+	 * notifications are emitted on the event thread {@link Executor}.
+	 * </p>
+	 *
+	 * @param root The path to the file tree root to be deleted.
+	 * @return An {@link Observable} of the number of deleted entries,
+	 *         completing when the whole tree is deleted.
+	 */
+	public Observable<Long> deleteTree( Path root ) {
+		return Observable.create(emitter -> {
+			try {
+				executeOnIOThread(root, () -> {
+
+					long start = System.nanoTime();
+
+					try {
+
+						deleteRecursively(root, count -> executeOnEventThread(() -> emitter.onNext(count)));
+						metrics.operation("deleteTree").record(System.nanoTime() - start);
+
+						executeOnEventThread(emitter::onComplete);
+
+					} catch ( IOException | RuntimeException e ) {
+						metrics.operation("deleteTree").recordFailure(System.nanoTime() - start);
+						executeOnEventThread(() -> emitter.onError(e));
+					}
+
+				});
+			} catch ( RejectedExecutionException e ) {
+				emitter.onError(e);
+			}
+		});
+	}
+
 	/**
 	 * Deletes a file tree rooted at the given path. One of the two given
 	 * {@link Consumer}s will be called on success or on failure.
+	 * <p>
+	 * Entries are deleted in parallel, and the watched directories of the
+	 * tree are unwatched at once when the deletion is completed.
+	 * </p>
 	 *
 	 * @param root      The path to the file tree root to be deleted.
 	 * @param onSuccess The {@link Consumer} called on success.
 	 * @param onError   The {@link Consumer} called on failure.
+	 * @see #deleteTree(Path)
 	 */
 	public void deleteTree( Path root, Consumer<Void> onSuccess, Consumer<Throwable> onError ) {
 		executeIOOperation(
+			"deleteTree",
+			root,
 			() -> {
-				deleteRecursively(root);
+				deleteRecursively(root, null);
 				return null;
 			},
 			onSuccess,
@@ -299,14 +616,121 @@ public class DirectoryWatcher implements AutoCloseable {
 		return events;
 	}
 
+	/**
+	 * Returns a {@link Flowable} of the signalled {@link DirectoryEvent}s,
+	 * bounding the memory used for slow subscribers according to the given
+	 * {@link Backpressure} strategy. When conflating, events are keyed by
+	 * their watched directory, and pending events of the same directory are
+	 * merged into their net effect (as in {@link #setEventCoalescing(Duration, Duration)}).
+	 *
+	 * @param backpressure The {@link Backpressure} strategy to be used.
+	 * @return The {@link Flowable} of signalled {@link DirectoryEvent}s.
+	 */
+	public Flowable<DirectoryEvent> events( Backpressure backpressure ) {
+		return backpressure.apply(events, DirectoryEvent::getWatchedPath, ( older, newer ) -> {
+
+			DirectoryEventCoalescer merger = new DirectoryEventCoalescer();
+
+			merger.add(older.getWatchedPath(), older.getEvents(), older.wasReset(), 0);
+			merger.add(newer.getWatchedPath(), newer.getEvents(), newer.wasReset(), 0);
+
+			List<DirectoryEvent> merged = merger.drain();
+
+			return merged.isEmpty() ? null : merged.get(0);
+
+		});
+	}
+
+	/**
+	 * Executes the given operations, in order, within a single I/O task. The
+	 * failure of an operation does not prevent the execution of the following
+	 * ones: the outcome of each operation is reported by the {@link BatchResult}
+	 * passed to {@code onSuccess}. Files are written according to the current
+	 * {@link #getWriteMode()}, with a single gathering write each.
+	 * <p>
+	 * When I/O operations are executed concurrently, the batch is ordered
+	 * with respect to the operations on each of the paths it involves.</p>
+	 * <p>
+	 * <b>Note:</b> the operation is executed by the {@link Executor} passed
+	 * to the {@link #build(java.util.concurrent.Executor)} method, i.e. in a
+	 * different thread from the caller's one.
+	 * </p>
+	 *
+	 * @param operations The operations to be executed.
+	 * @param onSuccess  The {@link Consumer} called when all operations were
+	 *                   executed.
+	 * @param onError    The {@link Consumer} called if the batch could not be
+	 *                   executed.
+	 * @see BatchBuilder
+	 */
+	public void executeBatch( List<BatchOperation> operations, Consumer<BatchResult> onSuccess, Consumer<Throwable> onError ) {
+
+		if ( operations.isEmpty() ) {
+
+			if ( onSuccess != null ) {
+				executeOnEventThread(() -> onSuccess.accept(new BatchResult(Collections.emptyList())));
+			}
+
+			return;
+
+		}
+
+		executeIOOperation(
+			"executeBatch",
+			FileOperations.pathsOf(operations),
+			() -> {
+
+				BatchResult result = FileOperations.execute(operations, writeMode);
+
+				result.getOutcomes().stream()
+					.filter(outcome -> outcome.isSuccessful() && outcome.getOperation().getKind() == BatchOperation.Kind.DELETE)
+					.forEach(outcome -> removeWatcherKey(outcome.getOperation().getPath()));
+
+				return result;
+
+			},
+			onSuccess,
+			onError
+		);
+
+	}
+
+	/**
+	 * Returns a snapshot of the instrumentation of this watcher. The event
+	 * rate of the returned snapshot is computed since the creation of this
+	 * watcher.
+	 *
+	 * @return A new {@link DirectoryWatcherMetrics} instance.
+	 * @see #metrics(Duration)
+	 */
+	public DirectoryWatcherMetrics getMetrics() {
+		return metrics.snapshot(watcherKeys.size(), eventThreadExecutor.size(), null);
+	}
+
+	/**
+	 * @return The {@link WatchStrategy} used by this watcher.
+	 */
+	public WatchStrategy getWatchStrategy() {
+		return watchStrategy;
+	}
+
+	/**
+	 * @return The {@link WriteMode} used by {@link #writeBinaryFile(Path, byte[], Consumer, Consumer)}
+	 *         and {@link #writeTextFile(Path, String, Charset, Consumer, Consumer)}.
+	 */
+	public WriteMode getWriteMode() {
+		return writeMode;
+	}
+
 	/**
 	 * Returns {@code true} if this watcher was shutdown,  and the shutdown
-	 * process is completed (i.e. the I/O thread is terminated).
+	 * process is completed (i.e. the watching thread is terminated and, unless
+	 * an external I/O {@link Executor} was provided, the I/O threads too).
 	 *
 	 * @return {@code true} if this watcher's shutdown completed.
 	 */
 	public final boolean isCloseComplete() {
-		return !ioThread.isAlive();
+		return !watchThread.isAlive() && ( ioPool == null || ioPool.isTerminated() );
 	}
 
 	/**
@@ -319,6 +743,14 @@ public class DirectoryWatcher implements AutoCloseable {
 		return closed;
 	}
 
+	/**
+	 * @return {@code true} if events coalescing is enabled.
+	 * @see #setEventCoalescing(Duration, Duration)
+	 */
+	public boolean isEventCoalescing() {
+		return coalescingWindow > 0;
+	}
+
 	/**
 	 * Return whether the given {@link Path} is watched or not. A path is
 	 * watched if {@link #watch(Path)} or {@link #watchOrStreamError(Path)}
@@ -333,70 +765,119 @@ public class DirectoryWatcher implements AutoCloseable {
 		if ( dir == null ) {
 			return false;
 		} else {
-			return watcherKeys
-				.keySet()
-				.parallelStream()
-				.anyMatch(key -> key.isValid() && dir.equals(watcherKeys.get(key).get()));
+			return watcherKeys.contains(dir);
 		}
 	}
 
 	/**
-	 * Reads the contents of a binary file. One of the two given
-	 * {@link Consumer}s will be called on success or on failure.
+	 * Maps the contents of a file into memory, in read-only mode. One of the
+	 * two given {@link Consumer}s will be called on success or on failure.
 	 * <p>
-	 * {@link Files#readAllBytes(java.nio.file.Path)} will be called to actually
-	 * read the file.
+	 * No copy of the file content is made on the heap: pages are loaded by the
+	 * operating system when accessed, making this method suitable for very
+	 * large files, or files whose content is only partially accessed. The
+	 * mapping remains valid until the returned buffer is garbage-collected.
+	 * Files larger than {@link Integer#MAX_VALUE} bytes cannot be mapped: use
+	 * {@link #readBinaryFileRange(Path, long, int, Consumer, Consumer)} instead.
 	 * </p><p>
 	 * <b>Note:</b> the operation is executed by the {@link Executor} passed
 	 * to the {@link #build(java.util.concurrent.Executor)} method, i.e. in a
 	 * different thread from the caller's one.
 	 * </p>
 	 *
-	 * @param file      The pathname of the file to be read.
+	 * @param file      The pathname of the file to be mapped.
 	 * @param onSuccess The {@link Consumer} called on success, where the passed
-	 *                  parameter are the read bytes from the file.
+	 *                  parameter is the read-only buffer mapping the whole
+	 *                  file.
 	 * @param onError   The {@link Consumer} called on failure.
 	 */
-	public void readBinaryFile( Path file, Consumer<byte[]> onSuccess, Consumer<Throwable> onError ) {
+	public void mapFile( Path file, Consumer<MappedByteBuffer> onSuccess, Consumer<Throwable> onError ) {
 		executeIOOperation(
-			() -> Files.readAllBytes(file),
+			"mapFile",
+			file,
+			() -> FileOperations.map(file),
 			onSuccess,
 			onError
 		);
 	}
 
 	/**
-	 * Reads the contents of a text file. One of the two given
-	 * {@link Consumer}s will be called on success or on failure.
+	 * Returns an {@link Observable} periodically sampling the instrumentation
+	 * of this watcher. The event rate of each sample is computed since the
+	 * previous one. The returned {@link Observable} completes when this
+	 * watcher is closed.
 	 * <p>
-	 * {@link Files#readAllBytes(java.nio.file.Path)} will be called to actually
-	 * read the file.
+	 * <b>Note:</b> samples are emitted on the
+	 * {@link Schedulers#computation()} scheduler.
+	 * </p>
+	 *
+	 * @param period The sampling period.
+	 * @return An {@link Observable} of {@link DirectoryWatcherMetrics}.
+	 * @throws IllegalArgumentException If {@code period} is not positive.
+	 * @see #getMetrics()
+	 */
+	public Observable<DirectoryWatcherMetrics> metrics( Duration period ) throws IllegalArgumentException {
+
+		if ( period == null || period.isNegative() || period.isZero() ) {
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'period' must be positive [{0}].",
+				period
+			));
+		}
+
+		return Observable.defer(() -> Observable.interval(period.toNanos(), TimeUnit.NANOSECONDS)
+			.takeWhile(tick -> !isClosed())
+			.scan(
+				metrics.snapshot(watcherKeys.size(), eventThreadExecutor.size(), null),
+				( previous, tick ) -> metrics.snapshot(watcherKeys.size(), eventThreadExecutor.size(), previous)
+			)
+			.skip(1)
+		);
+
+	}
+
+	/**
+	 * Moves a file or a file tree. One of the two given {@link Consumer}s will
+	 * be called on success or on failure.
+	 * <p>
+	 * If {@code source} cannot be simply renamed (e.g. because {@code target}
+	 * is on a different file store), the tree is copied in parallel, as by
+	 * {@link #copyTree(Path, Path, Consumer, Consumer, CopyOption...)} with
+	 * the {@link StandardCopyOption#COPY_ATTRIBUTES} option, and then
+	 * deleted. The watched directories of the moved tree are unwatched.
 	 * </p><p>
 	 * <b>Note:</b> the operation is executed by the {@link Executor} passed
 	 * to the {@link #build(java.util.concurrent.Executor)} method, i.e. in a
 	 * different thread from the caller's one.
 	 * </p>
 	 *
-	 * @param file      The pathname of the file to be read.
-	 * @param charset   The {@link Charset} to be used in reading the
-	 *                  from the {@code file}.
-	 * @param onSuccess The {@link Consumer} called on success, where the passed
-	 *                  parameter is the read string from the file.
+	 * @param source    The file or the root of the file tree to be moved.
+	 * @param target    The new pathname of {@code source}.
+	 * @param onSuccess The {@link Consumer} called on success.
 	 * @param onError   The {@link Consumer} called on failure.
+	 * @param options   Options specifying how the move should be done (see
+	 *                  {@link Files#move(Path, Path, CopyOption...)}). If
+	 *                  {@link StandardCopyOption#ATOMIC_MOVE} is specified,
+	 *                  the tree is never copied.
 	 */
-	public void readTextFile(
-		Path file,
-		Charset charset,
-		Consumer<String> onSuccess,
-		Consumer<Throwable> onError
+	public void moveTree(
+		Path source,
+		Path target,
+		Consumer<Void> onSuccess,
+		Consumer<Throwable> onError,
+		CopyOption... options
 	) {
 		executeIOOperation(
+			"moveTree",
+			target,
 			() -> {
 
-				byte[] bytes = Files.readAllBytes(file);
-				CharBuffer chars = charset.decode(ByteBuffer.wrap(bytes));
+				FileOperations.move(source, target, options);
 
-				return chars.toString();
+				watchedTrees.keySet().removeIf(r -> r.startsWith(source));
+				watcherKeys.removeTree(source);
+
+				return null;
 
 			},
 			onSuccess,
@@ -405,24 +886,294 @@ public class DirectoryWatcher implements AutoCloseable {
 	}
 
 	/**
-	 * Unwatch the given directory {@link Path}.
+	 * Reads the contents of a binary file. One of the two given
+	 * {@link Consumer}s will be called on success or on failure.
+	 * <p>
+	 * {@link Files#readAllBytes(java.nio.file.Path)} will be called to actually
+	 * read the file. For large files consider using
+	 * {@link #mapFile(Path, Consumer, Consumer)} or
+	 * {@link #readBinaryFileRange(Path, long, int, Consumer, Consumer)}.
+	 * </p><p>
+	 * <b>Note:</b> the operation is executed by the {@link Executor} passed
+	 * to the {@link #build(java.util.concurrent.Executor)} method, i.e. in a
+	 * different thread from the caller's one.
+	 * </p>
 	 *
-	 * @param dir The directory to be unwatched.
+	 * @param file      The pathname of the file to be read.
+	 * @param onSuccess The {@link Consumer} called on success, where the passed
+	 *                  parameter are the read bytes from the file.
+	 * @param onError   The {@link Consumer} called on failure.
 	 */
-	public void unwatch ( Path dir ) {
-		if ( dir != null ) {
-			removeWatcherKey(dir);
-		}
+	public void readBinaryFile( Path file, Consumer<byte[]> onSuccess, Consumer<Throwable> onError ) {
+		executeIOOperation(
+			"readBinaryFile",
+			file,
+			() -> Files.readAllBytes(file),
+			onSuccess,
+			onError
+		);
 	}
 
 	/**
-	 * Unwatch the given directory and all its parents.
+	 * Reads a range of the contents of a binary file. One of the two given
+	 * {@link Consumer}s will be called on success or on failure.
+	 * <p>
+	 * {@link FileChannel#read(ByteBuffer, long)} positional reads are used,
+	 * so only the requested range is read from disk and copied on the heap.
+	 * </p><p>
+	 * <b>Note:</b> the operation is executed by the {@link Executor} passed
+	 * to the {@link #build(java.util.concurrent.Executor)} method, i.e. in a
+	 * different thread from the caller's one.
+	 * </p>
 	 *
-	 * @param dir The directory to be watched.
+	 * @param file      The pathname of the file to be read.
+	 * @param offset    The position in file of the first byte to be read.
+	 * @param length    The maximum number of bytes to be read.
+	 * @param onSuccess The {@link Consumer} called on success, where the passed
+	 *                  parameter is a buffer, ready to be read, containing the
+	 *                  bytes between {@code offset} and {@code offset + length},
+	 *                  or the end of the file if reached first.
+	 * @param onError   The {@link Consumer} called on failure.
+	 * @throws IllegalArgumentException If {@code offset} or {@code length} are
+	 *                                  negative.
 	 */
-	public void unwatchUp ( Path dir ) {
-		unwatchUp(dir, null);
-	}
+	public void readBinaryFileRange(
+		Path file,
+		long offset,
+		int length,
+		Consumer<ByteBuffer> onSuccess,
+		Consumer<Throwable> onError
+	) throws IllegalArgumentException {
+
+		if ( offset < 0 || length < 0 ) {
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'offset' and 'length' cannot be negative [offset: {0}, length: {1}].",
+				offset,
+				length
+			));
+		}
+
+		executeIOOperation(
+			"readBinaryFileRange",
+			file,
+			() -> FileOperations.read(file, offset, length),
+			onSuccess,
+			onError
+		);
+
+	}
+
+	/**
+	 * Returns a {@link Flowable} reading the contents of a binary file in
+	 * chunks of the given size, through a {@link FileChunkReader} over a plain
+	 * {@link java.nio.channels.FileChannel}. A chunk is read synchronously by
+	 * the I/O thread requesting it, and only when requested by the subscriber,
+	 * so that the file is never held entirely in memory.
+	 * <p>
+	 * The file is opened on subscription, and closed on completion, error or
+	 * cancellation. Each emitted {@link ByteBuffer} is ready to be read, and can
+	 * be retained by the subscriber.
+	 * </p><p>
+	 * <b>Note:</b> the file is read on the I/O threads, after the already
+	 * queued operations on the same file. Chunks are emitted on the I/O
+	 * threads too.
+	 * </p>
+	 *
+	 * @param file      The pathname of the file to be read.
+	 * @param chunkSize The maximum size of each emitted chunk.
+	 * @return A {@link Flowable} of the file's chunks.
+	 * @throws IllegalArgumentException If {@code chunkSize} is less than 1.
+	 */
+	public Flowable<ByteBuffer> readBinaryFileStream( Path file, int chunkSize ) throws IllegalArgumentException {
+
+		if ( chunkSize < 1 ) {
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'chunkSize' must be greater than 0 [{0}].",
+				chunkSize
+			));
+		}
+
+		return Flowable.defer(() -> {
+			if ( isClosed() ) {
+				return Flowable.error(new RejectedExecutionException("Directory watcher is shutdown."));
+			} else {
+				return Flowable.<ByteBuffer, FileChunkReader>generate(
+					() -> new FileChunkReader(file, chunkSize, bufferPool),
+					( FileChunkReader reader, Emitter<ByteBuffer> emitter ) -> reader.next(emitter),
+					FileChunkReader::close
+				).subscribeOn(Schedulers.from(task -> executeOnIOThread(file, task)));
+			}
+		});
+
+	}
+
+	/**
+	 * Reads the contents of a text file. One of the two given
+	 * {@link Consumer}s will be called on success or on failure.
+	 * <p>
+	 * {@link Files#readAllBytes(java.nio.file.Path)} will be called to actually
+	 * read the file.
+	 * </p><p>
+	 * <b>Note:</b> the operation is executed by the {@link Executor} passed
+	 * to the {@link #build(java.util.concurrent.Executor)} method, i.e. in a
+	 * different thread from the caller's one.
+	 * </p>
+	 *
+	 * @param file      The pathname of the file to be read.
+	 * @param charset   The {@link Charset} to be used in reading the
+	 *                  from the {@code file}.
+	 * @param onSuccess The {@link Consumer} called on success, where the passed
+	 *                  parameter is the read string from the file.
+	 * @param onError   The {@link Consumer} called on failure.
+	 */
+	public void readTextFile(
+		Path file,
+		Charset charset,
+		Consumer<String> onSuccess,
+		Consumer<Throwable> onError
+	) {
+		executeIOOperation(
+			"readTextFile",
+			file,
+			() -> {
+
+				//	Decoding straight into the string avoids an intermediate
+				//	CharBuffer copy of the whole content.
+				return new String(Files.readAllBytes(file), charset);
+
+			},
+			onSuccess,
+			onError
+		);
+	}
+
+	/**
+	 * Registers a {@link DirectoryWatcherMXBean} exposing the instrumentation
+	 * of this watcher into the platform MBean server. The bean is
+	 * unregistered when this watcher is closed.
+	 *
+	 * @param name The name of the MBean to be registered.
+	 * @throws JMException If the MBean cannot be registered (e.g. because
+	 *                     the name is already in use).
+	 * @see #getMetrics()
+	 */
+	public void registerMBean( ObjectName name ) throws JMException {
+
+		ObjectName registered = ManagementFactory.getPlatformMBeanServer().registerMBean(
+			new StandardMBean(new Management(), DirectoryWatcherMXBean.class, true),
+			name
+		).getObjectName();
+
+		synchronized ( registeredMBeans ) {
+			registeredMBeans.add(registered);
+		}
+
+	}
+
+	/**
+	 * Sets the limits of the batches handed to the event thread
+	 * {@link Executor}. Events, errors and callbacks are queued and executed
+	 * by a single task submitted to the event thread executor, until the
+	 * queue is empty or one of the given limits is reached. In the latter case
+	 * a new task is submitted for the remaining items, allowing the event
+	 * thread to perform other work (e.g. rendering a UI) in between.
+	 * <p>
+	 * By default at most 1000 items are executed in a batch, with a time
+	 * budget of 8 milliseconds.</p>
+	 *
+	 * @param maxBatchSize The maximum number of items executed in a single
+	 *                     batch.
+	 * @param timeBudget   The time after which a batch stops executing items.
+	 * @throws IllegalArgumentException If {@code maxBatchSize} is less than 1,
+	 *                                  or {@code timeBudget} is {@code null}
+	 *                                  or not positive.
+	 */
+	public void setEventBatching( int maxBatchSize, Duration timeBudget ) throws IllegalArgumentException {
+
+		if ( timeBudget == null ) {
+			throw new IllegalArgumentException("'timeBudget' cannot be null.");
+		}
+
+		eventThreadExecutor.setLimits(maxBatchSize, timeBudget.toNanos());
+
+	}
+
+	/**
+	 * Enables or disables events coalescing. When enabled, the events occurred
+	 * to the watched directories are accumulated until no new event arrives
+	 * for {@code window}, or the first accumulated event is older than
+	 * {@code maxLatency}. Accumulated events are then emitted as one
+	 * {@link DirectoryEvent} per watched directory, where the events occurred
+	 * to the same entry are merged into their net effect (e.g. a creation
+	 * followed by modifications is a single {@link StandardWatchEventKinds#ENTRY_CREATE},
+	 * a creation followed by a deletion is nothing, a deletion followed by a
+	 * creation is an {@link StandardWatchEventKinds#ENTRY_DELETE} followed by
+	 * an {@link StandardWatchEventKinds#ENTRY_CREATE}).
+	 * <p>
+	 * Coalescing is disabled by default, i.e. each signalled
+	 * {@link WatchKey} is emitted as soon as it is processed.
+	 * New settings are applied from the next signalled {@link WatchKey}.</p>
+	 *
+	 * @param window     The quiet period after which accumulated events are
+	 *                   emitted. {@code null}, zero or negative values disable
+	 *                   coalescing.
+	 * @param maxLatency The maximum time an event can be delayed. If
+	 *                   {@code null} or shorter than {@code window}, then
+	 *                   {@code window} is used.
+	 */
+	public void setEventCoalescing( Duration window, Duration maxLatency ) {
+
+		long windowNanos = ( window == null || window.isNegative() ) ? 0 : window.toNanos();
+		long maxLatencyNanos = ( maxLatency == null ) ? windowNanos : Math.max(windowNanos, maxLatency.toNanos());
+
+		coalescingMaxLatency = maxLatencyNanos;
+		coalescingWindow = windowNanos;
+
+	}
+
+	/**
+	 * Sets how {@link #writeBinaryFile(Path, byte[], Consumer, Consumer)} and
+	 * {@link #writeTextFile(Path, String, Charset, Consumer, Consumer)} write
+	 * files. By default files are written in place.
+	 *
+	 * @param writeMode The new {@link WriteMode}. If {@code null},
+	 *                  {@link WriteMode#IN_PLACE} is used.
+	 */
+	public void setWriteMode( WriteMode writeMode ) {
+		this.writeMode = ( writeMode == null ) ? WriteMode.IN_PLACE : writeMode;
+	}
+
+	/**
+	 * Unwatch the given directory {@link Path}.
+	 *
+	 * @param dir The directory to be unwatched.
+	 */
+	public void unwatch ( Path dir ) {
+		if ( dir != null ) {
+			removeWatcherKey(dir);
+		}
+	}
+
+	/**
+	 * Unwatch the given directory and all its watched descendants.
+	 *
+	 * @param dir The root of the directory tree to be unwatched.
+	 */
+	public void unwatchTree( Path dir ) {
+		if ( dir != null ) {
+			watchedTrees.keySet().removeIf(root -> root.startsWith(dir));
+			watcherKeys.removeTree(dir);
+		}
+	}
+
+	/**
+	 * Unwatch the given directory and all its parents.
+	 *
+	 * @param dir The directory to be watched.
+	 */
+	public void unwatchUp ( Path dir ) {
+		unwatchUp(dir, null);
+	}
 
 	/**
 	 * Unwatch the given directory and all its parents up to the given ancestor.
@@ -471,9 +1222,7 @@ public class DirectoryWatcher implements AutoCloseable {
 
 		if ( dir != null ) {
 
-			WatchKey key = dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
-
-			watcherKeys.put(key, new WeakReference<>(dir));
+			watcherKeys.put(dir, register(dir));
 
 		}
 
@@ -493,6 +1242,59 @@ public class DirectoryWatcher implements AutoCloseable {
 		}
 	}
 
+	/**
+	 * Watch the given directory and all its subdirectories, up to the given
+	 * depth, for entry create, delete, and modify events. The tree is walked
+	 * in parallel, by a pool shared by all the calls on this watcher, and each
+	 * key is published as soon as obtained, so that directories deleted during
+	 * the walk are unwatched as usual.
+	 * <p>
+	 * Subdirectories created later inside the tree are watched as soon as
+	 * their creation is signalled, before the event is emitted. Entries
+	 * created inside them before they were watched are signalled by a
+	 * synthetic {@link StandardWatchEventKinds#ENTRY_CREATE} event.</p>
+	 * <p>
+	 * Symbolic links are not followed. Errors occurring on subdirectories are
+	 * emitted in the {@link #errors()} stream without stopping the walk.
+	 * Watched directories can be unwatched singularly with
+	 * {@link #unwatch(Path)}, while {@link #unwatchTree(Path)} also stops the
+	 * automatic watching of new subdirectories.</p>
+	 *
+	 * @param root     The root of the directory tree to be watched.
+	 * @param maxDepth The maximum number of directory levels to be watched
+	 *                 below {@code root}: 0 means that only {@code root} is
+	 *                 watched, {@link Integer#MAX_VALUE} means all levels.
+	 * @param exclude  Matches the directories (relative to {@code root}) that
+	 *                 must not be watched, nor descended. Can be {@code null}.
+	 * @return The statistics of the performed registration.
+	 * @throws IOException              If an I/O error occurs registering
+	 *                                  {@code root}.
+	 * @throws IllegalArgumentException If {@code maxDepth} is negative.
+	 */
+	public WatchTreeStatistics watchTree( Path root, int maxDepth, PathMatcher exclude ) throws IOException, IllegalArgumentException {
+
+		if ( maxDepth < 0 ) {
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'maxDepth' cannot be negative [{0}].",
+				maxDepth
+			));
+		}
+
+		long startTime = System.nanoTime();
+		WatchedTree tree = new WatchedTree(root, maxDepth, exclude);
+		AtomicInteger registered = new AtomicInteger();
+
+		publish(root, register(root), registered);
+
+		//	Published before walking, so that subdirectories created meanwhile
+		//	will be watched too.
+		watchedTrees.put(root, tree);
+		treePool.invoke(new WatchTreeTask(tree, root, 0, registered));
+
+		return new WatchTreeStatistics(registered.get(), Duration.ofNanos(System.nanoTime() - startTime));
+
+	}
+
 	/**
 	 * Watch the given directory and all its parents for entry create, delete,
 	 * and modify events.
@@ -582,8 +1384,7 @@ public class DirectoryWatcher implements AutoCloseable {
 	 * Writes a binary file filling it with the given {@code content}. One of
 	 * the two given {@link Consumer}s will be called on success or on failure.
 	 * <p>
-	 * {@link Files#write(java.nio.file.Path, java.lang.Iterable, java.nio.file.OpenOption...)}
-	 * will be called to actually write the file.
+	 * The file is written according to the current {@link #getWriteMode()}.
 	 * </p><p>
 	 * <b>Note:</b> the operation is executed by the {@link Executor} passed
 	 * to the {@link #build(java.util.concurrent.Executor)} method, i.e. in a
@@ -603,24 +1404,73 @@ public class DirectoryWatcher implements AutoCloseable {
 		Consumer<Throwable> onError
 	) {
 		executeIOOperation(
-			() -> {
-
-				Files.write(file, content, CREATE, WRITE, TRUNCATE_EXISTING);
-
-				return Files.getLastModifiedTime(file);
-
-			},
+			"writeBinaryFile",
+			file,
+			() -> FileOperations.write(file, writeMode, ByteBuffer.wrap(content)),
 			onSuccess,
 			onError
 		);
 	}
 
+	/**
+	 * Writes a binary file with the {@link ByteBuffer}s published by the given
+	 * {@code content}, through an {@link java.nio.channels.AsynchronousFileChannel}.
+	 * One of the two given {@link Consumer}s will be called on success or on
+	 * failure.
+	 * <p>
+	 * Buffers are requested one at a time, and the next one is requested only
+	 * when the previous one was written, so that the content is never held
+	 * entirely in memory. If {@code content} signals an error, the file is
+	 * left with the content written so far, and {@code onError} is called.
+	 * </p><p>
+	 * <b>Note:</b> the file is opened on the I/O threads, after the already
+	 * queued operations on the same file, while writing is performed without
+	 * blocking them.
+	 * </p>
+	 *
+	 * @param file      The pathname of the file to be written.
+	 * @param content   The {@link Publisher} of the bytes to be written.
+	 * @param onSuccess The {@link Consumer} called on success, where the passed
+	 *                  parameter is the written file timestamp.
+	 * @param onError   The {@link Consumer} called on failure.
+	 */
+	@SuppressWarnings( { "UseSpecificCatch", "BroadCatchBlock", "TooBroadCatch" } )
+	public void writeBinaryFileStream(
+		Path file,
+		Publisher<ByteBuffer> content,
+		Consumer<FileTime> onSuccess,
+		Consumer<Throwable> onError
+	) {
+		executeOnIOThread(file, () -> {
+			try {
+				content.subscribe(new AsynchronousFileWriter(file, bufferPool, error -> {
+					try {
+
+						if ( error != null ) {
+							throw error;
+						}
+
+						FileTime lastModified = Files.getLastModifiedTime(file);
+
+						if ( onSuccess != null ) {
+							executeOnEventThread(() -> onSuccess.accept(lastModified));
+						}
+
+					} catch ( Throwable t ) {
+						notifyError(onError, t, "writeBinaryFileStream");
+					}
+				}));
+			} catch ( IOException e ) {
+				notifyError(onError, e, "writeBinaryFileStream");
+			}
+		});
+	}
+
 	/**
 	 * Writes a text file filling it with the given {@code content}. One of the
 	 * two given {@link Consumer}s will be called on success or on failure.
 	 * <p>
-	 * {@link Files#write(java.nio.file.Path, java.lang.Iterable, java.nio.file.OpenOption...)}
-	 * will be called to actually write the file.
+	 * The file is written according to the current {@link #getWriteMode()}.
 	 * </p><p>
 	 * <b>Note:</b> the operation is executed by the {@link Executor} passed
 	 * to the {@link #build(java.util.concurrent.Executor)} method, i.e. in a
@@ -643,193 +1493,382 @@ public class DirectoryWatcher implements AutoCloseable {
 		Consumer<Throwable> onError
 	) {
 		executeIOOperation(
-			() -> {
-
-				Files.write(file, content.getBytes(charset), CREATE, WRITE, TRUNCATE_EXISTING);
-
-				return Files.getLastModifiedTime(file);
-
-			},
+			"writeTextFile",
+			file,
+			() -> FileOperations.write(file, writeMode, ByteBuffer.wrap(content.getBytes(charset))),
 			onSuccess,
 			onError
 		);
 	}
 
-	private void deleteRecursively( Path root ) throws IOException {
+	/**
+	 * Deletes the given file tree in parallel, and then unwatches all its
+	 * directories at once.
+	 *
+	 * @return The number of deleted entries.
+	 */
+	private long deleteRecursively( Path root, LongConsumer progress ) throws IOException {
 
-		if ( Files.exists(root) ) {
+		long deleted = new TreeDeleter(progress, TreeDeleter.DEFAULT_PROGRESS_STEP).delete(root);
 
-			if ( Files.isDirectory(root) ) {
-				try ( DirectoryStream<Path> stream = Files.newDirectoryStream(root) ) {
-					for ( Path path : stream ) {
-						deleteRecursively(path);
-					}
-				}
-			}
+		watchedTrees.keySet().removeIf(r -> r.startsWith(root));
+		watcherKeys.removeTree(root);
 
-			Files.delete(root);
-			removeWatcherKey(root);
+		return deleted;
 
-		}
+	}
+
+	private void dispatchEvents( Path watchedPath, List<WatchEvent<?>> polledEvents, boolean reset ) {
+		if ( isEventCoalescing() ) {
+
+			coalescer.add(watchedPath, polledEvents, reset, System.nanoTime());
 
+			//	An invalid key will not signal any more events.
+			if ( !reset ) {
+				coalescer.drain().forEach(this::emitEvent);
+			}
+
+		} else {
+			emitEvent(new DirectoryEvent(watchedPath, polledEvents, reset));
+		}
 	}
 
 	private void emitError( Throwable e ) {
+		metrics.error();
 		executeOnEventThread(() -> errors.onNext(e));
 	}
 
 	private void emitEvent( DirectoryEvent event ) {
+		metrics.event();
 		executeOnEventThread(() -> events.onNext(event));
 	}
 
-	@SuppressWarnings( { "UseSpecificCatch", "BroadCatchBlock", "TooBroadCatch" } )
-	private <T> void executeIOOperation( Callable<T> operation, Consumer<T> onSuccess, Consumer<Throwable> onError ) {
-		executeOnIOThread(() -> {
-			try {
+	/**
+	 * Executes a single I/O operation, recording its latency under the given
+	 * {@code name}.
+	 */
+	private <T> void executeIOOperation( String name, Path path, Callable<T> operation, Consumer<T> onSuccess, Consumer<Throwable> onError ) {
+		executeIOOperation(name, Collections.singletonList(path), operation, onSuccess, onError);
+	}
 
-				T result = operation.call();
+	/**
+	 * Executes a single I/O operation involving several paths, ordered with
+	 * respect to the operations on each of them, and recording its latency
+	 * under the given {@code name}.
+	 */
+	private <T> void executeIOOperation( String name, Collection<Path> paths, Callable<T> operation, Consumer<T> onSuccess, Consumer<Throwable> onError ) {
 
-				if ( onSuccess != null ) {
-					executeOnEventThread(() -> onSuccess.accept(result));
-				}
+		Runnable action = timed(name, operation, onSuccess, onError);
 
-			} catch ( Throwable t ) {
-				if ( onError != null ) {
-					executeOnEventThread(() -> onError.accept(t));
-				} else {
-					LOGGER.throwing(DirectoryWatcher.class.getName(), "executeIOOperation", t);
-				}
+		if ( !isClosed() ) {
+			if ( ioPathExecutor != null ) {
+				ioPathExecutor.execute(paths, action, e -> notifyError(onError, e, name));
+			} else {
+				ioExecutor.execute(action);
 			}
-		});
+		} else {
+			throw new RejectedExecutionException("Directory watcher is shutdown.");
+		}
+
 	}
 
 	private void executeOnEventThread( Runnable task ) {
-		eventThreadExecutor.execute(task);
+
+		long queued = System.nanoTime();
+
+		try {
+			eventThreadExecutor.execute(() -> {
+				metrics.eventThreadLag(System.nanoTime() - queued);
+				task.run();
+			});
+		} catch ( RejectedExecutionException e ) {
+
+			//	Nothing can be notified anymore: the watcher is closed instead
+			//	of letting the exception kill the calling (e.g. the watch)
+			//	thread.
+			if ( !closed ) {
+				LOGGER.log(Level.WARNING, "Event thread executor rejected a task: closing the directory watcher.", e);
+				close();
+			}
+
+		}
+
 	}
 
-	private void executeOnIOThread( Runnable action ) throws RejectedExecutionException {
+	private void executeOnIOThread( Path path, Runnable action ) throws RejectedExecutionException {
 		if ( !isClosed() ) {
-			executorQueue.add(action);
-			interrupt();
+			if ( ioPathExecutor != null ) {
+				ioPathExecutor.execute(path, action);
+			} else {
+				ioExecutor.execute(action);
+			}
 		} else {
 			throw new RejectedExecutionException("Directory watcher is shutdown.");
 		}
 	}
 
-	private synchronized void interrupt() {
-		if ( mayInterrupt ) {
-			ioThread.interrupt();
+	private void notifyError( Consumer<Throwable> onError, Throwable t, String sourceMethod ) {
+		if ( onError != null ) {
+			executeOnEventThread(() -> onError.accept(t));
 		} else {
-			interrupted = true;
+			LOGGER.throwing(DirectoryWatcher.class.getName(), sourceMethod, t);
 		}
 	}
 
-	private void ioLoop() {
-		while ( true ) {
+	private void processWatchKey( WatchKey key ) {
 
-			WatchKey key = take();
+		Path watchedPath = (Path) key.watchable();
+		List<WatchEvent<?>> polledEvents = new ArrayList<>(key.pollEvents());
+		boolean reset = key.reset();
 
-			if ( key != null ) {
+		List<DirectoryEvent> treeEvents = new ArrayList<>(0);
 
-				Path watchedPath = (Path) key.watchable();
-				List<WatchEvent<?>> polledEvents = key.pollEvents();
-				boolean reset = key.reset();
-				DirectoryEvent event = new DirectoryEvent(watchedPath, polledEvents, reset);
+		polledEvents.removeIf(DirectoryWatcher::isTemporaryFileEvent);
+		polledEvents.stream().forEach(e -> {
+			if ( StandardWatchEventKinds.ENTRY_DELETE.equals(e.kind()) ) {
 
-				event.getEvents().stream().forEach(e -> {
-					if ( StandardWatchEventKinds.ENTRY_DELETE.equals(e.kind()) ) {
+				Path child = watchedPath.resolve((Path) e.context());
 
-						Path child = watchedPath.resolve((Path) e.context());
+				if ( child != null && !watchedPath.equals(child) ) {
+					watcherKeys.removeTree(child);
+				}
 
-						if ( child != null && !watchedPath.equals(child) ) {
-							removeWatcherKey(child);
-						}
+			} else if ( StandardWatchEventKinds.ENTRY_CREATE.equals(e.kind()) && !watchedTrees.isEmpty() ) {
+				watchNewTreeDirectory(watchedPath.resolve((Path) e.context()), treeEvents);
+			}
+		});
 
-					}
-				});
+		if ( !reset ) {
+			watcherKeys.remove(watchedPath);
+		}
 
-				emitEvent(event);
+		if ( !polledEvents.isEmpty() || !reset ) {
+			dispatchEvents(watchedPath, polledEvents, reset);
+		}
 
-			} else if ( isClosed() ) {
-				try {
-					watcher.close();
-					break;
-				} catch ( IOException e ) {
-					emitError(e);
-				} finally {
-					watcherKeys.clear();
-				}
-				break;
-			} else {
-				processIOQueue();
-			}
+		treeEvents.forEach(te -> dispatchEvents(te.getWatchedPath(), te.getEvents(), te.wasReset()));
 
-		}
 	}
 
-	@SuppressWarnings( "NestedAssignment" )
-	private void processIOQueue() {
+	/**
+	 * Publishes the given just registered {@link WatchKey}, so that the watch
+	 * thread can unregister it as soon as its directory is deleted. If that
+	 * happened between the registration and the publication, the key is
+	 * already invalid, and it is removed at once.
+	 */
+	private void publish( Path dir, WatchKey key, AtomicInteger registered ) {
 
-		Runnable operation;
+		watcherKeys.put(dir, key);
+		registered.incrementAndGet();
 
-		while ( ( operation = executorQueue.poll() ) != null ) {
-			try {
-				operation.run();
-			} catch ( Throwable t ) {
-				errors.onNext(t);
-			}
+		if ( !key.isValid() ) {
+			watcherKeys.remove(dir);
 		}
 
 	}
 
-	private void removeWatcherKey( final Path path ) {
+	private WatchKey register( Path dir ) throws IOException {
+		return watchStrategy.register(watcher, dir, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+	}
+
+	/**
+	 * Lists the given directory, registering its subdirectories belonging to
+	 * the given tree.
+	 *
+	 * @param tree       The watched tree.
+	 * @param dir        The directory to be listed.
+	 * @param depth      The depth of {@code dir} inside {@code tree}.
+	 * @param registered Counts the registered directories.
+	 * @param entries    If not {@code null}, an {@link StandardWatchEventKinds#ENTRY_CREATE}
+	 *                   event is added for each entry of {@code dir}.
+	 * @return The registered subdirectories.
+	 */
+	private List<Path> registerSubdirectories( WatchedTree tree, Path dir, int depth, AtomicInteger registered, List<WatchEvent<?>> entries ) {
 
-		Set<WatchKey> keys = watcherKeys
-			.keySet()
-			.parallelStream()
-			.filter(key -> key.isValid() && path.equals(watcherKeys.get(key).get()))
-			.collect(Collectors.toSet());
+		List<Path> subdirectories = new ArrayList<>();
 
-		if ( keys != null && !keys.isEmpty() ) {
-			keys.forEach(key -> {
-				key.cancel();
-				watcherKeys.remove(key);
-			});
+		if ( depth >= tree.maxDepth && entries == null ) {
+			return subdirectories;
 		}
 
+		try ( DirectoryStream<Path> stream = Files.newDirectoryStream(dir) ) {
+			for ( Path child : stream ) {
+
+				if ( entries != null ) {
+					entries.add(new SyntheticWatchEvent<>(ENTRY_CREATE, 1, child.getFileName()));
+				}
+
+				if ( depth < tree.maxDepth && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS) && !tree.excludes(child) ) {
+					try {
+						publish(child, register(child), registered);
+						subdirectories.add(child);
+					} catch ( NoSuchFileException e ) {
+						//	Deleted meanwhile: nothing to watch.
+					} catch ( IOException e ) {
+						emitError(e);
+					}
+				}
+
+			}
+		} catch ( NoSuchFileException | NotDirectoryException e ) {
+			//	Deleted or replaced meanwhile: nothing to watch.
+		} catch ( IOException e ) {
+			emitError(e);
+		}
+
+		return subdirectories;
+
 	}
 
-	private void startIOThread() {
-		ioThread.setPriority(Thread.NORM_PRIORITY - 2);
-		ioThread.start();
+	private void removeWatcherKey( final Path path ) {
+		watcherKeys.remove(path);
 	}
 
-	private WatchKey take() {
+	private void startWatchThread() {
+		watchThread.setPriority(Thread.NORM_PRIORITY - 2);
+		watchThread.start();
+	}
+
+	/**
+	 * Body of the watching thread: it blocks on the {@link WatchService} and
+	 * processes the signalled keys, independently from the I/O operations.
+	 * While coalesced events are pending it waits at most until they must be
+	 * emitted. When interrupted by {@link #close()} it releases the watcher
+	 * resources and terminates.
+	 */
+	private void watchLoop() {
 		try {
+			while ( !isClosed() ) {
 
-			synchronized ( this ) {
-				if ( interrupted ) {
+				WatchKey key = null;
 
-					interrupted = false;
+				if ( coalescer.isEmpty() ) {
+					key = watcher.take();
+				} else {
 
-					throw new InterruptedException();
+					long timeout = coalescer.deadline(coalescingWindow, coalescingMaxLatency) - System.nanoTime();
 
-				} else {
-					mayInterrupt = true;
+					if ( timeout > 0 ) {
+						key = watcher.poll(timeout, TimeUnit.NANOSECONDS);
+					}
+
+				}
+
+				if ( key != null ) {
+					processWatchKey(key);
 				}
+
+				if ( !coalescer.isEmpty()
+				  && ( !isEventCoalescing()
+					|| System.nanoTime() - coalescer.deadline(coalescingWindow, coalescingMaxLatency) >= 0 ) ) {
+					coalescer.drain().forEach(this::emitEvent);
+				}
+
 			}
+		} catch ( ClosedWatchServiceException | InterruptedException e ) {
+			//	Watcher closed: nothing else to do.
+		} finally {
 
 			try {
-				return watcher.poll();
+				watcher.close();
+			} catch ( IOException e ) {
+				emitError(e);
 			} finally {
-				synchronized ( this ) {
-					mayInterrupt = false;
+				watchedTrees.clear();
+				watcherKeys.clear();
+			}
+
+			if ( ioPool != null ) {
+				ioPool.shutdown();
+			}
+
+			treePool.shutdown();
+
+		}
+	}
+
+	/**
+	 * @return An action executing the given I/O operation, recording its
+	 *         latency under the given {@code name}, and notifying its outcome
+	 *         on the event thread.
+	 */
+	@SuppressWarnings( { "UseSpecificCatch", "BroadCatchBlock", "TooBroadCatch" } )
+	private <T> Runnable timed( String name, Callable<T> operation, Consumer<T> onSuccess, Consumer<Throwable> onError ) {
+		return () -> {
+
+			long start = System.nanoTime();
+
+			try {
+
+				T result = operation.call();
+
+				metrics.operation(name).record(System.nanoTime() - start);
+
+				if ( onSuccess != null ) {
+					executeOnEventThread(() -> onSuccess.accept(result));
 				}
+
+			} catch ( Throwable t ) {
+				metrics.operation(name).recordFailure(System.nanoTime() - start);
+				notifyError(onError, t, name);
 			}
 
-		} catch ( InterruptedException e ) {
-			return null;
+		};
+	}
+
+	/**
+	 * Watches the given newly created directory, if inside a watched tree,
+	 * together with its subdirectories. For each directory becoming watched,
+	 * a {@link DirectoryEvent} describing its current entries is added to
+	 * {@code treeEvents}.
+	 */
+	private void watchNewTreeDirectory( Path dir, List<DirectoryEvent> treeEvents ) {
+
+		WatchedTree tree = null;
+
+		for ( Path parent = dir.getParent(); parent != null && tree == null; parent = parent.getParent() ) {
+			tree = watchedTrees.get(parent);
+		}
+
+		if ( tree == null
+		  || !Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)
+		  || tree.excludes(dir) ) {
+			return;
+		}
+
+		int depth = tree.root.relativize(dir).getNameCount();
+
+		if ( depth > tree.maxDepth ) {
+			return;
+		}
+
+		AtomicInteger registered = new AtomicInteger();
+		Deque<Map.Entry<Path, Integer>> stack = new ArrayDeque<>();
+
+		try {
+			publish(dir, register(dir), registered);
+			stack.push(Map.entry(dir, depth));
+		} catch ( NoSuchFileException e ) {
+			//	Deleted meanwhile: nothing to watch.
+		} catch ( IOException e ) {
+			emitError(e);
 		}
+
+		while ( !stack.isEmpty() ) {
+
+			Map.Entry<Path, Integer> entry = stack.pop();
+			List<WatchEvent<?>> entries = new ArrayList<>();
+
+			registerSubdirectories(tree, entry.getKey(), entry.getValue(), registered, entries).forEach(
+				subdirectory -> stack.push(Map.entry(subdirectory, entry.getValue() + 1))
+			);
+
+			if ( !entries.isEmpty() ) {
+				treeEvents.add(new DirectoryEvent(entry.getKey(), entries, true));
+			}
+
+		}
+
 	}
 
 	/**
@@ -845,7 +1884,7 @@ public class DirectoryWatcher implements AutoCloseable {
 		private final boolean reset;
 		private final Path watchedPath;
 
-		private DirectoryEvent( Path watchedPath, List<WatchEvent<?>> events, boolean reset ) {
+		DirectoryEvent( Path watchedPath, List<WatchEvent<?>> events, boolean reset ) {
 			this.watchedPath = watchedPath;
 			this.events = Collections.unmodifiableList(new ArrayList<>(events));
 			this.reset = reset;
@@ -878,4 +1917,230 @@ public class DirectoryWatcher implements AutoCloseable {
 
 	}
 
+	/**
+	 * Contains the statistics of a {@link #watchTree(Path, int, PathMatcher)}
+	 * registration.
+	 *
+	 * @author claudio.rosati@esss.se
+	 */
+	@SuppressWarnings( "PublicInnerClass" )
+	public static class WatchTreeStatistics {
+
+		private final int directories;
+		private final Duration elapsedTime;
+
+		private WatchTreeStatistics( int directories, Duration elapsedTime ) {
+			this.directories = directories;
+			this.elapsedTime = elapsedTime;
+		}
+
+		/**
+		 * @return The number of registered directories.
+		 */
+		public int getDirectories() {
+			return directories;
+		}
+
+		/**
+		 * @return The time spent walking the tree and registering the
+		 *         directories.
+		 */
+		public Duration getElapsedTime() {
+			return elapsedTime;
+		}
+
+		/**
+		 * @return The number of directories registered per second.
+		 */
+		public double getThroughput() {
+
+			long nanos = Math.max(1, elapsedTime.toNanos());
+
+			return directories * 1E9 / nanos;
+
+		}
+
+		@Override
+		public String toString() {
+			return MessageFormat.format(
+				"{0} directories registered in {1} ms ({2,number,0} directories/s)",
+				directories,
+				elapsedTime.toMillis(),
+				getThroughput()
+			);
+		}
+
+	}
+
+	/**
+	 * The way files are written by {@link #writeBinaryFile(Path, byte[], Consumer, Consumer)}
+	 * and {@link #writeTextFile(Path, String, Charset, Consumer, Consumer)}.
+	 */
+	@SuppressWarnings( "PublicInnerClass" )
+	public enum WriteMode {
+
+		/**
+		 * The content is written into the sibling temporary file, that is
+		 * then renamed to the destination one with an atomic move: readers
+		 * see either the old or the new content, and watchers a single
+		 * modification.
+		 */
+		ATOMIC,
+
+		/**
+		 * As {@link #ATOMIC}, but the temporary file content and the parent
+		 * directory are forced to the storage device before returning.
+		 */
+		DURABLE,
+
+		/**
+		 * The destination file is truncated and written in place.
+		 */
+		IN_PLACE
+
+	}
+
+	/**
+	 * The {@link DirectoryWatcherMXBean} registered by {@link #registerMBean(ObjectName)}.
+	 */
+	private class Management implements DirectoryWatcherMXBean {
+
+		private DirectoryWatcherMetrics previous = null;
+
+		@Override
+		public long getErrorCount() {
+			return getMetrics().getErrorCount();
+		}
+
+		@Override
+		public long getEventCount() {
+			return getMetrics().getEventCount();
+		}
+
+		@Override
+		public int getEventQueueSize() {
+			return eventThreadExecutor.size();
+		}
+
+		@Override
+		public synchronized double getEventRate() {
+
+			previous = metrics.snapshot(watcherKeys.size(), eventThreadExecutor.size(), previous);
+
+			return previous.getEventRate();
+
+		}
+
+		@Override
+		public double getEventThreadLag99thPercentile() {
+			return millis(getMetrics().getEventThreadLag().getPercentile(99));
+		}
+
+		@Override
+		public double getEventThreadLagMax() {
+			return millis(getMetrics().getEventThreadLag().getMax());
+		}
+
+		@Override
+		public Map<String, Double> getOperation99thPercentileLatencies() {
+			return operations(d -> millis(d.getPercentile(99)));
+		}
+
+		@Override
+		public Map<String, Long> getOperationCounts() {
+			return operations(LatencyDistribution::getCount);
+		}
+
+		@Override
+		public Map<String, Long> getOperationFailures() {
+			return operations(LatencyDistribution::getFailures);
+		}
+
+		@Override
+		public Map<String, Double> getOperationMaxLatencies() {
+			return operations(d -> millis(d.getMax()));
+		}
+
+		@Override
+		public Map<String, Double> getOperationMeanLatencies() {
+			return operations(d -> millis(d.getMean()));
+		}
+
+		@Override
+		public int getWatchKeyCount() {
+			return watcherKeys.size();
+		}
+
+		private double millis( Duration duration ) {
+			return duration.toNanos() / 1_000_000.0;
+		}
+
+		private <T> Map<String, T> operations( Function<LatencyDistribution, T> mapper ) {
+
+			Map<String, T> values = new LinkedHashMap<>();
+
+			getMetrics().getOperations().forEach(( name, distribution ) -> values.put(name, mapper.apply(distribution)));
+
+			return values;
+
+		}
+
+	}
+
+	/**
+	 * A {@link RecursiveAction} registering the subdirectories of a directory,
+	 * and forking a new task for each of them.
+	 */
+	private class WatchTreeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int depth;
+		private final Path dir;
+		private final transient AtomicInteger registered;
+		private final transient WatchedTree tree;
+
+		WatchTreeTask( WatchedTree tree, Path dir, int depth, AtomicInteger registered ) {
+			this.tree = tree;
+			this.dir = dir;
+			this.depth = depth;
+			this.registered = registered;
+		}
+
+		@Override
+		protected void compute() {
+
+			List<WatchTreeTask> subtasks = new ArrayList<>();
+
+			registerSubdirectories(tree, dir, depth, registered, null).forEach(
+				subdirectory -> subtasks.add(new WatchTreeTask(tree, subdirectory, depth + 1, registered))
+			);
+
+			invokeAll(subtasks);
+
+		}
+
+	}
+
+	/**
+	 * The parameters of a {@link #watchTree(Path, int, PathMatcher)} call.
+	 */
+	private static class WatchedTree {
+
+		private final PathMatcher exclude;
+		private final int maxDepth;
+		private final Path root;
+
+		WatchedTree( Path root, int maxDepth, PathMatcher exclude ) {
+			this.root = root;
+			this.maxDepth = maxDepth;
+			this.exclude = exclude;
+		}
+
+		boolean excludes( Path dir ) {
+			return exclude != null && exclude.matches(root.relativize(dir));
+		}
+
+	}
+
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import java.util.Map;
+
+
+/**
+ * Management interface of a {@link DirectoryWatcher}, registered by
+ * {@link DirectoryWatcher#registerMBean(javax.management.ObjectName)}.
+ * Latencies are expressed in milliseconds.
+ *
+ * @author claudio.rosati@esss.se
+ * @see DirectoryWatcherMetrics
+ */
+public interface DirectoryWatcherMXBean {
+
+	/**
+	 * @return The number of errors emitted since the watcher was created.
+	 * @see DirectoryWatcherMetrics#getErrorCount()
+	 */
+	long getErrorCount();
+
+	/**
+	 * @return The number of events emitted since the watcher was created.
+	 * @see DirectoryWatcherMetrics#getEventCount()
+	 */
+	long getEventCount();
+
+	/**
+	 * @return The number of tasks waiting for the event thread.
+	 * @see DirectoryWatcherMetrics#getEventQueueSize()
+	 */
+	int getEventQueueSize();
+
+	/**
+	 * @return The number of events emitted per second since the previous
+	 *         read of this attribute.
+	 * @see DirectoryWatcherMetrics#getEventRate()
+	 */
+	double getEventRate();
+
+	/**
+	 * @return The 99th percentile of the event thread lag.
+	 * @see DirectoryWatcherMetrics#getEventThreadLag()
+	 */
+	double getEventThreadLag99thPercentile();
+
+	/**
+	 * @return The maximum event thread lag.
+	 * @see DirectoryWatcherMetrics#getEventThreadLag()
+	 */
+	double getEventThreadLagMax();
+
+	/**
+	 * @return The 99th percentile latency of each executed I/O operation.
+	 * @see DirectoryWatcherMetrics#getOperations()
+	 */
+	Map<String, Double> getOperation99thPercentileLatencies();
+
+	/**
+	 * @return The number of executions of each I/O operation.
+	 * @see DirectoryWatcherMetrics#getOperations()
+	 */
+	Map<String, Long> getOperationCounts();
+
+	/**
+	 * @return The number of failed executions of each I/O operation.
+	 * @see DirectoryWatcherMetrics#getOperations()
+	 */
+	Map<String, Long> getOperationFailures();
+
+	/**
+	 * @return The maximum latency of each executed I/O operation.
+	 * @see DirectoryWatcherMetrics#getOperations()
+	 */
+	Map<String, Double> getOperationMaxLatencies();
+
+	/**
+	 * @return The average latency of each executed I/O operation.
+	 * @see DirectoryWatcherMetrics#getOperations()
+	 */
+	Map<String, Double> getOperationMeanLatencies();
+
+	/**
+	 * @return The number of registered watch keys.
+	 * @see DirectoryWatcherMetrics#getWatchKeyCount()
+	 */
+	int getWatchKeyCount();
+
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * An immutable snapshot of the instrumentation of a {@link DirectoryWatcher}:
+ * the number of registered watch keys, the number of tasks waiting for the
+ * event thread, the emitted events and errors, the event thread lag, and the
+ * latency of each type of I/O operation.
+ * <p>
+ * Snapshots are returned by {@link DirectoryWatcher#getMetrics()}, or
+ * periodically emitted by {@link DirectoryWatcher#metrics(java.time.Duration)}.</p>
+ *
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( "ClassWithoutLogger" )
+public final class DirectoryWatcherMetrics {
+
+	private final long errorCount;
+	private final long eventCount;
+	private final int eventQueueSize;
+	private final double eventRate;
+	private final LatencyDistribution eventThreadLag;
+	private final Map<String, LatencyDistribution> operations;
+	private final long timestamp;
+	private final int watchKeyCount;
+
+	@SuppressWarnings( "AssignmentToCollectionOrArrayFieldFromParameter" )
+	private DirectoryWatcherMetrics(
+		long timestamp,
+		int watchKeyCount,
+		int eventQueueSize,
+		long eventCount,
+		double eventRate,
+		long errorCount,
+		LatencyDistribution eventThreadLag,
+		Map<String, LatencyDistribution> operations
+	) {
+		this.errorCount = errorCount;
+		this.eventCount = eventCount;
+		this.eventQueueSize = eventQueueSize;
+		this.eventRate = eventRate;
+		this.eventThreadLag = eventThreadLag;
+		this.operations = operations;
+		this.timestamp = timestamp;
+		this.watchKeyCount = watchKeyCount;
+	}
+
+	/**
+	 * @return The number of errors emitted since the watcher was created.
+	 */
+	public long getErrorCount() {
+		return errorCount;
+	}
+
+	/**
+	 * @return The number of {@link DirectoryWatcher.DirectoryEvent}s emitted
+	 *         since the watcher was created.
+	 */
+	public long getEventCount() {
+		return eventCount;
+	}
+
+	/**
+	 * @return The number of events, errors and callbacks waiting to be
+	 *         executed by the event thread.
+	 */
+	public int getEventQueueSize() {
+		return eventQueueSize;
+	}
+
+	/**
+	 * @return The number of {@link DirectoryWatcher.DirectoryEvent}s emitted
+	 *         per second since the previous sample, or since the watcher
+	 *         was created for snapshots returned by
+	 *         {@link DirectoryWatcher#getMetrics()}.
+	 */
+	public double getEventRate() {
+		return eventRate;
+	}
+
+	/**
+	 * @return The distribution of the time spent by events, errors and
+	 *         callbacks waiting to be executed by the event thread.
+	 */
+	public LatencyDistribution getEventThreadLag() {
+		return eventThreadLag;
+	}
+
+	/**
+	 * Returns the latency distribution of the given type of I/O operation.
+	 * Latencies measure the execution of the operations on the I/O threads,
+	 * excluding the time spent waiting in queue.
+	 *
+	 * @param operation The operation name, i.e. the name of the
+	 *                  {@link DirectoryWatcher} method starting it (e.g.
+	 *                  {@code "createFile"} or {@code "readBinaryFile"}).
+	 * @return The {@link LatencyDistribution} of the given operation, empty
+	 *         if such operation was never executed.
+	 */
+	public LatencyDistribution getOperation( String operation ) {
+		return operations.getOrDefault(operation, LatencyDistribution.EMPTY);
+	}
+
+	/**
+	 * @return An unmodifiable map, sorted by name, of the
+	 *         {@link LatencyDistribution}s of the executed I/O operations.
+	 */
+	public Map<String, LatencyDistribution> getOperations() {
+		return operations;
+	}
+
+	/**
+	 * @return The {@link System#nanoTime()} value when this snapshot was
+	 *         taken.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return The number of registered watch keys, i.e. of watched
+	 *         directories.
+	 */
+	public int getWatchKeyCount() {
+		return watchKeyCount;
+	}
+
+	@Override
+	public String toString() {
+		return MessageFormat.format(
+			"DirectoryWatcherMetrics[watchKeys: {0}, eventQueue: {1}, events: {2}, eventRate: {3}/s, errors: {4}, eventThreadLag: {5}, operations: {6}]",
+			watchKeyCount,
+			eventQueueSize,
+			eventCount,
+			eventRate,
+			errorCount,
+			eventThreadLag,
+			operations
+		);
+	}
+
+	/**
+	 * Collects the measures of a {@link DirectoryWatcher}. Recording is
+	 * lock-free and can be performed concurrently by any thread.
+	 */
+	static class Recorder {
+
+		private final LongAdder errors = new LongAdder();
+		private final LatencyHistogram eventThreadLag = new LatencyHistogram();
+		private final LongAdder events = new LongAdder();
+		private final Map<String, LatencyHistogram> operations = new ConcurrentHashMap<>();
+		private final long startTime = System.nanoTime();
+
+		void error() {
+			errors.increment();
+		}
+
+		void event() {
+			events.increment();
+		}
+
+		void eventThreadLag( long nanos ) {
+			eventThreadLag.record(nanos);
+		}
+
+		/**
+		 * @param operation The operation name.
+		 * @return The {@link LatencyHistogram} of the given operation.
+		 */
+		LatencyHistogram operation( String operation ) {
+			return operations.computeIfAbsent(operation, o -> new LatencyHistogram());
+		}
+
+		/**
+		 * @param watchKeyCount  The current number of watch keys.
+		 * @param eventQueueSize The current number of tasks waiting for the
+		 *                       event thread.
+		 * @param previous       The previous sample, used to compute rates,
+		 *                       or {@code null} to compute them since the
+		 *                       recorder creation.
+		 * @return A new snapshot of the recorded measures.
+		 */
+		DirectoryWatcherMetrics snapshot( int watchKeyCount, int eventQueueSize, DirectoryWatcherMetrics previous ) {
+
+			long now = System.nanoTime();
+			long eventCount = events.sum();
+			long elapsed = now - ( previous == null ? startTime : previous.timestamp );
+			long elapsedEvents = eventCount - ( previous == null ? 0 : previous.eventCount );
+			Map<String, LatencyDistribution> distributions = new TreeMap<>();
+
+			operations.forEach(( name, histogram ) -> distributions.put(name, histogram.snapshot()));
+
+			return new DirectoryWatcherMetrics(
+				now,
+				watchKeyCount,
+				eventQueueSize,
+				eventCount,
+				( elapsed > 0 ) ? 1_000_000_000.0 * elapsedEvents / elapsed : 0.0,
+				errors.sum(),
+				eventThreadLag.snapshot(),
+				Collections.unmodifiableMap(distributions)
+			);
+
+		}
+
+	}
+
+}
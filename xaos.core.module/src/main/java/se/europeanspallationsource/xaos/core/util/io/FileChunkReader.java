@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+
+import io.reactivex.Emitter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+
+/**
+ * The state of a chunked read of a file through a {@link FileChannel}, to be
+ * used with
+ * {@link io.reactivex.Flowable#generate(java.util.concurrent.Callable, io.reactivex.functions.BiConsumer, io.reactivex.functions.Consumer)}:
+ * a chunk is read only when requested downstream.
+ * <p>
+ * Each chunk is read synchronously by the thread requesting it, i.e. the I/O
+ * thread the generating {@link io.reactivex.Flowable} is subscribed on, so
+ * that no other thread is blocked waiting for the read to complete.</p>
+ * <p>
+ * Data is read into a pooled direct buffer, and each emitted chunk is a heap
+ * copy of the read bytes, so that subscribers can retain it safely.</p>
+ *
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( "ClassWithoutLogger" )
+class FileChunkReader {
+
+	private ByteBuffer buffer;
+	private final FileChannel channel;
+	private final int chunkSize;
+	private final DirectBufferPool pool;
+	private long position = 0;
+
+	FileChunkReader( Path file, int chunkSize, DirectBufferPool pool ) throws IOException {
+		this.channel = FileChannel.open(file, READ);
+		this.chunkSize = chunkSize;
+		this.pool = pool;
+		this.buffer = pool.acquire(chunkSize);
+	}
+
+	/**
+	 * Closes the channel and releases the direct buffer.
+	 *
+	 * @throws IOException If an I/O error occurs closing the channel.
+	 */
+	void close() throws IOException {
+		try {
+			channel.close();
+		} finally {
+			pool.release(buffer);
+			buffer = null;
+		}
+	}
+
+	/**
+	 * Reads the next chunk and emits it, or completes the given
+	 * {@code emitter} if the end of file was reached.
+	 *
+	 * @param emitter The {@link Emitter} of the read chunks.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	void next( Emitter<ByteBuffer> emitter ) throws IOException {
+
+		buffer.clear().limit(chunkSize);
+
+		int read = channel.read(buffer, position);
+
+		if ( read < 0 ) {
+			emitter.onComplete();
+		} else {
+
+			ByteBuffer chunk = ByteBuffer.allocate(read);
+
+			position += read;
+
+			buffer.flip();
+			chunk.put(buffer).flip();
+			emitter.onNext(chunk);
+
+		}
+
+	}
+
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import se.europeanspallationsource.xaos.core.util.io.DirectoryWatcher.WriteMode;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+
+/**
+ * The blocking file operations shared by the {@link AsynchronousIO}
+ * implementations. Methods are executed in the caller's thread.
+ *
+ * @author claudio.rosati@esss.se
+ */
+final class FileOperations {
+
+	private static final Logger LOGGER = Logger.getLogger(FileOperations.class.getName());
+	private static final Random RANDOM = new Random();
+
+	/**
+	 * Executes the given operations, in order. The failure of an operation
+	 * does not prevent the execution of the following ones.
+	 *
+	 * @param operations The operations to be executed.
+	 * @param mode       The {@link WriteMode} used to write files.
+	 * @return The outcome of each operation.
+	 */
+	static BatchResult execute( List<BatchOperation> operations, WriteMode mode ) {
+
+		List<BatchResult.Outcome> outcomes = new ArrayList<>(operations.size());
+
+		for ( BatchOperation operation : operations ) {
+			try {
+				outcomes.add(new BatchResult.Outcome(operation, execute(operation, mode), null));
+			} catch ( IOException | RuntimeException e ) {
+				outcomes.add(new BatchResult.Outcome(operation, null, e));
+			}
+		}
+
+		return new BatchResult(outcomes);
+
+	}
+
+	/**
+	 * @param file The file to be mapped.
+	 * @return A read-only buffer mapping the whole file.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	static MappedByteBuffer map( Path file ) throws IOException {
+		try ( FileChannel channel = FileChannel.open(file, READ) ) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/**
+	 * Moves a file or a file tree. If {@code source} is a non empty directory
+	 * that cannot be simply renamed, because {@code target} is on another
+	 * file store and does not exist yet, the tree is copied in parallel, with the
+	 * {@link StandardCopyOption#COPY_ATTRIBUTES} option, and then deleted,
+	 * unless {@link StandardCopyOption#ATOMIC_MOVE} is specified.
+	 *
+	 * @param source  The file or the root of the file tree to be moved.
+	 * @param target  The new pathname of {@code source}.
+	 * @param options Options specifying how the move should be done.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	static void move( Path source, Path target, CopyOption... options ) throws IOException {
+		try {
+			Files.move(source, target, options);
+		} catch ( DirectoryNotEmptyException e ) {
+
+			//	Either target is a non empty directory (reported as the
+			//	exception's file), or source is a non empty directory that
+			//	must be moved to another file store: only the latter is
+			//	performed by copying and deleting.
+			if ( Arrays.asList(options).contains(ATOMIC_MOVE)
+			  || !source.toString().equals(e.getFile())
+			  || !Files.isDirectory(source, LinkOption.NOFOLLOW_LINKS)
+			  || Files.exists(target, LinkOption.NOFOLLOW_LINKS) ) {
+				throw e;
+			}
+
+			CopyOption[] copyOptions = Arrays.copyOf(options, options.length + 1);
+
+			copyOptions[options.length] = StandardCopyOption.COPY_ATTRIBUTES;
+
+			new TreeCopier(copyOptions).copyTree(source, target);
+			new TreeDeleter().delete(source);
+
+		}
+	}
+
+	/**
+	 * @param operations The batch operations.
+	 * @return The paths the given operations work on, in order and without
+	 *         duplicates.
+	 */
+	static List<Path> pathsOf( List<BatchOperation> operations ) {
+		return operations.stream().map(BatchOperation::getPath).distinct().collect(Collectors.toList());
+	}
+
+	/**
+	 * Reads a range of the given file with positional reads.
+	 *
+	 * @param file   The file to be read.
+	 * @param offset The position in file of the first byte to be read.
+	 * @param length The maximum number of bytes to be read.
+	 * @return A buffer, ready to be read, containing the bytes between
+	 *         {@code offset} and {@code offset + length}, or the end of the
+	 *         file if reached first.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	static ByteBuffer read( Path file, long offset, int length ) throws IOException {
+		try ( FileChannel channel = FileChannel.open(file, READ) ) {
+
+			long available = Math.max(0, channel.size() - offset);
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, available));
+			long position = offset;
+
+			while ( buffer.hasRemaining() ) {
+
+				int read = channel.read(buffer, position);
+
+				if ( read < 0 ) {
+					break;
+				}
+
+				position += read;
+
+			}
+
+			buffer.flip();
+
+			return buffer;
+
+		}
+	}
+
+	/**
+	 * Replaces {@code file} with the given temporary file, according to the
+	 * given {@link WriteMode}. The temporary file is deleted on failure.
+	 *
+	 * @param temp The temporary file, as returned by
+	 *             {@link #temporaryFile(Path)}.
+	 * @param file The file to be replaced.
+	 * @param mode The {@link WriteMode} to be used, either
+	 *             {@link WriteMode#ATOMIC} or {@link WriteMode#DURABLE}.
+	 * @return The replaced file timestamp.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	static FileTime replace( Path temp, Path file, WriteMode mode ) throws IOException {
+
+		try {
+			Files.move(temp, file, ATOMIC_MOVE);
+		} catch ( IOException | RuntimeException e ) {
+			discard(temp, e);
+			throw e;
+		}
+
+		if ( mode == WriteMode.DURABLE ) {
+
+			Path parent = temp.getParent();
+
+			//	Make the rename itself durable. Not all platforms allow opening
+			//	a directory for reading: in that case only the content is.
+			try ( FileChannel channel = FileChannel.open(parent, READ) ) {
+				channel.force(true);
+			} catch ( IOException e ) {
+				LOGGER.log(Level.FINE, MessageFormat.format("Unable to sync directory [{0}].", parent), e);
+			}
+
+		}
+
+		return Files.getLastModifiedTime(file);
+
+	}
+
+	/**
+	 * Creates a hidden temporary sibling of the given file, with the same
+	 * POSIX permissions if {@code file} exists.
+	 *
+	 * @param file The file to be written through the temporary one.
+	 * @return The created temporary file.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	static Path temporaryFile( Path file ) throws IOException {
+
+		Path parent = file.toAbsolutePath().getParent();
+		Path temp = null;
+
+		while ( temp == null ) {
+			try {
+				temp = Files.createFile(parent.resolve(MessageFormat.format(
+					".{0}.{1}{2}",
+					file.getFileName(),
+					Long.toHexString(RANDOM.nextLong() & Long.MAX_VALUE),
+					DirectoryWatcher.TEMPORARY_FILE_SUFFIX
+				)));
+			} catch ( FileAlreadyExistsException e ) {
+				//	Name clash: try with another one.
+			}
+		}
+
+		if ( Files.exists(file) ) {
+			try {
+				Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(file));
+			} catch ( UnsupportedOperationException e ) {
+				//	Not a POSIX file-system: default permissions are used.
+			} catch ( IOException | RuntimeException e ) {
+				discard(temp, e);
+				throw e;
+			}
+		}
+
+		return temp;
+
+	}
+
+	/**
+	 * Writes the given {@code content} into {@code file} according to the
+	 * given {@link WriteMode}, using gathering writes.
+	 *
+	 * @param file    The file to be written.
+	 * @param mode    The {@link WriteMode} to be used.
+	 * @param content The bytes to be written.
+	 * @return The written file timestamp.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	static FileTime write( Path file, WriteMode mode, ByteBuffer... content ) throws IOException {
+
+		if ( mode == WriteMode.IN_PLACE ) {
+
+			try ( FileChannel channel = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING) ) {
+				writeFully(channel, content);
+			}
+
+			return Files.getLastModifiedTime(file);
+
+		}
+
+		Path temp = temporaryFile(file);
+
+		try ( FileChannel channel = FileChannel.open(temp, WRITE, TRUNCATE_EXISTING) ) {
+
+			writeFully(channel, content);
+
+			if ( mode == WriteMode.DURABLE ) {
+				channel.force(true);
+			}
+
+		} catch ( IOException | RuntimeException e ) {
+			discard(temp, e);
+			throw e;
+		}
+
+		return replace(temp, file, mode);
+
+	}
+
+	/**
+	 * Deletes the given temporary file after a failure, adding the deletion
+	 * error, if any, to the suppressed ones of {@code failure}.
+	 */
+	private static void discard( Path temp, Throwable failure ) {
+		try {
+			Files.deleteIfExists(temp);
+		} catch ( IOException ex ) {
+			failure.addSuppressed(ex);
+		}
+	}
+
+	private static FileTime execute( BatchOperation operation, WriteMode mode ) throws IOException {
+
+		Path path = operation.getPath();
+
+		switch ( operation.getKind() ) {
+			case CREATE_DIRECTORIES:
+				Files.createDirectories(path, operation.getAttributes());
+				return null;
+			case CREATE_DIRECTORY:
+				Files.createDirectory(path, operation.getAttributes());
+				return null;
+			case CREATE_FILE:
+				Files.createFile(path, operation.getAttributes());
+				return Files.getLastModifiedTime(path);
+			case DELETE:
+				Files.deleteIfExists(path);
+				return null;
+			case WRITE_FILE:
+				return write(path, mode, operation.getContent());
+			default:
+				throw new AssertionError(MessageFormat.format(
+					"Unhandled batch operation kind [{0}].",
+					operation.getKind()
+				));
+		}
+
+	}
+
+	private static void writeFully( FileChannel channel, ByteBuffer[] content ) throws IOException {
+
+		long remaining = 0;
+
+		for ( ByteBuffer buffer : content ) {
+			remaining += buffer.remaining();
+		}
+
+		while ( remaining > 0 ) {
+			remaining -= channel.write(content);
+		}
+
+	}
+
+	private FileOperations() {
+	}
+
+}
@@ -16,10 +16,15 @@
 package se.europeanspallationsource.xaos.core.util.io;
 
 
+import io.reactivex.Flowable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.file.CopyOption;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileAttribute;
 import java.util.concurrent.CompletionStage;
+import org.reactivestreams.Publisher;
 
 
 /**
@@ -33,6 +38,52 @@ import java.util.concurrent.CompletionStage;
  */
 public interface InitiatorAsynchronousIO<I> {
 
+	/**
+	 * Returns a builder of a batch of operations, executed by a single I/O
+	 * task and whose outcomes are reported at once. Use it instead of many
+	 * single operations to avoid their per-operation overhead.
+	 *
+	 * @param initiator The initiator of the operations.
+	 * @return A new, empty {@link BatchBuilder}.
+	 */
+	BatchBuilder batch( I initiator );
+
+	/**
+	 * Copies a file, transferring its content without copying it on the Java
+	 * heap. If an I/O error occurs, the returned completion stage is completed
+	 * exceptionally with the encountered error.
+	 *
+	 * @param source    The pathname of the file to be copied.
+	 * @param target    The pathname of the copy.
+	 * @param initiator The initiator of the operation.
+	 * @param options   Options specifying how the copy should be done:
+	 *                  {@link java.nio.file.StandardCopyOption#REPLACE_EXISTING}
+	 *                  and {@link java.nio.file.StandardCopyOption#COPY_ATTRIBUTES}
+	 *                  are supported.
+	 * @return An exceptionally completed {@link CompletionStage} in case an
+	 *         exception is thrown.
+	 */
+	CompletionStage<Void> copyFile( Path source, Path target, I initiator, CopyOption... options );
+
+	/**
+	 * Copies a file tree, copying files in parallel and transferring their
+	 * content without copying it on the Java heap. If an I/O error occurs,
+	 * the returned completion stage is completed exceptionally with the
+	 * encountered error.
+	 *
+	 * @param source    The file or the root of the file tree to be copied.
+	 * @param target    The pathname of the copy. It cannot be inside
+	 *                  {@code source}.
+	 * @param initiator The initiator of the operation.
+	 * @param options   Options specifying how the copy should be done:
+	 *                  {@link java.nio.file.StandardCopyOption#REPLACE_EXISTING}
+	 *                  and {@link java.nio.file.StandardCopyOption#COPY_ATTRIBUTES}
+	 *                  are supported.
+	 * @return An exceptionally completed {@link CompletionStage} in case an
+	 *         exception is thrown.
+	 */
+	CompletionStage<Void> copyTree( Path source, Path target, I initiator, CopyOption... options );
+
 	/**
 	 * Create a new directory by creating all nonexistent parent directories
 	 * first. If an I/O error occurs, the returned completion stage is completed
@@ -99,6 +150,35 @@ public interface InitiatorAsynchronousIO<I> {
 	 */
 	CompletionStage<Void> deleteTree( Path root, I initiator );
 
+	/**
+	 * Maps the contents of a file into memory, in read-only mode, without
+	 * copying it on the heap. The returned completion stage will contain the
+	 * mapped buffer or, if an I/O error occurs, it will be completed
+	 * exceptionally with the encountered error.
+	 *
+	 * @param file      The pathname of the file to be mapped.
+	 * @param initiator The initiator of the operation.
+	 * @return A {@link CompletionStage} containing the read-only buffer mapping
+	 *         the whole file or, if an I/O error occurs, the encountered error.
+	 */
+	CompletionStage<MappedByteBuffer> mapFile( Path file, I initiator );
+
+	/**
+	 * Moves a file or a file tree. When a simple rename is not possible, the
+	 * tree is copied in parallel and then deleted. If an I/O error occurs, the
+	 * returned completion stage is completed exceptionally with the encountered
+	 * error.
+	 *
+	 * @param source    The file or the root of the file tree to be moved.
+	 * @param target    The new pathname of {@code source}.
+	 * @param initiator The initiator of the operation.
+	 * @param options   Options specifying how the move should be done (see
+	 *                  {@link java.nio.file.Files#move(Path, Path, CopyOption...)}).
+	 * @return An exceptionally completed {@link CompletionStage} in case an
+	 *         exception is thrown.
+	 */
+	CompletionStage<Void> moveTree( Path source, Path target, I initiator, CopyOption... options );
+
 	/**
 	 * Reads the contents of a binary file. The returned completion stage will
 	 * contain the read content as a byte array or, if an I/O error occurs, it
@@ -111,6 +191,36 @@ public interface InitiatorAsynchronousIO<I> {
 	 */
 	CompletionStage<byte[]> readBinaryFile( Path file, I initiator );
 
+	/**
+	 * Reads a range of the contents of a binary file using positional reads.
+	 * The returned completion stage will contain the read bytes or, if an I/O
+	 * error occurs, it will be completed exceptionally with the encountered
+	 * error.
+	 *
+	 * @param file      The pathname of the file to be read.
+	 * @param offset    The position in file of the first byte to be read.
+	 * @param length    The maximum number of bytes to be read.
+	 * @param initiator The initiator of the operation.
+	 * @return A {@link CompletionStage} containing a buffer, ready to be read,
+	 *         with the bytes between {@code offset} and {@code offset + length}
+	 *         (or the end of the file if reached first) or, if an I/O error
+	 *         occurs, the encountered error.
+	 */
+	CompletionStage<ByteBuffer> readBinaryFileRange( Path file, long offset, int length, I initiator );
+
+	/**
+	 * Returns a {@link Flowable} reading the contents of a binary file in
+	 * chunks, with backpressure: a chunk is read only when requested, so that
+	 * the file is never held entirely in memory. If an I/O error occurs, the
+	 * returned flowable signals the encountered error.
+	 *
+	 * @param file      The pathname of the file to be read.
+	 * @param chunkSize The maximum size of each emitted chunk.
+	 * @param initiator The initiator of the operation.
+	 * @return A {@link Flowable} of the file's chunks.
+	 */
+	Flowable<ByteBuffer> readBinaryFileStream( Path file, int chunkSize, I initiator );
+
 	/**
 	 * Reads the contents of a text file. The returned completion stage will
 	 * contain the read content as a string or, if an I/O error occurs, it will
@@ -149,6 +259,21 @@ public interface InitiatorAsynchronousIO<I> {
 	default AsynchronousIO withInitiator( final I initiator ) {
 		return new AsynchronousIO() {
 
+			@Override
+			public BatchBuilder batch() {
+				return InitiatorAsynchronousIO.this.batch(initiator);
+			}
+
+			@Override
+			public CompletionStage<Void> copyFile( Path source, Path target, CopyOption... options ) {
+				return InitiatorAsynchronousIO.this.copyFile(source, target, initiator, options);
+			}
+
+			@Override
+			public CompletionStage<Void> copyTree( Path source, Path target, CopyOption... options ) {
+				return InitiatorAsynchronousIO.this.copyTree(source, target, initiator, options);
+			}
+
 			@Override
 			public CompletionStage<Void> createDirectories( Path dir, FileAttribute<?>... attrs ) {
 				return InitiatorAsynchronousIO.this.createDirectories(dir, initiator, attrs);
@@ -174,11 +299,31 @@ public interface InitiatorAsynchronousIO<I> {
 				return InitiatorAsynchronousIO.this.deleteTree(root, initiator);
 			}
 
+			@Override
+			public CompletionStage<MappedByteBuffer> mapFile( Path file ) {
+				return InitiatorAsynchronousIO.this.mapFile(file, initiator);
+			}
+
+			@Override
+			public CompletionStage<Void> moveTree( Path source, Path target, CopyOption... options ) {
+				return InitiatorAsynchronousIO.this.moveTree(source, target, initiator, options);
+			}
+
 			@Override
 			public CompletionStage<byte[]> readBinaryFile( Path file ) {
 				return InitiatorAsynchronousIO.this.readBinaryFile(file, initiator);
 			}
 
+			@Override
+			public CompletionStage<ByteBuffer> readBinaryFileRange( Path file, long offset, int length ) {
+				return InitiatorAsynchronousIO.this.readBinaryFileRange(file, offset, length, initiator);
+			}
+
+			@Override
+			public Flowable<ByteBuffer> readBinaryFileStream( Path file, int chunkSize ) {
+				return InitiatorAsynchronousIO.this.readBinaryFileStream(file, chunkSize, initiator);
+			}
+
 			@Override
 			public CompletionStage<String> readTextFile( Path file, Charset charset ) {
 				return InitiatorAsynchronousIO.this.readTextFile(file, charset, initiator);
@@ -189,6 +334,11 @@ public interface InitiatorAsynchronousIO<I> {
 				return InitiatorAsynchronousIO.this.writeBinaryFile(file, content, initiator);
 			}
 
+			@Override
+			public CompletionStage<Void> writeBinaryFileStream( Path file, Publisher<ByteBuffer> content ) {
+				return InitiatorAsynchronousIO.this.writeBinaryFileStream(file, content, initiator);
+			}
+
 			@Override
 			public CompletionStage<Void> writeTextFile( Path file, String content, Charset charset ) {
 				return InitiatorAsynchronousIO.this.writeTextFile(file, content, charset, initiator);
@@ -209,6 +359,22 @@ public interface InitiatorAsynchronousIO<I> {
 	 */
 	CompletionStage<Void> writeBinaryFile( Path file, byte[] content, I initiator );
 
+	/**
+	 * Writes binary file to disk, consuming the given {@link Publisher} one
+	 * buffer at a time, so that the content is never held entirely in memory.
+	 * If an I/O error occurs, or {@code content} signals an error, the
+	 * returned completion stage is completed exceptionally with the
+	 * encountered error.
+	 *
+	 * @param file      The pathname of the file to be created.
+	 * @param content   The {@link Publisher} of the bytes to be written into
+	 *                  the file.
+	 * @param initiator The initiator of the operation.
+	 * @return An exceptionally completed {@link CompletionStage} in case an
+	 *         exception is thrown.
+	 */
+	CompletionStage<Void> writeBinaryFileStream( Path file, Publisher<ByteBuffer> content, I initiator );
+
 	/**
 	 * Writes the given string in a text file to disk. If an I/O error occurs,
 	 * the returned completion stage is completed exceptionally with the
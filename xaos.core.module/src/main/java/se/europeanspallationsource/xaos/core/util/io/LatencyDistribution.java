@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import java.text.MessageFormat;
+import java.time.Duration;
+
+
+/**
+ * An immutable snapshot of the latencies recorded for an operation. Values
+ * are kept in log-linear buckets, so percentiles are approximated from above
+ * with a relative error below 12.5%.
+ *
+ * @author claudio.rosati@esss.se
+ * @see DirectoryWatcherMetrics
+ */
+@SuppressWarnings( "ClassWithoutLogger" )
+public final class LatencyDistribution {
+
+	static final LatencyDistribution EMPTY = new LatencyHistogram().snapshot();
+
+	private final long count;
+	private final long[] counts;
+	private final long failures;
+	private final long max;
+	private final long total;
+
+	LatencyDistribution( long[] counts, long failures, long max, long total ) {
+
+		long sum = 0;
+
+		for ( long c : counts ) {
+			sum += c;
+		}
+
+		this.count = sum;
+		this.counts = counts;
+		this.failures = failures;
+		this.max = max;
+		this.total = total;
+
+	}
+
+	/**
+	 * @return The number of recorded latencies.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return The number of recorded latencies belonging to failed
+	 *         operations.
+	 */
+	public long getFailures() {
+		return failures;
+	}
+
+	/**
+	 * @return The greatest recorded latency, or {@link Duration#ZERO} if
+	 *         nothing was recorded.
+	 */
+	public Duration getMax() {
+		return Duration.ofNanos(max);
+	}
+
+	/**
+	 * @return The average recorded latency, or {@link Duration#ZERO} if
+	 *         nothing was recorded.
+	 */
+	public Duration getMean() {
+		return ( count == 0 ) ? Duration.ZERO : Duration.ofNanos(total / count);
+	}
+
+	/**
+	 * Returns the latency below which the given percentage of recorded values
+	 * fall.
+	 *
+	 * @param percentile The requested percentile, in the [0, 100] range.
+	 * @return The latency at the given percentile, or {@link Duration#ZERO}
+	 *         if nothing was recorded.
+	 * @throws IllegalArgumentException If {@code percentile} is outside the
+	 *                                  [0, 100] range.
+	 */
+	public Duration getPercentile( double percentile ) throws IllegalArgumentException {
+
+		if ( !( percentile >= 0 && percentile <= 100 ) ) {
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'percentile' must be in the [0, 100] range [{0}].",
+				percentile
+			));
+		}
+
+		if ( count == 0 ) {
+			return Duration.ZERO;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(percentile * count / 100.0));
+		long seen = 0;
+
+		for ( int i = 0; i < counts.length; i++ ) {
+
+			seen += counts[i];
+
+			if ( seen >= rank ) {
+				return Duration.ofNanos(Math.min(max, LatencyHistogram.highestValueOf(i)));
+			}
+
+		}
+
+		return Duration.ofNanos(max);
+
+	}
+
+	@Override
+	public String toString() {
+		return MessageFormat.format(
+			"LatencyDistribution[count: {0}, failures: {1}, mean: {2}, p50: {3}, p99: {4}, max: {5}]",
+			count,
+			failures,
+			getMean(),
+			getPercentile(50),
+			getPercentile(99),
+			getMax()
+		);
+	}
+
+}
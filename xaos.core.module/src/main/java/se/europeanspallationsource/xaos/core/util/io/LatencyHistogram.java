@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A lock-free histogram of latencies, in nanoseconds, with log-linear buckets
+ * in the style of HdrHistogram: each power of two is divided into
+ * {@value #SUB_BUCKETS} linear sub-buckets, so that recorded values are
+ * preserved with a relative error below 12.5% over the whole {@code long}
+ * range, using a fixed amount of memory.
+ * <p>
+ * Recording is wait-free and can be performed concurrently by any number of
+ * threads.</p>
+ *
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( "ClassWithoutLogger" )
+class LatencyHistogram {
+
+	static final int SUB_BUCKETS = 8;
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int BUCKETS = ( 63 - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS;
+
+	/**
+	 * @param index A bucket index.
+	 * @return The greatest value falling into the given bucket.
+	 */
+	static long highestValueOf( int index ) {
+
+		if ( index < SUB_BUCKETS ) {
+			return index;
+		}
+
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long) ( SUB_BUCKETS + index % SUB_BUCKETS ) << shift;
+
+		return lowest + ( 1L << shift ) - 1;
+
+	}
+
+	/**
+	 * @param value A non-negative value.
+	 * @return The index of the bucket the given value falls into.
+	 */
+	static int indexOf( long value ) {
+
+		if ( value < SUB_BUCKETS ) {
+			return (int) Math.max(0, value);
+		}
+
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+
+		return ( shift + 1 ) * SUB_BUCKETS + (int) ( ( value >>> shift ) & ( SUB_BUCKETS - 1 ) );
+
+	}
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder failures = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+	private final LongAdder total = new LongAdder();
+
+	/**
+	 * Records the given latency.
+	 *
+	 * @param nanos The latency to be recorded, in nanoseconds.
+	 */
+	void record( long nanos ) {
+
+		long value = Math.max(0, nanos);
+
+		counts.incrementAndGet(indexOf(value));
+		max.accumulate(value);
+		total.add(value);
+
+	}
+
+	/**
+	 * Records the given latency of a failed operation.
+	 *
+	 * @param nanos The latency to be recorded, in nanoseconds.
+	 */
+	void recordFailure( long nanos ) {
+		record(nanos);
+		failures.increment();
+	}
+
+	/**
+	 * @return An immutable copy of the current state of this histogram.
+	 */
+	LatencyDistribution snapshot() {
+
+		long[] snapshot = new long[BUCKETS];
+
+		for ( int i = 0; i < BUCKETS; i++ ) {
+			snapshot[i] = counts.get(i);
+		}
+
+		return new LatencyDistribution(snapshot, failures.sum(), max.get(), total.sum());
+
+	}
+
+}
@@ -0,0 +1,469 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+
+/**
+ * A {@link WatchService} periodically listing the registered directories, and
+ * comparing the modification time and size of their entries with the ones
+ * found by the previous scan.
+ * <p>
+ * A scheduler thread wakes up every minimum interval, and scans in parallel
+ * the directories whose interval elapsed. A directory where changes are found
+ * gets the minimum interval, while the interval of an idle directory doubles
+ * at each scan up to the maximum one. A directory no more existing is
+ * signalled, and its key invalidated, as the default {@link WatchService}
+ * does.</p>
+ *
+ * @author claudio.rosati@esss.se
+ * @see WatchStrategy#polling(Duration, Duration)
+ */
+class PollingWatchService implements WatchService {
+
+	/**
+	 * Above this number of pending events a key's events are replaced by a
+	 * single {@link java.nio.file.StandardWatchEventKinds#OVERFLOW} event.
+	 */
+	static final int MAX_PENDING_EVENTS = 512;
+
+	private static final Logger LOGGER = Logger.getLogger(PollingWatchService.class.getName());
+
+	private final PollingWatchKey closeKey = new PollingWatchKey(null, Collections.emptySet(), Collections.emptyMap());
+	private volatile boolean closed = false;
+	private final Map<Path, PollingWatchKey> keys = new ConcurrentHashMap<>();
+	private final long maxInterval;
+	private final long minInterval;
+	private final ForkJoinPool scanPool;
+	private final ScheduledExecutorService scheduler;
+	private final BlockingQueue<PollingWatchKey> signalledKeys = new LinkedBlockingQueue<>();
+
+	/**
+	 * @param minInterval The minimum interval between two scans of the same
+	 *                    directory.
+	 * @param maxInterval The maximum interval between two scans of the same
+	 *                    directory.
+	 * @param parallelism The number of threads scanning the directories.
+	 */
+	PollingWatchService( Duration minInterval, Duration maxInterval, int parallelism ) {
+
+		this.minInterval = minInterval.toNanos();
+		this.maxInterval = maxInterval.toNanos();
+		this.scanPool = new ForkJoinPool(Math.max(1, parallelism));
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+
+			Thread thread = new Thread(runnable, "DirectoryWatcherPolling");
+
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 2);
+
+			return thread;
+
+		});
+
+		scheduler.scheduleWithFixedDelay(this::scan, this.minInterval, this.minInterval, TimeUnit.NANOSECONDS);
+
+	}
+
+	@Override
+	public void close() {
+
+		if ( !closed ) {
+
+			closed = true;
+
+			scheduler.shutdownNow();
+			scanPool.shutdownNow();
+			keys.values().forEach(key -> key.valid = false);
+			keys.clear();
+
+			//	Wakes up the threads waiting in take or poll.
+			signalledKeys.offer(closeKey);
+
+		}
+
+	}
+
+	@Override
+	public WatchKey poll() {
+
+		checkOpen();
+
+		return checkKey(signalledKeys.poll());
+
+	}
+
+	@Override
+	public WatchKey poll( long timeout, TimeUnit unit ) throws InterruptedException {
+
+		checkOpen();
+
+		return checkKey(signalledKeys.poll(timeout, unit));
+
+	}
+
+	@Override
+	public WatchKey take() throws InterruptedException {
+
+		checkOpen();
+
+		return checkKey(signalledKeys.take());
+
+	}
+
+	/**
+	 * @return The current scan interval of the given directory, in
+	 *         nanoseconds, or {@code -1} if the directory is not registered.
+	 */
+	long getInterval( Path dir ) {
+
+		PollingWatchKey key = keys.get(dir);
+
+		return ( key != null ) ? key.interval : -1L;
+
+	}
+
+	/**
+	 * Registers the given directory, recording its current entries. If the
+	 * directory was already registered, the existing key is returned, and
+	 * its watched events replaced by the given ones.
+	 *
+	 * @param dir   The directory to be watched.
+	 * @param kinds The events to be watched.
+	 * @return The {@link WatchKey} representing the registration.
+	 * @throws IOException If an I/O error occurs listing {@code dir}.
+	 */
+	WatchKey register( Path dir, WatchEvent.Kind<?>... kinds ) throws IOException {
+
+		checkOpen();
+
+		Set<WatchEvent.Kind<?>> watchedKinds = new HashSet<>(Arrays.asList(kinds));
+		Map<Path, EntryState> entries = list(dir);
+
+		return keys.compute(dir, ( d, key ) -> {
+			if ( key != null && key.isValid() ) {
+
+				key.kinds = watchedKinds;
+
+				return key;
+
+			} else {
+				return new PollingWatchKey(d, watchedKinds, entries);
+			}
+		});
+
+	}
+
+	private void checkOpen() throws ClosedWatchServiceException {
+		if ( closed ) {
+			throw new ClosedWatchServiceException();
+		}
+	}
+
+	private WatchKey checkKey( PollingWatchKey key ) throws ClosedWatchServiceException {
+
+		if ( key == closeKey ) {
+			signalledKeys.offer(closeKey);
+			throw new ClosedWatchServiceException();
+		}
+
+		return key;
+
+	}
+
+	private Map<Path, EntryState> list( Path dir ) throws IOException {
+
+		Map<Path, EntryState> entries = new HashMap<>();
+
+		try ( DirectoryStream<Path> stream = Files.newDirectoryStream(dir) ) {
+			for ( Path child : stream ) {
+				try {
+					entries.put(
+						child.getFileName(),
+						new EntryState(Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS))
+					);
+				} catch ( NoSuchFileException ex ) {
+					//	Deleted meanwhile: will not be reported.
+				}
+			}
+		} catch ( DirectoryIteratorException ex ) {
+			throw ex.getCause();
+		}
+
+		return entries;
+
+	}
+
+	/**
+	 * Scans in parallel the directories whose interval elapsed.
+	 */
+	private void scan() {
+		try {
+
+			long now = System.nanoTime();
+			List<PollingWatchKey> due = keys.values().stream()
+				.filter(key -> now - key.nextScan >= 0)
+				.collect(Collectors.toList());
+
+			if ( !due.isEmpty() ) {
+				scanPool.submit(() -> due.parallelStream().forEach(PollingWatchKey::scan)).join();
+			}
+
+		} catch ( RuntimeException ex ) {
+			//	Must not propagate, or the scheduler will stop scanning.
+			if ( !closed ) {
+				LOGGER.log(Level.WARNING, "Unexpected exception scanning watched directories.", ex);
+			}
+		}
+	}
+
+	/**
+	 * The state of a directory entry, compared between two scans.
+	 */
+	private static final class EntryState {
+
+		private final boolean directory;
+		private final FileTime lastModified;
+		private final long size;
+
+		EntryState( BasicFileAttributes attributes ) {
+			this.directory = attributes.isDirectory();
+			this.lastModified = attributes.lastModifiedTime();
+			this.size = attributes.size();
+		}
+
+		@Override
+		public boolean equals( Object obj ) {
+
+			if ( this == obj ) {
+				return true;
+			} else if ( !( obj instanceof EntryState ) ) {
+				return false;
+			}
+
+			EntryState other = (EntryState) obj;
+
+			return directory == other.directory
+				&& size == other.size
+				&& Objects.equals(lastModified, other.lastModified);
+
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(directory, lastModified, size);
+		}
+
+	}
+
+	private final class PollingWatchKey implements WatchKey {
+
+		private final Path dir;
+		private Map<Path, EntryState> entries;
+		private volatile long interval = minInterval;
+		private volatile Set<WatchEvent.Kind<?>> kinds;
+		private volatile long nextScan = System.nanoTime() + minInterval;
+		private final List<WatchEvent<?>> pendingEvents = new ArrayList<>();
+		private boolean signalled = false;
+		private volatile boolean valid = true;
+
+		PollingWatchKey( Path dir, Set<WatchEvent.Kind<?>> kinds, Map<Path, EntryState> entries ) {
+			this.dir = dir;
+			this.kinds = kinds;
+			this.entries = entries;
+		}
+
+		@Override
+		public void cancel() {
+			valid = false;
+			keys.remove(dir, this);
+		}
+
+		@Override
+		public boolean isValid() {
+			return valid;
+		}
+
+		@Override
+		public synchronized List<WatchEvent<?>> pollEvents() {
+
+			List<WatchEvent<?>> events = new ArrayList<>(pendingEvents);
+
+			pendingEvents.clear();
+
+			return events;
+
+		}
+
+		@Override
+		public synchronized boolean reset() {
+
+			if ( !valid ) {
+				return false;
+			}
+
+			if ( signalled ) {
+				if ( pendingEvents.isEmpty() ) {
+					signalled = false;
+				} else {
+					signalledKeys.offer(this);
+				}
+			}
+
+			return true;
+
+		}
+
+		@Override
+		public String toString() {
+			return MessageFormat.format("PollingWatchKey[{0}, interval: {1}ms]", dir, TimeUnit.NANOSECONDS.toMillis(interval));
+		}
+
+		@Override
+		public Path watchable() {
+			return dir;
+		}
+
+		private void addEvent( List<WatchEvent<?>> events, Set<WatchEvent.Kind<?>> watchedKinds, WatchEvent.Kind<Path> kind, Path name ) {
+			if ( watchedKinds.contains(kind) ) {
+				events.add(new SyntheticWatchEvent<>(kind, 1, name));
+			}
+		}
+
+		private void scan() {
+
+			if ( !valid ) {
+				return;
+			}
+
+			Map<Path, EntryState> current;
+
+			try {
+				current = list(dir);
+			} catch ( NoSuchFileException | NotDirectoryException ex ) {
+
+				//	Directory deleted: as the default watch service does, the
+				//	key is invalidated and signalled.
+				cancel();
+				signal(Collections.emptyList());
+
+				return;
+
+			} catch ( IOException ex ) {
+
+				LOGGER.log(Level.FINE, MessageFormat.format("Unable to scan directory [{0}].", dir), ex);
+
+				nextScan = System.nanoTime() + interval;
+
+				return;
+
+			}
+
+			List<WatchEvent<?>> events = new ArrayList<>();
+			Set<WatchEvent.Kind<?>> watchedKinds = kinds;
+
+			current.forEach(( name, state ) -> {
+
+				EntryState previous = entries.remove(name);
+
+				if ( previous == null ) {
+					addEvent(events, watchedKinds, ENTRY_CREATE, name);
+				} else if ( !previous.equals(state) ) {
+					addEvent(events, watchedKinds, ENTRY_MODIFY, name);
+				}
+
+			});
+			entries.keySet().forEach(name -> addEvent(events, watchedKinds, ENTRY_DELETE, name));
+
+			entries = current;
+
+			if ( events.isEmpty() ) {
+				interval = Math.min(maxInterval, 2 * interval);
+			} else {
+				interval = minInterval;
+				signal(events);
+			}
+
+			nextScan = System.nanoTime() + interval;
+
+		}
+
+		/**
+		 * Adds the given events, and queues this key if not already signalled.
+		 */
+		private synchronized void signal( List<WatchEvent<?>> events ) {
+
+			pendingEvents.addAll(events);
+
+			if ( pendingEvents.size() > MAX_PENDING_EVENTS ) {
+
+				int count = pendingEvents.stream().mapToInt(WatchEvent::count).sum();
+
+				pendingEvents.clear();
+				pendingEvents.add(new SyntheticWatchEvent<>(OVERFLOW, count, null));
+
+			}
+
+			if ( !signalled ) {
+				signalled = true;
+				signalledKeys.offer(this);
+			}
+
+		}
+	}
+
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Executes tasks on a delegate {@link Executor}, guaranteeing that tasks
+ * submitted for the same {@link Path} are executed one at a time, in
+ * submission order, while tasks for different paths may run concurrently.
+ * <p>
+ * Each path with pending tasks owns a queue, drained by a single task
+ * submitted to the delegate executor. Queues are discarded as soon as they
+ * become empty, so the memory footprint is proportional to the number of
+ * paths with pending operations.</p>
+ * <p>
+ * A task can be submitted for several paths at once: it is queued for each
+ * of them, and executed when it reaches the head of all their queues, so
+ * that it is ordered with respect to the tasks of every given path. Queues
+ * reaching such task before the others are parked, without holding any
+ * thread, and resumed when the task is completed.</p>
+ * <p>
+ * A task can also complete asynchronously, i.e. after returning, when it
+ * invokes the completion callback it is given: its queues are kept, without
+ * holding any thread, until then, so that an operation started by the task
+ * (e.g. a streamed write) is still ordered with respect to the following
+ * ones.</p>
+ * <p>
+ * When the delegate executor rejects the drain of a new queue, the task
+ * whose submission created it is rejected to its caller, while the tasks
+ * queued behind it in the meantime by other threads are rejected through
+ * their own rejection handlers, so that none of them is silently lost.</p>
+ *
+ * @author claudio.rosati@esss.se
+ */
+class SerialPathExecutor {
+
+	private static final Logger LOGGER = Logger.getLogger(SerialPathExecutor.class.getName());
+
+	private final Executor delegate;
+	private final Map<Path, PathQueue> queues = new ConcurrentHashMap<>();
+
+	SerialPathExecutor( Executor delegate ) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Queues the given {@code task} for the given {@code path}. If rejected
+	 * after being queued behind a task whose submission was rejected, the
+	 * given {@code task} is dropped, and a warning logged.
+	 *
+	 * @param path The {@link Path} the task operates on.
+	 * @param task The task to be executed.
+	 * @throws RejectedExecutionException If the delegate executor rejects the
+	 *                                    task.
+	 */
+	void execute( Path path, Runnable task ) throws RejectedExecutionException {
+		execute(path, task, e -> LOGGER.log(
+			Level.WARNING,
+			MessageFormat.format("Queued task rejected [path: {0}].", path),
+			e
+		));
+	}
+
+	/**
+	 * Queues the given {@code task} for the given {@code path}.
+	 *
+	 * @param path       The {@link Path} the task operates on.
+	 * @param task       The task to be executed.
+	 * @param onRejected Called, by another submitting thread, if the task is
+	 *                   rejected after being queued behind a task whose
+	 *                   submission was rejected.
+	 * @throws RejectedExecutionException If the delegate executor rejects the
+	 *                                    task.
+	 */
+	void execute( Path path, Runnable task, Consumer<RejectedExecutionException> onRejected ) throws RejectedExecutionException {
+		execute(Collections.singleton(path), task, onRejected);
+	}
+
+	/**
+	 * Queues the given {@code task} for all the given {@code paths}. The task
+	 * is executed after all the tasks already queued for any of the given
+	 * paths, and before the ones queued later for any of them.
+	 *
+	 * @param paths      The {@link Path}s the task operates on.
+	 * @param task       The task to be executed.
+	 * @param onRejected Called, by another submitting thread, if the task is
+	 *                   rejected after being queued behind a task whose
+	 *                   submission was rejected.
+	 * @throws RejectedExecutionException If the delegate executor rejects the
+	 *                                    task.
+	 */
+	void execute( Collection<Path> paths, Runnable task, Consumer<RejectedExecutionException> onRejected ) throws RejectedExecutionException {
+		executeAsync(
+			paths,
+			done -> {
+				try {
+					task.run();
+				} finally {
+					done.run();
+				}
+			},
+			onRejected
+		);
+	}
+
+	/**
+	 * Queues the given asynchronous {@code task} for all the given
+	 * {@code paths}. The task is given a completion callback, and the tasks
+	 * queued later for any of the given paths are executed only after it is
+	 * invoked, possibly by another thread after the task returned.
+	 *
+	 * @param paths      The {@link Path}s the task operates on.
+	 * @param task       The task to be executed, receiving the callback to
+	 *                   be invoked when completed.
+	 * @param onRejected Called, by another submitting thread, if the task is
+	 *                   rejected after being queued behind a task whose
+	 *                   submission was rejected.
+	 * @throws RejectedExecutionException If the delegate executor rejects the
+	 *                                    task.
+	 */
+	void executeAsync( Collection<Path> paths, Consumer<Runnable> task, Consumer<RejectedExecutionException> onRejected ) throws RejectedExecutionException {
+
+		Set<Path> lanes = ( paths.size() == 1 ) ? Collections.singleton(paths.iterator().next()) : new LinkedHashSet<>(paths);
+		QueuedTask queued = new QueuedTask(task, lanes.size(), onRejected);
+		List<PathQueue> started = new ArrayList<>(lanes.size());
+
+		if ( lanes.size() == 1 ) {
+			enqueue(lanes.iterator().next(), queued, started);
+		} else {
+			//	Joint tasks are queued atomically, so that any two of them
+			//	have the same relative order in all their queues, and cannot
+			//	wait for each other.
+			synchronized ( this ) {
+				lanes.forEach(path -> enqueue(path, queued, started));
+			}
+		}
+
+		RejectedExecutionException rejection = null;
+
+		for ( PathQueue queue : started ) {
+			try {
+				delegate.execute(queue);
+			} catch ( RejectedExecutionException e ) {
+				rejection = e;
+				drop(queue, queued, e);
+			}
+		}
+
+		if ( rejection != null ) {
+			throw rejection;
+		}
+
+	}
+
+	/**
+	 * @return The number of paths having pending or running tasks.
+	 */
+	int pendingPaths() {
+		return queues.size();
+	}
+
+	/**
+	 * Removes the given queue, whose drain was rejected, and rejects all its
+	 * tasks: the given {@code own} one is rejected to the caller, the others
+	 * through their rejection handlers. Tasks queued for other paths too are
+	 * skipped when reached by those queues.
+	 */
+	private void drop( PathQueue queue, QueuedTask own, RejectedExecutionException e ) {
+
+		//	Once removed, no more tasks can be added to the queue.
+		queues.remove(queue.path, queue);
+
+		queue.tasks.forEach(task -> {
+
+			task.reject(task == own ? null : e);
+
+			if ( task.arrive() ) {
+				//	The other queues are parked on the task: resume them.
+				task.lanes.stream().filter(lane -> lane != queue).forEach(PathQueue::resume);
+			}
+
+		});
+
+	}
+
+	private void enqueue( Path path, QueuedTask task, List<PathQueue> started ) {
+		queues.compute(path, ( p, queue ) -> {
+
+			if ( queue == null ) {
+				queue = new PathQueue(p);
+				started.add(queue);
+			}
+
+			queue.tasks.add(task);
+			task.lanes.add(queue);
+
+			return queue;
+
+		});
+	}
+
+	private class PathQueue implements Runnable {
+
+		private final Path path;
+		private final Queue<QueuedTask> tasks = new ArrayDeque<>(2);
+
+		PathQueue( Path path ) {
+			this.path = path;
+		}
+
+		@Override
+		public void run() {
+
+			QueuedTask task = next(false);
+
+			while ( task != null ) {
+
+				if ( !task.arrive() ) {
+					//	Parked: the last queue reaching the task will resume
+					//	this one.
+					return;
+				}
+
+				if ( !task.execute(path) ) {
+					//	Still running: its completion will resume all the
+					//	queues.
+					return;
+				}
+
+				task.lanes.stream().filter(lane -> lane != this).forEach(PathQueue::resume);
+
+				task = next(true);
+
+			}
+
+		}
+
+		/**
+		 * Returns the next task, or {@code null} if the queue was emptied and
+		 * removed from the map. The head of the queue is the running task, and
+		 * it is removed only when completed. The map's per-key lock guards
+		 * {@link #tasks}.
+		 */
+		private QueuedTask next( boolean completed ) {
+
+			QueuedTask[] next = new QueuedTask[1];
+
+			queues.computeIfPresent(path, ( p, queue ) -> {
+
+				//	A dropped queue, possibly replaced by a new one.
+				if ( queue != this ) {
+					return queue;
+				}
+
+				if ( completed ) {
+					queue.tasks.poll();
+				}
+
+				next[0] = queue.tasks.peek();
+
+				return next[0] == null ? null : queue;
+
+			});
+
+			return next[0];
+
+		}
+
+		/**
+		 * Removes the completed task at the head of this parked queue, and
+		 * resumes draining it.
+		 */
+		private void resume() {
+			if ( next(true) != null ) {
+				try {
+					delegate.execute(this);
+				} catch ( RejectedExecutionException e ) {
+					run();
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return path.toString();
+		}
+
+	}
+
+	/**
+	 * A task queued for one or more paths, executed by the last of their
+	 * queues reaching it.
+	 * <p>
+	 * Its completion can happen before or after {@link #execute(Path)}
+	 * returns: {@link #completion} counts both events, and the second one
+	 * resumes the draining of the queues.</p>
+	 */
+	private static class QueuedTask {
+
+		private final AtomicInteger arrivals;
+		private final AtomicBoolean cancelled = new AtomicBoolean(false);
+		private final AtomicBoolean completed = new AtomicBoolean(false);
+		private final AtomicInteger completion = new AtomicInteger();
+		private final List<PathQueue> lanes;
+		private final Consumer<RejectedExecutionException> onRejected;
+		private final Consumer<Runnable> task;
+
+		QueuedTask( Consumer<Runnable> task, int lanes, Consumer<RejectedExecutionException> onRejected ) {
+			this.arrivals = new AtomicInteger(lanes);
+			this.lanes = new ArrayList<>(lanes);
+			this.onRejected = onRejected;
+			this.task = task;
+		}
+
+		/**
+		 * @return {@code true} if the calling queue is the last one reaching
+		 *         this task.
+		 */
+		boolean arrive() {
+			return arrivals.decrementAndGet() == 0;
+		}
+
+		/**
+		 * Executes this task, unless rejected.
+		 *
+		 * @param path The path of the queue executing this task.
+		 * @return {@code true} if the task is completed, {@code false} if
+		 *         its completion will resume the draining of its queues.
+		 */
+		boolean execute( Path path ) {
+
+			if ( cancelled.get() ) {
+				return true;
+			}
+
+			try {
+				task.accept(this::complete);
+			} catch ( RuntimeException e ) {
+
+				LOGGER.log(
+					Level.WARNING,
+					MessageFormat.format("Unexpected exception executing task [path: {0}].", path),
+					e
+				);
+
+				complete();
+
+			}
+
+			return completion.getAndIncrement() > 0;
+
+		}
+
+		/**
+		 * The completion callback given to the task: only its first
+		 * invocation is considered.
+		 */
+		private void complete() {
+			if ( completed.compareAndSet(false, true) && completion.getAndIncrement() > 0 ) {
+				lanes.forEach(PathQueue::resume);
+			}
+		}
+
+		/**
+		 * Rejects this task, once, notifying its rejection handler if the
+		 * given {@code rejection} is not {@code null}.
+		 */
+		void reject( RejectedExecutionException rejection ) {
+			if ( cancelled.compareAndSet(false, true) && rejection != null ) {
+				try {
+					onRejected.accept(rejection);
+				} catch ( RuntimeException e ) {
+					LOGGER.log(Level.WARNING, "Unexpected exception rejecting task.", e);
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import java.nio.file.WatchEvent;
+
+
+/**
+ * A {@link WatchEvent} not signalled by the file system's
+ * {@link java.nio.file.WatchService}, but built by {@link DirectoryWatcher}
+ * itself (e.g. merging other events, or describing entries found in a newly
+ * watched directory), or by {@link PollingWatchService}.
+ *
+ * @param <T> The type of the context object.
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( "ClassWithoutLogger" )
+class SyntheticWatchEvent<T> implements WatchEvent<T> {
+
+	private final T context;
+	private final int count;
+	private final Kind<T> kind;
+
+	SyntheticWatchEvent( Kind<T> kind, int count, T context ) {
+		this.kind = kind;
+		this.count = count;
+		this.context = context;
+	}
+
+	@Override
+	public T context() {
+		return context;
+	}
+
+	@Override
+	public int count() {
+		return count;
+	}
+
+	@Override
+	public Kind<T> kind() {
+		return kind;
+	}
+
+	@Override
+	public String toString() {
+		return kind.name() + ": " + context + " [" + count + "]";
+	}
+
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+
+/**
+ * Copies files and file trees. File contents are transferred with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * letting the operating system move the bytes without copying them on the
+ * Java heap.
+ * <p>
+ * Trees are copied in parallel: a task is forked for each file and for each
+ * subdirectory, and directories attributes are set when all their entries
+ * are copied. Symbolic links are copied as links, never followed.</p>
+ * <p>
+ * All copiers share the same {@link ForkJoinPool}. When an entry cannot be
+ * copied the remaining tasks are cancelled, i.e. they complete without
+ * touching the file system, and the error is thrown once all of them
+ * completed.</p>
+ * <p>
+ * Supported {@link CopyOption}s are {@link StandardCopyOption#REPLACE_EXISTING}
+ * (existing files are overwritten and existing directories merged) and
+ * {@link StandardCopyOption#COPY_ATTRIBUTES}.</p>
+ *
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( "ClassWithoutLogger" )
+class TreeCopier {
+
+	private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+	private final boolean copyAttributes;
+	private final AtomicLong copied = new AtomicLong();
+	private final AtomicReference<IOException> failure = new AtomicReference<>();
+	private final boolean replaceExisting;
+
+	/**
+	 * @param options The {@link CopyOption}s.
+	 */
+	TreeCopier( CopyOption... options ) {
+
+		List<CopyOption> optionList = Arrays.asList(options);
+
+		this.copyAttributes = optionList.contains(StandardCopyOption.COPY_ATTRIBUTES);
+		this.replaceExisting = optionList.contains(StandardCopyOption.REPLACE_EXISTING);
+
+	}
+
+	/**
+	 * Copies the given file. Symbolic links are followed.
+	 *
+	 * @param source The file to be copied.
+	 * @param target The copy to be created.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	void copyFile( Path source, Path target ) throws IOException {
+
+		try ( FileChannel in = FileChannel.open(source, READ);
+			  FileChannel out = replaceExisting
+				  ? FileChannel.open(target, WRITE, CREATE, TRUNCATE_EXISTING)
+				  : FileChannel.open(target, WRITE, CREATE_NEW) ) {
+
+			long size = in.size();
+			long position = 0;
+
+			while ( position < size ) {
+
+				long transferred = in.transferTo(position, size - position, out);
+
+				if ( transferred <= 0 ) {
+					//	Source truncated meanwhile.
+					break;
+				}
+
+				position += transferred;
+
+			}
+
+		}
+
+		if ( copyAttributes ) {
+			copyAttributes(source, target);
+		}
+
+		copied.incrementAndGet();
+
+	}
+
+	/**
+	 * Copies the given file or file tree.
+	 *
+	 * @param source The file or the root of the file tree to be copied.
+	 * @param target The copy to be created.
+	 * @return The number of copied entries.
+	 * @throws IOException              If an I/O error occurs.
+	 * @throws IllegalArgumentException If {@code target} is inside
+	 *                                  {@code source}.
+	 */
+	long copyTree( Path source, Path target ) throws IOException, IllegalArgumentException {
+
+		Path absoluteSource = source.toAbsolutePath().normalize();
+		Path absoluteTarget = target.toAbsolutePath().normalize();
+
+		if ( absoluteTarget.startsWith(absoluteSource) ) {
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'target' cannot be inside 'source' [source: {0}, target: {1}].",
+				source,
+				target
+			));
+		}
+
+		if ( Files.isDirectory(source, LinkOption.NOFOLLOW_LINKS) ) {
+
+			POOL.invoke(new DirectoryTask(null, source, target));
+
+			IOException error = failure.get();
+
+			if ( error != null ) {
+				throw error;
+			}
+
+		} else {
+			copyEntry(source, target);
+		}
+
+		return copied.get();
+
+	}
+
+	/**
+	 * @return The number of entries copied so far.
+	 */
+	long getCopied() {
+		return copied.get();
+	}
+
+	private void copyAttributes( Path source, Path target ) throws IOException {
+
+		BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+
+		Files.getFileAttributeView(target, BasicFileAttributeView.class, LinkOption.NOFOLLOW_LINKS).setTimes(
+			attributes.lastModifiedTime(),
+			attributes.lastAccessTime(),
+			attributes.creationTime()
+		);
+
+		try {
+			Files.setPosixFilePermissions(target, Files.getPosixFilePermissions(source, LinkOption.NOFOLLOW_LINKS));
+		} catch ( UnsupportedOperationException e ) {
+			//	Not a POSIX file-system: permissions are not copied.
+		}
+
+	}
+
+	/**
+	 * Copies a non-directory entry: regular files through {@link #copyFile(Path, Path)},
+	 * other entries (e.g. symbolic links) through {@link Files#copy(Path, Path, CopyOption...)}.
+	 */
+	private void copyEntry( Path source, Path target ) throws IOException {
+		if ( Files.isRegularFile(source, LinkOption.NOFOLLOW_LINKS) ) {
+			copyFile(source, target);
+		} else {
+
+			if ( replaceExisting ) {
+				Files.copy(source, target, LinkOption.NOFOLLOW_LINKS, StandardCopyOption.REPLACE_EXISTING);
+			} else {
+				Files.copy(source, target, LinkOption.NOFOLLOW_LINKS);
+			}
+
+			copied.incrementAndGet();
+
+		}
+	}
+
+	/**
+	 * Records the first error, cancelling the tasks not yet started.
+	 */
+	private void fail( IOException error ) {
+		failure.compareAndSet(null, error);
+	}
+
+	/**
+	 * Creates the target directory, and forks a task for each entry of the
+	 * source one. Directory attributes are copied when all entries are.
+	 * Nothing is done after a failure, but completion is still propagated,
+	 * so that the root task completes only when all the forked ones did.
+	 */
+	@SuppressWarnings( "serial" )
+	private class DirectoryTask extends CountedCompleter<Void> {
+
+		private final Path source;
+		private final Path target;
+
+		DirectoryTask( CountedCompleter<?> parent, Path source, Path target ) {
+			super(parent);
+			this.source = source;
+			this.target = target;
+		}
+
+		@Override
+		public void compute() {
+
+			if ( failure.get() == null ) {
+				try {
+
+					try {
+						Files.createDirectory(target);
+					} catch ( FileAlreadyExistsException e ) {
+						if ( !replaceExisting || !Files.isDirectory(target, LinkOption.NOFOLLOW_LINKS) ) {
+							throw e;
+						}
+					}
+
+					copied.incrementAndGet();
+
+					try ( DirectoryStream<Path> stream = Files.newDirectoryStream(source) ) {
+						for ( Path child : stream ) {
+
+							Path childTarget = target.resolve(child.getFileName().toString());
+
+							addToPendingCount(1);
+
+							if ( Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS) ) {
+								new DirectoryTask(this, child, childTarget).fork();
+							} else {
+								new EntryTask(this, child, childTarget).fork();
+							}
+
+						}
+					}
+
+				} catch ( IOException e ) {
+					fail(e);
+				}
+			}
+
+			tryComplete();
+
+		}
+
+		@Override
+		public void onCompletion( CountedCompleter<?> caller ) {
+			if ( copyAttributes && failure.get() == null ) {
+				try {
+					copyAttributes(source, target);
+				} catch ( IOException e ) {
+					fail(e);
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Copies a non-directory entry.
+	 */
+	@SuppressWarnings( "serial" )
+	private class EntryTask extends CountedCompleter<Void> {
+
+		private final Path source;
+		private final Path target;
+
+		EntryTask( CountedCompleter<?> parent, Path source, Path target ) {
+			super(parent);
+			this.source = source;
+			this.target = target;
+		}
+
+		@Override
+		public void compute() {
+
+			if ( failure.get() == null ) {
+				try {
+					copyEntry(source, target);
+				} catch ( IOException e ) {
+					fail(e);
+				}
+			}
+
+			tryComplete();
+
+		}
+
+	}
+
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
+
+
+/**
+ * Deletes file trees in parallel. Each directory is listed once: its files
+ * are deleted immediately, while a new task is forked for each subdirectory.
+ * A directory is deleted when all the tasks of its subdirectories completed.
+ * Completion is propagated upward without blocking, so the depth of the tree
+ * is not limited by the stack size.
+ * <p>
+ * All deleters share the same {@link ForkJoinPool}. When an entry cannot be
+ * deleted the remaining tasks are cancelled, i.e. they complete without
+ * touching the file system, and the error is thrown once all of them
+ * completed.</p>
+ * <p>
+ * Symbolic links are deleted, never followed. Entries disappearing meanwhile
+ * are ignored.</p>
+ *
+ * @author claudio.rosati@esss.se
+ * @see DeleteFileVisitor#deleteTree(Path)
+ */
+@SuppressWarnings( "ClassWithoutLogger" )
+class TreeDeleter {
+
+	/**
+	 * The default number of deleted entries between two progress
+	 * notifications.
+	 */
+	static final long DEFAULT_PROGRESS_STEP = 1024;
+
+	private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+	private final AtomicLong deleted = new AtomicLong();
+	private final AtomicReference<IOException> failure = new AtomicReference<>();
+	private final LongConsumer progress;
+	private final long progressStep;
+	private long reported = 0;
+
+	/**
+	 * Creates a deleter not reporting progress.
+	 */
+	TreeDeleter() {
+		this(null, DEFAULT_PROGRESS_STEP);
+	}
+
+	/**
+	 * @param progress     Called with the total number of deleted entries
+	 *                     every {@code progressStep} deletions, and when the
+	 *                     deletion is completed. Calls are serialized and the
+	 *                     passed values increasing. Can be {@code null}.
+	 * @param progressStep The number of deleted entries between two
+	 *                     {@code progress} calls.
+	 */
+	TreeDeleter( LongConsumer progress, long progressStep ) {
+		this.progress = progress;
+		this.progressStep = Math.max(1, progressStep);
+	}
+
+	/**
+	 * Deletes the given file or file tree. Nothing is done if {@code root}
+	 * doesn't exist.
+	 *
+	 * @param root The file or the root of the file tree to be deleted.
+	 * @return The number of deleted entries.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	long delete( Path root ) throws IOException {
+
+		BasicFileAttributes attributes;
+
+		try {
+			attributes = Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch ( NoSuchFileException e ) {
+			return 0;
+		}
+
+		if ( attributes.isDirectory() ) {
+
+			POOL.invoke(new DirectoryTask(null, root));
+
+			IOException error = failure.get();
+
+			if ( error != null ) {
+				throw error;
+			}
+
+		} else {
+			deleteEntry(root);
+		}
+
+		long count = deleted.get();
+
+		notifyTotal(count);
+
+		return count;
+
+	}
+
+	/**
+	 * @return The number of entries deleted so far.
+	 */
+	long getDeleted() {
+		return deleted.get();
+	}
+
+	private void deleteEntry( Path path ) throws IOException {
+		if ( Files.deleteIfExists(path) ) {
+			notifyProgress(deleted.incrementAndGet());
+		}
+	}
+
+	/**
+	 * Records the first error, cancelling the tasks not yet started.
+	 */
+	private void fail( IOException error ) {
+		failure.compareAndSet(null, error);
+	}
+
+	private void notifyProgress( long count ) {
+		if ( count % progressStep == 0 ) {
+			notifyTotal(count);
+		}
+	}
+
+	private void notifyTotal( long count ) {
+		if ( progress != null ) {
+			synchronized ( this ) {
+				if ( count > reported ) {
+					reported = count;
+					progress.accept(count);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deletes the files of a directory, forks a task for each of its
+	 * subdirectories, and deletes the directory itself when all of them
+	 * completed. Nothing is done after a failure, but completion is still
+	 * propagated, so that the root task completes only when all the forked
+	 * ones did.
+	 */
+	@SuppressWarnings( "serial" )
+	private class DirectoryTask extends CountedCompleter<Void> {
+
+		private final Path dir;
+
+		DirectoryTask( DirectoryTask parent, Path dir ) {
+			super(parent);
+			this.dir = dir;
+		}
+
+		@Override
+		public void compute() {
+
+			if ( failure.get() == null ) {
+
+				List<Path> subdirectories = new ArrayList<>();
+
+				try {
+
+					try ( DirectoryStream<Path> stream = Files.newDirectoryStream(dir) ) {
+						for ( Path child : stream ) {
+							if ( Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS) ) {
+								subdirectories.add(child);
+							} else {
+								deleteEntry(child);
+							}
+						}
+					} catch ( NoSuchFileException e ) {
+						//	Deleted meanwhile: nothing to list.
+					}
+
+					subdirectories.forEach(subdirectory -> {
+						addToPendingCount(1);
+						new DirectoryTask(this, subdirectory).fork();
+					});
+
+				} catch ( IOException e ) {
+					fail(e);
+				}
+
+			}
+
+			tryComplete();
+
+		}
+
+		@Override
+		public void onCompletion( CountedCompleter<?> caller ) {
+			if ( failure.get() == null ) {
+				try {
+					deleteEntry(dir);
+				} catch ( IOException e ) {
+					fail(e);
+				}
+			}
+		}
+
+	}
+
+}
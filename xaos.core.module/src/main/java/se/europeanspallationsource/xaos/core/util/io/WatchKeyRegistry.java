@@ -0,0 +1,281 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Bidirectional index between watched directories and their {@link WatchKey}s.
+ * <p>
+ * Lookups by {@link Path} are served by a concurrent hash map, while the
+ * reverse lookup is given by {@link WatchKey#watchable()}. A prefix trie
+ * of the registered paths allows the cancellation of all the keys rooted at
+ * a given directory in a time proportional to the size of the cancelled
+ * subtree, instead of the total number of watched directories.</p>
+ * <p>
+ * Read operations are lock-free; updates are serialized on the registry
+ * instance.</p>
+ *
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( "ClassWithoutLogger" )
+class WatchKeyRegistry {
+
+	private final Map<Path, WatchKey> keys = new ConcurrentHashMap<>();
+	private final Node trie = new Node(null);
+
+	/**
+	 * Cancels all registered keys and clears this registry.
+	 */
+	synchronized void clear() {
+		keys.values().forEach(WatchKey::cancel);
+		keys.clear();
+		trie.children.clear();
+	}
+
+	/**
+	 * @param dir The directory to be checked.
+	 * @return {@code true} if the given directory has a valid registered
+	 *         {@link WatchKey}.
+	 */
+	boolean contains( Path dir ) {
+
+		WatchKey key = keys.get(dir);
+
+		return key != null && key.isValid();
+
+	}
+
+	/**
+	 * @param dir The directory whose {@link WatchKey} must be returned.
+	 * @return The {@link WatchKey} registered for the given directory, or
+	 *         {@code null}.
+	 */
+	WatchKey get( Path dir ) {
+		return keys.get(dir);
+	}
+
+	/**
+	 * Registers the given {@link WatchKey} for the given directory. If another
+	 * key was registered for the same directory, it will be replaced.
+	 *
+	 * @param dir The watched directory.
+	 * @param key The {@link WatchKey} associated to {@code dir}.
+	 */
+	synchronized void put( Path dir, WatchKey key ) {
+		insert(dir, key);
+	}
+
+	/**
+	 * Registers all the given {@link WatchKey}s at once.
+	 *
+	 * @param dirKeys The watched directories and their {@link WatchKey}s.
+	 * @see #put(Path, WatchKey)
+	 */
+	synchronized void putAll( Map<Path, WatchKey> dirKeys ) {
+		dirKeys.forEach(this::insert);
+	}
+
+	/**
+	 * Cancels and removes the {@link WatchKey} registered for the given
+	 * directory.
+	 *
+	 * @param dir The directory to be unregistered.
+	 * @return {@code true} if a key was registered for {@code dir}.
+	 */
+	synchronized boolean remove( Path dir ) {
+
+		WatchKey key = keys.remove(dir);
+
+		if ( key != null ) {
+
+			key.cancel();
+
+			Deque<Node> path = lookup(dir);
+
+			if ( path != null ) {
+				path.peekLast().watched = false;
+				prune(path);
+			}
+
+			return true;
+
+		} else {
+			return false;
+		}
+
+	}
+
+	/**
+	 * Cancels and removes the {@link WatchKey}s registered for the given
+	 * directory and all its descendants.
+	 *
+	 * @param root The root of the subtree to be unregistered.
+	 * @return The number of cancelled keys.
+	 */
+	synchronized int removeTree( Path root ) {
+
+		Deque<Node> path = lookup(root);
+
+		if ( path == null ) {
+			return 0;
+		}
+
+		Node top = path.peekLast();
+		List<Path> subtree = new ArrayList<>();
+		Deque<Map.Entry<Path, Node>> stack = new ArrayDeque<>();
+
+		stack.push(Map.entry(root, top));
+
+		while ( !stack.isEmpty() ) {
+
+			Map.Entry<Path, Node> entry = stack.pop();
+
+			if ( entry.getValue().watched ) {
+				subtree.add(entry.getKey());
+			}
+
+			entry.getValue().children.forEach(( name, child ) -> stack.push(Map.entry(entry.getKey().resolve(name), child)));
+
+		}
+
+		subtree.forEach(dir -> {
+
+			WatchKey key = keys.remove(dir);
+
+			if ( key != null ) {
+				key.cancel();
+			}
+
+		});
+
+		top.watched = false;
+		top.children.clear();
+		prune(path);
+
+		return subtree.size();
+
+	}
+
+	/**
+	 * @return The number of registered keys.
+	 */
+	int size() {
+		return keys.size();
+	}
+
+	private void insert( Path dir, WatchKey key ) {
+
+		WatchKey old = keys.put(dir, key);
+
+		if ( old != null && old != key ) {
+			old.cancel();
+		}
+
+		Node node = trie;
+
+		for ( Path segment : segments(dir) ) {
+			node = node.children.computeIfAbsent(segment, Node::new);
+		}
+
+		node.watched = true;
+
+	}
+
+	/**
+	 * Returns the nodes from the trie root down to the node representing the
+	 * given path (inclusive), or {@code null} if such node doesn't exist.
+	 */
+	private Deque<Node> lookup( Path dir ) {
+
+		Deque<Node> path = new ArrayDeque<>(dir.getNameCount() + 2);
+		Node node = trie;
+
+		path.addLast(node);
+
+		for ( Path segment : segments(dir) ) {
+
+			node = node.children.get(segment);
+
+			if ( node == null ) {
+				return null;
+			}
+
+			path.addLast(node);
+
+		}
+
+		return path;
+
+	}
+
+	/**
+	 * Removes from the trie the no more used nodes along the given path.
+	 */
+	private void prune( Deque<Node> path ) {
+
+		Node node = path.pollLast();
+
+		while ( !path.isEmpty() && !node.watched && node.children.isEmpty() ) {
+
+			Node parent = path.pollLast();
+
+			parent.children.remove(node.segment);
+
+			node = parent;
+
+		}
+
+	}
+
+	private List<Path> segments( Path dir ) {
+
+		List<Path> segments = new ArrayList<>(dir.getNameCount() + 1);
+		Path root = dir.getRoot();
+
+		if ( root != null ) {
+			segments.add(root);
+		}
+
+		dir.forEach(segments::add);
+
+		return segments;
+
+	}
+
+	private static class Node {
+
+		private final Map<Path, Node> children = new HashMap<>(4);
+		private final Path segment;
+		private boolean watched = false;
+
+		Node( Path segment ) {
+			this.segment = segment;
+		}
+
+	}
+
+}
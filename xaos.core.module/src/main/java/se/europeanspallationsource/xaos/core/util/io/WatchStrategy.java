@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.text.MessageFormat;
+import java.time.Duration;
+
+
+/**
+ * The strategy used by a {@link DirectoryWatcher} to be notified of the
+ * changes occurring in watched directories. Two strategies are available:
+ * <ul>
+ *   <li>{@link #system()}: the {@link WatchService} of the default file
+ *     system, using the native notification mechanism when available;</li>
+ *   <li>{@link #polling(Duration, Duration)}: a {@link WatchService}
+ *     periodically listing the watched directories in parallel, and comparing
+ *     their entries' modification time and size. Each directory is scanned
+ *     with its own interval, shortened to the minimum when changes are found,
+ *     and doubled up to the maximum while the directory is idle. This is
+ *     useful on network file systems (e.g. NFS, CIFS) where native
+ *     notifications are not delivered.</li>
+ * </ul>
+ * <p>
+ * Other strategies can be plugged in extending this class.</p>
+ * <p>
+ * Usage:</p>
+ * <pre>
+ *   DirectoryWatcher watcher = DirectoryWatcher.build(executor, WatchStrategy.polling());</pre>
+ *
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( "ClassWithoutLogger" )
+public abstract class WatchStrategy {
+
+	/**
+	 * The default maximum interval between two scans of the same directory
+	 * used by {@link #polling()}.
+	 */
+	public static final Duration DEFAULT_MAX_POLLING_INTERVAL = Duration.ofSeconds(30);
+
+	/**
+	 * The default minimum interval between two scans of the same directory
+	 * used by {@link #polling()}.
+	 */
+	public static final Duration DEFAULT_MIN_POLLING_INTERVAL = Duration.ofSeconds(1);
+
+	private static final WatchStrategy SYSTEM = new SystemWatchStrategy();
+
+	/**
+	 * @return A polling strategy using {@link #DEFAULT_MIN_POLLING_INTERVAL}
+	 *         and {@link #DEFAULT_MAX_POLLING_INTERVAL}.
+	 * @see #polling(Duration, Duration)
+	 */
+	public static WatchStrategy polling() {
+		return polling(DEFAULT_MIN_POLLING_INTERVAL, DEFAULT_MAX_POLLING_INTERVAL);
+	}
+
+	/**
+	 * Returns a strategy periodically scanning the watched directories in
+	 * parallel. A directory where changes were found is scanned again after
+	 * {@code minInterval}, while the interval of an idle directory doubles
+	 * at each scan, up to {@code maxInterval}.
+	 *
+	 * @param minInterval The minimum interval between two scans of the same
+	 *                    directory.
+	 * @param maxInterval The maximum interval between two scans of the same
+	 *                    directory.
+	 * @return A polling {@link WatchStrategy}.
+	 * @throws IllegalArgumentException If {@code minInterval} is not positive,
+	 *                                  or {@code maxInterval} is less than
+	 *                                  {@code minInterval}.
+	 */
+	public static WatchStrategy polling( Duration minInterval, Duration maxInterval ) throws IllegalArgumentException {
+
+		if ( minInterval == null || minInterval.isNegative() || minInterval.isZero() ) {
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'minInterval' must be positive [{0}].",
+				minInterval
+			));
+		} else if ( maxInterval == null || maxInterval.compareTo(minInterval) < 0 ) {
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'maxInterval' must be greater than or equal to 'minInterval' [min: {0}, max: {1}].",
+				minInterval,
+				maxInterval
+			));
+		}
+
+		return new PollingWatchStrategy(minInterval, maxInterval);
+
+	}
+
+	/**
+	 * @return The strategy using the {@link WatchService} of the default file
+	 *         system.
+	 */
+	public static WatchStrategy system() {
+		return SYSTEM;
+	}
+
+	protected WatchStrategy() {
+	}
+
+	/**
+	 * @return A new {@link WatchService} instance.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public abstract WatchService newWatchService() throws IOException;
+
+	/**
+	 * Registers the given directory with the given {@link WatchService}.
+	 *
+	 * @param watchService A {@link WatchService} returned by
+	 *                     {@link #newWatchService()}.
+	 * @param dir          The directory to be watched.
+	 * @param kinds        The events to be watched.
+	 * @return The {@link WatchKey} representing the registration.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public abstract WatchKey register( WatchService watchService, Path dir, WatchEvent.Kind<?>... kinds ) throws IOException;
+
+	private static final class PollingWatchStrategy extends WatchStrategy {
+
+		private final Duration maxInterval;
+		private final Duration minInterval;
+
+		PollingWatchStrategy( Duration minInterval, Duration maxInterval ) {
+			this.minInterval = minInterval;
+			this.maxInterval = maxInterval;
+		}
+
+		@Override
+		public WatchService newWatchService() throws IOException {
+			return new PollingWatchService(minInterval, maxInterval, Runtime.getRuntime().availableProcessors());
+		}
+
+		@Override
+		public WatchKey register( WatchService watchService, Path dir, WatchEvent.Kind<?>... kinds ) throws IOException {
+			if ( watchService instanceof PollingWatchService ) {
+				return ( (PollingWatchService) watchService ).register(dir, kinds);
+			} else {
+				throw new ProviderMismatchException();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return MessageFormat.format("WatchStrategy[polling, min: {0}, max: {1}]", minInterval, maxInterval);
+		}
+
+	}
+
+	private static final class SystemWatchStrategy extends WatchStrategy {
+
+		@Override
+		public WatchService newWatchService() throws IOException {
+			return FileSystems.getDefault().newWatchService();
+		}
+
+		@Override
+		public WatchKey register( WatchService watchService, Path dir, WatchEvent.Kind<?>... kinds ) throws IOException {
+			return dir.register(watchService, kinds);
+		}
+
+		@Override
+		public String toString() {
+			return "WatchStrategy[system]";
+		}
+
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util;
+
+
+import io.reactivex.Flowable;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subscribers.TestSubscriber;
+import java.util.function.Function;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( { "ClassWithoutLogger", "UseOfSystemOutOrSystemErr" } )
+public class BackpressureTest {
+
+	private static final Function<String, Character> FIRST_CHAR = s -> s.charAt(0);
+
+	@BeforeClass
+	public static void setUpClass() {
+		System.out.println("---- BackpressureTest ------------------------------------------");
+	}
+
+	/**
+	 * Test of buffer method, of class Backpressure.
+	 */
+	@Test
+	public void testBuffer() {
+
+		System.out.println("  Testing 'buffer'...");
+
+		PublishSubject<String> source = PublishSubject.create();
+		Backpressure backpressure = Backpressure.buffer(2);
+		TestSubscriber<String> subscriber = backpressure.apply(source, FIRST_CHAR).test(0);
+
+		source.onNext("a1");
+		source.onNext("b1");
+		source.onNext("c1");
+		source.onNext("d1");
+
+		subscriber.assertNoValues();
+		subscriber.requestMore(10);
+		subscriber.assertValues("c1", "d1");
+
+		source.onNext("e1");
+		source.onComplete();
+
+		subscriber.assertValues("c1", "d1", "e1");
+		subscriber.assertComplete();
+		assertEquals(2, backpressure.getMetrics().getDropped());
+		assertEquals(0, backpressure.getMetrics().getConflated());
+
+	}
+
+	/**
+	 * Test of buffer method, of class Backpressure, with illegal capacity.
+	 */
+	@Test( expected = IllegalArgumentException.class )
+	public void testBufferIllegalCapacity() {
+
+		System.out.println("  Testing 'buffer' with illegal capacity...");
+
+		Backpressure.buffer(0);
+
+	}
+
+	/**
+	 * Test of drop method, of class Backpressure.
+	 */
+	@Test
+	public void testDrop() {
+
+		System.out.println("  Testing 'drop'...");
+
+		PublishSubject<String> source = PublishSubject.create();
+		Backpressure backpressure = Backpressure.drop();
+		TestSubscriber<String> subscriber = backpressure.apply(source, FIRST_CHAR).test(0);
+
+		source.onNext("a1");
+		subscriber.requestMore(1);
+		source.onNext("b1");
+		source.onNext("c1");
+
+		subscriber.assertValues("b1");
+		assertEquals(2, backpressure.getMetrics().getDropped());
+
+		backpressure.getMetrics().reset();
+
+		assertEquals(0, backpressure.getMetrics().getDropped());
+
+	}
+
+	/**
+	 * Test of latestPerKey method, of class Backpressure.
+	 */
+	@Test
+	public void testLatestPerKey() {
+
+		System.out.println("  Testing 'latestPerKey'...");
+
+		PublishSubject<String> source = PublishSubject.create();
+		Backpressure backpressure = Backpressure.latestPerKey();
+		TestSubscriber<String> subscriber = backpressure.apply(source, FIRST_CHAR).test(0);
+
+		source.onNext("a1");
+		source.onNext("b1");
+		source.onNext("a2");
+		source.onNext("c1");
+		source.onNext("b2");
+
+		subscriber.assertNoValues();
+		subscriber.requestMore(2);
+		subscriber.assertValues("a2", "b2");
+
+		source.onNext("c2");
+		source.onComplete();
+
+		subscriber.assertNotComplete();
+		subscriber.requestMore(1);
+		subscriber.assertValues("a2", "b2", "c2");
+		subscriber.assertComplete();
+		assertEquals(3, backpressure.getMetrics().getConflated());
+		assertEquals(0, backpressure.getMetrics().getDropped());
+
+	}
+
+	/**
+	 * Test of apply method, of class Backpressure, when the merger cancels
+	 * the pending items.
+	 */
+	@Test
+	public void testLatestPerKeyMerger() {
+
+		System.out.println("  Testing 'latestPerKey' with merger...");
+
+		PublishSubject<String> source = PublishSubject.create();
+		Backpressure backpressure = Backpressure.latestPerKey();
+		Flowable<String> flowable = backpressure.apply(
+			source,
+			FIRST_CHAR,
+			( older, newer ) -> newer.endsWith("-") ? null : older + newer
+		);
+		TestSubscriber<String> subscriber = flowable.test(0);
+
+		source.onNext("a1");
+		source.onNext("b1");
+		source.onNext("a2");
+		source.onNext("b-");
+		source.onError(new IllegalStateException());
+
+		subscriber.requestMore(10);
+		subscriber.assertValues("a1a2");
+		subscriber.assertError(IllegalStateException.class);
+		assertEquals(3, backpressure.getMetrics().getConflated());
+
+	}
+
+}
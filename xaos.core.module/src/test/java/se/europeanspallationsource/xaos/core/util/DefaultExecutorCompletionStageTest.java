@@ -0,0 +1,218 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util;
+
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static se.europeanspallationsource.xaos.core.util.DefaultExecutorCompletionStage.wrap;
+
+
+/**
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( { "ClassWithoutLogger", "UseOfSystemOutOrSystemErr" } )
+public class DefaultExecutorCompletionStageTest {
+
+	private static final String THREAD_NAME = "DECST-executor";
+
+	@BeforeClass
+	public static void setUpClass() {
+		System.out.println("---- DefaultExecutorCompletionStageTest ------------------------");
+	}
+
+	private Executor executor;
+	private ExecutorService service;
+	private AtomicInteger submissions;
+
+	@Before
+	public void setUp() {
+
+		service = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, THREAD_NAME));
+		submissions = new AtomicInteger();
+		executor = task -> {
+			submissions.incrementAndGet();
+			service.execute(task);
+		};
+
+	}
+
+	@After
+	public void tearDown() {
+		service.shutdown();
+	}
+
+	/**
+	 * Test of asynchronous methods, of class DefaultExecutorCompletionStage.
+	 *
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testAsync() throws InterruptedException, ExecutionException, TimeoutException {
+
+		System.out.println("  Testing 'thenApplyAsync'...");
+
+		CompletionStage<Integer> stage = wrap(CompletableFuture.completedFuture(0), executor, () -> true)
+			.thenApplyAsync(i -> i + 1)
+			.thenApplyAsync(i -> i + 1);
+
+		assertEquals(2, (int) stage.toCompletableFuture().get(1, TimeUnit.MINUTES));
+		assertEquals(2, submissions.get());
+
+	}
+
+	/**
+	 * Test of non-asynchronous methods, of class
+	 * DefaultExecutorCompletionStage, when the stage is completed outside the
+	 * executor thread.
+	 *
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testChain() throws InterruptedException, ExecutionException, TimeoutException {
+
+		System.out.println("  Testing chained 'thenApply'...");
+
+		CompletableFuture<Integer> original = new CompletableFuture<>();
+		CompletionStage<Integer> stage = wrap(original, executor);
+
+		for ( int i = 0; i < 10; i++ ) {
+			stage = stage.thenApply(value -> {
+				assertEquals(THREAD_NAME, Thread.currentThread().getName());
+				return value + 1;
+			});
+		}
+
+		original.complete(0);
+
+		assertEquals(10, (int) stage.toCompletableFuture().get(1, TimeUnit.MINUTES));
+		assertEquals(1, submissions.get());
+
+	}
+
+	/**
+	 * Test of a long chain of non-asynchronous methods, of class
+	 * DefaultExecutorCompletionStage.
+	 *
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testDeepChain() throws InterruptedException, ExecutionException, TimeoutException {
+
+		System.out.println("  Testing deep chain of 'thenApply'...");
+
+		CompletableFuture<Integer> original = new CompletableFuture<>();
+		CompletionStage<Integer> stage = wrap(original, executor);
+
+		for ( int i = 0; i < 100_000; i++ ) {
+			stage = stage.thenApply(value -> value + 1);
+		}
+
+		original.complete(0);
+
+		assertEquals(100_000, (int) stage.toCompletableFuture().get(1, TimeUnit.MINUTES));
+		assertTrue(submissions.get() < 100_000);
+
+	}
+
+	/**
+	 * Test of exceptional completion, of class DefaultExecutorCompletionStage.
+	 *
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testExceptionally() throws InterruptedException, TimeoutException {
+
+		System.out.println("  Testing exceptional completion...");
+
+		CompletableFuture<Integer> original = new CompletableFuture<>();
+		CompletionStage<Integer> stage = wrap(original, executor).thenApply(value -> value + 1);
+
+		original.completeExceptionally(new IllegalStateException());
+
+		try {
+			stage.toCompletableFuture().get(1, TimeUnit.MINUTES);
+			fail("Stage completed normally.");
+		} catch ( ExecutionException ex ) {
+			assertTrue(ex.getCause() instanceof IllegalStateException);
+		}
+
+		assertEquals(-1, (int) stage.exceptionally(t -> -1).toCompletableFuture().join());
+
+	}
+
+	/**
+	 * Test of isInExecutorThread predicate, of class
+	 * DefaultExecutorCompletionStage.
+	 */
+	@Test
+	public void testInExecutorThread() {
+
+		System.out.println("  Testing 'isInExecutorThread' predicate...");
+
+		Thread caller = Thread.currentThread();
+		CompletionStage<Integer> stage = wrap(CompletableFuture.completedFuture(0), executor, () -> Thread.currentThread() == caller)
+			.thenApply(value -> {
+				assertSame(caller, Thread.currentThread());
+				return value + 1;
+			});
+
+		assertEquals(1, (int) stage.toCompletableFuture().join());
+		assertEquals(0, submissions.get());
+
+	}
+
+	/**
+	 * Test of toCompletableFuture method, of class
+	 * DefaultExecutorCompletionStage.
+	 */
+	@Test
+	public void testToCompletableFuture() {
+
+		System.out.println("  Testing 'toCompletableFuture'...");
+
+		CompletionStage<Integer> stage = wrap(CompletableFuture.completedFuture(0), executor);
+
+		assertSame(stage, stage.toCompletableFuture());
+		assertSame(stage, wrap(stage, executor));
+		assertTrue(stage.thenApply(value -> value + 1).toCompletableFuture() instanceof DefaultExecutorCompletionStage);
+
+	}
+
+}
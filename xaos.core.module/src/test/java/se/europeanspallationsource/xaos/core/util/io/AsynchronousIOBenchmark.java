@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static se.europeanspallationsource.xaos.core.util.io.DirectoryWatcher.build;
+
+
+/**
+ * Manual benchmark comparing the {@link AsynchronousIO} engines on many
+ * concurrent small reads (e.g. icons and metadata scans). It is not part of
+ * the test suites and must be run explicitly, e.g.:
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=se.europeanspallationsource.xaos.core.util.io.AsynchronousIOBenchmark</pre>
+ * <p>
+ * All the reads are submitted at once, and the time to complete all of them
+ * is measured after some warm-up rounds. The maximum number of live threads
+ * sampled during the measurement rounds is reported too. The compared engines
+ * are:</p>
+ * <ul>
+ *   <li>{@link DirectoryWatcher#readBinaryFile(Path, java.util.function.Consumer, java.util.function.Consumer)}
+ *     with the default single I/O thread;</li>
+ *   <li>{@link ConcurrentAsynchronousIO}, one thread per operation;</li>
+ *   <li>{@link ChannelAsynchronousIO}, completion handlers on a bounded
+ *     pool.</li>
+ * </ul>
+ *
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( { "ClassWithoutLogger", "UseOfSystemOutOrSystemErr" } )
+public class AsynchronousIOBenchmark {
+
+	private static final int FILES = 5000;
+	private static final int FILE_SIZE = 512;
+	private static final int MEASUREMENT_ROUNDS = 5;
+	private static final int WARMUP_ROUNDS = 3;
+
+	public static void main( String[] args ) throws IOException, InterruptedException, ExecutionException {
+
+		Path root = Files.createTempDirectory("AIOB_");
+
+		try {
+
+			Path[] files = new Path[FILES];
+
+			for ( int i = 0; i < FILES; i++ ) {
+				files[i] = Files.write(root.resolve("f" + i), new byte[FILE_SIZE]);
+			}
+
+			try ( DirectoryWatcher watcher = build(Runnable::run) ) {
+				measure("DirectoryWatcher", files, file -> {
+
+					CompletableFuture<byte[]> read = new CompletableFuture<>();
+
+					watcher.readBinaryFile(file, read::complete, read::completeExceptionally);
+
+					return read;
+
+				});
+			}
+
+			try ( ConcurrentAsynchronousIO io = ConcurrentAsynchronousIO.build(Runnable::run) ) {
+				measure("ConcurrentAsynchronousIO", files, file -> io.readBinaryFile(file).toCompletableFuture());
+			}
+
+			try ( ChannelAsynchronousIO io = ChannelAsynchronousIO.build(Runnable::run) ) {
+				measure("ChannelAsynchronousIO", files, file -> io.readBinaryFile(file).toCompletableFuture());
+			}
+
+		} finally {
+			Files.walkFileTree(root, new DeleteFileVisitor());
+		}
+
+	}
+
+	private static void measure( String engine, Path[] files, Function<Path, CompletableFuture<byte[]>> read ) throws InterruptedException, ExecutionException {
+
+		AtomicInteger threads = new AtomicInteger();
+
+		for ( int round = 0; round < WARMUP_ROUNDS; round++ ) {
+			round(files, read, new AtomicInteger());
+		}
+
+		long elapsed = 0;
+
+		for ( int round = 0; round < MEASUREMENT_ROUNDS; round++ ) {
+			elapsed += round(files, read, threads);
+		}
+
+		long mean = elapsed / MEASUREMENT_ROUNDS;
+
+		System.out.println(MessageFormat.format(
+			"{0}: {1} reads in {2,number,0.0} ms ({3,number,0} reads/s), max live threads {4}",
+			engine,
+			files.length,
+			mean / 1E6,
+			files.length * 1E9 / mean,
+			threads.get()
+		));
+
+	}
+
+	/**
+	 * @return The time, in nanoseconds, taken to read all files.
+	 */
+	private static long round( Path[] files, Function<Path, CompletableFuture<byte[]>> read, AtomicInteger threads ) throws InterruptedException, ExecutionException {
+
+		CountDownLatch latch = new CountDownLatch(files.length);
+		CompletableFuture<?>[] reads = new CompletableFuture<?>[files.length];
+		long start = System.nanoTime();
+
+		for ( int i = 0; i < files.length; i++ ) {
+			reads[i] = read.apply(files[i]).whenComplete(( content, error ) -> latch.countDown());
+		}
+
+		threads.accumulateAndGet(Thread.activeCount(), Math::max);
+
+		latch.await(1, TimeUnit.MINUTES);
+
+		long elapsed = System.nanoTime() - start;
+
+		CompletableFuture.allOf(reads).get();
+
+		return elapsed;
+
+	}
+
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+import io.reactivex.Flowable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Tests the default methods of {@link AsynchronousIO}, through an
+ * implementation providing only the whole-file operations.
+ *
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( { "ClassWithoutLogger", "UseOfSystemOutOrSystemErr" } )
+public class AsynchronousIOTest {
+
+	@BeforeClass
+	public static void setUpClass() {
+		System.out.println("---- AsynchronousIOTest ----------------------------------------");
+	}
+
+	private ExecutorService executor;
+	private WholeFileIO io;
+	private Path root;
+
+	@Before
+	public void setUp() throws IOException {
+		executor = Executors.newSingleThreadExecutor();
+		io = new WholeFileIO(ConcurrentAsynchronousIO.build(executor));
+		root = Files.createTempDirectory("AIO_");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.walkFileTree(root, new DeleteFileVisitor());
+		io.delegate.close();
+		executor.shutdown();
+	}
+
+	/**
+	 * Test of batch method, of interface AsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testBatch() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+
+		System.out.println(MessageFormat.format("  Testing default ''batch'' [on {0}]...", root));
+
+		Path dir = root.resolve("batch");
+		Path file = dir.resolve("batch.txt");
+		BatchResult result = io.batch()
+			.createDirectory(dir)
+			.writeUTF8File(file, "batch")
+			.createFile(root.resolve("non-existent").resolve("failed.txt"))
+			.delete(file)
+			.submit()
+			.toCompletableFuture()
+			.get(1, TimeUnit.MINUTES);
+
+		List<BatchResult.Outcome> outcomes = result.getOutcomes();
+
+		assertEquals(4, outcomes.size());
+		assertEquals(1, result.getFailures().size());
+		assertTrue(outcomes.get(2).getError() instanceof NoSuchFileException);
+		assertTrue(Files.isDirectory(dir));
+		assertTrue(Files.notExists(file));
+
+	}
+
+	/**
+	 * Test of copyTree and moveTree methods, of interface AsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testCopyAndMoveTree() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+
+		System.out.println(MessageFormat.format("  Testing default ''copyTree'' and ''moveTree'' [on {0}]...", root));
+
+		Path source = Files.createDirectories(root.resolve("source").resolve("sub"));
+
+		Files.write(source.resolve("file.txt"), "file".getBytes(UTF_8));
+
+		io.copyTree(root.resolve("source"), root.resolve("copy")).toCompletableFuture().get(1, TimeUnit.MINUTES);
+		io.moveTree(root.resolve("copy"), root.resolve("moved")).toCompletableFuture().get(1, TimeUnit.MINUTES);
+
+		assertTrue(Files.notExists(root.resolve("copy")));
+		assertEquals("file", new String(Files.readAllBytes(root.resolve("moved").resolve("sub").resolve("file.txt")), UTF_8));
+
+	}
+
+	/**
+	 * Test of copyFile method, of interface AsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testCopyFile() throws IOException, InterruptedException, TimeoutException {
+
+		System.out.println(MessageFormat.format("  Testing default ''copyFile'' [on {0}]...", root));
+
+		Path source = Files.write(root.resolve("source.txt"), "source".getBytes(UTF_8));
+		Path target = Files.write(root.resolve("target.txt"), "target".getBytes(UTF_8));
+
+		try {
+			io.copyFile(source, target).toCompletableFuture().get(1, TimeUnit.MINUTES);
+			fail("Existing target replaced.");
+		} catch ( ExecutionException e ) {
+			assertTrue(e.getCause() instanceof FileAlreadyExistsException);
+		}
+
+		try {
+			io.copyFile(source, target, StandardCopyOption.REPLACE_EXISTING).toCompletableFuture().get(1, TimeUnit.MINUTES);
+		} catch ( ExecutionException e ) {
+			fail(e.getMessage());
+		}
+
+		assertEquals("source", new String(Files.readAllBytes(target), UTF_8));
+
+	}
+
+	/**
+	 * Test of mapFile method, of interface AsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testMapFile() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+
+		System.out.println(MessageFormat.format("  Testing default ''mapFile'' [on {0}]...", root));
+
+		Path file = Files.write(root.resolve("mapped.bin"), new byte[] { 1, 2, 3 });
+		MappedByteBuffer buffer = io.mapFile(file).toCompletableFuture().get(1, TimeUnit.MINUTES);
+		byte[] content = new byte[buffer.remaining()];
+
+		buffer.get(content);
+
+		assertArrayEquals(new byte[] { 1, 2, 3 }, content);
+
+		try {
+			io.mapFile(root.resolve("non-existent")).toCompletableFuture().get(1, TimeUnit.MINUTES);
+			fail("Non-existent file mapped.");
+		} catch ( ExecutionException e ) {
+			assertTrue(e.getCause() instanceof NoSuchFileException);
+		}
+
+	}
+
+	/**
+	 * Test of readBinaryFileRange method, of interface AsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testReadBinaryFileRange() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+
+		System.out.println(MessageFormat.format("  Testing default ''readBinaryFileRange'' [on {0}]...", root));
+
+		Path file = Files.write(root.resolve("range.bin"), new byte[] { 0, 1, 2, 3, 4, 5, 6, 7 });
+		ByteBuffer range = io.readBinaryFileRange(file, 2, 3).toCompletableFuture().get(1, TimeUnit.MINUTES);
+		byte[] content = new byte[range.remaining()];
+
+		range.get(content);
+
+		assertArrayEquals(new byte[] { 2, 3, 4 }, content);
+		assertEquals(2, io.readBinaryFileRange(file, 6, 10).toCompletableFuture().get(1, TimeUnit.MINUTES).remaining());
+		assertEquals(0, io.readBinaryFileRange(file, 20, 10).toCompletableFuture().get(1, TimeUnit.MINUTES).remaining());
+
+	}
+
+	/**
+	 * Test of readBinaryFileStream and writeBinaryFileStream methods, of
+	 * interface AsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testReadWriteBinaryFileStream() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+
+		System.out.println(MessageFormat.format("  Testing default ''readBinaryFileStream'' and ''writeBinaryFileStream'' [on {0}]...", root));
+
+		Path file = root.resolve("stream.bin");
+		byte[] content = new byte[1000];
+
+		for ( int i = 0; i < content.length; i++ ) {
+			content[i] = (byte) i;
+		}
+
+		io.writeBinaryFileStream(
+			file,
+			Flowable.range(0, 10).map(i -> ByteBuffer.wrap(content, i * 100, 100))
+		).toCompletableFuture().get(1, TimeUnit.MINUTES);
+
+		assertArrayEquals(content, Files.readAllBytes(file));
+
+		List<ByteBuffer> chunks = io.readBinaryFileStream(file, 300).toList().blockingGet();
+		ByteBuffer read = ByteBuffer.allocate(content.length);
+
+		assertEquals(4, chunks.size());
+		assertEquals(100, chunks.get(3).remaining());
+
+		chunks.forEach(read::put);
+
+		assertArrayEquals(content, read.array());
+
+		Throwable error = io.readBinaryFileStream(root.resolve("non-existent"), 300).ignoreElements().blockingGet();
+
+		assertTrue(error instanceof NoSuchFileException);
+		assertNull(io.readBinaryFileStream(file, 300).ignoreElements().blockingGet());
+
+	}
+
+	/**
+	 * Implements only the whole-file operations, delegating them.
+	 */
+	private static class WholeFileIO implements AsynchronousIO {
+
+		private final ConcurrentAsynchronousIO delegate;
+
+		WholeFileIO( ConcurrentAsynchronousIO delegate ) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public CompletionStage<Void> createDirectories( Path dir, FileAttribute<?>... attrs ) {
+			return delegate.createDirectories(dir, attrs);
+		}
+
+		@Override
+		public CompletionStage<Void> createDirectory( Path dir, FileAttribute<?>... attrs ) {
+			return delegate.createDirectory(dir, attrs);
+		}
+
+		@Override
+		public CompletionStage<Void> createFile( Path file, FileAttribute<?>... attrs ) {
+			return delegate.createFile(file, attrs);
+		}
+
+		@Override
+		public CompletionStage<Void> delete( Path path ) {
+			return delegate.delete(path);
+		}
+
+		@Override
+		public CompletionStage<Void> deleteTree( Path root ) {
+			return delegate.deleteTree(root);
+		}
+
+		@Override
+		public CompletionStage<byte[]> readBinaryFile( Path file ) {
+			return delegate.readBinaryFile(file);
+		}
+
+		@Override
+		public CompletionStage<String> readTextFile( Path file, Charset charset ) {
+			return delegate.readTextFile(file, charset);
+		}
+
+		@Override
+		public CompletionStage<Void> writeBinaryFile( Path file, byte[] content ) {
+			return delegate.writeBinaryFile(file, content);
+		}
+
+		@Override
+		public CompletionStage<Void> writeTextFile( Path file, String content, Charset charset ) {
+			return delegate.writeTextFile(file, content, charset);
+		}
+
+	}
+
+}
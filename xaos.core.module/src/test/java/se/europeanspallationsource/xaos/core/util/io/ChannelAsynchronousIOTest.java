@@ -0,0 +1,349 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import io.reactivex.Flowable;
+import io.reactivex.subscribers.TestSubscriber;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import se.europeanspallationsource.xaos.core.util.io.DirectoryWatcher.WriteMode;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( { "ClassWithoutLogger", "UseOfSystemOutOrSystemErr" } )
+public class ChannelAsynchronousIOTest {
+
+	@BeforeClass
+	public static void setUpClass() {
+		System.out.println("---- ChannelAsynchronousIOTest ---------------------------------");
+	}
+
+	private ExecutorService executor;
+	private Path root;
+
+	@Before
+	public void setUp() throws IOException {
+		executor = Executors.newSingleThreadExecutor();
+		root = Files.createTempDirectory("ChAIO_");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.walkFileTree(root, new DeleteFileVisitor());
+		executor.shutdown();
+	}
+
+	/**
+	 * Test of build method, of class ChannelAsynchronousIO.
+	 */
+	@Test
+	public void testBuild() {
+
+		System.out.println("  Testing 'build'...");
+
+		try ( ChannelAsynchronousIO io = ChannelAsynchronousIO.build(executor, 0) ) {
+			fail("ChannelAsynchronousIO built without I/O threads.");
+		} catch ( IllegalArgumentException ex ) {
+			//	Expected.
+		}
+
+	}
+
+	/**
+	 * Test of close method, of class ChannelAsynchronousIO.
+	 *
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testClose() throws InterruptedException, TimeoutException {
+
+		System.out.println(MessageFormat.format("  Testing ''close'' [on {0}]...", root));
+
+		ChannelAsynchronousIO io = ChannelAsynchronousIO.build(executor);
+
+		assertFalse(io.isClosed());
+
+		io.close();
+
+		assertTrue(io.isClosed());
+
+		try {
+			io.readBinaryFile(root.resolve("rejected.txt")).toCompletableFuture().get(1, TimeUnit.MINUTES);
+			fail("Operation not rejected.");
+		} catch ( ExecutionException ex ) {
+			assertTrue(ex.getCause() instanceof RejectedExecutionException);
+		}
+
+		io.readBinaryFileStream(root.resolve("rejected.txt"), 16)
+			.test()
+			.assertError(RejectedExecutionException.class);
+
+	}
+
+	/**
+	 * Test of many concurrent reads, of class ChannelAsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testConcurrentReads() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+
+		System.out.println(MessageFormat.format("  Testing concurrent reads [on {0}]...", root));
+
+		int files = 100;
+		int reads = 2000;
+		int ioThreads = 2;
+
+		for ( int i = 0; i < files; i++ ) {
+			Files.write(root.resolve("file_" + i), Integer.toString(i).getBytes(UTF_8));
+		}
+
+		ExecutorService ioExecutor = Executors.newFixedThreadPool(ioThreads, runnable -> new Thread(runnable, "ChAIO-concurrent-reads"));
+
+		try ( ChannelAsynchronousIO io = ChannelAsynchronousIO.build(executor, ioExecutor) ) {
+
+			List<CompletableFuture<String>> read = new ArrayList<>(reads);
+
+			for ( int i = 0; i < reads; i++ ) {
+				read.add(io.readUTF8File(root.resolve("file_" + ( i % files ))).toCompletableFuture());
+			}
+
+			CompletableFuture.allOf(read.toArray(new CompletableFuture<?>[reads])).get(1, TimeUnit.MINUTES);
+
+			for ( int i = 0; i < reads; i++ ) {
+				assertEquals(Integer.toString(i % files), read.get(i).get());
+			}
+
+			long threads = Thread.getAllStackTraces().keySet().stream()
+				.filter(t -> "ChAIO-concurrent-reads".equals(t.getName()))
+				.count();
+
+			assertTrue(MessageFormat.format("I/O threads: {0}", threads), threads <= ioThreads);
+
+		} finally {
+			ioExecutor.shutdown();
+		}
+
+	}
+
+	/**
+	 * Test of readBinaryFileRange method, of class ChannelAsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testReadBinaryFileRange() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+
+		System.out.println(MessageFormat.format("  Testing ''readBinaryFileRange'' [on {0}]...", root));
+
+		Path file = Files.write(root.resolve("range.bin"), new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05 });
+
+		try ( ChannelAsynchronousIO io = ChannelAsynchronousIO.build(executor) ) {
+
+			ByteBuffer range = io.readBinaryFileRange(file, 2, 3).toCompletableFuture().get(1, TimeUnit.MINUTES);
+
+			assertEquals(3, range.remaining());
+			assertEquals(0x02, range.get());
+			assertEquals(0x03, range.get());
+			assertEquals(0x04, range.get());
+
+			range = io.readBinaryFileRange(file, 4, 10).toCompletableFuture().get(1, TimeUnit.MINUTES);
+
+			assertEquals(2, range.remaining());
+
+			range = io.readBinaryFileRange(file, 10, 10).toCompletableFuture().get(1, TimeUnit.MINUTES);
+
+			assertEquals(0, range.remaining());
+
+			try {
+				io.readBinaryFileRange(root.resolve("missing.bin"), 0, 10).toCompletableFuture().get(1, TimeUnit.MINUTES);
+				fail("Missing file read.");
+			} catch ( ExecutionException ex ) {
+				assertTrue(ex.getCause() instanceof NoSuchFileException);
+			}
+
+		}
+
+	}
+
+	/**
+	 * Test of readBinaryFileStream method, of class ChannelAsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 */
+	@Test
+	public void testReadBinaryFileStream() throws IOException {
+
+		System.out.println(MessageFormat.format("  Testing ''readBinaryFileStream'' [on {0}]...", root));
+
+		byte[] content = new byte[10000];
+
+		for ( int i = 0; i < content.length; i++ ) {
+			content[i] = (byte) i;
+		}
+
+		Path file = Files.write(root.resolve("stream.bin"), content);
+
+		try ( ChannelAsynchronousIO io = ChannelAsynchronousIO.build(executor) ) {
+
+			TestSubscriber<ByteBuffer> subscriber = io.readBinaryFileStream(file, 1000).test(1);
+
+			subscriber.awaitCount(1);
+			subscriber.assertValueCount(1);
+			subscriber.requestMore(Long.MAX_VALUE);
+			subscriber.awaitTerminalEvent(1, TimeUnit.MINUTES);
+			subscriber.assertComplete();
+			subscriber.assertValueCount(10);
+
+			ByteBuffer read = ByteBuffer.allocate(content.length);
+
+			subscriber.values().forEach(read::put);
+
+			assertArrayEquals(content, read.array());
+
+			io.readBinaryFileStream(root.resolve("missing.bin"), 1000)
+				.test()
+				.awaitDone(1, TimeUnit.MINUTES)
+				.assertError(NoSuchFileException.class);
+
+			io.readBinaryFileStream(file, 1000)
+				.take(2)
+				.test()
+				.awaitDone(1, TimeUnit.MINUTES)
+				.assertValueCount(2)
+				.assertComplete();
+
+		}
+
+	}
+
+	/**
+	 * Test of writeBinaryFile and readBinaryFile methods, of class
+	 * ChannelAsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testReadWriteBinaryFile() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+
+		System.out.println(MessageFormat.format("  Testing ''writeBinaryFile'' and ''readBinaryFile'' [on {0}]...", root));
+
+		byte[] content = { 0x00, 0x01, 0x02, 0x03, 0x04, 0x03, 0x02, 0x01, 0x00 };
+
+		try ( ChannelAsynchronousIO io = ChannelAsynchronousIO.build(executor) ) {
+
+			for ( WriteMode mode : WriteMode.values() ) {
+
+				Path file = root.resolve("file_" + mode);
+
+				io.setWriteMode(mode);
+
+				assertEquals(mode, io.getWriteMode());
+
+				io.writeBinaryFile(file, content).toCompletableFuture().get(1, TimeUnit.MINUTES);
+
+				assertArrayEquals(content, io.readBinaryFile(file).toCompletableFuture().get(1, TimeUnit.MINUTES));
+
+			}
+
+			try ( Stream<Path> files = Files.list(root) ) {
+				assertEquals(0, files.filter(p -> p.toString().endsWith(DirectoryWatcher.TEMPORARY_FILE_SUFFIX)).count());
+			}
+
+			try {
+				io.writeBinaryFile(root.resolve("non-existent").resolve("file"), content).toCompletableFuture().get(1, TimeUnit.MINUTES);
+				fail("File written in a non-existent directory.");
+			} catch ( ExecutionException ex ) {
+				assertTrue(ex.getCause() instanceof NoSuchFileException);
+			}
+
+		}
+
+	}
+
+	/**
+	 * Test of writeBinaryFileStream method, of class ChannelAsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testWriteBinaryFileStream() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+
+		System.out.println(MessageFormat.format("  Testing ''writeBinaryFileStream'' [on {0}]...", root));
+
+		Path file = root.resolve("stream.bin");
+
+		try ( ChannelAsynchronousIO io = ChannelAsynchronousIO.build(executor) ) {
+
+			io.writeBinaryFileStream(
+				file,
+				Flowable.range(0, 100).map(i -> ByteBuffer.wrap(new byte[] { i.byteValue() }))
+			).toCompletableFuture().get(1, TimeUnit.MINUTES);
+
+			byte[] written = Files.readAllBytes(file);
+
+			assertEquals(100, written.length);
+
+			for ( int i = 0; i < written.length; i++ ) {
+				assertEquals((byte) i, written[i]);
+			}
+
+		}
+
+	}
+
+}
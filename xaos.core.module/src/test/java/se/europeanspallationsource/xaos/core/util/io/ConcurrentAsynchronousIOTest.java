@@ -0,0 +1,390 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import io.reactivex.Flowable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( { "ClassWithoutLogger", "UseOfSystemOutOrSystemErr" } )
+public class ConcurrentAsynchronousIOTest {
+
+	private static final String COMPLETION_THREAD = "CAIO-completion";
+
+	@BeforeClass
+	public static void setUpClass() {
+		System.out.println("---- ConcurrentAsynchronousIOTest ------------------------------");
+	}
+
+	private ExecutorService executor;
+	private Path root;
+
+	@Before
+	public void setUp() throws IOException {
+		executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, COMPLETION_THREAD));
+		root = Files.createTempDirectory("CAIO_");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.walkFileTree(root, new DeleteFileVisitor());
+		executor.shutdown();
+	}
+
+	/**
+	 * Test of batch method, of class ConcurrentAsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testBatch() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+
+		System.out.println(MessageFormat.format("  Testing ''batch'' [on {0}]...", root));
+
+		try ( ConcurrentAsynchronousIO io = ConcurrentAsynchronousIO.build(executor) ) {
+
+			Path dir = root.resolve("batch");
+			Path file = dir.resolve("batch.txt");
+			BatchBuilder builder = io.batch();
+			BatchResult result = builder
+				.createDirectory(dir)
+				.writeUTF8File(file, "batch")
+				.createFile(root.resolve("non-existent").resolve("failed.txt"))
+				.submit()
+				.toCompletableFuture()
+				.get(1, TimeUnit.MINUTES);
+
+			assertEquals(3, result.getOutcomes().size());
+			assertEquals(1, result.getFailures().size());
+			assertTrue(result.getFailures().get(0).getError() instanceof NoSuchFileException);
+			assertEquals("batch", new String(Files.readAllBytes(file), UTF_8));
+			assertEquals(0, builder.size());
+
+			//	Reusing the builder must not execute again the submitted operations.
+			result = builder
+				.writeUTF8File(dir.resolve("reused.txt"), "reused")
+				.submit()
+				.toCompletableFuture()
+				.get(1, TimeUnit.MINUTES);
+
+			assertEquals(1, result.getOutcomes().size());
+			assertTrue(result.getFailures().isEmpty());
+			assertEquals("reused", new String(Files.readAllBytes(dir.resolve("reused.txt")), UTF_8));
+
+		}
+
+	}
+
+	/**
+	 * Test of the per-path ordering of batches, of class ConcurrentAsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testBatchOrdering() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+
+		System.out.println(MessageFormat.format("  Testing batch per-path ordering [on {0}]...", root));
+
+		byte[] large = new byte[4 * 1024 * 1024];
+
+		try ( ConcurrentAsynchronousIO io = ConcurrentAsynchronousIO.build(executor, 8) ) {
+
+			for ( int i = 0; i < 20; i++ ) {
+
+				Path first = root.resolve("first_" + i + ".bin");
+				Path second = root.resolve("second_" + i + ".txt");
+
+				//	The batch waits for the large write on its first path, and
+				//	the last write must wait for the batch on its second one.
+				io.writeBinaryFile(first, large);
+				io.batch()
+					.writeBinaryFile(first, new byte[] { 0x01 })
+					.writeUTF8File(second, "batch")
+					.submit();
+				io.writeUTF8File(second, "single").toCompletableFuture().get(1, TimeUnit.MINUTES);
+
+				assertEquals("single", new String(Files.readAllBytes(second), UTF_8));
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Test of build method, of class ConcurrentAsynchronousIO.
+	 */
+	@Test
+	public void testBuild() {
+
+		System.out.println("  Testing 'build'...");
+
+		try ( ConcurrentAsynchronousIO io = ConcurrentAsynchronousIO.build(executor) ) {
+			assertEquals(ConcurrentAsynchronousIO.DEFAULT_MAX_CONCURRENCY, io.getMaxConcurrency());
+		}
+
+		try ( ConcurrentAsynchronousIO io = ConcurrentAsynchronousIO.build(executor, 0) ) {
+			fail("ConcurrentAsynchronousIO built with no allowed concurrency.");
+		} catch ( IllegalArgumentException ex ) {
+			//	Expected.
+		}
+
+	}
+
+	/**
+	 * Test of close method, of class ConcurrentAsynchronousIO.
+	 *
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testClose() throws InterruptedException, TimeoutException {
+
+		System.out.println(MessageFormat.format("  Testing ''close'' [on {0}]...", root));
+
+		ConcurrentAsynchronousIO io = ConcurrentAsynchronousIO.build(executor);
+
+		assertFalse(io.isClosed());
+
+		io.close();
+
+		assertTrue(io.isClosed());
+
+		try {
+			io.createFile(root.resolve("rejected.txt")).toCompletableFuture().get(1, TimeUnit.MINUTES);
+			fail("Operation not rejected.");
+		} catch ( ExecutionException ex ) {
+			assertTrue(ex.getCause() instanceof RejectedExecutionException);
+		}
+
+		assertFalse(Files.exists(root.resolve("rejected.txt")));
+
+	}
+
+	/**
+	 * Test of the completion executor, of class ConcurrentAsynchronousIO.
+	 *
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testCompletionExecutor() throws InterruptedException, ExecutionException, TimeoutException {
+
+		System.out.println(MessageFormat.format("  Testing completion executor [on {0}]...", root));
+
+		try ( ConcurrentAsynchronousIO io = ConcurrentAsynchronousIO.build(executor) ) {
+
+			Path file = root.resolve("completion.txt");
+			String thread = io.writeUTF8File(file, "completion")
+				.thenCompose(v -> io.readUTF8File(file))
+				.thenApply(content -> {
+
+					assertEquals("completion", content);
+
+					return Thread.currentThread().getName();
+
+				})
+				.toCompletableFuture()
+				.get(1, TimeUnit.MINUTES);
+
+			assertEquals(COMPLETION_THREAD, thread);
+
+		}
+
+	}
+
+	/**
+	 * Test of getMaxConcurrency method, of class ConcurrentAsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testMaxConcurrency() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+
+		System.out.println(MessageFormat.format("  Testing ''getMaxConcurrency'' [on {0}]...", root));
+
+		int maxConcurrency = 4;
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		Set<String> threads = ConcurrentHashMap.newKeySet();
+
+		//	Streams are open from subscription to termination, while permits
+		//	are held until the file is completely written.
+		Publisher<ByteBuffer> content = Flowable.timer(20, TimeUnit.MILLISECONDS)
+			.map(t -> ByteBuffer.wrap(new byte[] { 0x01, 0x02 }))
+			.doOnSubscribe(s -> {
+
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+
+				if ( Thread.currentThread().getName().startsWith("ConcurrentAsynchronousIO-") ) {
+					threads.add(Thread.currentThread().getName());
+				}
+
+			})
+			.doOnTerminate(running::decrementAndGet);
+
+		try ( ConcurrentAsynchronousIO io = ConcurrentAsynchronousIO.build(executor, maxConcurrency) ) {
+
+			List<CompletableFuture<Void>> written = new ArrayList<>();
+
+			for ( int i = 0; i < 200; i++ ) {
+				written.add(io.writeBinaryFileStream(root.resolve("file_" + i), content).toCompletableFuture());
+			}
+
+			CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[written.size()])).get(1, TimeUnit.MINUTES);
+
+			assertEquals(maxConcurrency, io.getMaxConcurrency());
+			assertTrue(maxRunning.get() > 0);
+			assertTrue(MessageFormat.format("Max running: {0}", maxRunning.get()), maxRunning.get() <= maxConcurrency);
+			assertTrue(MessageFormat.format("Pooled threads: {0}", threads.size()), threads.size() <= maxConcurrency);
+			assertEquals(0, running.get());
+
+			for ( int i = 0; i < 200; i++ ) {
+				assertEquals(2, Files.size(root.resolve("file_" + i)));
+			}
+
+		}
+
+	}
+
+	/**
+	 * Test of the per-path ordering, of class ConcurrentAsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testPathOrdering() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+
+		System.out.println(MessageFormat.format("  Testing per-path ordering [on {0}]...", root));
+
+		int writes = 100;
+		List<Integer> completed = Collections.synchronizedList(new ArrayList<>(writes));
+
+		try ( ConcurrentAsynchronousIO io = ConcurrentAsynchronousIO.build(executor, 8) ) {
+
+			Path file = root.resolve("ordered.txt");
+			CompletionStage<Void> last = null;
+
+			for ( int i = 0; i < writes; i++ ) {
+
+				int index = i;
+
+				last = io.writeUTF8File(file, Integer.toString(i)).thenRun(() -> completed.add(index));
+
+			}
+
+			last.toCompletableFuture().get(1, TimeUnit.MINUTES);
+
+			assertEquals(Integer.toString(writes - 1), new String(Files.readAllBytes(file), UTF_8));
+			assertEquals(writes, completed.size());
+
+			for ( int i = 0; i < writes; i++ ) {
+				assertEquals(i, (int) completed.get(i));
+			}
+
+		}
+
+	}
+
+	/**
+	 * Test of the ordering of writeBinaryFileStream with respect to the
+	 * following operations on the same file, of class ConcurrentAsynchronousIO.
+	 *
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 * @throws java.util.concurrent.TimeoutException
+	 */
+	@Test
+	public void testWriteBinaryFileStreamOrdering() throws InterruptedException, ExecutionException, TimeoutException {
+
+		System.out.println(MessageFormat.format("  Testing ''writeBinaryFileStream'' ordering [on {0}]...", root));
+
+		int chunks = 10;
+		byte[] expected = new byte[chunks * 4];
+
+		for ( int i = 0; i < expected.length; i++ ) {
+			expected[i] = (byte) ( i / 4 );
+		}
+
+		try ( ConcurrentAsynchronousIO io = ConcurrentAsynchronousIO.build(executor, 8) ) {
+
+			Path file = root.resolve("streamed.bin");
+
+			//	Chunks are produced slowly, and the file is read back at once:
+			//	the read must wait for the end of the stream.
+			CompletionStage<Void> written = io.writeBinaryFileStream(
+				file,
+				Flowable.range(0, chunks)
+					.concatMap(i -> Flowable.timer(20, TimeUnit.MILLISECONDS).map(t -> ByteBuffer.wrap(new byte[] { i.byteValue(), i.byteValue(), i.byteValue(), i.byteValue() })))
+			);
+			byte[] read = io.readBinaryFile(file).toCompletableFuture().get(1, TimeUnit.MINUTES);
+
+			assertTrue(written.toCompletableFuture().isDone());
+			assertArrayEquals(expected, read);
+
+		}
+
+	}
+
+}
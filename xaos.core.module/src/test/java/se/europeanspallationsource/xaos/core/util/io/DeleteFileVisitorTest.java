@@ -24,6 +24,7 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -84,6 +85,28 @@ public class DeleteFileVisitorTest {
 
 	}
 
+	@Test
+	public void testDeleteTree() throws Exception {
+
+		System.out.println("  Testing 'deleteTree'...");
+
+		assertTrue(Files.exists(root));
+
+		assertEquals(8, DeleteFileVisitor.deleteTree(root));
+
+		assertFalse(Files.exists(file_b2));
+		assertFalse(Files.exists(file_b1));
+		assertFalse(Files.exists(dir_b));
+		assertFalse(Files.exists(file_a_c));
+		assertFalse(Files.exists(dir_a_c));
+		assertFalse(Files.exists(file_a));
+		assertFalse(Files.exists(dir_a));
+		assertFalse(Files.exists(root));
+
+		assertEquals(0, DeleteFileVisitor.deleteTree(root));
+
+	}
+
 	@Test
 	public void testPostVisitDirectory() throws Exception {
 
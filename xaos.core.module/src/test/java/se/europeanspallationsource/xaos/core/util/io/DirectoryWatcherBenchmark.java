@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static se.europeanspallationsource.xaos.core.util.io.DirectoryWatcher.build;
+
+
+/**
+ * Manual benchmark of the {@link DirectoryWatcher} I/O threads. It is not
+ * part of the test suites and must be run explicitly, e.g.:
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=se.europeanspallationsource.xaos.core.util.io.DirectoryWatcherBenchmark</pre>
+ * <p>
+ * Four figures are measured:</p>
+ * <ul>
+ *   <li>the CPU time consumed by the process while the watcher is idle and
+ *     the main thread is sleeping, i.e. mostly by the watcher threads;</li>
+ *   <li>the wake-up latency, i.e. the time between the submission of an
+ *     I/O operation to an idle watcher and its completion;</li>
+ *   <li>the registration throughput of
+ *     {@link DirectoryWatcher#watchTree(Path, int, java.nio.file.PathMatcher)};</li>
+ *   <li>the deletion throughput of {@link DirectoryWatcher#deleteTree(Path)}
+ *     on the same tree, populated with some files.</li>
+ * </ul>
+ *
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( { "ClassWithoutLogger", "UseOfSystemOutOrSystemErr" } )
+public class DirectoryWatcherBenchmark {
+
+	private static final long IDLE_MILLIS = 5000;
+	private static final int LATENCY_SAMPLES = 200;
+	private static final long LATENCY_PAUSE_MILLIS = 5;
+	private static final int TREE_FANOUT = 12;
+	private static final int TREE_LEAF_FILES = 10;
+
+	public static void main( String[] args ) throws IOException, InterruptedException {
+
+		Path root = Files.createTempDirectory("DWB_");
+		Path missing = root.resolve("missing");
+
+		try ( DirectoryWatcher watcher = build(Runnable::run) ) {
+
+			watcher.watch(root);
+
+			//	Idle CPU usage.
+			Thread.sleep(IDLE_MILLIS);
+
+			long cpuBefore = cpuTime();
+
+			Thread.sleep(IDLE_MILLIS);
+
+			long cpuAfter = cpuTime();
+
+			System.out.println(MessageFormat.format(
+				"Idle CPU: {0} ms over {1} ms ({2,number,0.0}% of a core)",
+				TimeUnit.NANOSECONDS.toMillis(cpuAfter - cpuBefore),
+				IDLE_MILLIS,
+				100.0 * ( cpuAfter - cpuBefore ) / TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS)
+			));
+
+			//	Wake-up latency.
+			long[] samples = new long[LATENCY_SAMPLES];
+
+			for ( int i = 0; i < LATENCY_SAMPLES; i++ ) {
+
+				Thread.sleep(LATENCY_PAUSE_MILLIS);
+
+				CountDownLatch latch = new CountDownLatch(1);
+				long start = System.nanoTime();
+
+				watcher.delete(missing, deleted -> latch.countDown(), error -> latch.countDown());
+				latch.await();
+
+				samples[i] = System.nanoTime() - start;
+
+			}
+
+			Arrays.sort(samples);
+
+			System.out.println(MessageFormat.format(
+				"Wake-up latency: p50 {0,number,0.0} us, p90 {1,number,0.0} us, p99 {2,number,0.0} us, max {3,number,0.0} us",
+				samples[LATENCY_SAMPLES / 2] / 1000.0,
+				samples[LATENCY_SAMPLES * 9 / 10] / 1000.0,
+				samples[LATENCY_SAMPLES * 99 / 100] / 1000.0,
+				samples[LATENCY_SAMPLES - 1] / 1000.0
+			));
+
+			//	Tree registration throughput.
+			Path tree = Files.createDirectory(root.resolve("tree"));
+
+			for ( int i = 0; i < TREE_FANOUT; i++ ) {
+				for ( int j = 0; j < TREE_FANOUT; j++ ) {
+					for ( int k = 0; k < TREE_FANOUT; k++ ) {
+
+						Path leaf = Files.createDirectories(tree.resolve("d" + i).resolve("d" + j).resolve("d" + k));
+
+						for ( int f = 0; f < TREE_LEAF_FILES; f++ ) {
+							Files.createFile(leaf.resolve("f" + f));
+						}
+
+					}
+				}
+			}
+
+			System.out.println("Tree registration: " + watcher.watchTree(tree, Integer.MAX_VALUE, null));
+
+			//	Tree deletion throughput.
+			long start = System.nanoTime();
+			long deleted = watcher.deleteTree(tree).blockingLast();
+			long elapsed = System.nanoTime() - start;
+
+			System.out.println(MessageFormat.format(
+				"Tree deletion: {0} entries deleted in {1} ms ({2,number,0} entries/s)",
+				deleted,
+				TimeUnit.NANOSECONDS.toMillis(elapsed),
+				deleted * 1E9 / elapsed
+			));
+
+		} finally {
+			Files.walkFileTree(root, new DeleteFileVisitor());
+		}
+
+	}
+
+	private static long cpuTime() {
+		return ProcessHandle.current().info().totalCpuDuration().orElse(Duration.ZERO).toNanos();
+	}
+
+}
@@ -16,23 +16,47 @@
 package se.europeanspallationsource.xaos.core.util.io;
 
 
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
 import io.reactivex.disposables.Disposable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subscribers.TestSubscriber;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.FileTime;
 import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -147,6 +171,140 @@ public class DirectoryWatcherTest {
 
 	}
 
+	/**
+	 * Test of copyFile method, of class DirectoryWatcher.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 */
+	@Test
+	public void testCopyFile() throws IOException, InterruptedException {
+
+		System.out.println(MessageFormat.format("  Testing ''copyFile'' [on {0}]...", root));
+
+		byte[] content = new byte[100_000];
+
+		for ( int i = 0; i < content.length; i++ ) {
+			content[i] = (byte) i;
+		}
+
+		Files.write(file_b1, content);
+
+		CountDownLatch latch = new CountDownLatch(3);
+
+		try ( DirectoryWatcher watcher = build(executor) ) {
+
+			Path copy = dir_a.resolve("copied_file.test");
+
+			watcher.copyFile(
+				file_b1,
+				copy,
+				t -> {
+					assertNotNull(t);
+					latch.countDown();
+				},
+				e -> {
+					fail(MessageFormat.format("File not copied: {0}", file_b1));
+					latch.countDown();
+				}
+			);
+			watcher.copyFile(
+				file_b2,
+				file_b1,
+				t -> {
+					fail(MessageFormat.format("Existing file overwritten: {0}", file_b1));
+					latch.countDown();
+				},
+				e -> {
+					assertTrue(e instanceof FileAlreadyExistsException);
+					latch.countDown();
+				}
+			);
+			watcher.copyFile(
+				file_b2,
+				file_a,
+				t -> latch.countDown(),
+				e -> {
+					fail(MessageFormat.format("File not replaced: {0}", file_a));
+					latch.countDown();
+				},
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.COPY_ATTRIBUTES
+			);
+
+			if ( !latch.await(1, TimeUnit.MINUTES) ) {
+				fail("File copy not completed in 1 minute.");
+			}
+
+			assertArrayEquals(content, Files.readAllBytes(copy));
+			assertArrayEquals(content, Files.readAllBytes(file_b1));
+			assertEquals(0, Files.size(file_a));
+			assertEquals(Files.getLastModifiedTime(file_b2), Files.getLastModifiedTime(file_a));
+
+		}
+
+	}
+
+	/**
+	 * Test of copyTree method, of class DirectoryWatcher.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 */
+	@Test
+	public void testCopyTree() throws IOException, InterruptedException {
+
+		System.out.println(MessageFormat.format("  Testing ''copyTree'' [on {0}]...", root));
+
+		Files.write(file_a_c, "Some content.".getBytes());
+
+		CountDownLatch latch = new CountDownLatch(2);
+		AtomicReference<Long> copied = new AtomicReference<>();
+
+		try ( DirectoryWatcher watcher = build(executor) ) {
+
+			Path copy = dir_b.resolve("copied_tree");
+
+			watcher.copyTree(
+				dir_a,
+				copy,
+				count -> {
+					copied.set(count);
+					latch.countDown();
+				},
+				e -> {
+					fail(MessageFormat.format("Tree not copied: {0}", dir_a));
+					latch.countDown();
+				}
+			);
+			watcher.copyTree(
+				root,
+				dir_b.resolve("inside"),
+				count -> {
+					fail("Tree copied inside itself.");
+					latch.countDown();
+				},
+				e -> {
+					assertTrue(e instanceof IllegalArgumentException);
+					latch.countDown();
+				}
+			);
+
+			if ( !latch.await(1, TimeUnit.MINUTES) ) {
+				fail("Tree copy not completed in 1 minute.");
+			}
+
+			assertEquals(4L, (long) copied.get());
+			assertTrue(Files.isDirectory(copy.resolve(dir_a.relativize(dir_a_c))));
+			assertTrue(Files.isRegularFile(copy.resolve(dir_a.relativize(file_a))));
+			assertArrayEquals(Files.readAllBytes(file_a_c), Files.readAllBytes(copy.resolve(dir_a.relativize(file_a_c))));
+			assertTrue(Files.exists(file_a_c));
+			assertFalse(Files.exists(dir_b.resolve("inside")));
+
+		}
+
+	}
+
 	/**
 	 * Test of build method, of class DirectoryWatcher.
 	 *
@@ -164,6 +322,83 @@ public class DirectoryWatcherTest {
 
 	}
 
+	/**
+	 * Test of build method, of class DirectoryWatcher, with multiple I/O
+	 * threads.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 */
+	@Test
+	public void testCreateWithIOThreads() throws IOException, InterruptedException {
+
+		System.out.println(MessageFormat.format("  Testing ''create'' with I/O threads [on {0}]...", root));
+
+		try {
+			build(executor, 0);
+			fail("Invalid number of I/O threads accepted.");
+		} catch ( IllegalArgumentException e ) {
+			//	Expected.
+		}
+
+		int writes = 100;
+		Path[] files = { file_a, file_a_c, file_b1, file_b2 };
+		List<List<Integer>> completions = new ArrayList<>(files.length);
+		CountDownLatch latch = new CountDownLatch(writes * files.length);
+		DirectoryWatcher watcher = build(executor, 4);
+
+		for ( Path file : files ) {
+
+			List<Integer> completed = Collections.synchronizedList(new ArrayList<>(writes));
+
+			completions.add(completed);
+
+			for ( int i = 0; i < writes; i++ ) {
+
+				int index = i;
+
+				watcher.writeTextFile(
+					file,
+					Integer.toString(i),
+					defaultCharset(),
+					lastModified -> {
+						completed.add(index);
+						latch.countDown();
+					},
+					e -> fail(MessageFormat.format("File not written: {0}", file))
+				);
+
+			}
+
+		}
+
+		if ( !latch.await(1, TimeUnit.MINUTES) ) {
+			fail("Write operations not completed in 1 minute.");
+		}
+
+		for ( int f = 0; f < files.length; f++ ) {
+
+			//	Operations on the same path are executed in submission order.
+			for ( int i = 0; i < writes; i++ ) {
+				assertEquals(i, (int) completions.get(f).get(i));
+			}
+
+			assertEquals(Integer.toString(writes - 1), new String(Files.readAllBytes(files[f]), defaultCharset()));
+
+		}
+
+		watcher.close();
+
+		long startTime = System.currentTimeMillis();
+
+		while ( !watcher.isCloseComplete() && startTime + 60000L > System.currentTimeMillis() ) {
+			Thread.yield();
+		}
+
+		assertTrue(watcher.isCloseComplete());
+
+	}
+
 	/**
 	 * Test of createDirectories method, of class DirectoryWatcher.
 	 *
@@ -472,174 +707,677 @@ public class DirectoryWatcherTest {
 	}
 
 	/**
-	 * Test of errors method, of class DirectoryWatcher.
+	 * Test of deleteTree method with progress, of class DirectoryWatcher.
 	 *
 	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
 	 */
 	@Test
-	public void testErrors() throws IOException {
+	public void testDeleteTreeProgress() throws IOException, InterruptedException {
 
-		System.out.println("  Testing 'errors'...");
+		System.out.println(MessageFormat.format("  Testing ''deleteTree'' with progress [on {0}]...", root));
+
+		Path tree = Files.createTempDirectory(root, "DW_tree_");
+		Path deepest = tree;
+		long entries = 0;
+
+		//	A deep chain of directories, each one with some files.
+		for ( int depth = 0; depth < 200; depth++ ) {
+
+			deepest = Files.createDirectory(deepest.resolve("dir_" + depth));
+			entries++;
+
+			for ( int i = 0; i < 10; i++ ) {
+				Files.createFile(deepest.resolve("file_" + i));
+				entries++;
+			}
+
+		}
+
+		//	The tree root itself.
+		entries++;
 
 		try ( DirectoryWatcher watcher = build(executor) ) {
 
-			Observable<Throwable> errorsStream = watcher.errors();
+			watcher.watchTree(tree, Integer.MAX_VALUE, null);
 
-			assertNotNull(errorsStream);
+			assertTrue(watcher.isWatched(deepest));
+
+			TestObserver<Long> observer = watcher.deleteTree(tree).test();
+
+			if ( !observer.await(1, TimeUnit.MINUTES) ) {
+				fail("Tree deletion not completed in 1 minute.");
+			}
+
+			observer.assertNoErrors();
+			observer.assertComplete();
+
+			List<Long> progress = observer.values();
+
+			assertTrue(progress.size() > 1);
+			assertEquals(entries, (long) progress.get(progress.size() - 1));
+
+			for ( int i = 1; i < progress.size(); i++ ) {
+				assertTrue(progress.get(i) > progress.get(i - 1));
+			}
+
+			assertFalse(Files.exists(tree));
+			assertFalse(watcher.isWatched(tree));
+			assertFalse(watcher.isWatched(deepest));
 
 		}
 
 	}
 
 	/**
-	 * Test of events method, of class DirectoryWatcher.
+	 * Test of errors method, of class DirectoryWatcher.
 	 *
 	 * @throws java.io.IOException
 	 */
 	@Test
-	public void testEvents() throws IOException {
+	public void testErrors() throws IOException {
 
-		System.out.println("  Testing 'events'...");
+		System.out.println("  Testing 'errors'...");
 
 		try ( DirectoryWatcher watcher = build(executor) ) {
 
-			Observable<DirectoryWatcher.DirectoryEvent> event = watcher.events();
+			Observable<Throwable> errorsStream = watcher.errors();
 
-			assertNotNull(event);
+			assertNotNull(errorsStream);
 
 		}
 
 	}
 
 	/**
-	 * Test of isCloseComplete method, of class DirectoryWatcher.
+	 * Test of setEventBatching method, of class DirectoryWatcher.
 	 *
 	 * @throws java.io.IOException
 	 */
 	@Test
-	public void testIsCloseComplete() throws IOException {
+	public void testEventBatching() throws IOException {
 
-		System.out.println("  Testing 'isCloseComplete'...");
+		System.out.println(MessageFormat.format("  Testing ''setEventBatching'' [on {0}]...", root));
 
-		DirectoryWatcher watcher = build(executor);
+		int operations = 50;
+		List<Runnable> submitted = new ArrayList<>(1);
+		List<Integer> completed = new ArrayList<>(operations);
 
-		assertFalse(watcher.isClosed());
-		assertFalse(watcher.isCloseComplete());
+		//	I/O operations are executed synchronously, and batches are
+		//	executed explicitly by the test thread.
+		try ( DirectoryWatcher watcher = build(submitted::add, Runnable::run) ) {
 
-		watcher.close();
+			try {
+				watcher.setEventBatching(0, Duration.ofMinutes(1));
+				fail("Invalid batch size accepted.");
+			} catch ( IllegalArgumentException e ) {
+				//	Expected.
+			}
 
-		assertFalse(watcher.isCloseComplete());
-		assertTrue(watcher.isClosed());
+			try {
+				watcher.setEventBatching(10, Duration.ZERO);
+				fail("Invalid time budget accepted.");
+			} catch ( IllegalArgumentException e ) {
+				//	Expected.
+			}
 
-		long startTime = System.currentTimeMillis();
-		long currentTime = startTime;
+			watcher.setEventBatching(10, Duration.ofMinutes(1));
 
-		while ( !watcher.isCloseComplete() && startTime + 60000L > currentTime ) {
-			currentTime = System.currentTimeMillis();
-		}
+			for ( int i = 0; i < operations; i++ ) {
 
-		assertTrue(watcher.isCloseComplete());
+				int index = i;
 
-	}
+				watcher.delete(
+					root.resolve("missing-" + i),
+					deleted -> completed.add(index),
+					e -> fail(MessageFormat.format("Unexpected error: {0}", e.getMessage()))
+				);
 
-	/**
-	 * Test of isClosed method, of class DirectoryWatcher.
-	 *
-	 * @throws java.io.IOException
-	 */
-	@Test
-	public void testIsClosed() throws IOException {
+			}
 
-		System.out.println("  Testing 'isClosed'...");
+			//	A single batch is pending for all the callbacks.
+			assertEquals(1, submitted.size());
+			assertTrue(completed.isEmpty());
 
-		DirectoryWatcher watcher = build(executor);
+			int batches = 0;
 
-		assertFalse(watcher.isClosed());
+			while ( !submitted.isEmpty() ) {
+				submitted.remove(0).run();
+				batches++;
+			}
 
-		watcher.close();
+			assertEquals(operations / 10, batches);
+			assertEquals(operations, completed.size());
 
-		assertTrue(watcher.isClosed());
+			for ( int i = 0; i < operations; i++ ) {
+				assertEquals(i, (int) completed.get(i));
+			}
+
+		}
 
 	}
 
 	/**
-	 * Test of isWatched method, of class DirectoryWatcher.
+	 * Test of setEventCoalescing method, of class DirectoryWatcher.
 	 *
 	 * @throws java.io.IOException
 	 * @throws java.lang.InterruptedException
 	 */
 	@Test
-	@SuppressWarnings( "CallToThreadYield" )
-	public void testIsWatched() throws IOException, InterruptedException {
+	public void testEventCoalescing() throws IOException, InterruptedException {
 
-		System.out.println(MessageFormat.format("  Testing ''isWatched'' [on {0}]...", root));
+		System.out.println(MessageFormat.format("  Testing ''setEventCoalescing'' [on {0}]...", root));
 
-		DirectoryWatcher watcher = build(executor);
+		CountDownLatch latch = new CountDownLatch(1);
+		List<DirectoryWatcher.DirectoryEvent> events = Collections.synchronizedList(new ArrayList<>(1));
 
-		watcher.watch(dir_a);
-		assertTrue(watcher.isWatched(dir_a));
+		try ( DirectoryWatcher watcher = build(executor) ) {
 
-		watcher.watch(dir_a_c);
-		assertTrue(watcher.isWatched(dir_a_c));
+			assertFalse(watcher.isEventCoalescing());
 
-		watcher.watch(dir_b);
-		assertTrue(watcher.isWatched(dir_b));
+			watcher.setEventCoalescing(Duration.ofMillis(500), Duration.ofSeconds(10));
 
-		CountDownLatch latch = new CountDownLatch(1);
+			assertTrue(watcher.isEventCoalescing());
 
-		Disposable subscription = watcher.events().subscribe(event -> {
-			event.getEvents().stream().forEach(e -> {
-				if ( StandardWatchEventKinds.ENTRY_DELETE.equals(e.kind()) ) {
-					System.out.println("    Path deleted: " + e.context());
-					if ( dir_a_c.equals(event.getWatchedPath().resolve((Path) e.context())) ) {
-						latch.countDown();
-					}
-				}
+			Disposable subscription = watcher.events().subscribe(event -> {
+				events.add(event);
+				latch.countDown();
 			});
-		});
 
-		Files.walkFileTree(dir_a_c, new DeleteFileVisitor());
+			watcher.watch(root);
 
-		if ( !latch.await(1, TimeUnit.MINUTES) ) {
-			fail("File deletion not signalled in 1 minute.");
-		}
+			Path transientFile = Files.createTempFile(root, "DW_transient_", ".test");
 
-		assertFalse(watcher.isWatched(dir_a_c));
+			Files.delete(transientFile);
 
-		watcher.delete(
-			dir_a,
-			success -> assertFalse(watcher.isWatched(dir_a)),
-			null
-		);
+			Path keptFile = Files.createTempFile(root, "DW_kept_", ".test");
 
-		subscription.dispose();
-		watcher.close();
+			for ( int i = 0; i < 10; i++ ) {
+				Files.write(keptFile, Integer.toString(i).getBytes(), APPEND);
+			}
 
-		while ( !watcher.isCloseComplete() ) {
-			Thread.yield();
-		}
+			if ( !latch.await(1, TimeUnit.MINUTES) ) {
+				fail("Coalesced events not signalled in 1 minute.");
+			}
 
-		assertFalse(watcher.isWatched(dir_b));
+			//	Give time to any other (unexpected) event to be signalled.
+			Thread.sleep(1500);
+
+			assertEquals(1, events.size());
+
+			DirectoryWatcher.DirectoryEvent event = events.get(0);
+
+			assertEquals(root, event.getWatchedPath());
+			assertTrue(event.wasReset());
+			assertEquals(1, event.getEvents().size());
+			assertEquals(StandardWatchEventKinds.ENTRY_CREATE, event.getEvents().get(0).kind());
+			assertEquals(keptFile.getFileName(), event.getEvents().get(0).context());
+
+			subscription.dispose();
+
+			watcher.setEventCoalescing(null, null);
+
+			assertFalse(watcher.isEventCoalescing());
+
+		}
 
 	}
 
 	/**
-	 * Test of readBinaryFile method, of class DirectoryWatcher.
+	 * Test of the event thread executor rejecting tasks, of class
+	 * DirectoryWatcher.
 	 *
 	 * @throws java.io.IOException
 	 * @throws java.lang.InterruptedException
 	 */
 	@Test
-	public void testReadBinaryFile() throws IOException, InterruptedException {
+	public void testEventThreadRejection() throws IOException, InterruptedException {
 
-		System.out.println(MessageFormat.format("  Testing ''readBinaryFile'' [on {0}]...", root));
+		System.out.println(MessageFormat.format("  Testing event thread rejection [on {0}]...", root));
 
-		byte[] content = { 0x00, 0x01, 0x02, 0x03, 0x04, 0x03, 0x02, 0x01, 0x00 };
-		CountDownLatch latch = new CountDownLatch(2);
+		Executor rejectingExecutor = runnable -> {
+			throw new RejectedExecutionException("Test rejection.");
+		};
 
-		try ( DirectoryWatcher watcher = build(executor) ) {
+		try ( DirectoryWatcher watcher = build(rejectingExecutor) ) {
 
-			Files.write(file_b1, content);
+			watcher.watch(root);
+
+			Files.createTempFile(root, "DW_rejected_", ".test");
+
+			long startTime = System.currentTimeMillis();
+
+			while ( !watcher.isCloseComplete() && startTime + 60000L > System.currentTimeMillis() ) {
+				Thread.sleep(10);
+			}
+
+			assertTrue(watcher.isClosed());
+			assertTrue(watcher.isCloseComplete());
+
+		}
+
+	}
+
+	/**
+	 * Test of events method, of class DirectoryWatcher.
+	 *
+	 * @throws java.io.IOException
+	 */
+	@Test
+	public void testEvents() throws IOException {
+
+		System.out.println("  Testing 'events'...");
+
+		try ( DirectoryWatcher watcher = build(executor) ) {
+
+			Observable<DirectoryWatcher.DirectoryEvent> event = watcher.events();
+
+			assertNotNull(event);
+
+		}
+
+	}
+
+	/**
+	 * Test of executeBatch method, of class DirectoryWatcher.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 */
+	@Test
+	public void testExecuteBatch() throws IOException, InterruptedException {
+
+		System.out.println(MessageFormat.format("  Testing ''executeBatch'' [on {0}]...", root));
+
+		AtomicReference<BatchResult> result = new AtomicReference<>();
+		CountDownLatch latch = new CountDownLatch(1);
+
+		try ( DirectoryWatcher watcher = build(executor) ) {
+
+			Path created = dir_a.resolve("batch");
+			Path written = created.resolve("written.txt");
+			Path toFail = dir_a.resolve("non-existent").resolve("failed.txt");
+			List<BatchOperation> operations = new ArrayList<>(5);
+
+			new BatchBuilder(ops -> {
+				operations.addAll(ops);
+				return null;
+			})
+				.createDirectory(created)
+				.writeBinaryFile(written, ByteBuffer.wrap(new byte[] { 0x00, 0x01 }), ByteBuffer.wrap(new byte[] { 0x02, 0x03 }))
+				.createFile(toFail)
+				.delete(file_a)
+				.submit();
+
+			watcher.executeBatch(
+				operations,
+				r -> {
+					result.set(r);
+					latch.countDown();
+				},
+				e -> {
+					fail(MessageFormat.format("Batch not executed: {0}", e));
+					latch.countDown();
+				}
+			);
+
+			if ( !latch.await(1, TimeUnit.MINUTES) ) {
+				fail("Batch execution not completed in 1 minute.");
+			}
+
+			BatchResult batchResult = result.get();
+
+			assertNotNull(batchResult);
+			assertFalse(batchResult.isSuccessful());
+			assertEquals(4, batchResult.getOutcomes().size());
+			assertEquals(1, batchResult.getFailures().size());
+			assertEquals(toFail, batchResult.getFailures().get(0).getOperation().getPath());
+			assertTrue(batchResult.getFailures().get(0).getError() instanceof NoSuchFileException);
+			assertNotNull(batchResult.getOutcomes().get(1).getLastModified());
+			assertTrue(Files.isDirectory(created));
+			assertArrayEquals(new byte[] { 0x00, 0x01, 0x02, 0x03 }, Files.readAllBytes(written));
+			assertFalse(Files.exists(toFail));
+			assertFalse(Files.exists(file_a));
+
+		}
+
+	}
+
+	/**
+	 * Test of getMetrics method, of class DirectoryWatcher.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws javax.management.JMException
+	 */
+	@Test
+	public void testGetMetrics() throws IOException, InterruptedException, JMException {
+
+		System.out.println(MessageFormat.format("  Testing ''getMetrics'' [on {0}]...", root));
+
+		CountDownLatch latch = new CountDownLatch(3);
+
+		try ( DirectoryWatcher watcher = build(executor) ) {
+
+			DirectoryWatcherMetrics metrics = watcher.getMetrics();
+
+			assertEquals(0, metrics.getWatchKeyCount());
+			assertEquals(0, metrics.getEventCount());
+			assertTrue(metrics.getOperations().isEmpty());
+			assertEquals(0, metrics.getOperation("readBinaryFile").getCount());
+			assertEquals(Duration.ZERO, metrics.getOperation("readBinaryFile").getPercentile(99));
+
+			watcher.watch(dir_a);
+			watcher.readBinaryFile(file_a, b -> latch.countDown(), e -> fail(e.getMessage()));
+			watcher.readBinaryFile(file_a, b -> latch.countDown(), e -> fail(e.getMessage()));
+			watcher.readBinaryFile(dir_a.resolve("non-existent"), b -> fail("File read."), e -> latch.countDown());
+
+			if ( !latch.await(1, TimeUnit.MINUTES) ) {
+				fail("File reading not completed in 1 minute.");
+			}
+
+			metrics = watcher.getMetrics();
+
+			LatencyDistribution read = metrics.getOperation("readBinaryFile");
+
+			assertEquals(1, metrics.getWatchKeyCount());
+			assertEquals(Collections.singleton("readBinaryFile"), metrics.getOperations().keySet());
+			assertEquals(3, read.getCount());
+			assertEquals(1, read.getFailures());
+			assertTrue(read.getMax().compareTo(Duration.ZERO) > 0);
+			assertTrue(read.getPercentile(50).compareTo(read.getMax()) <= 0);
+			assertEquals(read.getMax(), read.getPercentile(100));
+			assertTrue(metrics.getEventThreadLag().getCount() >= 3);
+
+			ObjectName name = new ObjectName("se.europeanspallationsource.xaos:type=DirectoryWatcher,name=testGetMetrics");
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+			watcher.registerMBean(name);
+
+			assertTrue(server.isRegistered(name));
+			assertEquals(1, server.getAttribute(name, "WatchKeyCount"));
+			assertEquals(3L, ( (CompositeData) ( (TabularData) server.getAttribute(name, "OperationCounts") ).get(new Object[] { "readBinaryFile" }) ).get("value"));
+
+			TestObserver<DirectoryWatcherMetrics> samples = watcher.metrics(Duration.ofMillis(50)).test();
+
+			samples.awaitCount(2);
+			samples.assertNoErrors();
+			samples.assertValueAt(1, sample -> sample.getTimestamp() > samples.values().get(0).getTimestamp());
+
+			watcher.close();
+
+			samples.awaitTerminalEvent(1, TimeUnit.MINUTES);
+			samples.assertComplete();
+			assertFalse(server.isRegistered(name));
+
+		}
+
+	}
+
+	/**
+	 * Test of isCloseComplete method, of class DirectoryWatcher.
+	 *
+	 * @throws java.io.IOException
+	 */
+	@Test
+	public void testIsCloseComplete() throws IOException {
+
+		System.out.println("  Testing 'isCloseComplete'...");
+
+		DirectoryWatcher watcher = build(executor);
+
+		assertFalse(watcher.isClosed());
+		assertFalse(watcher.isCloseComplete());
+
+		watcher.close();
+
+		assertFalse(watcher.isCloseComplete());
+		assertTrue(watcher.isClosed());
+
+		long startTime = System.currentTimeMillis();
+		long currentTime = startTime;
+
+		while ( !watcher.isCloseComplete() && startTime + 60000L > currentTime ) {
+			currentTime = System.currentTimeMillis();
+		}
+
+		assertTrue(watcher.isCloseComplete());
+
+	}
+
+	/**
+	 * Test of isClosed method, of class DirectoryWatcher.
+	 *
+	 * @throws java.io.IOException
+	 */
+	@Test
+	public void testIsClosed() throws IOException {
+
+		System.out.println("  Testing 'isClosed'...");
+
+		DirectoryWatcher watcher = build(executor);
+
+		assertFalse(watcher.isClosed());
+
+		watcher.close();
+
+		assertTrue(watcher.isClosed());
+
+	}
+
+	/**
+	 * Test of isWatched method, of class DirectoryWatcher.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 */
+	@Test
+	@SuppressWarnings( "CallToThreadYield" )
+	public void testIsWatched() throws IOException, InterruptedException {
+
+		System.out.println(MessageFormat.format("  Testing ''isWatched'' [on {0}]...", root));
+
+		DirectoryWatcher watcher = build(executor);
+
+		watcher.watch(dir_a);
+		assertTrue(watcher.isWatched(dir_a));
+
+		watcher.watch(dir_a_c);
+		assertTrue(watcher.isWatched(dir_a_c));
+
+		watcher.watch(dir_b);
+		assertTrue(watcher.isWatched(dir_b));
+
+		CountDownLatch latch = new CountDownLatch(1);
+
+		Disposable subscription = watcher.events().subscribe(event -> {
+			event.getEvents().stream().forEach(e -> {
+				if ( StandardWatchEventKinds.ENTRY_DELETE.equals(e.kind()) ) {
+					System.out.println("    Path deleted: " + e.context());
+					if ( dir_a_c.equals(event.getWatchedPath().resolve((Path) e.context())) ) {
+						latch.countDown();
+					}
+				}
+			});
+		});
+
+		Files.walkFileTree(dir_a_c, new DeleteFileVisitor());
+
+		if ( !latch.await(1, TimeUnit.MINUTES) ) {
+			fail("File deletion not signalled in 1 minute.");
+		}
+
+		assertFalse(watcher.isWatched(dir_a_c));
+
+		watcher.delete(
+			dir_a,
+			success -> assertFalse(watcher.isWatched(dir_a)),
+			null
+		);
+
+		subscription.dispose();
+		watcher.close();
+
+		while ( !watcher.isCloseComplete() ) {
+			Thread.yield();
+		}
+
+		assertFalse(watcher.isWatched(dir_b));
+
+	}
+
+	/**
+	 * Test of mapFile method, of class DirectoryWatcher.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 */
+	@Test
+	public void testMapFile() throws IOException, InterruptedException {
+
+		System.out.println(MessageFormat.format("  Testing ''mapFile'' [on {0}]...", root));
+
+		byte[] content = { 0x00, 0x01, 0x02, 0x03, 0x04, 0x03, 0x02, 0x01, 0x00 };
+		CountDownLatch latch = new CountDownLatch(2);
+		AtomicReference<MappedByteBuffer> mapped = new AtomicReference<>();
+		AtomicReference<Throwable> error = new AtomicReference<>();
+
+		try ( DirectoryWatcher watcher = build(executor) ) {
+
+			Files.write(file_b1, content);
+
+			watcher.mapFile(
+				file_b1,
+				b -> {
+					mapped.set(b);
+					latch.countDown();
+				},
+				e -> {
+					fail(MessageFormat.format("File not mapped: {0}", file_b1));
+					latch.countDown();
+				}
+			);
+
+			Path toFail = FileSystems.getDefault().getPath(dir_a.toString(), "non-exitent", "created_file.txt");
+
+			watcher.mapFile(
+				toFail,
+				b -> {
+					fail(MessageFormat.format("File was mapped: {0}", toFail));
+					latch.countDown();
+				},
+				e -> {
+					error.set(e);
+					latch.countDown();
+				}
+			);
+
+			if ( !latch.await(1, TimeUnit.MINUTES) ) {
+				fail("File mapping not completed in 1 minute.");
+			}
+
+			byte[] read = new byte[content.length];
+
+			assertNotNull(mapped.get());
+			assertTrue(mapped.get().isReadOnly());
+			assertEquals(content.length, mapped.get().remaining());
+			mapped.get().get(read);
+			assertArrayEquals(content, read);
+			assertTrue(error.get() instanceof IOException);
+
+		}
+
+	}
+
+	/**
+	 * Test of moveTree method, of class DirectoryWatcher.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 */
+	@Test
+	public void testMoveTree() throws IOException, InterruptedException {
+
+		System.out.println(MessageFormat.format("  Testing ''moveTree'' [on {0}]...", root));
+
+		CountDownLatch latch = new CountDownLatch(1);
+
+		try ( DirectoryWatcher watcher = build(executor) ) {
+
+			watcher.watch(dir_a);
+			watcher.watch(dir_a_c);
+
+			Path moved = dir_b.resolve("moved_tree");
+
+			watcher.moveTree(
+				dir_a,
+				moved,
+				t -> latch.countDown(),
+				e -> {
+					fail(MessageFormat.format("Tree not moved: {0}", dir_a));
+					latch.countDown();
+				}
+			);
+
+			if ( !latch.await(1, TimeUnit.MINUTES) ) {
+				fail("Tree move not completed in 1 minute.");
+			}
+
+			assertFalse(Files.exists(dir_a));
+			assertTrue(Files.isRegularFile(moved.resolve(dir_a.relativize(file_a_c))));
+			assertFalse(watcher.isWatched(dir_a));
+			assertFalse(watcher.isWatched(dir_a_c));
+
+			//	A non empty target is not merged with the source, even when
+			//	it can be replaced.
+			CountDownLatch failureLatch = new CountDownLatch(1);
+			List<Throwable> errors = Collections.synchronizedList(new ArrayList<>(1));
+
+			watcher.moveTree(
+				moved,
+				dir_b,
+				t -> {
+					fail(MessageFormat.format("Tree moved into non empty directory: {0}", dir_b));
+					failureLatch.countDown();
+				},
+				e -> {
+					errors.add(e);
+					failureLatch.countDown();
+				},
+				StandardCopyOption.REPLACE_EXISTING
+			);
+
+			if ( !failureLatch.await(1, TimeUnit.MINUTES) ) {
+				fail("Tree move not completed in 1 minute.");
+			}
+
+			assertEquals(1, errors.size());
+			assertTrue(errors.get(0) instanceof DirectoryNotEmptyException);
+			assertTrue(Files.isRegularFile(moved.resolve(dir_a.relativize(file_a_c))));
+			assertTrue(Files.isRegularFile(file_b1));
+			assertFalse(Files.exists(dir_b.resolve(dir_a.relativize(file_a_c))));
+
+		}
+
+	}
+
+	/**
+	 * Test of readBinaryFile method, of class DirectoryWatcher.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 */
+	@Test
+	public void testReadBinaryFile() throws IOException, InterruptedException {
+
+		System.out.println(MessageFormat.format("  Testing ''readBinaryFile'' [on {0}]...", root));
+
+		byte[] content = { 0x00, 0x01, 0x02, 0x03, 0x04, 0x03, 0x02, 0x01, 0x00 };
+		CountDownLatch latch = new CountDownLatch(2);
+
+		try ( DirectoryWatcher watcher = build(executor) ) {
+
+			Files.write(file_b1, content);
 
 			watcher.readBinaryFile(
 				file_b1,
@@ -676,6 +1414,61 @@ public class DirectoryWatcherTest {
 
 	}
 
+	/**
+	 * Test of readBinaryFileRange method, of class DirectoryWatcher.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 */
+	@Test
+	public void testReadBinaryFileRange() throws IOException, InterruptedException {
+
+		System.out.println(MessageFormat.format("  Testing ''readBinaryFileRange'' [on {0}]...", root));
+
+		byte[] content = { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08 };
+		CountDownLatch latch = new CountDownLatch(3);
+		List<ByteBuffer> read = Collections.synchronizedList(new ArrayList<>(3));
+
+		try ( DirectoryWatcher watcher = build(executor) ) {
+
+			try {
+				watcher.readBinaryFileRange(file_b1, -1, 1, b -> {}, e -> {});
+				fail("Negative offset accepted.");
+			} catch ( IllegalArgumentException e ) {
+				//	Expected.
+			}
+
+			Files.write(file_b1, content);
+
+			//	Inside the file, crossing its end, and beyond its end.
+			for ( long offset : new long[] { 2, 6, 20 } ) {
+				watcher.readBinaryFileRange(
+					file_b1,
+					offset,
+					4,
+					b -> {
+						read.add(b);
+						latch.countDown();
+					},
+					e -> {
+						fail(MessageFormat.format("File not read: {0}", file_b1));
+						latch.countDown();
+					}
+				);
+			}
+
+			if ( !latch.await(1, TimeUnit.MINUTES) ) {
+				fail("File reading not completed in 1 minute.");
+			}
+
+			assertEquals(ByteBuffer.wrap(content, 2, 4), read.get(0));
+			assertEquals(ByteBuffer.wrap(content, 6, 3), read.get(1));
+			assertEquals(0, read.get(2).remaining());
+
+		}
+
+	}
+
 	/**
 	 * Test of readTextFile method, of class DirectoryWatcher.
 	 *
@@ -752,32 +1545,131 @@ public class DirectoryWatcherTest {
 
 			watcher.writeBinaryFile(
 				readWriteFile,
-				content,
+				content,
+				t -> {
+					assertNotNull(t);
+					latch.countDown();
+				},
+				e -> {
+					fail(MessageFormat.format("File not written: {0}", readWriteFile));
+					latch.countDown();
+				}
+			);
+			watcher.readBinaryFile(
+				readWriteFile,
+				t -> {
+					assertArrayEquals(content, t);
+					latch.countDown();
+				},
+				e -> {
+					fail(MessageFormat.format("File not read: {0}", file_b1));
+					latch.countDown();
+				}
+			);
+
+			if ( !latch.await(1, TimeUnit.MINUTES) ) {
+				fail("File creation not completed in 1 minute.");
+			}
+
+		}
+
+	}
+
+	/**
+	 * Test of writeBinaryFileStream and readBinaryFileStream methods, of class
+	 * DirectoryWatcher.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 */
+	@Test
+	public void testReadWriteBinaryFileStream() throws IOException, InterruptedException {
+
+		System.out.println(MessageFormat.format("  Testing ''writeBinaryFileStream'' and ''readBinaryFileStream'' [on {0}]...", root));
+
+		//	Chunks not aligned with the direct buffers' size.
+		int chunks = 40;
+		int chunkSize = 50_000;
+		byte[] content = new byte[chunks * chunkSize];
+
+		for ( int i = 0; i < content.length; i++ ) {
+			content[i] = (byte) ( i * 31 );
+		}
+
+		try ( DirectoryWatcher watcher = build(executor) ) {
+
+			Path readWriteFile = FileSystems.getDefault().getPath(dir_a.toString(), "created_file.bin");
+			CountDownLatch writeLatch = new CountDownLatch(1);
+			AtomicReference<Object> written = new AtomicReference<>();
+
+			watcher.writeBinaryFileStream(
+				readWriteFile,
+				Flowable.range(0, chunks).map(i -> ByteBuffer.wrap(content, i * chunkSize, chunkSize)),
 				t -> {
-					assertNotNull(t);
-					latch.countDown();
+					written.set(t);
+					writeLatch.countDown();
 				},
 				e -> {
-					fail(MessageFormat.format("File not written: {0}", readWriteFile));
-					latch.countDown();
+					written.set(e);
+					writeLatch.countDown();
 				}
 			);
-			watcher.readBinaryFile(
+
+			if ( !writeLatch.await(1, TimeUnit.MINUTES) ) {
+				fail("File writing not completed in 1 minute.");
+			}
+
+			assertTrue(written.get() instanceof FileTime);
+			assertArrayEquals(content, Files.readAllBytes(readWriteFile));
+
+			//	Chunks are read only when requested.
+			TestSubscriber<ByteBuffer> subscriber = watcher.readBinaryFileStream(readWriteFile, 65_536).test(0);
+
+			subscriber.request(1);
+			subscriber.awaitCount(1);
+			Thread.sleep(100);
+			subscriber.assertValueCount(1);
+			subscriber.requestMore(Long.MAX_VALUE);
+			subscriber.awaitTerminalEvent(1, TimeUnit.MINUTES);
+			subscriber.assertComplete();
+
+			ByteBuffer read = ByteBuffer.allocate(content.length);
+
+			subscriber.values().forEach(read::put);
+			assertFalse(read.hasRemaining());
+			assertArrayEquals(content, read.array());
+
+			//	Errors.
+			Path toFail = FileSystems.getDefault().getPath(dir_a.toString(), "non-exitent", "created_file.bin");
+
+			watcher.readBinaryFileStream(toFail, 1024)
+				.test()
+				.awaitDone(1, TimeUnit.MINUTES)
+				.assertError(NoSuchFileException.class);
+
+			CountDownLatch errorLatch = new CountDownLatch(1);
+
+			written.set(null);
+			watcher.writeBinaryFileStream(
 				readWriteFile,
+				Flowable.concat(Flowable.just(ByteBuffer.wrap(content, 0, 10)), Flowable.error(new IOException("Broken stream"))),
 				t -> {
-					assertArrayEquals(content, t);
-					latch.countDown();
+					written.set(t);
+					errorLatch.countDown();
 				},
 				e -> {
-					fail(MessageFormat.format("File not read: {0}", file_b1));
-					latch.countDown();
+					written.set(e);
+					errorLatch.countDown();
 				}
 			);
 
-			if ( !latch.await(1, TimeUnit.MINUTES) ) {
-				fail("File creation not completed in 1 minute.");
+			if ( !errorLatch.await(1, TimeUnit.MINUTES) ) {
+				fail("File writing not completed in 1 minute.");
 			}
 
+			assertTrue(written.get() instanceof IOException);
+			assertEquals("Broken stream", ( (IOException) written.get() ).getMessage());
+
 		}
 
 	}
@@ -835,6 +1727,74 @@ public class DirectoryWatcherTest {
 
 	}
 
+	/**
+	 * Test of the rejection of the I/O operations queued behind a rejected
+	 * one, of class DirectoryWatcher.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 */
+	@Test
+	public void testRejection() throws IOException, InterruptedException {
+
+		System.out.println(MessageFormat.format("  Testing rejection of queued I/O operations [on {0}]...", root));
+
+		CountDownLatch latch = new CountDownLatch(1);
+		AtomicReference<Throwable> error = new AtomicReference<>();
+		AtomicReference<DirectoryWatcher> watcherReference = new AtomicReference<>();
+		AtomicBoolean first = new AtomicBoolean(true);
+
+		//	While the queue of the first operation is being submitted, a second
+		//	operation on the same file is queued behind it, and then the queue
+		//	is rejected.
+		Executor ioExecutor = runnable -> {
+
+			if ( first.compareAndSet(true, false) ) {
+
+				Thread thread = new Thread(() -> watcherReference.get().readBinaryFile(
+					file_a,
+					content -> fail("Queued operation not rejected."),
+					e -> {
+						error.set(e);
+						latch.countDown();
+					}
+				));
+
+				thread.start();
+
+				try {
+					thread.join();
+				} catch ( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+				}
+
+			}
+
+			throw new RejectedExecutionException("Test rejection.");
+
+		};
+
+		try ( DirectoryWatcher watcher = build(executor, ioExecutor) ) {
+
+			watcherReference.set(watcher);
+
+			try {
+				watcher.readBinaryFile(file_a, content -> fail("Operation not rejected."), e -> fail("Operation rejected twice."));
+				fail("RejectedExecutionException not thrown.");
+			} catch ( RejectedExecutionException e ) {
+				//	Expected.
+			}
+
+			if ( !latch.await(1, TimeUnit.MINUTES) ) {
+				fail("Queued operation neither executed nor rejected in 1 minute.");
+			}
+
+			assertTrue(error.get() instanceof RejectedExecutionException);
+
+		}
+
+	}
+
 	/**
 	 * Test of unwatch method, of class DirectoryWatcher.
 	 *
@@ -869,6 +1829,42 @@ public class DirectoryWatcherTest {
 
 	}
 
+	/**
+	 * Test of unwatchTree method, of class DirectoryWatcher.
+	 *
+	 * @throws java.io.IOException
+	 */
+	@Test
+	public void testUnwatchTree() throws IOException {
+
+		System.out.println(MessageFormat.format("  Testing ''unwatchTree'' [on {0}]...", root));
+
+		try ( DirectoryWatcher watcher = build(executor) ) {
+
+			watcher.watch(root);
+			watcher.watch(dir_a);
+			watcher.watch(dir_a_c);
+			watcher.watch(dir_b);
+
+			watcher.unwatchTree(dir_a);
+			assertFalse(watcher.isWatched(dir_a));
+			assertFalse(watcher.isWatched(dir_a_c));
+			assertTrue(watcher.isWatched(root));
+			assertTrue(watcher.isWatched(dir_b));
+
+			watcher.watch(dir_a_c);
+			assertTrue(watcher.isWatched(dir_a_c));
+			assertFalse(watcher.isWatched(dir_a));
+
+			watcher.unwatchTree(root);
+			assertFalse(watcher.isWatched(root));
+			assertFalse(watcher.isWatched(dir_a_c));
+			assertFalse(watcher.isWatched(dir_b));
+
+		}
+
+	}
+
 	/**
 	 * Test of watch method, of class DirectoryWatcher.
 	 *
@@ -959,6 +1955,153 @@ public class DirectoryWatcherTest {
 
 	}
 
+	/**
+	 * Test of watch method, of class DirectoryWatcher, using a polling
+	 * {@link WatchStrategy}.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 */
+	@Test
+	public void testWatchPolling() throws IOException, InterruptedException {
+
+		System.out.println(MessageFormat.format("  Testing ''watch'' with polling strategy [on {0}]...", root));
+
+		CountDownLatch createLatch = new CountDownLatch(1);
+		CountDownLatch deleteLatch = new CountDownLatch(1);
+		CountDownLatch modifyLatch = new CountDownLatch(1);
+		WatchStrategy strategy = WatchStrategy.polling(Duration.ofMillis(50), Duration.ofMillis(500));
+
+		try ( DirectoryWatcher watcher = build(executor, strategy) ) {
+
+			assertEquals(strategy, watcher.getWatchStrategy());
+
+			Disposable subscription = watcher.events().subscribe(event -> {
+				event.getEvents().stream().forEach(e -> {
+					if ( StandardWatchEventKinds.ENTRY_CREATE.equals(e.kind()) ) {
+						createLatch.countDown();
+					} else if ( StandardWatchEventKinds.ENTRY_DELETE.equals(e.kind()) ) {
+						deleteLatch.countDown();
+					} else if ( StandardWatchEventKinds.ENTRY_MODIFY.equals(e.kind()) ) {
+						modifyLatch.countDown();
+					}
+				});
+			});
+
+			watcher.watch(root);
+
+			assertTrue(watcher.isWatched(root));
+
+			Path tmpFile = Files.createTempFile(root, "DW_", ".test");
+
+			if ( !createLatch.await(1, TimeUnit.MINUTES) ) {
+				fail("File creation not signalled in 1 minute.");
+			}
+
+			Files.write(tmpFile, "Some text content".getBytes(), APPEND);
+
+			if ( !modifyLatch.await(1, TimeUnit.MINUTES) ) {
+				fail("File modification not signalled in 1 minute.");
+			}
+
+			Files.delete(tmpFile);
+
+			if ( !deleteLatch.await(1, TimeUnit.MINUTES) ) {
+				fail("File deletion not signalled in 1 minute.");
+			}
+
+			subscription.dispose();
+
+		}
+
+	}
+
+	/**
+	 * Test of watchTree method, of class DirectoryWatcher.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 */
+	@Test
+	public void testWatchTree() throws IOException, InterruptedException {
+
+		System.out.println(MessageFormat.format("  Testing ''watchTree'' [on {0}]...", root));
+
+		try ( DirectoryWatcher watcher = build(executor) ) {
+
+			try {
+				watcher.watchTree(root, -1, null);
+				fail("Negative depth accepted.");
+			} catch ( IllegalArgumentException e ) {
+				//	Expected.
+			}
+
+			DirectoryWatcher.WatchTreeStatistics statistics = watcher.watchTree(root, Integer.MAX_VALUE, null);
+
+			System.out.println("    " + statistics);
+			assertEquals(4, statistics.getDirectories());
+			assertTrue(statistics.getThroughput() > 0);
+			assertTrue(watcher.isWatched(root));
+			assertTrue(watcher.isWatched(dir_a));
+			assertTrue(watcher.isWatched(dir_a_c));
+			assertTrue(watcher.isWatched(dir_b));
+
+			//	unwatch keeps per-directory semantics.
+			watcher.unwatch(dir_a);
+			assertFalse(watcher.isWatched(dir_a));
+			assertTrue(watcher.isWatched(dir_a_c));
+
+			watcher.unwatchTree(root);
+			assertFalse(watcher.isWatched(root));
+			assertFalse(watcher.isWatched(dir_a_c));
+			assertFalse(watcher.isWatched(dir_b));
+
+			//	Depth and exclusions.
+			statistics = watcher.watchTree(root, 1, FileSystems.getDefault().getPathMatcher("glob:" + dir_b.getFileName()));
+
+			assertEquals(2, statistics.getDirectories());
+			assertTrue(watcher.isWatched(root));
+			assertTrue(watcher.isWatched(dir_a));
+			assertFalse(watcher.isWatched(dir_a_c));
+			assertFalse(watcher.isWatched(dir_b));
+
+			watcher.unwatchTree(root);
+
+			//	New subdirectories are watched automatically.
+			Path dir_n = root.resolve("DW_n");
+			Path dir_n_i = dir_n.resolve("DW_n_i");
+			Path file_n_i = dir_n_i.resolve("DW_n_i.test");
+			CountDownLatch latch = new CountDownLatch(1);
+
+			watcher.watchTree(root, Integer.MAX_VALUE, null);
+
+			Disposable subscription = watcher.events().subscribe(event -> {
+				if ( dir_n_i.equals(event.getWatchedPath()) ) {
+					event.getEvents().stream().forEach(e -> {
+						if ( StandardWatchEventKinds.ENTRY_CREATE.equals(e.kind())
+						  && file_n_i.getFileName().equals(e.context()) ) {
+							latch.countDown();
+						}
+					});
+				}
+			});
+
+			Files.createDirectories(dir_n_i);
+			Files.createFile(file_n_i);
+
+			if ( !latch.await(1, TimeUnit.MINUTES) ) {
+				fail("File creation in new subdirectory not signalled in 1 minute.");
+			}
+
+			assertTrue(watcher.isWatched(dir_n));
+			assertTrue(watcher.isWatched(dir_n_i));
+
+			subscription.dispose();
+
+		}
+
+	}
+
 	/**
 	 * Test of watchUp and unwatchUp methods, of class DirectoryWatcher.
 	 *
@@ -1045,6 +2188,98 @@ public class DirectoryWatcherTest {
 
 	}
 
+	/**
+	 * Test of setWriteMode method, of class DirectoryWatcher.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 */
+	@Test
+	public void testWriteMode() throws IOException, InterruptedException {
+
+		System.out.println(MessageFormat.format("  Testing ''setWriteMode'' [on {0}]...", root));
+
+		byte[] content = { 0x00, 0x01, 0x02, 0x03, 0x04, 0x03, 0x02, 0x01, 0x00 };
+		String text = "First line of text.\nSecond line of text.";
+		Charset charset = defaultCharset();
+		CountDownLatch latch = new CountDownLatch(2);
+		List<WatchEvent<?>> events = Collections.synchronizedList(new ArrayList<>());
+
+		try ( DirectoryWatcher watcher = build(executor) ) {
+
+			assertEquals(DirectoryWatcher.WriteMode.IN_PLACE, watcher.getWriteMode());
+
+			Disposable subscription = watcher.events().subscribe(event -> events.addAll(event.getEvents()));
+
+			watcher.watch(dir_b);
+			watcher.setWriteMode(DirectoryWatcher.WriteMode.ATOMIC);
+
+			assertEquals(DirectoryWatcher.WriteMode.ATOMIC, watcher.getWriteMode());
+
+			watcher.writeBinaryFile(
+				file_b1,
+				content,
+				t -> {
+					assertNotNull(t);
+					latch.countDown();
+				},
+				e -> {
+					fail(MessageFormat.format("File not written: {0}", file_b1));
+					latch.countDown();
+				}
+			);
+
+			Path toBeCreated = FileSystems.getDefault().getPath(dir_b.toString(), "created_file.txt");
+
+			watcher.setWriteMode(DirectoryWatcher.WriteMode.DURABLE);
+			watcher.writeTextFile(
+				toBeCreated,
+				text,
+				charset,
+				t -> {
+					assertNotNull(t);
+					latch.countDown();
+				},
+				e -> {
+					fail(MessageFormat.format("File not written: {0}", toBeCreated));
+					latch.countDown();
+				}
+			);
+
+			if ( !latch.await(1, TimeUnit.MINUTES) ) {
+				fail("File writing not completed in 1 minute.");
+			}
+
+			//	A regular file merely ending with the temporary suffix is
+			//	still reported.
+			Path regular = dir_b.resolve("regular" + DirectoryWatcher.TEMPORARY_FILE_SUFFIX);
+
+			Files.write(regular, content);
+
+			//	Give time to the events to be signalled.
+			Thread.sleep(1500);
+
+			assertArrayEquals(content, Files.readAllBytes(file_b1));
+			assertEquals(text, new String(Files.readAllBytes(toBeCreated), charset));
+
+			try ( Stream<Path> stream = Files.list(dir_b) ) {
+				assertTrue(stream.noneMatch(p -> p.getFileName().toString().startsWith(".") && p.toString().endsWith(DirectoryWatcher.TEMPORARY_FILE_SUFFIX)));
+			}
+
+			assertFalse(events.isEmpty());
+			assertTrue(events.stream().noneMatch(e -> e.context().toString().startsWith(".") && e.context().toString().endsWith(DirectoryWatcher.TEMPORARY_FILE_SUFFIX)));
+			assertTrue(events.stream().anyMatch(e -> regular.getFileName().equals(e.context())));
+
+			subscription.dispose();
+
+			watcher.setWriteMode(null);
+
+			assertEquals(DirectoryWatcher.WriteMode.IN_PLACE, watcher.getWriteMode());
+
+		}
+
+	}
+
 	/**
 	 * Test of writeTextFile method, of class DirectoryWatcher.
 	 *
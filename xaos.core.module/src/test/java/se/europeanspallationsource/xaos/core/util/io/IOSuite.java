@@ -25,8 +25,12 @@ import org.junit.runners.Suite;
  */
 @RunWith( Suite.class )
 @Suite.SuiteClasses( {
+	AsynchronousIOTest.class,
+	ChannelAsynchronousIOTest.class,
+	ConcurrentAsynchronousIOTest.class,
 	DeleteFileVisitorTest.class,
-	DirectoryWatcherTest.class
+	DirectoryWatcherTest.class,
+	PollingWatchServiceTest.class
 } )
 @SuppressWarnings( { "ClassMayBeInterface", "ClassWithoutLogger" } )
 public class IOSuite {
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.core.util.io;
+
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( { "ClassWithoutLogger", "UseOfSystemOutOrSystemErr" } )
+public class PollingWatchServiceTest {
+
+	private static final Duration MAX_INTERVAL = Duration.ofMillis(400);
+	private static final Duration MIN_INTERVAL = Duration.ofMillis(50);
+
+	@BeforeClass
+	public static void setUpClass() {
+		System.out.println("---- PollingWatchServiceTest -----------------------------------");
+	}
+
+	private Path root;
+	private PollingWatchService service;
+
+	@Before
+	public void setUp() throws IOException {
+		root = Files.createTempDirectory("PWS_");
+		service = new PollingWatchService(MIN_INTERVAL, MAX_INTERVAL, 2);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		service.close();
+		Files.walkFileTree(root, new DeleteFileVisitor());
+	}
+
+	/**
+	 * Test of close method, of class PollingWatchService.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 */
+	@Test
+	public void testClose() throws IOException, InterruptedException {
+
+		System.out.println(MessageFormat.format("  Testing ''close'' [on {0}]...", root));
+
+		WatchKey key = service.register(root, ENTRY_CREATE);
+
+		service.close();
+
+		assertFalse(key.isValid());
+
+		try {
+			service.take();
+			fail("ClosedWatchServiceException not thrown.");
+		} catch ( ClosedWatchServiceException ex ) {
+			//	Expected.
+		}
+
+		try {
+			service.register(root, ENTRY_CREATE);
+			fail("ClosedWatchServiceException not thrown.");
+		} catch ( ClosedWatchServiceException ex ) {
+			//	Expected.
+		}
+
+	}
+
+	/**
+	 * Test of the adaptive scan intervals, of class PollingWatchService.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 */
+	@Test
+	public void testInterval() throws IOException, InterruptedException {
+
+		System.out.println(MessageFormat.format("  Testing adaptive intervals [on {0}]...", root));
+
+		WatchKey key = service.register(root, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+
+		assertEquals(MIN_INTERVAL.toNanos(), service.getInterval(root));
+
+		long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+
+		while ( service.getInterval(root) < MAX_INTERVAL.toNanos() && System.nanoTime() < deadline ) {
+			Thread.sleep(50);
+		}
+
+		assertEquals("Idle directory interval not backed off.", MAX_INTERVAL.toNanos(), service.getInterval(root));
+
+		Files.createTempFile(root, "PWS_", ".test");
+
+		assertSame(key, service.poll(1, TimeUnit.MINUTES));
+		assertEquals(MIN_INTERVAL.toNanos(), service.getInterval(root));
+		assertEquals(-1L, service.getInterval(root.resolve("missing")));
+
+	}
+
+	/**
+	 * Test of poll and take methods, of class PollingWatchService.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 */
+	@Test
+	public void testPollAndTake() throws IOException, InterruptedException {
+
+		System.out.println(MessageFormat.format("  Testing ''poll'' and ''take'' [on {0}]...", root));
+
+		WatchKey key = service.register(root, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+
+		assertSame(root, key.watchable());
+		assertSame(key, service.register(root, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY));
+		assertNull(service.poll());
+
+		Path file = Files.createTempFile(root, "PWS_", ".test");
+
+		assertEvents(service.take(), ENTRY_CREATE, file);
+
+		//	Same size and modification time granularity can hide a change:
+		//	the size is changed too.
+		Files.write(file, "Some text content".getBytes(), APPEND);
+
+		assertEvents(service.take(), ENTRY_MODIFY, file);
+
+		Files.delete(file);
+
+		assertEvents(service.take(), ENTRY_DELETE, file);
+
+	}
+
+	/**
+	 * Test of the deletion of a watched directory, of class
+	 * PollingWatchService.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 */
+	@Test
+	public void testWatchedDirectoryDeletion() throws IOException, InterruptedException {
+
+		System.out.println(MessageFormat.format("  Testing watched directory deletion [on {0}]...", root));
+
+		Path dir = Files.createTempDirectory(root, "PWS_");
+		WatchKey key = service.register(dir, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+
+		Files.delete(dir);
+
+		WatchKey signalled = service.poll(1, TimeUnit.MINUTES);
+
+		assertSame(key, signalled);
+		assertTrue(signalled.pollEvents().isEmpty());
+		assertFalse(signalled.reset());
+		assertFalse(signalled.isValid());
+		assertEquals(-1L, service.getInterval(dir));
+
+	}
+
+	private void assertEvents( WatchKey key, WatchEvent.Kind<Path> kind, Path file ) {
+
+		assertNotNull(key);
+
+		List<WatchEvent<?>> events = new ArrayList<>(key.pollEvents());
+
+		assertTrue(key.reset());
+		assertEquals(1, events.size());
+		assertEquals(kind, events.get(0).kind());
+		assertEquals(file.getFileName(), events.get(0).context());
+
+	}
+
+}
@@ -16,11 +16,13 @@
 package se.europeanspallationsource.xaos.ui.control.tree;
 
 
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
 import io.reactivex.disposables.Disposable;
 import java.nio.file.Path;
 import javafx.scene.control.TreeItem;
 import javafx.scene.control.TreeView;
+import se.europeanspallationsource.xaos.core.util.Backpressure;
 
 
 /**
@@ -46,11 +48,31 @@ public interface DirectoryModel<I, T> extends Disposable {
 	 */
 	Observable<Update<I>> creations();
 
+	/**
+	 * @param backpressure The {@link Backpressure} strategy bounding the
+	 *                     memory used for slow subscribers. When conflating,
+	 *                     updates are keyed by path.
+	 * @return A flowable stream of additions to the model.
+	 */
+	default Flowable<Update<I>> creations( Backpressure backpressure ) {
+		return backpressure.apply(creations(), Update::getPath);
+	}
+
 	/**
 	 * @return An observable stream of removals from the model.
 	 */
 	Observable<Update<I>> deletions();
 
+	/**
+	 * @param backpressure The {@link Backpressure} strategy bounding the
+	 *                     memory used for slow subscribers. When conflating,
+	 *                     updates are keyed by path.
+	 * @return A flowable stream of removals from the model.
+	 */
+	default Flowable<Update<I>> deletions( Backpressure backpressure ) {
+		return backpressure.apply(deletions(), Update::getPath);
+	}
+
 	/**
 	 * @return An observable stream of errors.
 	 */
@@ -76,6 +98,16 @@ public interface DirectoryModel<I, T> extends Disposable {
 	 */
 	Observable<Update<I>> modifications();
 
+	/**
+	 * @param backpressure The {@link Backpressure} strategy bounding the
+	 *                     memory used for slow subscribers. When conflating,
+	 *                     updates are keyed by path.
+	 * @return A flowable stream of file modifications in the model.
+	 */
+	default Flowable<Update<I>> modifications( Backpressure backpressure ) {
+		return backpressure.apply(modifications(), Update::getPath);
+	}
+
 	/**
 	 * API defining few reporting methods.
 	 *
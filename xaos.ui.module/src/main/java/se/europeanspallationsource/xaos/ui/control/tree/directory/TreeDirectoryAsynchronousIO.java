@@ -16,13 +16,30 @@
 package se.europeanspallationsource.xaos.ui.control.tree.directory;
 
 
+import io.reactivex.Flowable;
+import io.reactivex.schedulers.Schedulers;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.file.CopyOption;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileAttribute;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
 import javafx.scene.control.TreeItem;
+import org.reactivestreams.Publisher;
+import se.europeanspallationsource.xaos.core.util.io.BatchBuilder;
+import se.europeanspallationsource.xaos.core.util.io.BatchOperation;
+import se.europeanspallationsource.xaos.core.util.io.BatchResult;
 import se.europeanspallationsource.xaos.core.util.io.DirectoryWatcher;
 import se.europeanspallationsource.xaos.core.util.io.InitiatorAsynchronousIO;
 import se.europeanspallationsource.xaos.ui.control.tree.DirectoryModel;
@@ -44,16 +61,115 @@ public class TreeDirectoryAsynchronousIO<I, T> implements InitiatorAsynchronousI
 
 	private final Executor clientThreadExecutor;
 	private final DirectoryWatcher directoryWatcher;
+	private final BooleanSupplier isInClientThread;
 	private final TreeDirectoryModel<I, T> model;
 
 	public TreeDirectoryAsynchronousIO(
 		DirectoryWatcher directoryWatcher,
 		TreeDirectoryModel<I, T> model,
 		Executor clientThreadExecutor
+	) {
+		this(directoryWatcher, model, clientThreadExecutor, null);
+	}
+
+	/**
+	 * @param directoryWatcher     The {@link DirectoryWatcher} performing the
+	 *                             I/O operations.
+	 * @param model                The model to be updated.
+	 * @param clientThreadExecutor The {@link Executor} of the thread where the
+	 *                             returned {@link CompletionStage}s actions
+	 *                             are executed.
+	 * @param isInClientThread     Returns {@code true} when the current thread
+	 *                             is the {@code clientThreadExecutor}'s one,
+	 *                             allowing the returned stages to execute
+	 *                             actions without resubmitting them to
+	 *                             {@code clientThreadExecutor}. Can be
+	 *                             {@code null}.
+	 * @see se.europeanspallationsource.xaos.core.util.DefaultExecutorCompletionStage#wrap(CompletionStage, Executor, BooleanSupplier)
+	 */
+	public TreeDirectoryAsynchronousIO(
+		DirectoryWatcher directoryWatcher,
+		TreeDirectoryModel<I, T> model,
+		Executor clientThreadExecutor,
+		BooleanSupplier isInClientThread
 	) {
 		this.directoryWatcher = directoryWatcher;
 		this.model = model;
 		this.clientThreadExecutor = clientThreadExecutor;
+		this.isInClientThread = isInClientThread;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The model is updated once, when all operations are executed, for the
+	 * successful ones only. Consecutive creations of files and directories
+	 * are grouped by parent directory, and each group is added to the model
+	 * at once.</p>
+	 */
+	@Override
+	public BatchBuilder batch( I initiator ) {
+		return new BatchBuilder(operations -> {
+
+			CompletableFuture<BatchResult> executed = new CompletableFuture<>();
+
+			directoryWatcher.executeBatch(
+				operations,
+				result -> {
+					update(result, initiator);
+					executed.complete(result);
+				},
+				executed::completeExceptionally
+			);
+
+			return wrap(executed, clientThreadExecutor, isInClientThread);
+
+		});
+	}
+
+	@Override
+	public CompletionStage<Void> copyFile( Path source, Path target, I initiator, CopyOption... options ) {
+
+		CompletableFuture<Void> copied = new CompletableFuture<>();
+
+		directoryWatcher.copyFile(
+			source,
+			target,
+			lastModified -> {
+				model.addFile(target, lastModified, initiator);
+				copied.complete(null);
+			},
+			copied::completeExceptionally,
+			options
+		);
+
+		return wrap(copied, clientThreadExecutor, isInClientThread);
+
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The model is updated once, when the whole tree is copied.</p>
+	 */
+	@Override
+	public CompletionStage<Void> copyTree( Path source, Path target, I initiator, CopyOption... options ) {
+
+		CompletableFuture<Void> copied = new CompletableFuture<>();
+
+		directoryWatcher.copyTree(
+			source,
+			target,
+			count -> {
+				syncTree(target, initiator);
+				copied.complete(null);
+			},
+			copied::completeExceptionally,
+			options
+		);
+
+		return wrap(copied, clientThreadExecutor, isInClientThread);
+
 	}
 
 	@Override
@@ -74,7 +190,7 @@ public class TreeDirectoryAsynchronousIO<I, T> implements InitiatorAsynchronousI
 			attrs
 		);
 
-		return wrap(created, clientThreadExecutor);
+		return wrap(created, clientThreadExecutor, isInClientThread);
 
 	}
 
@@ -96,7 +212,7 @@ public class TreeDirectoryAsynchronousIO<I, T> implements InitiatorAsynchronousI
 			attrs
 		);
 
-		return wrap(created, clientThreadExecutor);
+		return wrap(created, clientThreadExecutor, isInClientThread);
 
 	}
 
@@ -115,7 +231,7 @@ public class TreeDirectoryAsynchronousIO<I, T> implements InitiatorAsynchronousI
 			attrs
 		);
 
-		return wrap(created, clientThreadExecutor);
+		return wrap(created, clientThreadExecutor, isInClientThread);
 
 	}
 
@@ -138,7 +254,7 @@ public class TreeDirectoryAsynchronousIO<I, T> implements InitiatorAsynchronousI
 			deleted::completeExceptionally
 		);
 
-		return wrap(deleted, clientThreadExecutor);
+		return wrap(deleted, clientThreadExecutor, isInClientThread);
 
 	}
 
@@ -155,7 +271,48 @@ public class TreeDirectoryAsynchronousIO<I, T> implements InitiatorAsynchronousI
 			deleted::completeExceptionally
 		);
 
-		return wrap(deleted, clientThreadExecutor);
+		return wrap(deleted, clientThreadExecutor, isInClientThread);
+
+	}
+
+	@Override
+	public CompletionStage<MappedByteBuffer> mapFile( Path file, I initiator ) {
+
+		CompletableFuture<MappedByteBuffer> mapped = new CompletableFuture<>();
+
+		directoryWatcher.mapFile(
+			file,
+			mapped::complete,
+			mapped::completeExceptionally
+		);
+
+		return wrap(mapped, clientThreadExecutor, isInClientThread);
+
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The model is updated once, when the whole tree is moved.</p>
+	 */
+	@Override
+	public CompletionStage<Void> moveTree( Path source, Path target, I initiator, CopyOption... options ) {
+
+		CompletableFuture<Void> moved = new CompletableFuture<>();
+
+		directoryWatcher.moveTree(
+			source,
+			target,
+			dummy -> {
+				model.delete(source, initiator);
+				syncTree(target, initiator);
+				moved.complete(null);
+			},
+			moved::completeExceptionally,
+			options
+		);
+
+		return wrap(moved, clientThreadExecutor, isInClientThread);
 
 	}
 
@@ -170,10 +327,46 @@ public class TreeDirectoryAsynchronousIO<I, T> implements InitiatorAsynchronousI
 			read::completeExceptionally
 		);
 
-		return wrap(read, clientThreadExecutor);
+		return wrap(read, clientThreadExecutor, isInClientThread);
+
+	}
+
+	@Override
+	public CompletionStage<ByteBuffer> readBinaryFileRange( Path file, long offset, int length, I initiator ) {
+
+		CompletableFuture<ByteBuffer> read = new CompletableFuture<>();
+
+		try {
+			directoryWatcher.readBinaryFileRange(
+				file,
+				offset,
+				length,
+				read::complete,
+				read::completeExceptionally
+			);
+		} catch ( IllegalArgumentException e ) {
+			read.completeExceptionally(e);
+		}
+
+		return wrap(read, clientThreadExecutor, isInClientThread);
 
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Chunks are emitted on the client thread.</p>
+	 */
+	@Override
+	public Flowable<ByteBuffer> readBinaryFileStream( Path file, int chunkSize, I initiator ) {
+		try {
+			return directoryWatcher.readBinaryFileStream(file, chunkSize)
+				.observeOn(Schedulers.from(clientThreadExecutor));
+		} catch ( IllegalArgumentException e ) {
+			return Flowable.error(e);
+		}
+	}
+
 	@Override
 	public CompletionStage<String> readTextFile( Path file, Charset charset, I initiator ) {
 
@@ -186,7 +379,7 @@ public class TreeDirectoryAsynchronousIO<I, T> implements InitiatorAsynchronousI
 			read::completeExceptionally
 		);
 
-		return wrap(read, clientThreadExecutor);
+		return wrap(read, clientThreadExecutor, isInClientThread);
 
 	}
 
@@ -205,7 +398,26 @@ public class TreeDirectoryAsynchronousIO<I, T> implements InitiatorAsynchronousI
 			written::completeExceptionally
 		);
 
-		return wrap(written, clientThreadExecutor);
+		return wrap(written, clientThreadExecutor, isInClientThread);
+
+	}
+
+	@Override
+	public CompletionStage<Void> writeBinaryFileStream( Path file, Publisher<ByteBuffer> content, I initiator ) {
+
+		CompletableFuture<Void> written = new CompletableFuture<>();
+
+		directoryWatcher.writeBinaryFileStream(
+			file,
+			content,
+			lastModified -> {
+				model.updateModificationTime(file, lastModified, initiator);
+				written.complete(null);
+			},
+			written::completeExceptionally
+		);
+
+		return wrap(written, clientThreadExecutor, isInClientThread);
 
 	}
 
@@ -225,8 +437,120 @@ public class TreeDirectoryAsynchronousIO<I, T> implements InitiatorAsynchronousI
 			written::completeExceptionally
 		);
 
-		return wrap(written, clientThreadExecutor);
+		return wrap(written, clientThreadExecutor, isInClientThread);
+
+	}
+
+	/**
+	 * Adds to the model the given creations, grouped by parent directory,
+	 * starts watching the created directories, and clears both.
+	 */
+	private void addChildren( Map<Path, List<Path>> creations, Set<Path> createdDirectories, I initiator ) {
+
+		creations.forEach(( parent, children ) -> model.addChildren(parent, children, initiator));
+		createdDirectories.forEach(directoryWatcher::watchOrStreamError);
+		creations.clear();
+		createdDirectories.clear();
+
+	}
+
+	/**
+	 * Updates the model with the successful outcomes of a batch, in order.
+	 * Creations whose parent directory is in the model, or is created by a
+	 * preceding operation of the same group, are collected and added at
+	 * once before the next operation of a different kind.
+	 */
+	private void update( BatchResult result, I initiator ) {
+
+		Map<Path, List<Path>> creations = new LinkedHashMap<>();
+		Set<Path> createdDirectories = new HashSet<>();
+
+		result.getOutcomes().stream()
+			.filter(BatchResult.Outcome::isSuccessful)
+			.forEach(outcome -> {
+
+				BatchOperation operation = outcome.getOperation();
+				Path path = operation.getPath();
+				Path parent = path.getParent();
+				BatchOperation.Kind kind = operation.getKind();
+
+				if ( ( kind == BatchOperation.Kind.CREATE_DIRECTORY || kind == BatchOperation.Kind.CREATE_FILE )
+				  && parent != null
+				  && ( createdDirectories.contains(parent) || model.contains(parent) ) ) {
+
+					creations.computeIfAbsent(parent, p -> new ArrayList<>()).add(path.getFileName());
+
+					if ( kind == BatchOperation.Kind.CREATE_DIRECTORY ) {
+						createdDirectories.add(path);
+					}
+
+				} else {
+
+					addChildren(creations, createdDirectories, initiator);
+					update(outcome, initiator);
+
+				}
+
+			});
+
+		addChildren(creations, createdDirectories, initiator);
+
+	}
+
+	/**
+	 * Updates the model according to the given successful batch outcome.
+	 */
+	private void update( BatchResult.Outcome outcome, I initiator ) {
+
+		BatchOperation operation = outcome.getOperation();
+		Path path = operation.getPath();
+
+		switch ( operation.getKind() ) {
+			case CREATE_DIRECTORIES:
+				if ( model.containsPrefixOf(path) ) {
+					model.addDirectory(path, initiator);
+					directoryWatcher.watchUpOrStreamError(path);
+				}
+				break;
+			case CREATE_DIRECTORY:
+				if ( model.containsPrefixOf(path) ) {
+					model.addDirectory(path, initiator);
+					directoryWatcher.watchOrStreamError(path);
+				}
+				break;
+			case CREATE_FILE:
+				model.addFile(path, outcome.getLastModified(), initiator);
+				break;
+			case DELETE:
+				model.delete(path, initiator);
+				break;
+			case WRITE_FILE:
+				model.updateModificationTime(path, outcome.getLastModified(), initiator);
+				break;
+		}
+
+	}
+
+	/**
+	 * Adds the given file or directory to the model in a single pass: the
+	 * content of the added directories is loaded when they are expanded.
+	 */
+	private void syncTree( Path root, I initiator ) {
+		if ( model.containsPrefixOf(root) ) {
+
+			Path parent = root.getParent();
+
+			if ( parent != null && !model.contains(parent) ) {
+				model.addDirectory(parent, initiator);
+			}
+
+			model.sync(root, initiator);
+
+			if ( Files.isDirectory(root) ) {
+				directoryWatcher.watchOrStreamError(root);
+			}
 
+		}
 	}
 
 }
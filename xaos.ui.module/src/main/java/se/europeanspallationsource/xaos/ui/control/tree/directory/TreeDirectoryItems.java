@@ -17,23 +17,35 @@ package se.europeanspallationsource.xaos.ui.control.tree.directory;
 
 
 import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.text.MessageFormat;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.WeakChangeListener;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.event.EventHandler;
 import javafx.scene.Node;
@@ -253,12 +265,18 @@ public class TreeDirectoryItems {
 
 	/**
 	 * A {@link TreeItem} representing a directory.
+	 * <p>
+	 * Children are indexed by file name, so that {@link #getRelativeChild(Path)}
+	 * is performed in constant time. The index is kept consistent with
+	 * {@link #getChildren()} whatever the way children are added or
+	 * removed.</p>
 	 *
 	 * @param <T> Type of the object returned by {@link TreeItem#getValue()}.
 	 */
 	@SuppressWarnings( { "PackageVisibleInnerClass", "PublicInnerClass" } )
 	public static class DirectoryItem<T> extends PathItem<T> {
 
+		private final Map<Path, PathItem<T>> childrenIndex = new HashMap<>();
 		private final ChangeListener<? super Boolean> expandedPropertyListener;
 		private final Function<Path, T> injector;
 		private final Consumer<? super DirectoryItem<T>> onCollapse;
@@ -329,6 +347,7 @@ public class TreeDirectoryItems {
 			};
 
 			expandedProperty().addListener(new WeakChangeListener<>(expandedPropertyListener));
+			getChildren().addListener(this::updateChildrenIndex);
 
 		}
 
@@ -343,7 +362,6 @@ public class TreeDirectoryItems {
 
 			assert dir.getNameCount() == 1;
 
-			int i = getDirectoryInsertionIndex(dir.toString());
 			DirectoryItem<T> child = createDirectoryItem(
 				inject(getPath().resolve(dir)),
 				graphicFactory,
@@ -353,7 +371,7 @@ public class TreeDirectoryItems {
 				getOnExpand()
 			);
 
-			getChildren().add(i, child);
+			getChildren().add(getInsertionIndex(child), child);
 
 			return child;
 
@@ -371,15 +389,92 @@ public class TreeDirectoryItems {
 
 			assert file.getNameCount() == 1;
 
-			int i = getFileInsertionIndex(file.toString());
 			FileItem<T> child = createFileItem(inject(getPath().resolve(file)), lastModified, graphicFactory, getProjector());
 
-			getChildren().add(i, child);
+			getChildren().add(getInsertionIndex(child), child);
 
 			return child;
 
 		}
 
+		/**
+		 * Adds new children representing the given directories and files to
+		 * this item. The new children are sorted, and each run of them
+		 * sharing the same position among the existing children is inserted
+		 * at once, firing a single {@link TreeItem.TreeModificationEvent}:
+		 * existing children are left untouched, so the cost depends on the
+		 * number of added children only. Entries already present are
+		 * skipped.
+		 *
+		 * @param children       The file names of the children to be added,
+		 *                       mapped to their attributes.
+		 * @param graphicFactory The factory returning a suitable icon.
+		 * @return The list of added children, sorted as in this item.
+		 */
+		public List<PathItem<T>> addChildren( Map<Path, BasicFileAttributes> children, TreeDirectoryModel.GraphicFactory graphicFactory ) {
+
+			Path path = getPath();
+			List<PathItem<T>> added = new ArrayList<>(children.size());
+
+			children.forEach(( name, attributes ) -> {
+
+				assert name.getNameCount() == 1;
+
+				if ( !childrenIndex.containsKey(name.getFileName()) ) {
+					if ( attributes.isDirectory() ) {
+						added.add(createDirectoryItem(
+							inject(path.resolve(name)),
+							graphicFactory,
+							getProjector(),
+							getInjector(),
+							getOnCollapse(),
+							getOnExpand()
+						));
+					} else {
+						added.add(createFileItem(inject(path.resolve(name)), attributes.lastModifiedTime(), graphicFactory, getProjector()));
+					}
+				}
+
+			});
+
+			if ( added.isEmpty() ) {
+				return added;
+			}
+
+			added.sort(PathItem::compareTo);
+
+			ObservableList<TreeItem<T>> current = getChildren();
+			int from = 0;
+
+			while ( from < added.size() ) {
+
+				int index = getInsertionIndex(added.get(from));
+				int to = from + 1;
+
+				//	The run ends at the first new child sorting after the
+				//	existing one at the insertion point.
+				if ( index < current.size() ) {
+
+					PathItem<T> next = (PathItem<T>) current.get(index);
+
+					while ( to < added.size() && added.get(to).compareTo(next) < 0 ) {
+						to++;
+					}
+
+				} else {
+					to = added.size();
+				}
+
+				current.addAll(index, added.subList(from, to));
+
+				from = to;
+
+			}
+
+			return added;
+
+		}
+
 		/**
 		 * @return A {@link Function} converting a {@link Path} into the object
 		 *         used as value in the corresponding{@link TreeItem}.
@@ -404,6 +499,22 @@ public class TreeDirectoryItems {
 			return onExpand;
 		}
 
+		/**
+		 * @param relativePath The relative {@link Path} for which the
+		 *                     corresponding {@link PathItem} object must be
+		 *                     returned.
+		 * @return A {@link PathItem} object for the given relative {@link Path},
+		 *         looked up in the children index.
+		 */
+		@Override
+		public PathItem<T> getRelativeChild( Path relativePath ) {
+
+			assert relativePath.getNameCount() == 1;
+
+			return childrenIndex.get(relativePath.getFileName());
+
+		}
+
 		/**
 		 * Applies {@link #getInjector()} to the given {@link Path}.
 		 *
@@ -420,56 +531,48 @@ public class TreeDirectoryItems {
 			return true;
 		}
 
-		private int getDirectoryInsertionIndex( String dirName ) {
+		/**
+		 * @return The index where the given child must be inserted to keep
+		 *         the children sorted, found by binary search.
+		 */
+		private int getInsertionIndex( PathItem<T> child ) {
 
 			ObservableList<TreeItem<T>> children = getChildren();
-			int n = children.size();
-
-			for ( int i = 0; i < n; ++i ) {
+			int low = 0;
+			int high = children.size();
 
-				PathItem<T> child = (PathItem<T>) children.get(i);
+			while ( low < high ) {
 
-				if ( child.isDirectory() ) {
-
-					String childName = child.getPath().getFileName().toString();
-
-					if ( childName.compareToIgnoreCase(dirName) > 0 ) {
-						return i;
-					}
+				int mid = ( low + high ) >>> 1;
 
+				if ( child.compareTo((PathItem<T>) children.get(mid)) < 0 ) {
+					high = mid;
 				} else {
-					return i;
+					low = mid + 1;
 				}
 
 			}
 
-			return n;
+			return low;
 
 		}
 
-		private int getFileInsertionIndex( String fileName ) {
-
-			ObservableList<TreeItem<T>> children = getChildren();
-			int n = children.size();
-
-			for ( int i = 0; i < n; ++i ) {
-
-				PathItem<T> child = (PathItem<T>) children.get(i);
+		private void updateChildrenIndex( ListChangeListener.Change<? extends TreeItem<T>> change ) {
+			while ( change.next() ) {
 
-				if ( !child.isDirectory() ) {
-
-					String childName = child.getPath().getFileName().toString();
-
-					if ( childName.compareToIgnoreCase(fileName) > 0 ) {
-						return i;
-					}
+				if ( change.wasRemoved() ) {
+					change.getRemoved().stream()
+						.filter(child -> child instanceof PathItem)
+						.forEach(child -> childrenIndex.remove(( (PathItem<T>) child ).getPath().getFileName(), child));
+				}
 
+				if ( change.wasAdded() ) {
+					change.getAddedSubList().stream()
+						.filter(child -> child instanceof PathItem)
+						.forEach(child -> childrenIndex.put(( (PathItem<T>) child ).getPath().getFileName(), (PathItem<T>) child));
 				}
 
 			}
-
-			return n;
-
 		}
 
 	}
@@ -533,8 +636,28 @@ public class TreeDirectoryItems {
 	 * @param <T> Type of the object returned by {@link TreeItem#getValue()}.
 	 */
 	@SuppressWarnings( { "PackageVisibleInnerClass", "PublicInnerClass" } )
-	public static abstract class PathItem<T> extends TreeItem<T> {
+	public static abstract class PathItem<T> extends TreeItem<T> implements Comparable<PathItem<T>> {
+
+		/**
+		 * @return The given file name with each character case-folded as in
+		 *         {@link String#compareToIgnoreCase(String)}, so that
+		 *         {@link String#compareTo(String)} of two keys orders their
+		 *         file names as {@link String#compareToIgnoreCase(String)}.
+		 */
+		private static String collationKeyOf( String fileName ) {
+
+			char[] key = fileName.toCharArray();
 
+			for ( int i = 0; i < key.length; i++ ) {
+				key[i] = Character.toLowerCase(Character.toUpperCase(key[i]));
+			}
+
+			return new String(key);
+
+		}
+
+		private String collationKey = null;
+		private T collationKeyValue = null;
 		private final Function<T, Path> projector;
 
 		protected PathItem( T path, Function<T, Path> projector ) {
@@ -567,6 +690,23 @@ public class TreeDirectoryItems {
 			return (FileItem<T>) this;
 		}
 
+		/**
+		 * Compares items in the order they are displayed: directories first,
+		 * then files, each sorted by file name ignoring case.
+		 *
+		 * @param other The item to be compared.
+		 * @return A negative integer, zero, or a positive integer as this item
+		 *         comes before, together, or after the given one.
+		 */
+		@Override
+		public int compareTo( PathItem<T> other ) {
+			if ( isDirectory() != other.isDirectory() ) {
+				return isDirectory() ? -1 : 1;
+			} else {
+				return getCollationKey().compareTo(other.getCollationKey());
+			}
+		}
+
 		/**
 		 * @return The {@link Path} obtained projecting the value of this
 		 *         {@link TreeItem}.
@@ -620,6 +760,27 @@ public class TreeDirectoryItems {
 			return !isDirectory();
 		}
 
+		/**
+		 * @return The case-folded file name of this item, cached until its
+		 *         value changes.
+		 */
+		final String getCollationKey() {
+
+			T value = getValue();
+
+			if ( collationKey == null || value != collationKeyValue ) {
+
+				Path fileName = projector.apply(value).getFileName();
+
+				collationKey = collationKeyOf(fileName == null ? "" : fileName.toString());
+				collationKeyValue = value;
+
+			}
+
+			return collationKey;
+
+		}
+
 		protected PathItem<T> resolve( Path relativePath ) {
 
 			int len = relativePath.getNameCount();
@@ -653,32 +814,36 @@ public class TreeDirectoryItems {
 	@SuppressWarnings( { "PackageVisibleInnerClass", "PublicInnerClass" } )
 	public static class TopLevelDirectoryItem<I, T> extends DirectoryItem<T> {
 
-		private static final Comparator<Path> PATH_COMPARATOR = ( p, q ) -> {
+		/**
+		 * @return The attributes of the entries of the given directory, keyed
+		 *         by file name, or {@code null} if the directory cannot be
+		 *         listed.
+		 */
+		private static Map<String, BasicFileAttributes> attributesOf( Path dir ) {
+			try ( DirectoryStream<Path> dirStream = Files.newDirectoryStream(dir) ) {
 
-			boolean pd = Files.isDirectory(p);
-			boolean qd = Files.isDirectory(q);
+				Map<String, BasicFileAttributes> attributes = new HashMap<>();
 
-			if ( pd && !qd ) {
-				return -1;
-			} else if ( !pd && qd ) {
-				return 1;
-			} else {
-				return p.getFileName().toString().compareToIgnoreCase(q.getFileName().toString());
-			}
+				for ( Path child : dirStream ) {
 
-		};
+					BasicFileAttributes childAttributes = readAttributes(child);
 
-		private static List<Path> childrenOf ( Path dir ) {
-			try ( Stream<Path> dirStream = Files.list(dir) ) {
-				return dirStream.sorted(PATH_COMPARATOR).collect(Collectors.toList());
-			} catch ( IOException ex ) {
+					if ( childAttributes != null ) {
+						attributes.put(child.getFileName().toString(), childAttributes);
+					}
+
+				}
+
+				return attributes;
+
+			} catch ( IOException | DirectoryIteratorException ex ) {
 				LOGGER.warning(MessageFormat.format(
-					"Exception getting files list for \"{0}\" [{1}: {2}].",
+					"Exception getting files attributes for \"{0}\" [{1}: {2}].",
 					dir.toString(),
 					ex.getClass().getSimpleName(),
 					ex.getMessage()
 				));
-				return Collections.emptyList();
+				return null;
 			}
 		}
 
@@ -705,8 +870,28 @@ public class TreeDirectoryItems {
 
 		}
 
+		/**
+		 * @return The attributes of the given path, following symbolic links
+		 *         unless broken, or {@code null} if they cannot be read.
+		 */
+		private static BasicFileAttributes readAttributes( Path path ) {
+			try {
+				return Files.readAttributes(path, BasicFileAttributes.class);
+			} catch ( IOException ex ) {
+				try {
+					return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+				} catch ( IOException ex1 ) {
+					return null;
+				}
+			}
+		}
+
+		private Executor clientExecutor = null;
+		private final Map<DirectoryItem<T>, ContentSync> contentSyncs = new HashMap<>();
 		private final TreeDirectoryModel.GraphicFactory graphicFactory;
 		private final DirectoryModel.Reporter<I> reporter;
+		private Executor scanExecutor = null;
+		private int syncChunkSize = Integer.MAX_VALUE;
 
 		/**
 		 * Creates a new instance of {@link TopLevelDirectoryItem} for the given
@@ -756,6 +941,53 @@ public class TreeDirectoryItems {
 
 		}
 
+		/**
+		 * Adds the given children of a directory to the model rooted at this
+		 * item. The new children are added to the directory item at once,
+		 * while the ones already present, or whose parent is not a directory
+		 * in the model, are synchronized one by one.
+		 *
+		 * @param relativePath The {@link Path} of the parent directory.
+		 * @param children     The file names of the children to be added.
+		 * @param initiator    The initiator of changes to the model.
+		 */
+		public void addChildren( Path relativePath, Collection<Path> children, I initiator ) {
+
+			PathItem<T> item = resolve(relativePath);
+			Path dirPath = getPath().resolve(relativePath);
+
+			if ( item == null || !item.isDirectory() ) {
+				children.forEach(name -> sync(dirPath.resolve(name), initiator, null));
+			} else {
+
+				DirectoryItem<T> dir = item.asDirectoryItem();
+				Map<String, BasicFileAttributes> entries = new HashMap<>(children.size() * 4 / 3 + 1);
+
+				children.forEach(name -> {
+
+					Path child = dirPath.resolve(name);
+
+					if ( dir.getRelativeChild(name) != null ) {
+						syncChild(dir, name, child, initiator, null);
+					} else {
+
+						BasicFileAttributes attributes = readAttributes(child);
+
+						//	Vanished children are not added.
+						if ( attributes != null ) {
+							entries.put(name.toString(), attributes);
+						}
+
+					}
+
+				});
+
+				addNewChildren(dir, dirPath, entries, initiator);
+
+			}
+
+		}
+
 		/**
 		 * Adds a directory to the model rooted at this item.
 		 *
@@ -805,8 +1037,127 @@ public class TreeDirectoryItems {
 
 			if ( item != null ) {
 				removeNode(item, initiator);
+			} else if ( relativePath.getNameCount() > 0 && !contentSyncs.isEmpty() ) {
+
+				//	Not added yet by a pending synchronization of its parent,
+				//	that must not add it afterwards.
+				Path parentPath = relativePath.getParent();
+				PathItem<T> parent = ( parentPath == null ) ? this : resolve(parentPath);
+				ContentSync contentSync = ( parent != null && parent.isDirectory() ) ? contentSyncs.get(parent.asDirectoryItem()) : null;
+
+				if ( contentSync != null ) {
+					contentSync.deleted(relativePath.getFileName().toString());
+				}
+
+			}
+
+		}
+
+		/**
+		 * Restores the content of this item from the given snapshot. The
+		 * directories whose content was recorded are listed in parallel, and
+		 * only the differences between the snapshot and the file system are
+		 * reported as creations, deletions and modifications. The directories
+		 * expanded when the snapshot was taken are expanded again.
+		 * <p>
+		 * The snapshot must refer to this item's directory, and this item must
+		 * not have been populated yet, otherwise an error is reported.</p>
+		 *
+		 * @param snapshot  The {@link TreeDirectorySnapshot} to be restored.
+		 * @param initiator The initiator of changes to the model.
+		 */
+		public void restore( TreeDirectorySnapshot snapshot, I initiator ) {
+
+			Path root = getPath();
+
+			if ( !root.equals(snapshot.getRoot()) ) {
+				report(new IllegalArgumentException(MessageFormat.format("Snapshot of {0} cannot be restored into {1}.", snapshot.getRoot(), root)));
+			} else if ( !getChildren().isEmpty() ) {
+				report(new IllegalStateException(MessageFormat.format("Top-level directory {0} is already populated.", root)));
+			} else {
+
+				Map<Path, Map<String, BasicFileAttributes>> listings = new ConcurrentHashMap<>();
+				List<DirectoryItem<T>> expanded = new ArrayList<>();
+
+				snapshot.getExpandedDirectories().parallelStream().forEach(entry -> {
+
+					Map<String, BasicFileAttributes> attributes = attributesOf(entry.getPath());
+
+					if ( attributes != null ) {
+						listings.put(entry.getPath(), attributes);
+					}
+
+				});
+
+				restoreContent(this, snapshot.getRootEntry(), listings, expanded, initiator);
+
+				//	Items are expanded, parents first, only when their content
+				//	is in place.
+				expanded.forEach(item -> item.setExpanded(true));
+
+			}
+
+		}
+
+		/**
+		 * Incrementally synchronizes the entries of the given directory with
+		 * the file system. The directory is listed once, reading the entries'
+		 * attributes in the same pass, and only the differences with the
+		 * current children are applied: vanished entries are removed, new
+		 * ones added, and files modification time updated. Unlike
+		 * {@link #sync(Path, Object)}, the content of subdirectories is not
+		 * synchronized.
+		 * <p>
+		 * If {@code dir} is not a directory in the model, or it is collapsed,
+		 * it is synchronized as usual.</p>
+		 *
+		 * @param dir       The directory to be synchronized.
+		 * @param initiator The initiator of changes to the model.
+		 */
+		public void resync( Path dir, I initiator ) {
+
+			PathItem<T> item = resolve(getPath().relativize(dir));
+
+			if ( item == null || !item.isDirectory() || !item.isExpanded() ) {
+				sync(dir, initiator);
+				return;
+			}
+
+			Map<String, BasicFileAttributes> actual = attributesOf(dir);
+
+			if ( actual == null ) {
+				//	Directory no more readable: its removal will be signalled
+				//	by the parent.
+				return;
 			}
 
+			DirectoryItem<T> dirItem = item.asDirectoryItem();
+			Path p = getPath();
+			List<TreeItem<T>> vanished = new ArrayList<>();
+
+			dirItem.getChildren().forEach(child -> {
+
+				PathItem<T> pathChild = (PathItem<T>) child;
+				String name = pathChild.getPath().getFileName().toString();
+				BasicFileAttributes attributes = actual.get(name);
+
+				if ( attributes == null || attributes.isDirectory() != pathChild.isDirectory() ) {
+					vanished.add(pathChild);
+				} else {
+
+					actual.remove(name);
+
+					if ( !pathChild.isDirectory() && pathChild.asFileItem().updateModificationTime(attributes.lastModifiedTime()) ) {
+						reporter.reportModification(p, p.relativize(pathChild.getPath()), initiator);
+					}
+
+				}
+
+			});
+
+			removeNodes(dirItem, vanished, initiator);
+			addNewChildren(dirItem, dir, actual, initiator);
+
 		}
 
 		/**
@@ -832,18 +1183,67 @@ public class TreeDirectoryItems {
 			updateFile(relativePath, lastModified, initiator);
 		}
 
-		private void performSyncContent( DirectoryItem<T> dir, Path root, I initiator ) {
+		/**
+		 * Enables or disables the background synchronization of the content
+		 * of the directories in the model rooted at this item. When enabled,
+		 * directories are listed, and the differences with the model
+		 * computed, by {@code scanExecutor}, while the resulting changes are
+		 * applied by {@code clientExecutor} in chunks of at most
+		 * {@code chunkSize} children. A directory synchronization still in
+		 * progress is cancelled when its item is collapsed, and performed
+		 * again on the next expansion.
+		 * <p>
+		 * This method must be called by the client thread, i.e. the one
+		 * used by {@code clientExecutor}.</p>
+		 *
+		 * @param scanExecutor   The {@link Executor} used to list directories.
+		 *                       If {@code null}, directories are synchronized
+		 *                       in the caller thread.
+		 * @param clientExecutor The {@link Executor} used to apply changes to
+		 *                       the model.
+		 * @param chunkSize      The maximum number of children changed in a
+		 *                       single task executed by {@code clientExecutor}.
+		 */
+		void setBackgroundSynchronization( Executor scanExecutor, Executor clientExecutor, int chunkSize ) {
+			this.scanExecutor = scanExecutor;
+			this.clientExecutor = clientExecutor;
+			this.syncChunkSize = ( scanExecutor == null ) ? Integer.MAX_VALUE : chunkSize;
+		}
+
+		/**
+		 * Adds the given new entries of {@code dir} at once, reports their
+		 * creation, and synchronizes the content of the new directories.
+		 */
+		private void addNewChildren( DirectoryItem<T> dir, Path dirPath, Map<String, BasicFileAttributes> entries, I initiator ) {
+			if ( !entries.isEmpty() ) {
+
+				Map<Path, BasicFileAttributes> children = new HashMap<>(entries.size() * 4 / 3 + 1);
+				Path p = getPath();
+
+				entries.forEach(( name, attributes ) -> children.put(dirPath.getFileSystem().getPath(name), attributes));
+				dir.addChildren(children, graphicFactory).forEach(child -> {
+
+					reporter.reportCreation(p, p.relativize(child.getPath()), initiator);
+
+					if ( child.isDirectory() ) {
+						syncContent(child.asDirectoryItem(), child.getPath(), initiator);
+					}
+
+				});
+
+			}
+		}
 
-			List<Path> desiredChildren = childrenOf(root);
-			ArrayList<TreeItem<T>> actualChildren = new ArrayList<>(dir.getChildren());
+		private void performSyncContent( DirectoryItem<T> dir, Path root, I initiator ) {
 
-			//	Remove undesired children
-			actualChildren.stream()
-				.filter(child -> !desiredChildren.contains(getProjector().apply(child.getValue())))
-				.forEachOrdered(child -> removeNode(child, null));
+			ContentSync contentSync = new ContentSync(dir, root, initiator);
 
-			//	Synchronize desired children
-			desiredChildren.forEach(child -> sync(child, initiator));
+			if ( scanExecutor == null ) {
+				contentSync.scan();
+				contentSync.apply();
+			} else {
+				contentSync.start();
+			}
 
 		}
 
@@ -859,10 +1259,37 @@ public class TreeDirectoryItems {
 
 		}
 
+		/**
+		 * Removes the given children of {@code dir} with a single change of its
+		 * children list.
+		 */
+		private void removeNodes( DirectoryItem<T> dir, List<TreeItem<T>> nodes, I initiator ) {
+			if ( !nodes.isEmpty() ) {
+
+				nodes.forEach(node -> signalDeletionRecursively(node, initiator));
+
+				Set<TreeItem<T>> removed = Collections.newSetFromMap(new IdentityHashMap<>(nodes.size()));
+
+				removed.addAll(nodes);
+				dir.getChildren().removeAll(removed);
+
+			}
+		}
+
 		private void report( Throwable t ) {
 			reporter.reportError(t);
 		}
 
+		private void reportSnapshotDeletion( TreeDirectorySnapshot.Entry entry, I initiator ) {
+
+			entry.getChildren().forEach(child -> reportSnapshotDeletion(child, initiator));
+
+			Path p = getPath();
+
+			reporter.reportDeletion(p, p.relativize(entry.getPath()), initiator);
+
+		}
+
 		private ParentChild<T> resolveInParent( Path relativePath ) {
 
 			int len = relativePath.getNameCount();
@@ -898,6 +1325,81 @@ public class TreeDirectoryItems {
 
 		}
 
+		/**
+		 * Populates the given directory item with the recorded children still
+		 * existing, without reporting them, then reports deletions for the
+		 * vanished ones, modifications for the changed files, and adds the
+		 * new ones. Directories whose content was not recorded or cannot be
+		 * listed are synchronized as usual.
+		 */
+		private void restoreContent(
+			DirectoryItem<T> dir,
+			TreeDirectorySnapshot.Entry entry,
+			Map<Path, Map<String, BasicFileAttributes>> listings,
+			List<DirectoryItem<T>> expanded,
+			I initiator
+		) {
+
+			Path dirPath = entry.getPath();
+			Map<String, BasicFileAttributes> actual = listings.get(dirPath);
+
+			if ( actual == null ) {
+				syncContent(dir, dirPath, initiator);
+				return;
+			}
+
+			expanded.add(dir);
+
+			Path p = getPath();
+			List<TreeItem<T>> children = new ArrayList<>(entry.getChildren().size());
+
+			for ( TreeDirectorySnapshot.Entry childEntry : entry.getChildren() ) {
+
+				Path childPath = childEntry.getPath();
+				BasicFileAttributes attributes = actual.get(childEntry.getName());
+
+				if ( attributes == null || attributes.isDirectory() != childEntry.isDirectory() ) {
+					reportSnapshotDeletion(childEntry, initiator);
+				} else {
+
+					actual.remove(childEntry.getName());
+
+					if ( childEntry.isDirectory() ) {
+
+						DirectoryItem<T> child = createDirectoryItem(
+							dir.inject(childPath),
+							graphicFactory,
+							getProjector(),
+							getInjector(),
+							dir.getOnCollapse(),
+							dir.getOnExpand()
+						);
+
+						children.add(child);
+						restoreContent(child, childEntry, listings, expanded, initiator);
+
+					} else {
+
+						FileTime lastModified = attributes.lastModifiedTime();
+
+						children.add(createFileItem(dir.inject(childPath), lastModified, graphicFactory, getProjector()));
+
+						if ( !lastModified.equals(childEntry.getLastModified())
+						  || ( childEntry.getSize() >= 0 && attributes.size() != childEntry.getSize() ) ) {
+							reporter.reportModification(p, p.relativize(childPath), initiator);
+						}
+
+					}
+
+				}
+
+			}
+
+			dir.getChildren().setAll(children);
+			addNewChildren(dir, dirPath, actual, initiator);
+
+		}
+
 		private void signalDeletionRecursively( TreeItem<T> node, I initiator ) {
 
 			if ( node != null ) {
@@ -951,10 +1453,13 @@ public class TreeDirectoryItems {
 		private void syncChild( DirectoryItem<T> parent, Path childName, Path root, I initiator, FileTime lastModified ) {
 
 			PathItem<T> child = parent.getRelativeChild(childName);
-			boolean isFolder = Files.isDirectory(root);
+			BasicFileAttributes attributes = readAttributes(root);
+			boolean isFolder = attributes != null && attributes.isDirectory();
+			FileTime modified = ( lastModified != null || attributes == null ) ? lastModified : attributes.lastModifiedTime();
 
 			if ( child != null && child.isDirectory() != isFolder ) {
 				removeNode(child, null);
+				child = null;
 			}
 
 			if ( child == null ) {
@@ -967,7 +1472,7 @@ public class TreeDirectoryItems {
 
 				} else {
 
-					FileItem<T> fileChild = parent.addChildFile(childName, lastModified != null ? lastModified : fileTime(root), graphicFactory);
+					FileItem<T> fileChild = parent.addChildFile(childName, modified != null ? modified : fileTime(root), graphicFactory);
 
 					reporter.reportCreation(getPath(), getPath().relativize(fileChild.getPath()), initiator);
 
@@ -976,7 +1481,7 @@ public class TreeDirectoryItems {
 				if ( child.isDirectory() ) {
 					syncContent(child.asDirectoryItem(), root, initiator);
 				} else {
-					if ( child.asFileItem().updateModificationTime(lastModified != null ? lastModified : fileTime(root)) ) {
+					if ( child.asFileItem().updateModificationTime(modified != null ? modified : fileTime(root)) ) {
 						reporter.reportModification(getPath(), getPath().relativize(child.getPath()), initiator);
 					}
 				}
@@ -1008,6 +1513,237 @@ public class TreeDirectoryItems {
 
 		}
 
+		/**
+		 * The synchronization of the content of a directory item, split into
+		 * a scan phase, listing the directory and computing the differences
+		 * with the item's children, and an apply phase, removing the vanished
+		 * children, updating the existing ones, and adding the new ones.
+		 * <p>
+		 * In background mode the scan phase is executed by the scan
+		 * {@link Executor}, and the apply phase by the client one, in chunks
+		 * of at most {@link #syncChunkSize} children. The synchronization is
+		 * cancelled if superseded by a newer one for the same item, or if the
+		 * item is collapsed.</p>
+		 */
+		private class ContentSync {
+
+			private final List<Map.Entry<String, BasicFileAttributes>> added = new ArrayList<>();
+			private int addedCursor = 0;
+			private volatile boolean cancelled = false;
+			private final List<PathItem<T>> children;
+			private final ChangeListener<Boolean> collapseListener;
+			private final Set<String> deleted = new HashSet<>();
+			private final DirectoryItem<T> dir;
+			private final List<Map.Entry<PathItem<T>, BasicFileAttributes>> existing = new ArrayList<>();
+			private int existingCursor = 0;
+			private final I initiator;
+			private final Path root;
+			private final List<TreeItem<T>> undesired = new ArrayList<>();
+
+			ContentSync( DirectoryItem<T> dir, Path root, I initiator ) {
+
+				this.children = new ArrayList<>(dir.getChildren().size());
+				this.dir = dir;
+				this.initiator = initiator;
+				this.root = root;
+				this.collapseListener = ( observable, wasExpanded, isExpanded ) -> {
+					if ( !isExpanded ) {
+
+						cancel();
+
+						//	Synchronized again when expanded.
+						syncContent(dir, root, initiator);
+
+					}
+				};
+
+				dir.getChildren().forEach(child -> children.add((PathItem<T>) child));
+
+			}
+
+			/**
+			 * Applies the next chunk of changes. Called by the client thread.
+			 *
+			 * @return {@code true} if all changes were applied.
+			 */
+			boolean apply() {
+
+				if ( !undesired.isEmpty() ) {
+					undesired.removeIf(node -> node.getParent() != dir);
+					removeNodes(dir, undesired, null);
+					undesired.clear();
+				}
+
+				Path p = getPath();
+				int budget = syncChunkSize;
+
+				while ( budget > 0 && existingCursor < existing.size() ) {
+
+					Map.Entry<PathItem<T>, BasicFileAttributes> entry = existing.get(existingCursor++);
+					PathItem<T> child = entry.getKey();
+
+					budget--;
+
+					if ( child.getParent() == dir ) {
+						if ( child.isDirectory() ) {
+							syncContent(child.asDirectoryItem(), child.getPath(), initiator);
+						} else if ( child.asFileItem().updateModificationTime(entry.getValue().lastModifiedTime()) ) {
+							reporter.reportModification(p, p.relativize(child.getPath()), initiator);
+						}
+					}
+
+				}
+
+				if ( budget > 0 && addedCursor < added.size() ) {
+
+					int end = (int) Math.min((long) addedCursor + budget, added.size());
+					Map<String, BasicFileAttributes> chunk = new LinkedHashMap<>(( end - addedCursor ) * 4 / 3 + 1);
+
+					added.subList(addedCursor, end).stream()
+						.filter(entry -> !deleted.contains(entry.getKey()))
+						.forEach(entry -> chunk.put(entry.getKey(), entry.getValue()));
+					addedCursor = end;
+					addNewChildren(dir, root, chunk, initiator);
+
+				}
+
+				return existingCursor >= existing.size() && addedCursor >= added.size();
+
+			}
+
+			/**
+			 * Stops this synchronization. Called by the client thread.
+			 */
+			void cancel() {
+				cancelled = true;
+				finish();
+			}
+
+			/**
+			 * Records the deletion, reported by the watcher, of an entry not
+			 * added yet, so that it will not be added by the next chunks.
+			 * Called by the client thread.
+			 *
+			 * @param name The file name of the deleted entry.
+			 */
+			void deleted( String name ) {
+				deleted.add(name);
+			}
+
+			/**
+			 * Lists the directory and computes the differences with the
+			 * children of the item. New entries are sorted as they will be
+			 * displayed, so that each chunk is appended after the previous
+			 * one.
+			 */
+			void scan() {
+
+				Map<String, BasicFileAttributes> desired = attributesOf(root);
+
+				if ( desired == null ) {
+					desired = new HashMap<>(0);
+				}
+
+				for ( PathItem<T> child : children ) {
+
+					if ( cancelled ) {
+						return;
+					}
+
+					String name = child.getPath().getFileName().toString();
+					BasicFileAttributes attributes = desired.remove(name);
+
+					if ( attributes != null && attributes.isDirectory() == child.isDirectory() ) {
+						existing.add(Map.entry(child, attributes));
+					} else {
+
+						undesired.add(child);
+
+						//	Replaced by an entry of different type.
+						if ( attributes != null ) {
+							desired.put(name, attributes);
+						}
+
+					}
+
+				}
+
+				Map<String, String> keys = new HashMap<>(desired.size() * 4 / 3 + 1);
+
+				desired.keySet().forEach(name -> keys.put(name, PathItem.collationKeyOf(name)));
+				added.addAll(desired.entrySet());
+				added.sort(( e, f ) -> {
+					if ( e.getValue().isDirectory() != f.getValue().isDirectory() ) {
+						return e.getValue().isDirectory() ? -1 : 1;
+					} else {
+						return keys.get(e.getKey()).compareTo(keys.get(f.getKey()));
+					}
+				});
+
+			}
+
+			/**
+			 * Starts the background synchronization. Called by the client
+			 * thread.
+			 */
+			@SuppressWarnings( { "UseSpecificCatch", "BroadCatchBlock", "TooBroadCatch" } )
+			void start() {
+
+				ContentSync previous = contentSyncs.put(dir, this);
+
+				if ( previous != null ) {
+					previous.cancel();
+				}
+
+				dir.expandedProperty().addListener(collapseListener);
+
+				try {
+					scanExecutor.execute(() -> {
+						try {
+							scan();
+							executeOnClient(this::applyChunk);
+						} catch ( Exception ex ) {
+							executeOnClient(() -> {
+								finish();
+								report(ex);
+							});
+						}
+					});
+				} catch ( RejectedExecutionException ex ) {
+					finish();
+					report(ex);
+				}
+
+			}
+
+			private void applyChunk() {
+				if ( !cancelled ) {
+					if ( dir != TopLevelDirectoryItem.this && dir.getParent() == null ) {
+						//	Removed from the model in the meantime.
+						finish();
+					} else if ( apply() ) {
+						finish();
+					} else {
+						executeOnClient(this::applyChunk);
+					}
+				}
+			}
+
+			private void executeOnClient( Runnable task ) {
+				try {
+					clientExecutor.execute(task);
+				} catch ( RejectedExecutionException ex ) {
+					//	Client thread no more available: nothing to do.
+				}
+			}
+
+			private void finish() {
+				contentSyncs.remove(dir, this);
+				dir.expandedProperty().removeListener(collapseListener);
+			}
+
+		}
+
 	}
 
 	@SuppressWarnings( "PackageVisibleInnerClass" )
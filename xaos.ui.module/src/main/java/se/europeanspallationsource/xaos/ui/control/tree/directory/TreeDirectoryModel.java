@@ -25,14 +25,18 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.FileTime;
 import java.text.MessageFormat;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import javafx.beans.value.ChangeListener;
 import javafx.scene.Node;
+import javafx.scene.control.TreeCell;
 import javafx.scene.control.TreeItem;
 import javafx.scene.control.TreeView;
 import se.europeanspallationsource.xaos.core.util.TriFunction;
@@ -56,6 +60,11 @@ import static se.europeanspallationsource.xaos.ui.control.Icons.DEFAULT_SIZE;
  * {@link #setGraphicFactory(TreeDirectoryModel.GraphicFactory)} after this
  * model is built.</p>
  * <p>
+ * For very large directories, {@link #setLazyGraphics(boolean)} avoids
+ * the creation of a graphic for each item, creating them only for the rows
+ * displayed by the {@link TreeView} cells returned by
+ * {@link #createCell(TreeView)}.</p>
+ * <p>
  * <b>Note:</b> {@link #dispose()} should be called when the model is no more
  * used (typically when the viewer using it is disposed).</p>
  *
@@ -73,11 +82,20 @@ public class TreeDirectoryModel<I, T> implements DirectoryModel<I, T> {
 	 */
 	public static final GraphicFactory DEFAULT_GRAPHIC_FACTORY = new DefaultGraphicFactory();
 
+	/**
+	 * The default maximum number of children changed by a single task when
+	 * synchronizing in background.
+	 *
+	 * @see #setBackgroundSynchronization(Executor, Executor, int)
+	 */
+	public static final int DEFAULT_SYNC_CHUNK_SIZE = 500;
+
 	/**
 	 * Graphic factory that always returns {@code null}.
 	 */
 	public static final GraphicFactory NO_GRAPHIC_FACTORY = ( p, d, e ) -> null;
 
+	private Executor clientThreadExecutor = null;
 	private final Subject<Update<I>> creations;
 	private final I defaultInitiator;
 	private final Subject<Update<I>> deletions;
@@ -85,10 +103,13 @@ public class TreeDirectoryModel<I, T> implements DirectoryModel<I, T> {
 	private final Subject<Throwable> errors;
 	private GraphicFactory graphicFactory = DEFAULT_GRAPHIC_FACTORY;
 	private final Function<Path, T> injector;
+	private boolean lazyGraphics = false;
 	private final Subject<Update<I>> modifications;
 	private final Function<T, Path> projector;
 	private final Reporter<I> reporter;
 	private final TreeItem<T> root = new TreeItem<>();
+	private Executor scanExecutor = null;
+	private int syncChunkSize = DEFAULT_SYNC_CHUNK_SIZE;
 
 	/**
 	 * Create a new instance of this model.
@@ -144,6 +165,39 @@ public class TreeDirectoryModel<I, T> implements DirectoryModel<I, T> {
 		
 	}
 
+	/**
+	 * Add the given children of a directory to the model. The new children
+	 * are added to the directory item at once, firing a single
+	 * {@link TreeItem.TreeModificationEvent}.
+	 *
+	 * @param directory The {@link Path} of the directory whose children must
+	 *                  be added.
+	 * @param children  The file names of the children to be added.
+	 */
+	public void addChildren( Path directory, Collection<Path> children ) {
+		addChildren(directory, children, defaultInitiator);
+	}
+
+	/**
+	 * Add the given children of a directory to the model. The new children
+	 * are added to the directory item at once, firing a single
+	 * {@link TreeItem.TreeModificationEvent}.
+	 *
+	 * @param directory The {@link Path} of the directory whose children must
+	 *                  be added.
+	 * @param children  The file names of the children to be added.
+	 * @param initiator The initiator of changes to the model.
+	 */
+	public void addChildren( Path directory, Collection<Path> children, I initiator ) {
+		topLevelAncestorStream(directory).forEach(ancestor -> {
+
+			Path relativePath = ancestor.getPath().relativize(directory);
+
+			ancestor.addChildren(relativePath, children, initiator);
+
+		});
+	}
+
 	/**
 	 * Add a no-top-lever directory to the model.
 	 *
@@ -222,15 +276,7 @@ public class TreeDirectoryModel<I, T> implements DirectoryModel<I, T> {
 	 * @param directory The {@link Path} to be added as a top-level directory.
 	 */
 	public void addTopLevelDirectory( Path directory ) {
-		root.getChildren().add(TreeDirectoryItems.createTopLevelDirectoryItem(
-			injector.apply(directory),
-			graphicFactory,
-			projector,
-			injector,
-			reporter,
-			null,
-			null
-		));
+		addTopLevelDirectory(directory, null, null);
 	}
 
 	/**
@@ -256,15 +302,20 @@ public class TreeDirectoryModel<I, T> implements DirectoryModel<I, T> {
 		Consumer<? super TreeDirectoryItems.DirectoryItem<T>> onCollapse,
 		Consumer<? super TreeDirectoryItems.DirectoryItem<T>> onExpand
 	) {
-		root.getChildren().add(TreeDirectoryItems.createTopLevelDirectoryItem(
+
+		TreeDirectoryItems.TopLevelDirectoryItem<I, T> item = TreeDirectoryItems.createTopLevelDirectoryItem(
 			injector.apply(directory),
-			graphicFactory,
+			lazyGraphics ? NO_GRAPHIC_FACTORY : graphicFactory,
 			projector,
 			injector,
 			reporter,
 			onCollapse,
 			onExpand
-		));
+		);
+
+		item.setBackgroundSynchronization(scanExecutor, clientThreadExecutor, syncChunkSize);
+		root.getChildren().add(item);
+
 	}
 
 	@Override
@@ -288,6 +339,25 @@ public class TreeDirectoryModel<I, T> implements DirectoryModel<I, T> {
 		);
 	}
 
+	/**
+	 * Creates a {@link TreeCell} displaying the items of this model, to be
+	 * used as {@link TreeView#setCellFactory(javafx.util.Callback) cell factory}
+	 * of the {@link TreeView} showing this model (i.e.
+	 * {@code treeView.setCellFactory(model::createCell)}).
+	 * <p>
+	 * The returned cell displays the graphic of its item, if any, otherwise
+	 * it creates one with the current graphic factory, so that only the
+	 * visible rows have a graphic when {@link #setLazyGraphics(boolean) lazy
+	 * graphics} are enabled. Such graphic is released as soon as the cell is
+	 * reused for another item, e.g. when the rows are scrolled away.</p>
+	 *
+	 * @param treeView The {@link TreeView} the cell is created for.
+	 * @return A new {@link TreeCell}.
+	 */
+	public TreeCell<T> createCell( TreeView<T> treeView ) {
+		return new LazyGraphicTreeCell();
+	}
+
 	@Override
 	public Observable<Update<I>> creations() {
 		return creations;
@@ -350,11 +420,140 @@ public class TreeDirectoryModel<I, T> implements DirectoryModel<I, T> {
 		return disposed;
 	}
 
+	/**
+	 * @return {@code true} if the {@link TreeItem}s of this model are created
+	 *         without graphics.
+	 * @see #setLazyGraphics(boolean)
+	 */
+	public boolean isLazyGraphics() {
+		return lazyGraphics;
+	}
+
 	@Override
 	public Observable<Update<I>> modifications() {
 		return modifications;
 	}
 
+	/**
+	 * Restores the content of a top-level directory from the given snapshot.
+	 * Only the differences between the snapshot and the file system are
+	 * reported as creations, deletions and modifications.
+	 * <p>
+	 * <b>Note:</b> The top-level directory must have been added with
+	 * {@link #addTopLevelDirectory(Path)}, or
+	 * {@link #addTopLevelDirectory(Path, Consumer, Consumer)}, and not yet
+	 * synchronized.</p>
+	 *
+	 * @param snapshot The {@link TreeDirectorySnapshot} to be restored.
+	 * @see #snapshot(Path)
+	 */
+	public void restore( TreeDirectorySnapshot snapshot ) {
+		restore(snapshot, defaultInitiator);
+	}
+
+	/**
+	 * Restores the content of a top-level directory from the given snapshot.
+	 * Only the differences between the snapshot and the file system are
+	 * reported as creations, deletions and modifications.
+	 * <p>
+	 * <b>Note:</b> The top-level directory must have been added with
+	 * {@link #addTopLevelDirectory(Path)}, or
+	 * {@link #addTopLevelDirectory(Path, Consumer, Consumer)}, and not yet
+	 * synchronized.</p>
+	 *
+	 * @param snapshot  The {@link TreeDirectorySnapshot} to be restored.
+	 * @param initiator The initiator of changes to the model.
+	 * @see #snapshot(Path)
+	 */
+	public void restore( TreeDirectorySnapshot snapshot, I initiator ) {
+
+		Path directory = snapshot.getRoot();
+
+		topLevelAncestorStream(directory)
+			.filter(ancestor -> ancestor.getPath().equals(directory))
+			.forEach(ancestor -> ancestor.restore(snapshot, initiator));
+
+	}
+
+	/**
+	 * Incrementally synchronizes the entries of the given {@code directory}
+	 * with the file system, in a single listing pass. Only the differences
+	 * with the model are applied, and the content of subdirectories is not
+	 * synchronized: this is the cheaper alternative to {@link #sync(Path)}
+	 * when only {@code directory} is known to be changed (e.g. after an
+	 * {@link java.nio.file.StandardWatchEventKinds#OVERFLOW} event).
+	 *
+	 * @param directory The {@link Path} used to synchronize the model.
+	 */
+	public void resync( Path directory ) {
+		resync(directory, defaultInitiator);
+	}
+
+	/**
+	 * Incrementally synchronizes the entries of the given {@code directory}
+	 * with the file system, in a single listing pass. Only the differences
+	 * with the model are applied, and the content of subdirectories is not
+	 * synchronized: this is the cheaper alternative to {@link #sync(Path, Object)}
+	 * when only {@code directory} is known to be changed (e.g. after an
+	 * {@link java.nio.file.StandardWatchEventKinds#OVERFLOW} event).
+	 *
+	 * @param directory The {@link Path} used to synchronize the model.
+	 * @param initiator The initiator of changes to the model.
+	 */
+	public void resync( Path directory, I initiator ) {
+		topLevelAncestorStream(directory).forEach(ancestor -> ancestor.resync(directory, initiator));
+	}
+
+	/**
+	 * Enables or disables the background synchronization of directories. When
+	 * enabled, the blocking listing of directories, and the computation of
+	 * the differences with the model, are performed by {@code scanExecutor},
+	 * while the resulting changes to the {@link TreeItem}s are applied by
+	 * {@code clientThreadExecutor}, in tasks changing at most
+	 * {@code chunkSize} children each, so that the client thread (e.g. the
+	 * JavaFX one) can perform other work in between. The synchronization of
+	 * a directory still in progress is cancelled when its item is collapsed,
+	 * and performed again when expanded.
+	 * <p>
+	 * Background synchronization is disabled by default, i.e. directories
+	 * are listed and updated in the thread calling the {@code sync} and
+	 * {@code addDirectory} methods, or expanding the tree items.</p>
+	 * <p>
+	 * <b>Note:</b> this method, as all the other ones changing the model,
+	 * must be called by the client thread.</p>
+	 *
+	 * @param scanExecutor         The {@link Executor} used to list
+	 *                             directories. If {@code null}, background
+	 *                             synchronization is disabled.
+	 * @param clientThreadExecutor The {@link Executor} used to apply changes
+	 *                             to the model.
+	 * @param chunkSize            The maximum number of children changed in
+	 *                             a single task executed by
+	 *                             {@code clientThreadExecutor}.
+	 * @throws IllegalArgumentException If {@code chunkSize} is less than 1,
+	 *                                  or {@code clientThreadExecutor} is
+	 *                                  {@code null} while {@code scanExecutor}
+	 *                                  is not.
+	 */
+	public void setBackgroundSynchronization( Executor scanExecutor, Executor clientThreadExecutor, int chunkSize ) throws IllegalArgumentException {
+
+		if ( chunkSize < 1 ) {
+			throw new IllegalArgumentException(MessageFormat.format(
+				"'chunkSize' must be greater than 0 [{0}].",
+				chunkSize
+			));
+		} else if ( scanExecutor != null && clientThreadExecutor == null ) {
+			throw new IllegalArgumentException("'clientThreadExecutor' cannot be null.");
+		}
+
+		this.scanExecutor = scanExecutor;
+		this.clientThreadExecutor = clientThreadExecutor;
+		this.syncChunkSize = chunkSize;
+
+		topLevelItemsStream().forEach(item -> item.setBackgroundSynchronization(scanExecutor, clientThreadExecutor, chunkSize));
+
+	}
+
 	/**
 	 * Sets graphic factory used to create graphics of {@link TreeItem}s
 	 * in this directory model.
@@ -374,6 +573,47 @@ public class TreeDirectoryModel<I, T> implements DirectoryModel<I, T> {
 		graphicFactory = factory != null ? factory : DEFAULT_GRAPHIC_FACTORY;
 	}
 
+	/**
+	 * Enables or disables the lazy creation of graphics. When enabled, the
+	 * {@link TreeItem}s of this model are created without graphics, and the
+	 * graphic factory is invoked only by the cells returned by
+	 * {@link #createCell(TreeView)}, for the rows actually displayed. This
+	 * way directories with a huge number of entries don't keep a graphic
+	 * {@link Node} for each of them, and the graphic factory is not invoked
+	 * (e.g. probing the file system, as {@link #DEFAULT_GRAPHIC_FACTORY}
+	 * does) while synchronizing the model.
+	 * <p>
+	 * Lazy graphics are disabled by default. The new setting applies to
+	 * top-level directories added after this method is called.</p>
+	 *
+	 * @param lazy {@code true} to create graphics only for the displayed
+	 *             rows.
+	 */
+	public void setLazyGraphics( boolean lazy ) {
+		lazyGraphics = lazy;
+	}
+
+	/**
+	 * Captures the current content of the given top-level directory. Only the
+	 * content of expanded directories is recorded.
+	 *
+	 * @param directory A top-level directory of this model.
+	 * @return The {@link TreeDirectorySnapshot} of {@code directory}.
+	 * @throws IllegalArgumentException If {@code directory} is not a top-level
+	 *                                  directory of this model.
+	 * @see #restore(TreeDirectorySnapshot)
+	 */
+	public TreeDirectorySnapshot snapshot( Path directory ) throws IllegalArgumentException {
+		return topLevelAncestorStream(directory)
+			.filter(ancestor -> ancestor.getPath().equals(directory))
+			.findFirst()
+			.map(TreeDirectorySnapshot::capture)
+			.orElseThrow(() -> new IllegalArgumentException(MessageFormat.format(
+				"{0} is not a top-level directory of this model.",
+				directory
+			)));
+	}
+
 	/**
 	 * Synchronize the model with the given {@code directory} element. Missing 
 	 * items will be added to the model for the expanded tree items, and a
@@ -446,11 +686,13 @@ public class TreeDirectoryModel<I, T> implements DirectoryModel<I, T> {
 
 	}
 
-	@SuppressWarnings( "unchecked" )
 	private Stream<TreeDirectoryItems.TopLevelDirectoryItem<I, T>> topLevelAncestorStream( Path path ) {
-		return root.getChildren().stream()
-			.filter(item -> path.startsWith(projector.apply(item.getValue())))
-			.map(item -> (TreeDirectoryItems.TopLevelDirectoryItem<I, T>) item);
+		return topLevelItemsStream().filter(item -> path.startsWith(item.getPath()));
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private Stream<TreeDirectoryItems.TopLevelDirectoryItem<I, T>> topLevelItemsStream() {
+		return root.getChildren().stream().map(item -> (TreeDirectoryItems.TopLevelDirectoryItem<I, T>) item);
 	}
 
 	/**
@@ -520,4 +762,70 @@ public class TreeDirectoryModel<I, T> implements DirectoryModel<I, T> {
 
 	}
 
+	/**
+	 * A {@link TreeCell} creating the graphic of {@link TreeDirectoryItems.PathItem}s
+	 * without one only while displaying them, and updating it when the item
+	 * is expanded or collapsed. The created graphic is kept until the cell
+	 * displays another item, or the item changes its expanded state.
+	 */
+	private class LazyGraphicTreeCell extends TreeCell<T> {
+
+		private final ChangeListener<Boolean> expandedListener = ( observable, wasExpanded, isExpanded ) -> updateGraphic();
+		private Node lazyGraphic = null;
+		private boolean lazyGraphicExpanded = false;
+		private TreeItem<T> lazyGraphicItem = null;
+
+		LazyGraphicTreeCell() {
+			treeItemProperty().addListener(( observable, oldItem, newItem ) -> {
+
+				if ( oldItem != null ) {
+					oldItem.expandedProperty().removeListener(expandedListener);
+				}
+
+				if ( newItem != null ) {
+					newItem.expandedProperty().addListener(expandedListener);
+				}
+
+			});
+		}
+
+		@Override
+		protected void updateItem( T item, boolean empty ) {
+
+			super.updateItem(item, empty);
+
+			setText(( empty || item == null ) ? null : item.toString());
+			updateGraphic();
+
+		}
+
+		private void updateGraphic() {
+
+			TreeItem<T> treeItem = isEmpty() ? null : getTreeItem();
+
+			if ( treeItem instanceof TreeDirectoryItems.PathItem && treeItem.getGraphic() == null ) {
+
+				TreeDirectoryItems.PathItem<T> pathItem = (TreeDirectoryItems.PathItem<T>) treeItem;
+
+				if ( lazyGraphicItem != pathItem || lazyGraphicExpanded != pathItem.isExpanded() ) {
+					lazyGraphic = graphicFactory.createGraphic(pathItem.getPath(), pathItem.isDirectory(), pathItem.isExpanded());
+					lazyGraphicExpanded = pathItem.isExpanded();
+					lazyGraphicItem = pathItem;
+				}
+
+				setGraphic(lazyGraphic);
+
+			} else {
+
+				lazyGraphic = null;
+				lazyGraphicItem = null;
+
+				setGraphic(( treeItem != null ) ? treeItem.getGraphic() : null);
+
+			}
+
+		}
+
+	}
+
 }
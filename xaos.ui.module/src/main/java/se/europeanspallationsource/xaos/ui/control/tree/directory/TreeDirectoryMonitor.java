@@ -16,8 +16,10 @@
 package se.europeanspallationsource.xaos.ui.control.tree.directory;
 
 
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
 import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
 import io.reactivex.subjects.PublishSubject;
 import io.reactivex.subjects.Subject;
 import java.io.IOException;
@@ -28,14 +30,24 @@ import java.nio.file.WatchEvent;
 import java.nio.file.WatchEvent.Kind;
 import java.nio.file.attribute.FileTime;
 import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import javafx.application.Platform;
 import javafx.scene.control.TreeItem;
 import javafx.scene.control.TreeView;
+import se.europeanspallationsource.xaos.core.util.Backpressure;
 import se.europeanspallationsource.xaos.core.util.io.DirectoryWatcher;
+import se.europeanspallationsource.xaos.core.util.io.WatchStrategy;
 
 import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
@@ -113,6 +125,15 @@ import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 @SuppressWarnings( "ClassWithoutLogger" )
 public class TreeDirectoryMonitor<I, T> implements Disposable {
 
+	/**
+	 * The default minimum interval between two synchronizations of the same
+	 * directory triggered by {@link java.nio.file.StandardWatchEventKinds#OVERFLOW}
+	 * events.
+	 */
+	public static final Duration DEFAULT_OVERFLOW_RESYNC_INTERVAL = Duration.ofSeconds(1);
+
+	private static final Executor FX_EXECUTOR = Platform::runLater;
+
     /**
      * Creates a {@link TreeDirectoryMonitor} instance to be used from the
 	 * JavaFX application thread.
@@ -125,7 +146,7 @@ public class TreeDirectoryMonitor<I, T> implements Disposable {
 	 * @throws IOException If an I/O error occurs.
 	 */
 	public static <I> TreeDirectoryMonitor<I, Path> build( I externalInitiator ) throws IOException {
-		return build(externalInitiator, Platform::runLater);
+		return build(externalInitiator, FX_EXECUTOR);
 	}
 
     /**
@@ -175,14 +196,49 @@ public class TreeDirectoryMonitor<I, T> implements Disposable {
 		Function<Path, T> injector,
 		Executor clientThreadExecutor
 	) throws IOException {
-        return new TreeDirectoryMonitor<>(
+		return build(externalInitiator, projector, injector, clientThreadExecutor, WatchStrategy.system());
+	}
+
+	/**
+	 * Creates a {@link TreeDirectoryMonitor} instance to be used from a
+	 * designated thread, watching the file-system with the given
+	 * {@link WatchStrategy} (e.g. {@link WatchStrategy#polling()} for
+	 * directories on network file systems).
+	 *
+	 * @param <I>                  Type of the <i>external initiator</i> of the
+	 *                             I/O operation.
+	 * @param <T>                  Type of the object returned by
+	 *                             {@link TreeItem#getValue()}.
+	 * @param externalInitiator    Object to represent an initiator of an
+	 *                             external file-system change.
+	 * @param projector            Converts the ({@code T}) {@link TreeItem#getValue()}
+	 *                             into a {@link Path} object.
+	 * @param injector             Converts a given {@link Path} object into
+	 *                             {@code T}. The reverse of {@code projector}.
+	 * @param clientThreadExecutor Executor used to execute actions on the caller
+	 *                             thread. Used to publish updates and errors on
+	 *                             the caller thread.
+	 * @param watchStrategy        The strategy used to watch directories.
+	 * @return A newly created {@link TreeDirectoryMonitor}'s instance.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static <I, T> TreeDirectoryMonitor<I, T> build(
+		I externalInitiator,
+		Function<T, Path> projector,
+		Function<Path, T> injector,
+		Executor clientThreadExecutor,
+		WatchStrategy watchStrategy
+	) throws IOException {
+		return new TreeDirectoryMonitor<>(
 			externalInitiator,
 			projector,
 			injector,
-			clientThreadExecutor
+			clientThreadExecutor,
+			watchStrategy
 		);
-    }
+	}
 
+	private final Executor clientThreadExecutor;
     private final DirectoryWatcher directoryWatcher;
 	private final Disposable directoryWatcherEventsSubscription;
 	private boolean disposed = false;
@@ -191,6 +247,9 @@ public class TreeDirectoryMonitor<I, T> implements Disposable {
     private final TreeDirectoryAsynchronousIO<I, T> io;
 	private final Subject<Throwable> localErrors;
 	private final TreeDirectoryModel<I, T> model;
+	private final Map<Path, Long> overflowResyncs = new HashMap<>();
+	private volatile long overflowResyncInterval = DEFAULT_OVERFLOW_RESYNC_INTERVAL.toNanos();
+	private final Set<Path> pendingOverflowResyncs = new HashSet<>();
 
 	/**
 	 * Creates a {@link TreeDirectoryMonitor} instance to be used from a
@@ -205,19 +264,27 @@ public class TreeDirectoryMonitor<I, T> implements Disposable {
 	 * @param clientThreadExecutor Executor used to execute actions on the caller
 	 *                             thread. Used to publish updates and errors on
 	 *                             the caller thread.
+	 * @param watchStrategy        The strategy used to watch directories.
 	 * @throws IOException If an I/O error occurs.
 	 */
 	private TreeDirectoryMonitor(
 		I externalInitiator,
 		Function<T, Path> projector,
 		Function<Path, T> injector,
-		Executor clientThreadExecutor
+		Executor clientThreadExecutor,
+		WatchStrategy watchStrategy
 	) throws IOException {
 
+		this.clientThreadExecutor = clientThreadExecutor;
 		this.externalInitiator = externalInitiator;
 		this.model = new TreeDirectoryModel<>(externalInitiator, projector, injector);
-		this.directoryWatcher = DirectoryWatcher.build(clientThreadExecutor);
-		this.io = new TreeDirectoryAsynchronousIO<>(directoryWatcher, model, clientThreadExecutor);
+		this.directoryWatcher = DirectoryWatcher.build(clientThreadExecutor, watchStrategy);
+		this.io = new TreeDirectoryAsynchronousIO<>(
+			directoryWatcher,
+			model,
+			clientThreadExecutor,
+			( clientThreadExecutor == FX_EXECUTOR ) ? Platform::isFxApplicationThread : null
+		);
 
 		Subject<Throwable> localErrorsSubject = PublishSubject.create();
 
@@ -252,6 +319,31 @@ public class TreeDirectoryMonitor<I, T> implements Disposable {
 		final Consumer<? super TreeDirectoryItems.DirectoryItem<T>> onCollapse,
 		final Consumer<? super TreeDirectoryItems.DirectoryItem<T>> onExpand
 	) {
+		addTopLevelDirectory(dir, null, onCollapse, onExpand);
+	}
+
+	/**
+	 * Adds a directory to watch. The directory will be added to the directory
+	 * model and watched for changes. If the given snapshot file exists, the
+	 * model is restored from it, and only the changes occurred since the
+	 * snapshot was taken are reported, otherwise the model is synchronized
+	 * as usual.
+	 *
+	 * @param dir          The directory to be watched and viewed.
+	 * @param snapshotFile The file containing the {@link TreeDirectorySnapshot}
+	 *                     of {@code dir}. Can be {@code null}.
+	 * @param onCollapse   A {@link Consumer} to be invoked when this item is
+	 *                     collapsed. Can be {@code null}.
+	 * @param onExpand     A {@link Consumer} to be invoked when this item is
+	 *                     expanded. Can be {@code null}.
+	 * @see #saveSnapshot(Path, Path)
+	 */
+	public void addTopLevelDirectory(
+		Path dir,
+		Path snapshotFile,
+		final Consumer<? super TreeDirectoryItems.DirectoryItem<T>> onCollapse,
+		final Consumer<? super TreeDirectoryItems.DirectoryItem<T>> onExpand
+	) {
 
 		if ( !dir.isAbsolute() ) {
 			throw new IllegalArgumentException(MessageFormat.format(
@@ -274,7 +366,15 @@ public class TreeDirectoryMonitor<I, T> implements Disposable {
 
 				}
 			);
-			model.sync(dir);
+
+			TreeDirectorySnapshot snapshot = readSnapshot(dir, snapshotFile);
+
+			if ( snapshot != null ) {
+				model.restore(snapshot);
+			} else {
+				model.sync(dir);
+			}
+
 		} catch ( Exception e ) {
 			localErrors.onNext(e);
 		}
@@ -301,10 +401,22 @@ public class TreeDirectoryMonitor<I, T> implements Disposable {
 		return errors;
 	}
 
+	/**
+	 * @param backpressure The {@link Backpressure} strategy bounding the
+	 *                     memory used for slow subscribers. When conflating,
+	 *                     errors are keyed by class and message, i.e. only
+	 *                     the latest of repeated errors is emitted.
+	 * @return The {@link Flowable} of asynchronously thrown errors.
+	 */
+	public Flowable<Throwable> errors( Backpressure backpressure ) {
+		return backpressure.apply(errors, error -> Arrays.asList(error.getClass(), error.getMessage()));
+	}
+
 	/**
 	 * @return The asynchronous I/O facility. All I/O operations performed by
-	 *         this facility are performed on a single thread. It is the same
-	 *         thread that is used to watch the file-system for changes.
+	 *         this facility are performed, in submission order, on a single
+	 *         thread, separate from the one used to watch the file-system for
+	 *         changes.
 	 */
 	public TreeDirectoryAsynchronousIO<I, T> io() {
 		return io;
@@ -322,6 +434,84 @@ public class TreeDirectoryMonitor<I, T> implements Disposable {
 		return model;
 	}
 
+	/**
+	 * Saves the current content of the model rooted at the given top-level
+	 * directory, to be restored by
+	 * {@link #addTopLevelDirectory(Path, Path, Consumer, Consumer)}. Must be
+	 * called on the client thread.
+	 *
+	 * @param dir          A top-level directory of the model.
+	 * @param snapshotFile The file where the snapshot will be stored.
+	 * @throws IllegalArgumentException If {@code dir} is not a top-level
+	 *                                  directory of the model.
+	 * @throws IOException              If an I/O error occurs.
+	 */
+	public void saveSnapshot( Path dir, Path snapshotFile ) throws IllegalArgumentException, IOException {
+		model.snapshot(dir).write(snapshotFile);
+	}
+
+	/**
+	 * Enables or disables the background synchronization of the model:
+	 * directories are listed on the {@link Schedulers#io()} threads, and
+	 * the resulting changes applied on the client thread in chunks of
+	 * {@link TreeDirectoryModel#DEFAULT_SYNC_CHUNK_SIZE} items, keeping the
+	 * client thread responsive when large directories are expanded. Must be
+	 * called on the client thread.
+	 *
+	 * @param enabled {@code true} to synchronize directories in background.
+	 * @see TreeDirectoryModel#setBackgroundSynchronization(Executor, Executor, int)
+	 */
+	public void setBackgroundSynchronization( boolean enabled ) {
+		model.setBackgroundSynchronization(
+			enabled ? Schedulers.io()::scheduleDirect : null,
+			clientThreadExecutor,
+			TreeDirectoryModel.DEFAULT_SYNC_CHUNK_SIZE
+		);
+	}
+
+	/**
+	 * Enables or disables the coalescing of file-system events, reducing the
+	 * number of model updates (and hence of tasks posted to the client thread)
+	 * when many changes occur in a short time.
+	 *
+	 * @param window     The quiet period after which accumulated events are
+	 *                   processed. {@code null}, zero or negative values disable
+	 *                   coalescing.
+	 * @param maxLatency The maximum time an event can be delayed.
+	 * @see DirectoryWatcher#setEventCoalescing(Duration, Duration)
+	 */
+	public void setEventCoalescing( Duration window, Duration maxLatency ) {
+		directoryWatcher.setEventCoalescing(window, maxLatency);
+	}
+
+	/**
+	 * Sets the minimum interval between two synchronizations of the same
+	 * directory triggered by {@link java.nio.file.StandardWatchEventKinds#OVERFLOW}
+	 * events. Overflows occurring before the interval is elapsed are served
+	 * by a single deferred synchronization, preventing cascades of
+	 * synchronizations under heavy file-system activity.
+	 *
+	 * @param interval The new minimum interval. {@code null}, zero or negative
+	 *                 values disable rate limiting.
+	 */
+	public void setOverflowResyncInterval( Duration interval ) {
+		overflowResyncInterval = ( interval == null || interval.isNegative() ) ? 0 : interval.toNanos();
+	}
+
+	/**
+	 * Sets how files are written through the {@link #io()} interface. With
+	 * {@link DirectoryWatcher.WriteMode#ATOMIC} and
+	 * {@link DirectoryWatcher.WriteMode#DURABLE} modes each write results in
+	 * a single modification of the model.
+	 *
+	 * @param writeMode The new write mode. If {@code null},
+	 *                  {@link DirectoryWatcher.WriteMode#IN_PLACE} is used.
+	 * @see DirectoryWatcher#setWriteMode(DirectoryWatcher.WriteMode)
+	 */
+	public void setWriteMode( DirectoryWatcher.WriteMode writeMode ) {
+		directoryWatcher.setWriteMode(writeMode);
+	}
+
 	@SuppressWarnings( "unchecked" )
     private void processDirectoryEvent ( DirectoryWatcher.DirectoryEvent event ) {
 
@@ -332,7 +522,7 @@ public class TreeDirectoryMonitor<I, T> implements Disposable {
 			List<WatchEvent<?>> events = event.getEvents();
         
 			if ( events.stream().anyMatch(evt -> evt.kind() == OVERFLOW) ) {
-				model.sync(dir);
+				resyncAfterOverflow(dir);
 			} else {
 				events.forEach(evt -> processEvent(dir, (WatchEvent<Path>) evt));
 			}
@@ -386,6 +576,75 @@ public class TreeDirectoryMonitor<I, T> implements Disposable {
 
 	}
 
+	/**
+	 * @return The snapshot of {@code dir} stored in {@code snapshotFile}, or
+	 *         {@code null} if not available.
+	 */
+	private TreeDirectorySnapshot readSnapshot( Path dir, Path snapshotFile ) {
+
+		if ( snapshotFile == null || !Files.exists(snapshotFile) ) {
+			return null;
+		}
+
+		try {
+
+			TreeDirectorySnapshot snapshot = TreeDirectorySnapshot.read(snapshotFile);
+
+			return dir.equals(snapshot.getRoot()) ? snapshot : null;
+
+		} catch ( IOException ex ) {
+			localErrors.onNext(ex);
+			return null;
+		}
+
+	}
+
+	/**
+	 * Incrementally synchronizes the given directory, unless it was already
+	 * synchronized less than {@link #overflowResyncInterval} ago, in which
+	 * case a single deferred synchronization is scheduled. Called on the
+	 * client thread.
+	 */
+	private void resyncAfterOverflow( Path dir ) {
+
+		long now = System.nanoTime();
+		long interval = overflowResyncInterval;
+		Long last = overflowResyncs.get(dir);
+
+		if ( last == null || now - last >= interval ) {
+
+			if ( overflowResyncs.size() > 256 ) {
+				overflowResyncs.values().removeIf(time -> now - time >= interval);
+			}
+
+			overflowResyncs.put(dir, now);
+			model.resync(dir, externalInitiator);
+
+		} else if ( pendingOverflowResyncs.add(dir) ) {
+			Schedulers.computation().scheduleDirect(
+				() -> {
+					try {
+						clientThreadExecutor.execute(() -> {
+
+							pendingOverflowResyncs.remove(dir);
+
+							if ( !directoryWatcher.isClosed() && model.containsPrefixOf(dir) ) {
+								overflowResyncs.put(dir, System.nanoTime());
+								model.resync(dir, externalInitiator);
+							}
+
+						});
+					} catch ( RejectedExecutionException ex ) {
+						//	Client thread no more available: nothing to do.
+					}
+				},
+				last + interval - now,
+				TimeUnit.NANOSECONDS
+			);
+		}
+
+	}
+
 	private void watchDirectory( Path path ) {
 		if ( Files.isDirectory(path) ) {
 			if ( !directoryWatcher.isWatched(path) ) {
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2018 European Spallation Source ERIC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.europeanspallationsource.xaos.ui.control.tree.directory;
+
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.text.MessageFormat;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javafx.scene.control.TreeItem;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+
+/**
+ * A persistent image of the content of a top-level directory in a
+ * {@link TreeDirectoryModel}: for each item its name, type, last modification
+ * time and size, and for each directory whether it is expanded. Only the
+ * content of expanded directories is recorded, i.e. what the model was
+ * actually showing.
+ * <p>
+ * A snapshot is stored in a compact binary format, read through a memory
+ * mapped buffer. Once restored with
+ * {@link TreeDirectoryModel#restore(TreeDirectorySnapshot, Object)}, the
+ * recorded directories are listed in parallel and compared with the snapshot,
+ * so that only the changes occurred while the application was not running are
+ * reported as creations, deletions and modifications.</p>
+ * <p>
+ * The binary format is made of a header (magic number, version and number of
+ * entries) followed by the entries, in depth-first order. Each entry contains
+ * the index of its parent entry ({@code -1} for the root), a flags byte, the
+ * last modification time (seconds and nanoseconds from the epoch), the size
+ * and the UTF-8 encoded name (the absolute path for the root).</p>
+ *
+ * @author claudio.rosati@esss.se
+ */
+@SuppressWarnings( "ClassWithoutLogger" )
+public final class TreeDirectorySnapshot {
+
+	private static final byte DIRECTORY = 0x01;
+	private static final byte EXPANDED = 0x02;
+	private static final int ENTRY_HEADER_SIZE = Integer.BYTES + Byte.BYTES + Long.BYTES + Integer.BYTES + Long.BYTES + Short.BYTES;
+	private static final int HEADER_SIZE = 3 * Integer.BYTES;
+	private static final int MAGIC = 0x58414F53;
+	private static final int VERSION = 1;
+
+	/**
+	 * Reads the snapshot stored in the given file.
+	 *
+	 * @param file The file containing the snapshot.
+	 * @return The {@link TreeDirectorySnapshot} stored in {@code file}.
+	 * @throws IOException If an I/O error occurs, or the given file does not
+	 *                     contain a valid snapshot.
+	 */
+	public static TreeDirectorySnapshot read( Path file ) throws IOException {
+
+		try ( FileChannel channel = FileChannel.open(file, READ) ) {
+
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if ( buffer.getInt() != MAGIC ) {
+				throw new IOException(MessageFormat.format("Not a directory snapshot [{0}].", file));
+			} else if ( buffer.getInt() != VERSION ) {
+				throw new IOException(MessageFormat.format("Unsupported directory snapshot version [{0}].", file));
+			}
+
+			int count = buffer.getInt();
+			List<Entry> entries = new ArrayList<>(Math.max(0, count));
+
+			for ( int i = 0; i < count; i++ ) {
+
+				int parentIndex = buffer.getInt();
+				byte flags = buffer.get();
+				long seconds = buffer.getLong();
+				int nanos = buffer.getInt();
+				long size = buffer.getLong();
+				byte[] name = new byte[Short.toUnsignedInt(buffer.getShort())];
+
+				buffer.get(name);
+
+				String decodedName = new String(name, StandardCharsets.UTF_8);
+				FileTime lastModified = ( flags & DIRECTORY ) == 0 ? FileTime.from(Instant.ofEpochSecond(seconds, nanos)) : null;
+
+				if ( i == 0 && parentIndex == -1 ) {
+					entries.add(new Entry(i, null, Paths.get(decodedName), decodedName, flags, lastModified, size));
+				} else if ( i > 0 && parentIndex >= 0 && parentIndex < i && entries.get(parentIndex).isDirectory() ) {
+
+					Entry parent = entries.get(parentIndex);
+
+					entries.add(new Entry(i, parent, parent.getPath().resolve(decodedName), decodedName, flags, lastModified, size));
+
+				} else {
+					throw new IOException(MessageFormat.format("Corrupted directory snapshot [{0}].", file));
+				}
+
+			}
+
+			if ( entries.isEmpty() ) {
+				throw new IOException(MessageFormat.format("Empty directory snapshot [{0}].", file));
+			}
+
+			return new TreeDirectorySnapshot(entries);
+
+		} catch ( BufferUnderflowException | IllegalArgumentException ex ) {
+			throw new IOException(MessageFormat.format("Corrupted directory snapshot [{0}].", file), ex);
+		}
+
+	}
+
+	/**
+	 * Captures the content of the given directory item. Must be called on the
+	 * thread owning the model.
+	 *
+	 * @param <T>  Type of the object returned by {@link TreeItem#getValue()}.
+	 * @param root The directory item whose content must be captured.
+	 * @return The snapshot of {@code root}.
+	 */
+	static <T> TreeDirectorySnapshot capture( TreeDirectoryItems.DirectoryItem<T> root ) {
+
+		List<Entry> entries = new ArrayList<>();
+
+		capture(root, null, root.getPath().toString(), entries);
+
+		return new TreeDirectorySnapshot(entries);
+
+	}
+
+	private static <T> void capture( TreeDirectoryItems.PathItem<T> item, Entry parent, String name, List<Entry> entries ) {
+
+		Path path = item.getPath();
+
+		if ( item.isDirectory() ) {
+
+			boolean expanded = item.isExpanded();
+			Entry entry = new Entry(entries.size(), parent, path, name, expanded ? DIRECTORY | EXPANDED : DIRECTORY, null, -1L);
+
+			entries.add(entry);
+
+			if ( expanded ) {
+				item.getChildren().forEach(child -> {
+
+					TreeDirectoryItems.PathItem<T> pathChild = (TreeDirectoryItems.PathItem<T>) child;
+
+					capture(pathChild, entry, pathChild.getPath().getFileName().toString(), entries);
+
+				});
+			}
+
+		} else {
+			entries.add(new Entry(entries.size(), parent, path, name, (byte) 0, item.asFileItem().getLastModified(), -1L));
+		}
+
+	}
+
+	private final List<Entry> entries;
+
+	private TreeDirectorySnapshot( List<Entry> entries ) {
+		this.entries = entries;
+	}
+
+	/**
+	 * @return The top-level directory this snapshot refers to.
+	 */
+	public Path getRoot() {
+		return entries.get(0).getPath();
+	}
+
+	/**
+	 * @return The number of files and directories recorded in this snapshot,
+	 *         the top-level one included.
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	@Override
+	public String toString() {
+		return MessageFormat.format("TreeDirectorySnapshot[{0}, entries: {1}]", getRoot(), size());
+	}
+
+	/**
+	 * Writes this snapshot into the given file, replacing it atomically when
+	 * supported by the file system. The size of files not recorded yet is read
+	 * from the file system.
+	 *
+	 * @param file The file where the snapshot must be stored.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public void write( Path file ) throws IOException {
+
+		int count = entries.size();
+		long[] sizes = new long[count];
+		byte[][] names = new byte[count][];
+		int capacity = HEADER_SIZE;
+
+		IntStream.range(0, count).parallel().forEach(i -> {
+
+			Entry entry = entries.get(i);
+
+			if ( entry.isDirectory() || entry.getSize() >= 0 ) {
+				sizes[i] = entry.getSize();
+			} else {
+				try {
+					sizes[i] = Files.size(entry.getPath());
+				} catch ( IOException ex ) {
+					sizes[i] = -1L;
+				}
+			}
+
+		});
+
+		for ( int i = 0; i < count; i++ ) {
+
+			names[i] = entries.get(i).getName().getBytes(StandardCharsets.UTF_8);
+
+			if ( names[i].length > 0xFFFF ) {
+				throw new IOException(MessageFormat.format("Name too long [{0}].", entries.get(i).getPath()));
+			}
+
+			capacity += ENTRY_HEADER_SIZE + names[i].length;
+
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(capacity);
+
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(count);
+
+		for ( int i = 0; i < count; i++ ) {
+
+			Entry entry = entries.get(i);
+			Instant lastModified = entry.getLastModified() != null ? entry.getLastModified().toInstant() : Instant.EPOCH;
+
+			buffer.putInt(entry.getParent() != null ? entry.getParent().index : -1)
+				.put(entry.flags)
+				.putLong(lastModified.getEpochSecond())
+				.putInt(lastModified.getNano())
+				.putLong(sizes[i])
+				.putShort((short) names[i].length)
+				.put(names[i]);
+
+		}
+
+		buffer.flip();
+
+		Path target = file.toAbsolutePath();
+		Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+
+		try {
+
+			try ( FileChannel channel = FileChannel.open(temp, WRITE, TRUNCATE_EXISTING) ) {
+				while ( buffer.hasRemaining() ) {
+					channel.write(buffer);
+				}
+			}
+
+			try {
+				Files.move(temp, target, ATOMIC_MOVE, REPLACE_EXISTING);
+			} catch ( AtomicMoveNotSupportedException ex ) {
+				Files.move(temp, target, REPLACE_EXISTING);
+			}
+
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+
+	}
+
+	/**
+	 * @return The recorded directories whose content was recorded too.
+	 */
+	List<Entry> getExpandedDirectories() {
+		return entries.stream().filter(Entry::isExpanded).collect(Collectors.toList());
+	}
+
+	/**
+	 * @return The entry of the top-level directory.
+	 */
+	Entry getRootEntry() {
+		return entries.get(0);
+	}
+
+	/**
+	 * A file or directory recorded in a {@link TreeDirectorySnapshot}.
+	 */
+	@SuppressWarnings( "PackageVisibleInnerClass" )
+	static final class Entry {
+
+		private final List<Entry> children = new ArrayList<>(0);
+		private final byte flags;
+		private final int index;
+		private final FileTime lastModified;
+		private final String name;
+		private final Entry parent;
+		private final Path path;
+		private final long size;
+
+		Entry( int index, Entry parent, Path path, String name, byte flags, FileTime lastModified, long size ) {
+
+			this.index = index;
+			this.parent = parent;
+			this.path = path;
+			this.name = name;
+			this.flags = flags;
+			this.lastModified = lastModified;
+			this.size = size;
+
+			if ( parent != null ) {
+				parent.children.add(this);
+			}
+
+		}
+
+		List<Entry> getChildren() {
+			return Collections.unmodifiableList(children);
+		}
+
+		/**
+		 * @return The last modification time of a file, {@code null} for
+		 *         directories.
+		 */
+		FileTime getLastModified() {
+			return lastModified;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		Entry getParent() {
+			return parent;
+		}
+
+		Path getPath() {
+			return path;
+		}
+
+		/**
+		 * @return The size of a file, or {@code -1} if not known.
+		 */
+		long getSize() {
+			return size;
+		}
+
+		boolean isDirectory() {
+			return ( flags & DIRECTORY ) != 0;
+		}
+
+		boolean isExpanded() {
+			return ( flags & EXPANDED ) != 0;
+		}
+
+	}
+
+}
@@ -16,7 +16,10 @@
 package se.europeanspallationsource.xaos.ui.control.tree.directory;
 
 
+import io.reactivex.Flowable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.FileAlreadyExistsException;
@@ -30,10 +33,14 @@ import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javafx.collections.ListChangeListener;
+import javafx.scene.control.TreeItem;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import se.europeanspallationsource.xaos.core.util.io.BatchResult;
 import se.europeanspallationsource.xaos.core.util.io.DeleteFileVisitor;
 import se.europeanspallationsource.xaos.core.util.io.DirectoryWatcher;
 import se.europeanspallationsource.xaos.ui.control.tree.TreeItems;
@@ -46,6 +53,7 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static se.europeanspallationsource.xaos.core.util.io.DirectoryWatcher.build;
 
 
@@ -89,6 +97,187 @@ public class TreeDirectoryAsynchronousIOTest {
 		executor.shutdown();
 	}
 
+	/**
+	 * Test of batch method, of class TreeDirectoryAsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 */
+	@Test
+	public void testBatch() throws IOException, InterruptedException, ExecutionException {
+
+		System.out.println(MessageFormat.format("  Testing ''batch'' [on {0}]...", root));
+
+		try ( DirectoryWatcher watcher = build(executor) ) {
+
+			TreeDirectoryModel<TreeDirectoryAsynchronousIOTest, String> model = new TreeDirectoryModel<>(
+				this,
+				s -> Paths.get(s),
+				p -> p != null ? p.toString() : null
+			);
+			TreeDirectoryAsynchronousIO<TreeDirectoryAsynchronousIOTest, String> treeDAIO = new TreeDirectoryAsynchronousIO<>(
+				watcher,
+				model,
+				executor
+			);
+
+			model.addTopLevelDirectory(root);
+			model.sync(root);
+			TreeItems.expandAll(model.getRoot(), true);
+
+			Path dir = dir_b.resolve("batch_dir");
+			Path file = dir.resolve("batch_file.test");
+			Path toFail = dir_b.resolve("non-existent").resolve("batch_file.test");
+			CompletionStage<BatchResult> stage = treeDAIO.batch(this)
+				.createDirectory(dir)
+				.createFile(file)
+				.writeUTF8File(file, "batch content")
+				.createFile(toFail)
+				.delete(file_a)
+				.submit();
+			BatchResult result = stage.toCompletableFuture().get();
+
+			assertTrue(stage.toCompletableFuture().isDone());
+			assertEquals(5, result.getOutcomes().size());
+			assertEquals(1, result.getFailures().size());
+			assertTrue(result.getFailures().get(0).getError() instanceof NoSuchFileException);
+			assertEquals("batch content", new String(Files.readAllBytes(file), "UTF-8"));
+			assertTrue(model.contains(dir));
+			assertTrue(model.contains(file));
+			assertFalse(model.contains(toFail));
+			assertFalse(Files.exists(file_a));
+			assertFalse(model.contains(file_a));
+
+			//	Creations in the same directory update its children once.
+			TreeItem<String> dirItem = TreeItems.findValue(model.getRoot(), v -> dir.toString().equals(v)).get();
+			AtomicInteger changes = new AtomicInteger();
+
+			dirItem.getChildren().addListener((ListChangeListener<TreeItem<String>>) change -> changes.incrementAndGet());
+
+			result = treeDAIO.batch(this)
+				.createFile(dir.resolve("batch_c.test"))
+				.createDirectory(dir.resolve("batch_b"))
+				.createFile(dir.resolve("batch_a.test"))
+				.submit()
+				.toCompletableFuture()
+				.get();
+
+			assertTrue(result.getFailures().isEmpty());
+			assertEquals(1, changes.get());
+			assertTrue(model.contains(dir.resolve("batch_a.test")));
+			assertTrue(model.contains(dir.resolve("batch_b")));
+			assertTrue(model.contains(dir.resolve("batch_c.test")));
+
+		}
+
+	}
+
+	/**
+	 * Test of copyFile method, of class TreeDirectoryAsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 */
+	@Test
+	@SuppressWarnings( { "UseSpecificCatch", "BroadCatchBlock", "TooBroadCatch" } )
+	public void testCopyFile() throws IOException, InterruptedException, ExecutionException {
+
+		System.out.println(MessageFormat.format("  Testing ''copyFile'' [on {0}]...", root));
+
+		try ( DirectoryWatcher watcher = build(executor) ) {
+
+			TreeDirectoryModel<TreeDirectoryAsynchronousIOTest, String> model = new TreeDirectoryModel<>(
+				this,
+				s -> Paths.get(s),
+				p -> p != null ? p.toString() : null
+			);
+			TreeDirectoryAsynchronousIO<TreeDirectoryAsynchronousIOTest, String> treeDAIO = new TreeDirectoryAsynchronousIO<>(
+				watcher,
+				model,
+				executor
+			);
+
+			model.addTopLevelDirectory(root);
+			model.sync(root);
+			TreeItems.expandAll(model.getRoot(), true);
+
+			Files.write(file_b1, new byte[] { 0x01, 0x02, 0x03 });
+
+			Path target = dir_a.resolve("copied_file.test");
+			CompletionStage<Void> stage = treeDAIO.copyFile(file_b1, target, this);
+
+			stage.toCompletableFuture().get();
+
+			assertTrue(stage.toCompletableFuture().isDone());
+			assertArrayEquals(Files.readAllBytes(file_b1), Files.readAllBytes(target));
+			assertTrue(model.contains(target));
+
+			stage = treeDAIO.copyFile(file_b2, target, this);
+
+			try {
+				stage.toCompletableFuture().get();
+				fail("Copy did not fail.");
+			} catch ( ExecutionException ex ) {
+				assertTrue(ex.getCause() instanceof FileAlreadyExistsException);
+			}
+
+		}
+
+	}
+
+	/**
+	 * Test of copyTree method, of class TreeDirectoryAsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 */
+	@Test
+	@SuppressWarnings( { "UseSpecificCatch", "BroadCatchBlock", "TooBroadCatch" } )
+	public void testCopyTree() throws IOException, InterruptedException, ExecutionException {
+
+		System.out.println(MessageFormat.format("  Testing ''copyTree'' [on {0}]...", root));
+
+		try ( DirectoryWatcher watcher = build(executor) ) {
+
+			TreeDirectoryModel<TreeDirectoryAsynchronousIOTest, String> model = new TreeDirectoryModel<>(
+				this,
+				s -> Paths.get(s),
+				p -> p != null ? p.toString() : null
+			);
+			TreeDirectoryAsynchronousIO<TreeDirectoryAsynchronousIOTest, String> treeDAIO = new TreeDirectoryAsynchronousIO<>(
+				watcher,
+				model,
+				executor
+			);
+
+			model.addTopLevelDirectory(root);
+			model.sync(root);
+			TreeItems.expandAll(model.getRoot(), true);
+
+			Path target = dir_b.resolve("copied_tree");
+			CompletionStage<Void> stage = treeDAIO.copyTree(dir_a, target, this);
+
+			stage.toCompletableFuture().get();
+
+			assertTrue(stage.toCompletableFuture().isDone());
+			assertTrue(Files.isRegularFile(target.resolve(file_a.getFileName())));
+			assertTrue(Files.isRegularFile(target.resolve(dir_a.relativize(file_a_c))));
+			assertTrue(model.contains(dir_a));
+			assertTrue(model.contains(target));
+
+			TreeItems.expandAll(model.getRoot(), true);
+
+			assertTrue(model.contains(target.resolve(file_a.getFileName())));
+			assertTrue(model.contains(target.resolve(dir_a.relativize(dir_a_c))));
+			assertTrue(model.contains(target.resolve(dir_a.relativize(file_a_c))));
+
+		}
+
+	}
+
 	/**
 	 * Test of createDirectories method, of class TreeDirectoryAsynchronousIO.
 	 *
@@ -373,6 +562,116 @@ public class TreeDirectoryAsynchronousIOTest {
 
 	}
 
+	/**
+	 * Test of mapFile method, of class TreeDirectoryAsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 */
+	@Test
+	@SuppressWarnings( { "UseSpecificCatch", "BroadCatchBlock", "TooBroadCatch" } )
+	public void testMapFile() throws IOException, InterruptedException, ExecutionException {
+
+		System.out.println(MessageFormat.format("  Testing ''mapFile'' [on {0}]...", root));
+
+		try ( DirectoryWatcher watcher = build(executor) ) {
+
+			TreeDirectoryModel<TreeDirectoryAsynchronousIOTest, String> model = new TreeDirectoryModel<>(
+				this,
+				s -> Paths.get(s),
+				p -> p != null ? p.toString() : null
+			);
+			TreeDirectoryAsynchronousIO<TreeDirectoryAsynchronousIOTest, String> treeDAIO = new TreeDirectoryAsynchronousIO<>(
+				watcher,
+				model,
+				executor
+			);
+
+			model.addTopLevelDirectory(root);
+			model.sync(root);
+			TreeItems.expandAll(model.getRoot(), true);
+
+			byte[] content = { 0x00, 0x01, 0x02, 0x03, 0x04, 0x03, 0x02, 0x01, 0x00 };
+
+			Files.write(file_b1, content);
+
+			CompletionStage<MappedByteBuffer> stage = treeDAIO.mapFile(file_b1, this);
+
+			MappedByteBuffer mapped = stage.toCompletableFuture().get();
+			byte[] read = new byte[content.length];
+
+			assertTrue(stage.toCompletableFuture().isDone());
+			assertTrue(mapped.isReadOnly());
+			mapped.get(read);
+			assertArrayEquals(content, read);
+
+			Path toFail = FileSystems.getDefault().getPath(dir_a.toString(), "non-exitent", "created_file.txt");
+
+			stage = treeDAIO.mapFile(toFail, this);
+
+			try {
+				stage.toCompletableFuture().get();
+			} catch ( Exception ex ) {
+				assertTrue(ex.getCause() instanceof NoSuchFileException);
+			}
+			assertTrue(stage.toCompletableFuture().isCompletedExceptionally());
+
+		}
+
+	}
+
+	/**
+	 * Test of moveTree method, of class TreeDirectoryAsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 */
+	@Test
+	@SuppressWarnings( { "UseSpecificCatch", "BroadCatchBlock", "TooBroadCatch" } )
+	public void testMoveTree() throws IOException, InterruptedException, ExecutionException {
+
+		System.out.println(MessageFormat.format("  Testing ''moveTree'' [on {0}]...", root));
+
+		try ( DirectoryWatcher watcher = build(executor) ) {
+
+			TreeDirectoryModel<TreeDirectoryAsynchronousIOTest, String> model = new TreeDirectoryModel<>(
+				this,
+				s -> Paths.get(s),
+				p -> p != null ? p.toString() : null
+			);
+			TreeDirectoryAsynchronousIO<TreeDirectoryAsynchronousIOTest, String> treeDAIO = new TreeDirectoryAsynchronousIO<>(
+				watcher,
+				model,
+				executor
+			);
+
+			model.addTopLevelDirectory(root);
+			model.sync(root);
+			TreeItems.expandAll(model.getRoot(), true);
+
+			Path target = dir_b.resolve("moved_tree");
+			CompletionStage<Void> stage = treeDAIO.moveTree(dir_a, target, this);
+
+			stage.toCompletableFuture().get();
+
+			assertTrue(stage.toCompletableFuture().isDone());
+			assertFalse(Files.exists(dir_a));
+			assertTrue(Files.isRegularFile(target.resolve(dir_a.relativize(file_a_c))));
+			assertFalse(model.contains(dir_a));
+			assertFalse(model.contains(file_a));
+			assertTrue(model.contains(target));
+
+			TreeItems.expandAll(model.getRoot(), true);
+
+			assertTrue(model.contains(target.resolve(file_a.getFileName())));
+			assertTrue(model.contains(target.resolve(dir_a.relativize(file_a_c))));
+
+		}
+
+	}
+
 	/**
 	 * Test of readBinaryFile method, of class TreeDirectoryAsynchronousIO.
 	 *
@@ -429,6 +728,60 @@ public class TreeDirectoryAsynchronousIOTest {
 
 	}
 
+	/**
+	 * Test of readBinaryFileRange method, of class TreeDirectoryAsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 */
+	@Test
+	@SuppressWarnings( { "UseSpecificCatch", "BroadCatchBlock", "TooBroadCatch" } )
+	public void testReadBinaryFileRange() throws IOException, InterruptedException, ExecutionException {
+
+		System.out.println(MessageFormat.format("  Testing ''readBinaryFileRange'' [on {0}]...", root));
+
+		try ( DirectoryWatcher watcher = build(executor) ) {
+
+			TreeDirectoryModel<TreeDirectoryAsynchronousIOTest, String> model = new TreeDirectoryModel<>(
+				this,
+				s -> Paths.get(s),
+				p -> p != null ? p.toString() : null
+			);
+			TreeDirectoryAsynchronousIO<TreeDirectoryAsynchronousIOTest, String> treeDAIO = new TreeDirectoryAsynchronousIO<>(
+				watcher,
+				model,
+				executor
+			);
+
+			model.addTopLevelDirectory(root);
+			model.sync(root);
+			TreeItems.expandAll(model.getRoot(), true);
+
+			byte[] content = { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08 };
+
+			Files.write(file_b1, content);
+
+			CompletionStage<ByteBuffer> stage = treeDAIO.readBinaryFileRange(file_b1, 3, 4, this);
+
+			ByteBuffer read = stage.toCompletableFuture().get();
+
+			assertTrue(stage.toCompletableFuture().isDone());
+			assertEquals(ByteBuffer.wrap(content, 3, 4), read);
+
+			stage = treeDAIO.readBinaryFileRange(file_b1, -1, 4, this);
+
+			try {
+				stage.toCompletableFuture().get();
+			} catch ( Exception ex ) {
+				assertTrue(ex.getCause() instanceof IllegalArgumentException);
+			}
+			assertTrue(stage.toCompletableFuture().isCompletedExceptionally());
+
+		}
+
+	}
+
 	/**
 	 * Test of readTextFile method, of class TreeDirectoryAsynchronousIO.
 	 *
@@ -529,6 +882,56 @@ public class TreeDirectoryAsynchronousIOTest {
 
 	}
 
+	/**
+	 * Test of writeBinaryFileStream and readBinaryFileStream methods, of class
+	 * TreeDirectoryAsynchronousIO.
+	 *
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.util.concurrent.ExecutionException
+	 */
+	@Test
+	public void testWriteBinaryFileStream() throws IOException, InterruptedException, ExecutionException {
+
+		System.out.println(MessageFormat.format("  Testing ''writeBinaryFileStream'' and ''readBinaryFileStream'' [on {0}]...", root));
+
+		try ( DirectoryWatcher watcher = build(executor) ) {
+
+			TreeDirectoryModel<TreeDirectoryAsynchronousIOTest, String> model = new TreeDirectoryModel<>(
+				this,
+				s -> Paths.get(s),
+				p -> p != null ? p.toString() : null
+			);
+			TreeDirectoryAsynchronousIO<TreeDirectoryAsynchronousIOTest, String> treeDAIO = new TreeDirectoryAsynchronousIO<>(
+				watcher,
+				model,
+				executor
+			);
+
+			model.addTopLevelDirectory(root);
+			model.sync(root);
+			TreeItems.expandAll(model.getRoot(), true);
+
+			byte[] content = { 0x00, 0x01, 0x02, 0x03, 0x04, 0x03, 0x02, 0x01, 0x00 };
+			CompletionStage<Void> stage = treeDAIO.writeBinaryFileStream(
+				file_b1,
+				Flowable.just(ByteBuffer.wrap(content, 0, 4), ByteBuffer.wrap(content, 4, 5)),
+				this
+			);
+
+			stage.toCompletableFuture().get();
+			assertTrue(stage.toCompletableFuture().isDone());
+			assertArrayEquals(content, Files.readAllBytes(file_b1));
+
+			ByteBuffer read = ByteBuffer.allocate(content.length);
+
+			treeDAIO.readBinaryFileStream(file_b1, 2, this).blockingForEach(read::put);
+			assertArrayEquals(content, read.array());
+
+		}
+
+	}
+
 	/**
 	 * Test of writeTextFile method, of class TreeDirectoryAsynchronousIO.
 	 *
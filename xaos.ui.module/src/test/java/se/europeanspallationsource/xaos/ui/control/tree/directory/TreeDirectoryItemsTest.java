@@ -19,11 +19,20 @@ package se.europeanspallationsource.xaos.ui.control.tree.directory;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import javafx.collections.ObservableList;
 import javafx.scene.control.TreeItem;
+import javafx.scene.control.TreeItem.TreeModificationEvent;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -79,6 +88,75 @@ public class TreeDirectoryItemsTest {
 		Files.walkFileTree(root, new DeleteFileVisitor());
 	}
 
+	/**
+	 * Test of addChildren method, of class DirectoryItem.
+	 *
+	 * @throws java.io.IOException
+	 */
+	@Test
+	public void testAddChildren() throws IOException {
+
+		System.out.println("  Testing 'addChildren'...");
+
+		TreeDirectoryItems.DirectoryItem<Path> dItem = createDirectoryItem(
+			root,
+			DEFAULT_GRAPHIC_FACTORY,
+			DEFAULT_PROJECTOR,
+			DEFAULT_INJECTOR
+		);
+		List<TreeModificationEvent<Path>> events = new ArrayList<>();
+
+		dItem.addEventHandler(TreeItem.<Path>childrenModificationEvent(), events::add);
+		dItem.addChildFile(Paths.get("b.txt"), FileTime.fromMillis(0), DEFAULT_GRAPHIC_FACTORY);
+		dItem.addChildDirectory(Paths.get("B"), DEFAULT_GRAPHIC_FACTORY);
+
+		assertThat(events).hasSize(2);
+
+		Map<Path, BasicFileAttributes> children = new HashMap<>();
+
+		children.put(dir_a.getFileName(), Files.readAttributes(dir_a, BasicFileAttributes.class));
+		children.put(dir_b.getFileName(), Files.readAttributes(dir_b, BasicFileAttributes.class));
+		children.put(file_a.getFileName(), Files.readAttributes(file_a, BasicFileAttributes.class));
+		children.put(Paths.get("b.txt"), Files.readAttributes(file_a, BasicFileAttributes.class));
+
+		List<TreeDirectoryItems.PathItem<Path>> added = dItem.addChildren(children, DEFAULT_GRAPHIC_FACTORY);
+
+		//	Already existing "b.txt" skipped, a single modification event fired
+		//	for each run of adjacent new children ("dir_a" and "dir_b" before
+		//	"b.txt", "file_a" after it).
+		assertThat(added).extracting(TreeDirectoryItems.PathItem::getPath).containsExactly(
+			dir_a,
+			dir_b,
+			root.resolve(file_a.getFileName())
+		);
+		assertThat(events).hasSize(4);
+		assertThat(dItem.getChildren()).extracting(child -> child.getValue().getFileName().toString()).containsExactly(
+			"B",
+			dir_a.getFileName().toString(),
+			dir_b.getFileName().toString(),
+			"b.txt",
+			file_a.getFileName().toString()
+		);
+		assertThat(dItem.getRelativeChild(file_a.getFileName())).isSameAs(added.get(2));
+
+		//	Binary-search insertion keeps the order.
+		dItem.addChildFile(Paths.get("a.txt"), FileTime.fromMillis(0), DEFAULT_GRAPHIC_FACTORY);
+		dItem.addChildDirectory(Paths.get("ZZZ"), DEFAULT_GRAPHIC_FACTORY);
+		dItem.addChildDirectory(Paths.get("0"), DEFAULT_GRAPHIC_FACTORY);
+
+		assertThat(dItem.getChildren()).extracting(child -> child.getValue().getFileName().toString()).containsExactly(
+			"0",
+			"B",
+			dir_a.getFileName().toString(),
+			dir_b.getFileName().toString(),
+			"ZZZ",
+			"a.txt",
+			"b.txt",
+			file_a.getFileName().toString()
+		);
+
+	}
+
 	/**
 	 * Test of createDirectoryItem method, of class TreeDirectoryItems.
 	 *
@@ -347,4 +425,48 @@ public class TreeDirectoryItemsTest {
 
 	}
 
+	/**
+	 * Test of getRelativeChild method, of class DirectoryItem.
+	 *
+	 * @throws java.io.IOException
+	 */
+	@Test
+	public void testGetRelativeChild() throws IOException {
+
+		System.out.println("  Testing 'getRelativeChild'...");
+
+		TreeDirectoryItems.DirectoryItem<Path> dItem = createDirectoryItem(
+			dir_b,
+			DEFAULT_GRAPHIC_FACTORY,
+			DEFAULT_PROJECTOR,
+			DEFAULT_INJECTOR
+		);
+
+		assertThat(dItem.getRelativeChild(file_b1.getFileName())).isNull();
+
+		TreeDirectoryItems.FileItem<Path> b1 = dItem.addChildFile(file_b1.getFileName(), Files.getLastModifiedTime(file_b1), DEFAULT_GRAPHIC_FACTORY);
+		TreeDirectoryItems.FileItem<Path> b2 = dItem.addChildFile(file_b2.getFileName(), Files.getLastModifiedTime(file_b2), DEFAULT_GRAPHIC_FACTORY);
+
+		assertThat(dItem.getRelativeChild(file_b1.getFileName())).isSameAs(b1);
+		assertThat(dItem.getRelativeChild(file_b2.getFileName())).isSameAs(b2);
+		assertThat(dItem.getRelativeChild(file_a.getFileName())).isNull();
+
+		dItem.getChildren().remove(b1);
+
+		assertThat(dItem.getRelativeChild(file_b1.getFileName())).isNull();
+		assertThat(dItem.getRelativeChild(file_b2.getFileName())).isSameAs(b2);
+
+		TreeDirectoryItems.FileItem<Path> b1Again = createFileItem(file_b1, Files.getLastModifiedTime(file_b1), DEFAULT_GRAPHIC_FACTORY, DEFAULT_PROJECTOR);
+
+		dItem.getChildren().setAll(Arrays.asList(b1Again));
+
+		assertThat(dItem.getRelativeChild(file_b1.getFileName())).isSameAs(b1Again);
+		assertThat(dItem.getRelativeChild(file_b2.getFileName())).isNull();
+
+		dItem.getChildren().clear();
+
+		assertThat(dItem.getRelativeChild(file_b1.getFileName())).isNull();
+
+	}
+
 }
@@ -25,8 +25,13 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.FileTime;
 import java.text.MessageFormat;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import javafx.scene.Group;
 import javafx.scene.control.TreeItem;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.After;
@@ -709,6 +714,306 @@ public class TreeDirectoryModelTest {
 
 	}
 
+	/**
+	 * Test of resync method, of class TreeDirectoryModel.
+	 *
+	 * @throws java.io.IOException
+	 */
+	@Test
+	public void testResync() throws IOException {
+
+		System.out.println("  Testing 'resync'...");
+
+		TreeDirectoryModel<TreeDirectoryModelTest, String> model = new TreeDirectoryModel<>(
+			this,
+			s -> Paths.get(s),
+			p -> p != null ? p.toString() : null
+		);
+		List<Path> creations = new CopyOnWriteArrayList<>();
+		List<Path> deletions = new CopyOnWriteArrayList<>();
+		List<Path> modifications = new CopyOnWriteArrayList<>();
+
+		model.addTopLevelDirectory(root);
+		model.sync(root);
+
+		TreeItems.expandAll(model.getRoot(), true);
+		printTree(model, "After adding top directory, sync and tree expansion:");
+
+		model.creations().subscribe(u -> creations.add(u.getPath()));
+		model.deletions().subscribe(u -> deletions.add(u.getPath()));
+		model.modifications().subscribe(u -> modifications.add(u.getPath()));
+
+		Files.delete(file_b2);
+		Files.setLastModifiedTime(file_b1, from(Files.getLastModifiedTime(file_b1).toInstant().plusSeconds(10)));
+
+		Path file_b3 = Files.createTempFile(dir_b, "TDM_b3_", ".test");
+		Path file_a_new = Files.createTempFile(dir_a, "TDM_a_new_", ".test");
+
+		model.resync(dir_b);
+		printTree(model, "After resync:");
+
+		assertThat(creations).containsExactly(file_b3);
+		assertThat(deletions).containsExactly(file_b2);
+		assertThat(modifications).containsExactly(file_b1);
+		assertThat(model.contains(file_b3)).isTrue();
+		assertThat(model.contains(file_b2)).isFalse();
+		assertThat(model.contains(file_a_new)).isFalse();
+
+		//	Subdirectories content is not synchronized.
+		model.resync(root);
+
+		assertThat(model.contains(file_a_new)).isFalse();
+
+		model.resync(dir_a);
+
+		assertThat(model.contains(file_a_new)).isTrue();
+		assertThat(creations).containsExactly(file_b3, file_a_new);
+
+		model.dispose();
+
+	}
+
+	/**
+	 * Test of setBackgroundSynchronization method, of class TreeDirectoryModel.
+	 *
+	 * @throws java.io.IOException
+	 */
+	@Test
+	public void testSetBackgroundSynchronization() throws IOException {
+
+		System.out.println("  Testing 'setBackgroundSynchronization'...");
+
+		TreeDirectoryModel<TreeDirectoryModelTest, String> model = new TreeDirectoryModel<>(
+			this,
+			s -> Paths.get(s),
+			p -> p != null ? p.toString() : null
+		);
+		Queue<Runnable> scanTasks = new ArrayDeque<>();
+		Queue<Runnable> clientTasks = new ArrayDeque<>();
+		List<Path> creations = new CopyOnWriteArrayList<>();
+
+		try {
+			model.setBackgroundSynchronization(scanTasks::add, clientTasks::add, 0);
+			fail("IllegalArgumentException not thrown.");
+		} catch ( IllegalArgumentException ex ) {
+			//	Expected.
+		}
+
+		try {
+			model.setBackgroundSynchronization(scanTasks::add, null, 1);
+			fail("IllegalArgumentException not thrown.");
+		} catch ( IllegalArgumentException ex ) {
+			//	Expected.
+		}
+
+		model.setBackgroundSynchronization(scanTasks::add, clientTasks::add, 1);
+		model.creations().subscribe(u -> creations.add(u.getPath()));
+		model.addTopLevelDirectory(root);
+		model.sync(root);
+		model.getRoot().getChildren().get(0).setExpanded(true);
+
+		//	Nothing is added until the directory is scanned...
+		assertThat(scanTasks).hasSize(1);
+		assertThat(model.getRoot().getChildren().get(0).getChildren()).isEmpty();
+
+		runAll(scanTasks);
+
+		assertThat(clientTasks).hasSize(1);
+		assertThat(model.getRoot().getChildren().get(0).getChildren()).isEmpty();
+
+		//	...and then children are added one chunk at a time.
+		clientTasks.poll().run();
+
+		assertThat(creations).containsExactly(dir_a);
+
+		clientTasks.poll().run();
+
+		assertThat(creations).containsExactly(dir_a, dir_b);
+		assertThat(clientTasks).isEmpty();
+		printTree(model, "After adding top directory, sync and expansion:");
+
+		//	Collapsing an item cancels its synchronization...
+		TreeItem<String> dirBItem = model.getRoot().getChildren().get(0).getChildren().get(1);
+
+		dirBItem.setExpanded(true);
+
+		assertThat(scanTasks).hasSize(1);
+
+		dirBItem.setExpanded(false);
+		runAll(scanTasks);
+		runAll(clientTasks);
+
+		assertThat(dirBItem.getChildren()).isEmpty();
+		assertThat(creations).containsExactly(dir_a, dir_b);
+
+		//	...performed again on the next expansion. An entry deleted after
+		//	the scan is not added by the pending chunks.
+		dirBItem.setExpanded(true);
+		runAll(scanTasks);
+		Files.delete(file_b2);
+		model.delete(file_b2);
+		runAll(clientTasks);
+		printTree(model, "After collapsing and expanding again 'dir_b', and deleting 'file_b2':");
+
+		assertThat(creations).containsExactly(dir_a, dir_b, file_b1);
+		assertThat(model.contains(file_b1)).isTrue();
+		assertThat(model.contains(file_b2)).isFalse();
+		assertThat(model.contains(file_a)).isFalse();
+
+		//	Back to synchronous mode.
+		model.setBackgroundSynchronization(null, null, 1);
+		TreeItems.expandAll(model.getRoot(), true);
+
+		assertThat(scanTasks).isEmpty();
+		assertThat(model.contains(file_a)).isTrue();
+		assertThat(model.contains(file_a_c)).isTrue();
+
+		model.dispose();
+
+	}
+
+	/**
+	 * Test of setLazyGraphics method, of class TreeDirectoryModel.
+	 *
+	 * @throws java.io.IOException
+	 */
+	@Test
+	public void testSetLazyGraphics() throws IOException {
+
+		System.out.println("  Testing 'setLazyGraphics'...");
+
+		TreeDirectoryModel<TreeDirectoryModelTest, String> model = new TreeDirectoryModel<>(
+			this,
+			s -> Paths.get(s),
+			p -> p != null ? p.toString() : null
+		);
+		List<Boolean> requests = new CopyOnWriteArrayList<>();
+
+		assertThat(model.isLazyGraphics()).isFalse();
+
+		model.setGraphicFactory(( p, d, e ) -> {
+
+			requests.add(d);
+
+			return new Group();
+
+		});
+		model.setLazyGraphics(true);
+
+		assertThat(model.isLazyGraphics()).isTrue();
+
+		model.addTopLevelDirectory(root);
+		model.sync(root);
+
+		TreeItems.expandAll(model.getRoot(), true);
+		printTree(model, "After adding top directory, sync and tree expansion:");
+
+		//	No graphic created while synchronizing.
+		assertThat(model.contains(file_a_c)).isTrue();
+		assertThat(model.contains(file_b2)).isTrue();
+		assertThat(requests).isEmpty();
+		TreeItemWalker.visit(model.getRoot(), item -> assertThat(item.getGraphic()).isNull());
+
+		//	Top-level directories added before are not affected.
+		model.setLazyGraphics(false);
+
+		assertThat(model.isLazyGraphics()).isFalse();
+
+		Path file_a_new = Files.createTempFile(dir_a, "TDM_a_new_", ".test");
+
+		model.resync(dir_a);
+
+		assertThat(model.contains(file_a_new)).isTrue();
+		assertThat(requests).isEmpty();
+
+		model.addTopLevelDirectory(dir_b);
+		model.sync(dir_b);
+
+		model.getRoot().getChildren().get(1).setExpanded(true);
+
+		assertThat(model.getRoot().getChildren().get(1).getGraphic()).isNotNull();
+		assertThat(model.getRoot().getChildren().get(1).getChildren()).hasSize(2).allMatch(item -> item.getGraphic() != null);
+		assertThat(requests).contains(true, false);
+
+		model.dispose();
+
+	}
+
+	/**
+	 * Test of snapshot and restore methods, of class TreeDirectoryModel.
+	 *
+	 * @throws java.io.IOException
+	 */
+	@Test
+	public void testSnapshot() throws IOException {
+
+		System.out.println("  Testing 'snapshot' and 'restore'...");
+
+		TreeDirectoryModel<TreeDirectoryModelTest, String> model = new TreeDirectoryModel<>(
+			this,
+			s -> Paths.get(s),
+			p -> p != null ? p.toString() : null
+		);
+
+		model.addTopLevelDirectory(root);
+		model.sync(root);
+
+		TreeItems.expandAll(model.getRoot(), true);
+		printTree(model, "After adding top directory, sync and tree expansion:");
+
+		Path snapshotFile = Files.createTempFile("TDM_", ".snapshot");
+
+		try {
+
+			model.snapshot(root).write(snapshotFile);
+			model.dispose();
+
+			Files.delete(file_b2);
+			Files.write(file_b1, "Some text to be written.\n".getBytes());
+
+			Path file_a_new = Files.createTempFile(dir_a, "TDM_a_new_", ".test");
+			TreeDirectorySnapshot snapshot = TreeDirectorySnapshot.read(snapshotFile);
+
+			assertThat(snapshot.getRoot()).isEqualTo(root);
+			assertThat(snapshot.size()).isEqualTo(8);
+
+			TreeDirectoryModel<TreeDirectoryModelTest, String> restored = new TreeDirectoryModel<>(
+				this,
+				s -> Paths.get(s),
+				p -> p != null ? p.toString() : null
+			);
+			List<Path> creations = new CopyOnWriteArrayList<>();
+			List<Path> deletions = new CopyOnWriteArrayList<>();
+			List<Path> modifications = new CopyOnWriteArrayList<>();
+			List<Throwable> errors = new CopyOnWriteArrayList<>();
+
+			restored.creations().subscribe(u -> creations.add(u.getPath()));
+			restored.deletions().subscribe(u -> deletions.add(u.getPath()));
+			restored.modifications().subscribe(u -> modifications.add(u.getPath()));
+			restored.errors().subscribe(errors::add);
+			restored.addTopLevelDirectory(root);
+			restored.restore(snapshot);
+			printTree(restored, "After restore:");
+
+			assertThat(errors).isEmpty();
+			assertThat(creations).containsExactly(file_a_new);
+			assertThat(deletions).containsExactly(file_b2);
+			assertThat(modifications).containsExactly(file_b1);
+			assertThat(restored.contains(file_a_c)).isTrue();
+			assertThat(restored.contains(file_a_new)).isTrue();
+			assertThat(restored.contains(file_b1)).isTrue();
+			assertThat(restored.contains(file_b2)).isFalse();
+			assertThat(restored.getRoot().getChildren().get(0).isExpanded()).isTrue();
+			assertThat(restored.getRoot().getChildren().get(0).getChildren().get(0).isExpanded()).isTrue();
+
+			restored.dispose();
+
+		} finally {
+			Files.deleteIfExists(snapshotFile);
+		}
+
+	}
+
 	/**
 	 * Test of sync method, of class TreeDirectoryModel.
 	 * 
@@ -887,4 +1192,10 @@ public class TreeDirectoryModelTest {
 		});
 	}
 
+	private void runAll( Queue<Runnable> tasks ) {
+		while ( !tasks.isEmpty() ) {
+			tasks.poll().run();
+		}
+	}
+
 }